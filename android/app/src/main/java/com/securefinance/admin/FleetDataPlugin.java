@@ -0,0 +1,428 @@
+package com.securefinance.admin;
+
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * FleetDataPlugin - Native Customer and Device Lists for the Dashboard
+ *
+ * Keeps the fleet lists on the native side so the WebView never downloads or
+ * parses the whole fleet on a refresh:
+ * - sync() pulls only what changed since the last cursor, in keyset pages
+ *   (?since=&limit=, backend utils/syncPage.js), with If-None-Match so an
+ *   unchanged fleet costs one bodiless 304
+ * - Deletions show up as a count mismatch on the last page and trigger one
+ *   full pass that drops what the server no longer has
+ * - query() answers one filtered / searched / sorted page from the indexed
+ *   FleetStore; devices get their customer's name and lock flag joined in
+ * - changes() returns only the documents changed since a version the page
+ *   already has, so a refresh crosses the bridge as a diff
+ * - stats() is /api/devices/stats behind an ETag
+ *
+ * Everything runs on one worker thread, so the stores need no locking and the
+ * Capacitor plugin thread is never blocked on the network.
+ */
+@CapacitorPlugin(name = "FleetData")
+public class FleetDataPlugin extends Plugin {
+    private static final String TAG = "FleetDataPlugin";
+
+    static final int PAGE_LIMIT = 500;
+    static final int CONNECT_TIMEOUT_MS = 15_000;
+    static final int READ_TIMEOUT_MS = 30_000;
+    static final int MAX_QUERY_LIMIT = 200;
+    static final int MAX_ETAGS = 16;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "fleet-data"));
+    private final Map<String, FleetStore> stores = new HashMap<>();
+    // Request URL -> ETag of its last 200; sync URLs move with the cursor, so only recent ones matter
+    private final Map<String, String> etags = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ETAGS;
+        }
+    };
+
+    // Worker thread only
+    private String baseUrl;
+    private String token;
+    private boolean loaded;
+    private JSONObject stats;
+
+    @Override
+    public void load() {
+        stores.put(FleetStore.CUSTOMERS.name, new FleetStore(FleetStore.CUSTOMERS));
+        stores.put(FleetStore.DEVICES.name, new FleetStore(FleetStore.DEVICES));
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        worker.shutdown();
+    }
+
+    // ==================== Plugin methods ====================
+
+    /** { baseUrl, token, owner } - a different owner (logged-in admin) clears the cached lists. */
+    @PluginMethod
+    public void configure(PluginCall call) {
+        String url = call.getString("baseUrl");
+        if (url == null || url.isEmpty()) {
+            call.reject("baseUrl required");
+            return;
+        }
+        String newToken = call.getString("token");
+        String owner = call.getString("owner", "");
+        worker.execute(() -> {
+            baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            token = newToken;
+            ensureLoaded();
+            File ownerFile = new File(cacheDir(), "owner");
+            if (!owner.equals(readOwner(ownerFile))) {
+                for (FleetStore store : stores.values()) {
+                    store.clear();
+                    new File(cacheDir(), store.schema.name + ".jsonl").delete();
+                }
+                etags.clear();
+                stats = null;
+                writeOwner(ownerFile, owner);
+            }
+            call.resolve();
+        });
+    }
+
+    /** { collection } -> { changed, removed, total, version } */
+    @PluginMethod
+    public void sync(PluginCall call) {
+        FleetStore store = store(call);
+        if (store == null) {
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                requireConfigured();
+                ensureLoaded();
+                long before = store.version();
+                int removed = pull(store);
+                if (store.version() != before) {
+                    save(store);
+                    notifyListeners("fleetChanged", new JSObject()
+                            .put("collection", store.schema.name)
+                            .put("version", store.version()));
+                }
+                JSObject result = new JSObject();
+                result.put("changed", store.version() - before - removed);
+                result.put("removed", removed);
+                result.put("total", store.size());
+                result.put("version", store.version());
+                call.resolve(result);
+            } catch (HttpException e) {
+                call.reject(e.getMessage(), e.code == HttpURLConnection.HTTP_UNAUTHORIZED ? "UNAUTHORIZED" : "HTTP", e);
+            } catch (IOException | JSONException | RuntimeException e) {
+                Log.w(TAG, "Sync failed: " + store.schema.name, e);
+                call.reject("Sync failed: " + e.getMessage(), "SYNC_FAILED", e);
+            }
+        });
+    }
+
+    /**
+     * { collection, search?, filters?: { field: value }, sort?, descending?, offset?, limit? }
+     * -> { items, total, version }
+     */
+    @PluginMethod
+    public void query(PluginCall call) {
+        FleetStore store = store(call);
+        if (store == null) {
+            return;
+        }
+        String search = call.getString("search");
+        JSObject filterObject = call.getObject("filters", new JSObject());
+        String sort = call.getString("sort");
+        boolean descending = call.getBoolean("descending", false);
+        int offset = Math.max(call.getInt("offset", 0), 0);
+        int limit = Math.min(Math.max(call.getInt("limit", 50), 1), MAX_QUERY_LIMIT);
+        worker.execute(() -> {
+            try {
+                ensureLoaded();
+                Map<String, String> filters = new HashMap<>();
+                Iterator<String> keys = filterObject.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    Object value = filterObject.get(key);
+                    filters.put(key, value == JSONObject.NULL ? "" : String.valueOf(value));
+                }
+                FleetStore.Page page = store.query(search, filters, sort, descending, offset, limit);
+                JSObject result = new JSObject();
+                result.put("items", documents(store, page.items));
+                result.put("total", page.total);
+                result.put("version", store.version());
+                call.resolve(result);
+            } catch (JSONException | IllegalArgumentException e) {
+                call.reject(e.getMessage(), "BAD_QUERY", e);
+            }
+        });
+    }
+
+    /** { collection, sinceVersion } -> { changed, removed, reset, version } */
+    @PluginMethod
+    public void changes(PluginCall call) {
+        FleetStore store = store(call);
+        if (store == null) {
+            return;
+        }
+        long since = call.getLong("sinceVersion", 0L);
+        worker.execute(() -> {
+            try {
+                ensureLoaded();
+                FleetStore.Changes changes = store.changes(since);
+                JSObject result = new JSObject();
+                result.put("changed", documents(store, changes.changed));
+                result.put("removed", new JSArray(changes.removed));
+                result.put("reset", changes.reset);
+                result.put("version", changes.version);
+                call.resolve(result);
+            } catch (JSONException e) {
+                call.reject(e.getMessage(), "BAD_DATA", e);
+            }
+        });
+    }
+
+    /** -> { stats, notModified } - the last stats if the server says nothing changed. */
+    @PluginMethod
+    public void stats(PluginCall call) {
+        worker.execute(() -> {
+            try {
+                requireConfigured();
+                String body = get("/api/devices/stats");
+                boolean notModified = body == null;
+                if (!notModified) {
+                    stats = new JSONObject(body);
+                }
+                JSObject result = new JSObject();
+                result.put("stats", stats != null ? JSObject.fromJSONObject(stats) : null);
+                result.put("notModified", notModified);
+                call.resolve(result);
+            } catch (HttpException e) {
+                call.reject(e.getMessage(), e.code == HttpURLConnection.HTTP_UNAUTHORIZED ? "UNAUTHORIZED" : "HTTP", e);
+            } catch (IOException | JSONException | RuntimeException e) {
+                call.reject("Stats failed: " + e.getMessage(), "SYNC_FAILED", e);
+            }
+        });
+    }
+
+    // ==================== Sync ====================
+
+    /**
+     * Page from the store's cursor to the end; if the server's count then
+     * disagrees with ours, something was deleted - one full pass settles it.
+     * @return documents removed
+     */
+    private int pull(FleetStore store) throws IOException, JSONException {
+        boolean full = store.cursor().isEmpty();
+        Set<String> seen = full ? new HashSet<>() : null;
+        int total;
+        while (true) {
+            String path = "/api/" + store.schema.name + "?limit=" + PAGE_LIMIT
+                    + "&since=" + URLEncoder.encode(store.cursor(), "UTF-8");
+            String body = get(path);
+            if (body == null) {
+                total = store.size(); // 304 - the page we already applied
+                break;
+            }
+            JSONObject page = new JSONObject(body);
+            JSONArray items = page.getJSONArray("items");
+            store.apply(items);
+            if (seen != null) {
+                for (int i = 0; i < items.length(); i++) {
+                    seen.add(items.getJSONObject(i).optString(store.schema.idField));
+                }
+            }
+            store.setCursor(page.optString("cursor", store.cursor()));
+            if (!page.optBoolean("hasMore", false)) {
+                total = page.optInt("total", store.size());
+                break;
+            }
+        }
+        if (seen != null) {
+            return store.retainOnly(seen);
+        }
+        if (total != store.size()) {
+            store.setCursor("");
+            return pull(store);
+        }
+        return 0;
+    }
+
+    /** GET with If-None-Match. @return body, or null on 304 */
+    private String get(String path) throws IOException {
+        String url = baseUrl + path;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Accept", "application/json");
+            if (token != null) {
+                connection.setRequestProperty("Authorization", "Bearer " + token);
+            }
+            String etag = etags.get(url);
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpException(code);
+            }
+            String body = read(connection.getInputStream());
+            String newEtag = connection.getHeaderField("ETag");
+            if (newEtag != null) {
+                etags.put(url, newEtag);
+            } else {
+                etags.remove(url);
+            }
+            return body;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class HttpException extends IOException {
+        final int code;
+
+        HttpException(int code) {
+            super(code == HttpURLConnection.HTTP_UNAUTHORIZED ? "Authentication required" : "HTTP " + code);
+            this.code = code;
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    /** Raw documents to a bridge array; devices get { customer } from the customer store. */
+    private JSArray documents(FleetStore store, List<String> json) throws JSONException {
+        FleetStore customers = store.schema == FleetStore.DEVICES ? stores.get(FleetStore.CUSTOMERS.name) : null;
+        JSArray array = new JSArray();
+        for (String doc : json) {
+            JSObject object = new JSObject(doc);
+            if (customers != null && customers.size() > 0) {
+                String customer = customers.get(object.optString("assignedCustomerId", ""));
+                if (customer != null) {
+                    JSONObject full = new JSONObject(customer);
+                    object.put("customer", new JSObject()
+                            .put("name", full.opt("name"))
+                            .put("phoneNo", full.opt("phoneNo"))
+                            .put("photoUrl", full.opt("photoUrl"))
+                            .put("isLocked", full.optBoolean("isLocked")));
+                }
+            }
+            array.put(object);
+        }
+        return array;
+    }
+
+    private FleetStore store(PluginCall call) {
+        FleetStore store = stores.get(call.getString("collection", ""));
+        if (store == null) {
+            call.reject("collection must be customers or devices");
+        }
+        return store;
+    }
+
+    private void requireConfigured() {
+        if (baseUrl == null) {
+            throw new IllegalStateException("configure() first");
+        }
+    }
+
+    /** Saved lists from the last run; a missing or corrupt file just means a full first sync. */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        for (FleetStore store : stores.values()) {
+            File file = new File(cacheDir(), store.schema.name + ".jsonl");
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                store.load(file);
+            } catch (IOException | JSONException e) {
+                Log.w(TAG, "Discarding saved " + store.schema.name, e);
+                store.clear();
+                file.delete();
+            }
+        }
+    }
+
+    private void save(FleetStore store) {
+        try {
+            store.save(new File(cacheDir(), store.schema.name + ".jsonl"));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Saving " + store.schema.name + " failed - next start syncs in full", e);
+        }
+    }
+
+    private File cacheDir() {
+        File dir = new File(getContext().getFilesDir(), "fleet");
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    private static String readOwner(File file) {
+        try {
+            return file.isFile() ? read(new FileInputStream(file)) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeOwner(File file, String owner) {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(owner.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Owner not saved", e);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.securefinance.admin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FleetStore - Indexed Local Copy of One Fleet List
+ *
+ * Holds the customers or devices list for FleetDataPlugin so the WebView only
+ * ever receives the page or the changes it asked for:
+ * - Each document is kept as its raw JSON text plus the few fields the
+ *   dashboard searches, filters and sorts by - no parsed object trees
+ * - Equality filters go through a value index; sorted orders are built once
+ *   and reused until the next change
+ * - Every applied change gets a store version, so changes() returns only what
+ *   a caller has not seen yet; removals are remembered as tombstones (a
+ *   caller older than the oldest one gets the full list with reset=true)
+ * - The sync cursor (backend utils/syncPage.js) and the documents persist as
+ *   JSON lines, so a cold start shows the last list before the first request
+ *
+ * Not thread-safe: FleetDataPlugin uses it from its one worker thread.
+ */
+final class FleetStore {
+
+    static final int MAX_TOMBSTONES = 1000;
+
+    /** Which fields a collection is keyed, searched, filtered and sorted by. */
+    static final class Schema {
+        final String name;
+        final String idField;
+        final String[] searchFields;
+        final String[] indexFields;
+        final String[] sortFields;
+
+        Schema(String name, String idField, String[] searchFields, String[] indexFields, String[] sortFields) {
+            this.name = name;
+            this.idField = idField;
+            this.searchFields = searchFields;
+            this.indexFields = indexFields;
+            this.sortFields = sortFields;
+        }
+    }
+
+    static final Schema CUSTOMERS = new Schema("customers", "id",
+            new String[] { "name", "phoneNo", "id", "imei1", "imei2", "deviceName", "brand", "modelName" },
+            new String[] { "isLocked", "isEnrolled", "dealerId", "brand" },
+            new String[] { "createdAt", "updatedAt", "name", "emiDate", "paidEmis", "totalAmount" });
+
+    static final Schema DEVICES = new Schema("devices", "deviceId",
+            new String[] { "deviceId", "imei1", "imei2", "brand", "model", "deviceName", "assignedCustomerId" },
+            new String[] { "state", "platform", "assignedCustomerId", "dealerId", "isConnected" },
+            new String[] { "updatedAt", "createdAt", "lastSeenAt", "state", "brand", "batteryLevel" });
+
+    static final class Record {
+        final String id;
+        final String json;
+        final long version;
+        final String searchText;
+        final String[] indexValues; // By Schema.indexFields
+        final Comparable<?>[] sortValues; // By Schema.sortFields; null = missing
+
+        Record(String id, String json, long version, String searchText, String[] indexValues,
+               Comparable<?>[] sortValues) {
+            this.id = id;
+            this.json = json;
+            this.version = version;
+            this.searchText = searchText;
+            this.indexValues = indexValues;
+            this.sortValues = sortValues;
+        }
+    }
+
+    /** One query() answer: raw documents of the page and the match count. */
+    static final class Page {
+        final List<String> items = new ArrayList<>();
+        int total;
+    }
+
+    /** One changes() answer. */
+    static final class Changes {
+        final List<String> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        boolean reset;
+        long version;
+    }
+
+    final Schema schema;
+    private final Map<String, Record> byId = new HashMap<>();
+    private final List<Map<String, Set<String>>> indexes = new ArrayList<>();
+    private final Map<String, List<Record>> sorted = new HashMap<>(); // "field:desc" -> order, until a change
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+    private long version;
+    private long floorVersion; // changes() before this cannot be answered as a diff
+    private String cursor = "";
+
+    FleetStore(Schema schema) {
+        this.schema = schema;
+        for (int i = 0; i < schema.indexFields.length; i++) {
+            indexes.add(new HashMap<>());
+        }
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    long version() {
+        return version;
+    }
+
+    String cursor() {
+        return cursor;
+    }
+
+    void setCursor(String cursor) {
+        this.cursor = cursor != null ? cursor : "";
+    }
+
+    String get(String id) {
+        Record record = byId.get(id);
+        return record != null ? record.json : null;
+    }
+
+    // ==================== Changes ====================
+
+    /** Merge documents from a sync page. @return how many actually changed */
+    int apply(JSONArray items) throws JSONException {
+        int changed = 0;
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject doc = items.getJSONObject(i);
+            String id = doc.optString(schema.idField, null);
+            if (id == null) {
+                continue;
+            }
+            String json = doc.toString();
+            Record existing = byId.get(id);
+            if (existing != null && existing.json.equals(json)) {
+                continue; // Touched on the server without a visible change
+            }
+            put(doc, id, json, ++version);
+            tombstones.remove(id);
+            changed++;
+        }
+        return changed;
+    }
+
+    /** After a full pass from an empty cursor: drop everything the server no longer has. */
+    int retainOnly(Set<String> ids) {
+        List<String> gone = new ArrayList<>();
+        for (String id : byId.keySet()) {
+            if (!ids.contains(id)) {
+                gone.add(id);
+            }
+        }
+        for (String id : gone) {
+            remove(id);
+        }
+        return gone.size();
+    }
+
+    void clear() {
+        for (String id : new ArrayList<>(byId.keySet())) {
+            remove(id);
+        }
+        cursor = "";
+    }
+
+    private void put(JSONObject doc, String id, String json, long recordVersion) {
+        Record previous = byId.get(id);
+        if (previous != null) {
+            unindex(previous);
+        }
+        StringBuilder search = new StringBuilder();
+        for (String field : schema.searchFields) {
+            Object value = doc.opt(field);
+            if (value != null && value != JSONObject.NULL) {
+                search.append(String.valueOf(value).toLowerCase(Locale.ROOT)).append('\n');
+            }
+        }
+        String[] indexValues = new String[schema.indexFields.length];
+        for (int i = 0; i < indexValues.length; i++) {
+            indexValues[i] = indexValue(doc.opt(schema.indexFields[i]));
+        }
+        Comparable<?>[] sortValues = new Comparable<?>[schema.sortFields.length];
+        for (int i = 0; i < sortValues.length; i++) {
+            sortValues[i] = sortValue(doc.opt(schema.sortFields[i]));
+        }
+        Record record = new Record(id, json, recordVersion, search.toString(), indexValues, sortValues);
+        byId.put(id, record);
+        for (int i = 0; i < indexValues.length; i++) {
+            Set<String> ids = indexes.get(i).get(indexValues[i]);
+            if (ids == null) {
+                ids = new HashSet<>();
+                indexes.get(i).put(indexValues[i], ids);
+            }
+            ids.add(id);
+        }
+        sorted.clear();
+    }
+
+    private void remove(String id) {
+        Record record = byId.remove(id);
+        if (record == null) {
+            return;
+        }
+        unindex(record);
+        sorted.clear();
+        tombstones.put(id, ++version);
+        Iterator<Map.Entry<String, Long>> it = tombstones.entrySet().iterator();
+        while (tombstones.size() > MAX_TOMBSTONES && it.hasNext()) {
+            floorVersion = Math.max(floorVersion, it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private void unindex(Record record) {
+        for (int i = 0; i < record.indexValues.length; i++) {
+            Set<String> ids = indexes.get(i).get(record.indexValues[i]);
+            if (ids != null) {
+                ids.remove(record.id);
+                if (ids.isEmpty()) {
+                    indexes.get(i).remove(record.indexValues[i]);
+                }
+            }
+        }
+    }
+
+    /** Populated references ({ _id, name }) index by their id; null and missing alike. */
+    private static String indexValue(Object value) {
+        if (value instanceof JSONObject) {
+            value = ((JSONObject) value).opt("_id");
+        }
+        return value == null || value == JSONObject.NULL ? "" : String.valueOf(value);
+    }
+
+    /** Numbers and booleans sort as numbers, everything else as case-folded text (ISO dates included). */
+    private static Comparable<?> sortValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+        if (value == null || value == JSONObject.NULL || value instanceof JSONObject || value instanceof JSONArray) {
+            return null;
+        }
+        return String.valueOf(value).toLowerCase(Locale.ROOT);
+    }
+
+    // ==================== Reads ====================
+
+    /**
+     * One page of documents matching every filter (indexed fields only) and
+     * the search text, in sortField order. Missing sort values go last.
+     */
+    Page query(String search, Map<String, String> filters, String sortField, boolean descending,
+               int offset, int limit) {
+        Set<String> candidates = null;
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            int field = indexOf(schema.indexFields, filter.getKey());
+            if (field < 0) {
+                throw new IllegalArgumentException("Not a filterable field: " + filter.getKey());
+            }
+            Set<String> ids = indexes.get(field).get(filter.getValue());
+            if (ids == null) {
+                ids = Collections.emptySet();
+            }
+            if (candidates == null) {
+                candidates = ids;
+            } else {
+                candidates = ids.size() < candidates.size() ? intersect(ids, candidates) : intersect(candidates, ids);
+            }
+        }
+        String needle = search == null || search.trim().isEmpty() ? null : search.trim().toLowerCase(Locale.ROOT);
+
+        Page page = new Page();
+        for (Record record : ordered(sortField, descending)) {
+            if (candidates != null && !candidates.contains(record.id)) {
+                continue;
+            }
+            if (needle != null && !record.searchText.contains(needle)) {
+                continue;
+            }
+            if (page.total >= offset && page.items.size() < limit) {
+                page.items.add(record.json);
+            }
+            page.total++;
+        }
+        return page;
+    }
+
+    /** Documents changed and ids removed after sinceVersion, or everything with reset=true. */
+    Changes changes(long sinceVersion) {
+        Changes changes = new Changes();
+        changes.version = version;
+        changes.reset = sinceVersion <= 0 || sinceVersion < floorVersion || sinceVersion > version;
+        for (Record record : byId.values()) {
+            if (changes.reset || record.version > sinceVersion) {
+                changes.changed.add(record.json);
+            }
+        }
+        if (!changes.reset) {
+            for (Map.Entry<String, Long> tombstone : tombstones.entrySet()) {
+                if (tombstone.getValue() > sinceVersion) {
+                    changes.removed.add(tombstone.getKey());
+                }
+            }
+        }
+        return changes;
+    }
+
+    private List<Record> ordered(String sortField, boolean descending) {
+        final int field = sortField == null ? -1 : indexOf(schema.sortFields, sortField);
+        if (sortField != null && field < 0) {
+            throw new IllegalArgumentException("Not a sortable field: " + sortField);
+        }
+        String key = sortField + (descending ? ":desc" : ":asc");
+        List<Record> order = sorted.get(key);
+        if (order == null) {
+            order = new ArrayList<>(byId.values());
+            Comparator<Record> byKey = (a, b) -> a.id.compareTo(b.id);
+            if (field >= 0) {
+                Comparator<Record> byValue = (a, b) -> compareValues(a.sortValues[field], b.sortValues[field],
+                        descending);
+                order.sort(byValue.thenComparing(byKey));
+            } else {
+                order.sort(byKey);
+            }
+            sorted.put(key, order);
+        }
+        return order;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(Comparable a, Comparable b, boolean descending) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1; // Missing last either way
+        }
+        if (a.getClass() != b.getClass()) {
+            a = a.toString();
+            b = b.toString();
+        }
+        int result = a.compareTo(b);
+        return descending ? -result : result;
+    }
+
+    private static Set<String> intersect(Set<String> smaller, Set<String> larger) {
+        Set<String> result = new HashSet<>();
+        for (String id : smaller) {
+            if (larger.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private static int indexOf(String[] fields, String field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ==================== Persistence ====================
+
+    /** Header line { cursor, version } then one document per line; written whole and renamed into place. */
+    void save(File file) throws IOException, JSONException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                StandardCharsets.UTF_8))) {
+            writer.write(new JSONObject().put("cursor", cursor).put("version", version).toString());
+            writer.write('\n');
+            for (Record record : byId.values()) {
+                writer.write(record.json); // JSONObject.toString() escapes newlines
+                writer.write('\n');
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Rename failed: " + file);
+        }
+    }
+
+    /** Replace the contents with a saved copy. A diff older than the load is answered with reset. */
+    void load(File file) throws IOException, JSONException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            JSONObject saved = new JSONObject(header);
+            byId.clear();
+            for (Map<String, Set<String>> index : indexes) {
+                index.clear();
+            }
+            sorted.clear();
+            tombstones.clear();
+            version = saved.optLong("version", 0);
+            floorVersion = version;
+            cursor = saved.optString("cursor", "");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject doc = new JSONObject(line);
+                String id = doc.optString(schema.idField, null);
+                if (id != null) {
+                    put(doc, id, line, version);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FleetStore{" + schema.name + ", " + byId.size() + " docs, version=" + version
+                + ", tombstones=" + tombstones.size() + ", cursor=" + cursor + "}";
+    }
+}
@@ -1,5 +1,13 @@
 package com.securefinance.admin;
 
+import android.os.Bundle;
 import com.getcapacitor.BridgeActivity;
 
-public class MainActivity extends BridgeActivity {}
+public class MainActivity extends BridgeActivity {
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        // Local plugins register before super.onCreate(), which builds the bridge
+        registerPlugin(FleetDataPlugin.class);
+        super.onCreate(savedInstanceState);
+    }
+}
@@ -0,0 +1,42 @@
+const crypto = require('crypto');
+const Customer = require('../models/Customer');
+
+/**
+ * Device Authentication Middleware
+ * For routes only the enrolled Admin DPC may call (offline code material,
+ * offline unlock reports, command params and acks). The agent sends the key it got from
+ * POST /api/customers/:id/enroll in X-Device-Key; only its SHA-256 is stored.
+ */
+function hashSecret(value) {
+    return crypto.createHash('sha256').update(String(value)).digest('hex');
+}
+
+function secretMatches(value, storedHash) {
+    if (typeof value !== 'string' || !value || typeof storedHash !== 'string') return false;
+    const actual = Buffer.from(hashSecret(value), 'hex');
+    const expected = Buffer.from(storedHash, 'hex');
+    return actual.length === expected.length && crypto.timingSafeEqual(actual, expected);
+}
+
+const deviceAuth = async (req, res, next) => {
+    try {
+        const key = req.header('X-Device-Key');
+        if (!key) {
+            return res.status(401).json({ success: false, message: 'No device key provided' });
+        }
+        const customer = await Customer.findOne({ id: req.params.id }).select('deviceKeyHash').lean();
+        if (!customer) {
+            return res.status(404).json({ message: 'Customer not found' });
+        }
+        if (!secretMatches(key, customer.deviceKeyHash)) {
+            return res.status(401).json({ success: false, message: 'Invalid device key' });
+        }
+        next();
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+};
+
+module.exports = deviceAuth;
+module.exports.hashSecret = hashSecret;
+module.exports.secretMatches = secretMatches;
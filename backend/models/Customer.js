@@ -41,10 +41,13 @@ const CustomerSchema = new mongoose.Schema({
     // Offline Lock Tokens
     offlineLockToken: { type: String }, // 6-digit PIN for locking via SMS
     offlineUnlockToken: { type: String }, // Token to unlock via SMS
+    offlineCodeSecret: { type: String }, // HMAC key for time-windowed codes (utils/offlineCode.js)
+    offlineCodeLastCounter: { type: Number }, // Last redeemed unlock counter (replay guard)
 
     // Device Binding (QR)
-    deviceBindToken: { type: String },
+    deviceBindToken: { type: String }, // SHA-256 of the one-time enrollment token in the provisioning QR
     bindTokenExpiresAt: { type: Date },
+    deviceKeyHash: { type: String }, // SHA-256 of the enrolled agent's key (middleware/deviceAuth)
 
     deviceName: { type: String },
     financeName: { type: String },
@@ -101,6 +104,21 @@ const CustomerSchema = new mongoose.Schema({
             deviceName: { type: String },
             freeMemory: { type: Number }
         },
+        // Last boot's timing (ms since boot) reported with Admin DPC telemetry
+        bootLock: {
+            directBoot: { type: Boolean },
+            receiverMs: { type: Number },
+            policyMs: { type: Number },
+            lockScreenMs: { type: Number },
+            reportedAt: { type: Date }
+        },
+        // Lock screen time-to-first-frame reported with Admin DPC telemetry
+        lockScreen: {
+            ttffP50Ms: { type: Number },
+            ttffP95Ms: { type: Number },
+            samples: { type: Number },
+            updatedAt: { type: Date }
+        },
         // FCM Push Notification Token
         fcmToken: { type: String, default: null },
         fcmTokenUpdatedAt: { type: Date },
@@ -120,10 +138,19 @@ const CustomerSchema = new mongoose.Schema({
         params: { type: mongoose.Schema.Types.Mixed }, // Parameters like { wallpaperUrl, pin, message, phone }
         timestamp: { type: Date }
     },
+    // Results acknowledged by the Admin DPC (POST /:id/command-ack), newest last
+    commandHistory: [{
+        command: { type: String },
+        issuedAt: { type: Date }, // remoteCommand.timestamp - the command's identity
+        status: { type: String, enum: ['done', 'failed'] },
+        result: { type: String },
+        ackedAt: { type: Date, default: Date.now }
+    }],
     // Lock screen customization
     lockMessage: { type: String, default: "This device has been locked due to payment overdue." },
     supportPhone: { type: String, default: "8876655444" },
     wallpaperUrl: { type: String }, // Custom wallpaper URL
+    lenderLogoUrl: { type: String }, // Lock screen branding image (setLockInfo logoUrl)
 
     // Security Events tracking
     securityEvents: [{
@@ -195,4 +222,33 @@ const CustomerSchema = new mongoose.Schema({
     }]
 }, { timestamps: true });
 
+// Covering index for the device lock-state poll (GET /api/customers/:id?view=lock)
+CustomerSchema.index({
+    id: 1, isLocked: 1, lockMessage: 1, supportPhone: 1,
+    'remoteCommand.command': 1, 'remoteCommand.timestamp': 1
+});
+
+// Keyset order for incremental list sync (utils/syncPage.js), per dealer and fleet-wide
+CustomerSchema.index({ dealerId: 1, updatedAt: 1, _id: 1 });
+CustomerSchema.index({ updatedAt: 1, _id: 1 });
+
+// 📡 Push lock-state changes to connected devices (see services/pushHub.js)
+CustomerSchema.post('save', function (doc) {
+    require('../services/pushHub').publishState(doc);
+});
+
+CustomerSchema.post('findOneAndUpdate', async function (doc) {
+    if (!doc) return;
+    const pushHub = require('../services/pushHub');
+    if (!pushHub.hasInterest(doc.id)) return;
+
+    // Without { new: true } the hook sees the pre-update document
+    const options = this.getOptions();
+    const isNew = options.new === true || options.returnDocument === 'after';
+    const current = isNew
+        ? doc
+        : await this.model.findById(doc._id).select('id isLocked lockMessage supportPhone remoteCommand').lean();
+    pushHub.publishState(current);
+});
+
 module.exports = mongoose.model('Customer', CustomerSchema);
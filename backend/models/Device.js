@@ -132,5 +132,6 @@ DeviceSchema.index({ state: 1 });
 DeviceSchema.index({ platform: 1 });
 DeviceSchema.index({ imei1: 1 });
 DeviceSchema.index({ androidId: 1 });
+DeviceSchema.index({ updatedAt: 1, _id: 1 }); // Keyset order for incremental list sync (utils/syncPage.js)
 
 module.exports = mongoose.model('Device', DeviceSchema);
@@ -0,0 +1,24 @@
+const mongoose = require('mongoose');
+
+// Field log segments uploaded by the Admin DPC (uploadLogs command, AgentLog).
+// Each upload is split into gzip segments; the text is only inflated when read.
+const DeviceLogSchema = new mongoose.Schema({
+    customerId: { type: String, required: true },
+    uploadId: { type: String, required: true },
+    segment: { type: Number, required: true },
+    segments: { type: Number, required: true },
+    from: { type: Date }, // First and last line in the segment
+    to: { type: Date },
+    lines: { type: Number, default: 0 },
+    data: { type: Buffer, required: true }, // gzip
+    receivedAt: { type: Date, default: Date.now }
+}, {
+    timestamps: false
+});
+
+DeviceLogSchema.index({ customerId: 1, uploadId: 1, segment: 1 }, { unique: true });
+
+// Logs are for debugging recent incidents only
+DeviceLogSchema.index({ receivedAt: 1 }, { expireAfterSeconds: 14 * 24 * 3600 });
+
+module.exports = mongoose.model('DeviceLog', DeviceLogSchema);
@@ -0,0 +1,27 @@
+const mongoose = require('mongoose');
+
+// Hourly fleet-wide roll-up of the Admin DPC metrics (MetricsRegistry).
+// One document per metric per hour; devices' deltas are $inc'ed in, so the
+// collection size depends on the number of metrics, not devices.
+const FleetMetricSchema = new mongoose.Schema({
+    name: { type: String, required: true },
+    hour: { type: Date, required: true }, // Start of the UTC hour
+    kind: { type: String, enum: ['counter', 'gauge', 'histogram'], required: true },
+
+    // counter: total delta; gauge: number of reports; histogram: samples
+    count: { type: Number, default: 0 },
+    // gauge: sum of reported values (mean = sum / count); histogram: sum of samples
+    sum: { type: Number, default: 0 },
+    // histogram only: bucket index (see utils/metricsHistogram) -> samples
+    buckets: { type: Map, of: Number, default: undefined },
+    devices: { type: Number, default: 0 } // Reports merged into this hour
+}, {
+    timestamps: false
+});
+
+FleetMetricSchema.index({ name: 1, hour: -1 }, { unique: true });
+
+// Raw roll-ups are only useful for recent trend queries
+FleetMetricSchema.index({ hour: 1 }, { expireAfterSeconds: 30 * 24 * 3600 });
+
+module.exports = mongoose.model('FleetMetric', FleetMetricSchema);
@@ -0,0 +1,22 @@
+const mongoose = require('mongoose');
+
+// Location track uploads from the Admin DPC (LocationTracker).
+// Points stay in the device's delta/varint encoding (utils/trackCodec) - a few
+// bytes each - and are only decoded when a trail is read.
+const LocationTrackSchema = new mongoose.Schema({
+    customerId: { type: String, required: true },
+    from: { type: Date, required: true }, // First and last point in the upload
+    to: { type: Date, required: true },
+    points: { type: Number, default: 0 },
+    data: { type: Buffer, required: true }, // trackCodec blocks
+    receivedAt: { type: Date, default: Date.now }
+}, {
+    timestamps: false
+});
+
+LocationTrackSchema.index({ customerId: 1, from: -1 });
+
+// Long enough to cover a recovery case, short enough not to keep a movement history
+LocationTrackSchema.index({ receivedAt: 1 }, { expireAfterSeconds: 90 * 24 * 3600 });
+
+module.exports = mongoose.model('LocationTrack', LocationTrackSchema);
@@ -1,10 +1,61 @@
 const express = require('express');
+const crypto = require('crypto');
+const zlib = require('zlib');
 const router = express.Router();
 const Customer = require('../models/Customer');
 const Device = require('../models/Device');
+const DeviceLog = require('../models/DeviceLog');
+const LocationTrack = require('../models/LocationTrack');
 const logger = require('../config/logger');
 const auth = require('../middleware/auth');
+const deviceAuth = require('../middleware/deviceAuth');
 const checkDeviceLimit = require('../middleware/checkDeviceLimit');
+const pushHub = require('../services/pushHub');
+const offlineCode = require('../utils/offlineCode');
+const fleetMetrics = require('../services/fleetMetrics');
+const adminRelease = require('../services/adminRelease');
+const { syncPage, isSyncRequest } = require('../utils/syncPage');
+const trackCodec = require('../utils/trackCodec');
+
+// Device-facing lock state (GET /:id?view=lock)
+// Projection matches the Customer lock-view index, so the query is served from the index alone.
+// Command params are not part of the view - the agent reads them from GET /:id/command when it runs the command
+// (not from the heartbeat, which clears the command on read).
+const LOCK_VIEW_FIELDS = '-_id id isLocked lockMessage supportPhone remoteCommand.command remoteCommand.timestamp';
+
+// Compact lock view for the Admin DPC (short keys, numeric flag/timestamp), negotiated via Accept
+const LOCK_VIEW_COMPACT_TYPE = 'application/vnd.emilock.lock+json';
+
+function lockView(customer) {
+    const remoteCommand = customer.remoteCommand && customer.remoteCommand.command
+        ? { command: customer.remoteCommand.command, timestamp: customer.remoteCommand.timestamp || null }
+        : null;
+
+    return {
+        id: customer.id,
+        isLocked: !!customer.isLocked,
+        lockMessage: customer.lockMessage || null,
+        supportPhone: customer.supportPhone || null,
+        command: remoteCommand
+    };
+}
+
+// {"l":1,"m":"...","p":"...","c":{"n":"lock","t":1700000000000}} - unset fields are omitted
+function compactLockView(view) {
+    const compact = { l: view.isLocked ? 1 : 0 };
+    if (view.lockMessage) compact.m = view.lockMessage;
+    if (view.supportPhone) compact.p = view.supportPhone;
+    if (view.command) {
+        compact.c = { n: view.command.command };
+        if (view.command.timestamp) compact.c.t = new Date(view.command.timestamp).getTime();
+    }
+    return compact;
+}
+
+function lockViewEtag(body) {
+    const hash = crypto.createHash('sha1').update(JSON.stringify(body)).digest('base64url');
+    return `"${hash.substring(0, 16)}"`;
+}
 
 // Get all customers (filtered by dealer)
 router.get('/', auth, async (req, res) => {
@@ -14,6 +65,13 @@ router.get('/', auth, async (req, res) => {
             ? {}
             : { dealerId: req.user._id };
 
+        // Incremental sync (admin app FleetData plugin): ?since=<cursor>&limit=<n>
+        if (isSyncRequest(req.query)) {
+            return res.json(await syncPage(Customer, filter, req.query, {
+                populate: { path: 'dealerId', select: 'name email' }
+            }));
+        }
+
         // Return newest customers first
         const customers = await Customer.find(filter)
             .populate('dealerId', 'name email')
@@ -37,8 +95,36 @@ router.delete('/danger/delete-all', async (req, res) => {
 });
 
 // Get single customer status (Public for Device Heartbeat)
+// ?view=lock - minimal lock-state view for the Admin DPC, with a strong ETag so
+// unchanged state is answered with a bodiless 304 (If-None-Match)
 router.get('/:id', async (req, res) => {
     try {
+        if (req.query.view === 'lock') {
+            const lockState = await Customer.findOne({ id: req.params.id })
+                .select(LOCK_VIEW_FIELDS)
+                .lean();
+            if (!lockState) return res.status(404).json({ message: 'Customer not found' });
+
+            // Each representation has its own ETag (the compact body hashes differently)
+            const compact = req.accepts(['application/json', LOCK_VIEW_COMPACT_TYPE]) === LOCK_VIEW_COMPACT_TYPE;
+            const view = lockView(lockState);
+            const body = compact ? compactLockView(view) : view;
+            const etag = lockViewEtag(body);
+            res.set('ETag', etag);
+            res.set('Cache-Control', 'no-cache'); // Always revalidate
+            res.vary('Accept');
+            // Self-update check rides on the poll: a header, so it also reaches 304s and leaves the ETag alone
+            const releasedVersion = adminRelease.advertisedVersionCode();
+            if (releasedVersion !== null) res.set('X-Admin-Version-Code', String(releasedVersion));
+            if (req.get('If-None-Match') === etag) {
+                return res.status(304).end();
+            }
+            if (compact) {
+                return res.type(LOCK_VIEW_COMPACT_TYPE).send(JSON.stringify(body));
+            }
+            return res.json(body);
+        }
+
         const customer = await Customer.findOne({ id: req.params.id });
         if (!customer) return res.status(404).json({ message: 'Customer not found' });
 
@@ -54,6 +140,39 @@ router.get('/:id', async (req, res) => {
     }
 });
 
+// Self-update offer for the Admin DPC (SelfUpdater) - staged rollout, see services/adminRelease
+// 204 when the device is up to date or not in the rollout yet
+router.get('/:id/admin-update', async (req, res) => {
+    try {
+        const installed = parseInt(req.query.versionCode, 10);
+        if (!Number.isInteger(installed)) return res.status(400).json({ message: 'versionCode required' });
+        if (!await Customer.exists({ id: req.params.id })) {
+            return res.status(404).json({ message: 'Customer not found' });
+        }
+
+        const offer = await adminRelease.offerFor(req.params.id, installed);
+        if (!offer) return res.status(204).end();
+        res.json(offer);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Push channel for the Admin DPC - Server-Sent Events (replaces 5s polling)
+// Sends a "state" event on connect and whenever lock state / pending command changes
+router.get('/:id/stream', async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id })
+            .select('id isLocked lockMessage supportPhone remoteCommand')
+            .lean();
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        pushHub.subscribe(customer, req, res);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // Create a new customer with duplicate check
 router.post('/', auth, checkDeviceLimit, async (req, res) => {
     try {
@@ -518,7 +637,7 @@ router.post('/heartbeat', async (req, res) => {
 });
 
 // Set remote command for a device
-// Supported commands: lock, unlock, wipe, reset, setWallpaper, setPin, alarm, stopAlarm, setLockInfo
+// Supported commands: lock, unlock, wipe, reset, setWallpaper, setPin, alarm, stopAlarm, setLockInfo, uploadLogs
 router.post('/:id/command', async (req, res) => {
     try {
         const { command, params } = req.body;
@@ -537,6 +656,7 @@ router.post('/:id/command', async (req, res) => {
             'lock', 'unlock', 'wipe', 'reset',
             'setWallpaper', 'setPin', 'alarm', 'stopAlarm',
             'setLockInfo', 'grantPermissions', 'applyRestrictions',
+            'uploadLogs', // Device posts its field log as LOG_SEGMENT security events
             'remove' // Marks device as removed, preserves customer data
         ];
 
@@ -643,10 +763,16 @@ router.post('/:id/command', async (req, res) => {
             console.log(`🗑️ Device ${req.params.id} marked as REMOVED (customer data preserved)`);
         }
 
-        // Handle setLockInfo - update the lock message and support phone
+        // Handle setLockInfo - update the lock message, support phone and lender logo
         if (command === 'setLockInfo' && params) {
             if (params.message) updateData.lockMessage = params.message;
             if (params.phone) updateData.supportPhone = params.phone;
+            if (params.logoUrl) updateData.lenderLogoUrl = params.logoUrl;
+        }
+
+        // Handle setWallpaper - remember what the device was last told to show
+        if (command === 'setWallpaper' && params?.wallpaperUrl) {
+            updateData.wallpaperUrl = params.wallpaperUrl;
         }
 
         // Build update operations
@@ -765,33 +891,45 @@ router.post('/:id/security-event', async (req, res) => {
     try {
         const { event, timestamp, action, details } = req.body;
 
-        console.log(`🚨 SECURITY EVENT for ${req.params.id}: ${event}`);
+        // Field log upload - stored on its own, not in the customer's event history
+        if (event === 'LOG_SEGMENT') {
+            return saveLogSegment(req, res, details);
+        }
 
-        const eventData = {
-            event,
-            timestamp: new Date(timestamp || Date.now()),
-            action,
-            details,
+        // Batched form from the Admin DPC's TamperMonitor: { events: [{ event, timestamp, action, details }] }
+        const reported = Array.isArray(req.body.events) ? req.body.events : [{ event, timestamp, action, details }];
+        if (reported.length === 0 || reported.length > 50 || reported.some(e => !e || !e.event)) {
+            return res.status(400).json({ message: 'Invalid security events' });
+        }
+
+        console.log(`🚨 SECURITY EVENT for ${req.params.id}: ${reported.map(e => e.event).join(', ')}`);
+
+        const eventData = reported.map(e => ({
+            event: e.event,
+            timestamp: new Date(e.timestamp || Date.now()),
+            action: e.action,
+            details: e.details,
             ipAddress: req.ip
-        };
+        }));
 
         const updateData = {
             $push: {
-                securityEvents: eventData
+                securityEvents: { $each: eventData }
             }
         };
 
         // Auto-lock for certain events
-        if (['SAFE_MODE_ATTEMPT', 'ROOT_DETECTED', 'TAMPERING'].includes(event)) {
+        const lockEvent = reported.find(e => ['SAFE_MODE_ATTEMPT', 'ROOT_DETECTED', 'TAMPERING'].includes(e.event));
+        if (lockEvent) {
             updateData.$set = {
                 isLocked: true,
                 'deviceStatus.status': 'warning',
-                'deviceStatus.errorMessage': `Security event: ${event}`
+                'deviceStatus.errorMessage': `Security event: ${lockEvent.event}`
             };
             updateData.$push.lockHistory = {
                 id: Date.now().toString(),
                 action: 'locked',
-                reason: `Security event: ${event}`,
+                reason: `Security event: ${lockEvent.event}`,
                 timestamp: new Date().toISOString()
             };
             console.log(`🔒 Device auto-locked due to security event`);
@@ -810,7 +948,8 @@ router.post('/:id/security-event', async (req, res) => {
         res.json({
             success: true,
             message: 'Security event recorded',
-            event
+            event,
+            recorded: eventData.length
         });
 
     } catch (err) {
@@ -819,10 +958,120 @@ router.post('/:id/security-event', async (req, res) => {
     }
 });
 
+// AgentLog renders 96 KB of text per segment (plus one line); anything far past that is not a field log
+const MAX_LOG_SEGMENT_TEXT = 256 * 1024;
+const MAX_LOG_SEGMENT_GZIP = 128 * 1024;
+const MAX_LOG_SEGMENTS_PER_UPLOAD = 64;
+const MAX_LOG_SEGMENTS_PER_CUSTOMER = 256; // Oldest dropped first; the TTL index clears the rest
+
+// Segments arrive unauthenticated, so nothing is stored that inflates past the cap
+function inflateLogSegment(data) {
+    return zlib.gunzipSync(data, { maxOutputLength: MAX_LOG_SEGMENT_TEXT });
+}
+
+async function saveLogSegment(req, res, details) {
+    if (!details || details.encoding !== 'gzip+base64' || typeof details.data !== 'string'
+        || !details.uploadId || !Number.isInteger(details.segment) || !Number.isInteger(details.segments)
+        || details.segments < 1 || details.segments > MAX_LOG_SEGMENTS_PER_UPLOAD
+        || details.segment < 0 || details.segment >= details.segments) {
+        return res.status(400).json({ message: 'Invalid log segment' });
+    }
+    const data = Buffer.from(details.data, 'base64');
+    if (data.length > MAX_LOG_SEGMENT_GZIP) {
+        return res.status(413).json({ message: 'Log segment too large' });
+    }
+    try {
+        inflateLogSegment(data);
+    } catch (err) {
+        return res.status(err.code === 'ERR_BUFFER_TOO_LARGE' ? 413 : 400).json({ message: 'Invalid log segment' });
+    }
+    if (!await Customer.exists({ id: req.params.id })) {
+        return res.status(404).json({ message: 'Customer not found' });
+    }
+
+    // Upsert: a retried upload replaces its segment instead of duplicating it
+    await DeviceLog.updateOne(
+        { customerId: req.params.id, uploadId: String(details.uploadId), segment: details.segment },
+        {
+            $set: {
+                segments: details.segments,
+                from: details.from ? new Date(details.from) : undefined,
+                to: details.to ? new Date(details.to) : undefined,
+                lines: Number.isInteger(details.lines) ? details.lines : 0,
+                data,
+                receivedAt: new Date()
+            }
+        },
+        { upsert: true }
+    );
+
+    const overflow = await DeviceLog.find({ customerId: req.params.id })
+        .sort({ receivedAt: -1 }).skip(MAX_LOG_SEGMENTS_PER_CUSTOMER).select('_id').lean();
+    if (overflow.length > 0) {
+        await DeviceLog.deleteMany({ _id: { $in: overflow.map(s => s._id) } });
+    }
+    res.json({ success: true, message: 'Log segment stored', segment: details.segment });
+}
+
+// Field log uploaded by the device (uploadLogs command) as plain text
+// Latest upload unless ?uploadId= is given; ?list=1 lists the uploads instead
+router.get('/:id/logs', auth, async (req, res) => {
+    try {
+        const filter = { id: req.params.id };
+        if (req.user && req.user.role !== 'SUPER_ADMIN') {
+            filter.dealerId = req.user._id;
+        }
+        if (!await Customer.exists(filter)) {
+            return res.status(404).json({ message: 'Customer not found or access denied' });
+        }
+
+        if (req.query.list) {
+            const uploads = await DeviceLog.aggregate([
+                { $match: { customerId: req.params.id } },
+                {
+                    $group: {
+                        _id: '$uploadId', segments: { $max: '$segments' }, received: { $sum: 1 },
+                        from: { $min: '$from' }, to: { $max: '$to' }, lines: { $sum: '$lines' },
+                        receivedAt: { $max: '$receivedAt' }
+                    }
+                },
+                { $sort: { receivedAt: -1 } }
+            ]);
+            return res.json(uploads.map(({ _id, ...upload }) => ({ uploadId: _id, ...upload })));
+        }
+
+        let uploadId = req.query.uploadId;
+        if (!uploadId) {
+            const latest = await DeviceLog.findOne({ customerId: req.params.id })
+                .sort({ receivedAt: -1 }).select('uploadId').lean();
+            if (!latest) return res.status(404).json({ message: 'No logs uploaded' });
+            uploadId = latest.uploadId;
+        }
+
+        const segments = await DeviceLog.find({ customerId: req.params.id, uploadId: String(uploadId) })
+            .sort({ segment: 1 }).lean();
+        if (segments.length === 0) return res.status(404).json({ message: 'Upload not found' });
+
+        // Capped again on read: segments stored before the ingest checks were unbounded
+        const text = segments.map(s => {
+            try {
+                return inflateLogSegment(s.data.buffer || s.data).toString('utf8');
+            } catch (err) {
+                return `[segment ${s.segment} unreadable: ${err.code || err.message}]\n`;
+            }
+        }).join('');
+        const missing = segments[0].segments - segments.length;
+        res.type('text/plain').send(missing > 0 ? `${text}\n[${missing} segment(s) not received]\n` : text);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // Get offline tokens for a device
 router.get('/:id/tokens', async (req, res) => {
     try {
-        const customer = await Customer.findOne({ id: req.params.id }).select('offlineLockToken offlineUnlockToken');
+        const customer = await Customer.findOne({ id: req.params.id })
+            .select('offlineLockToken offlineUnlockToken');
 
         if (!customer) {
             return res.status(404).json({ message: 'Customer not found' });
@@ -838,6 +1087,65 @@ router.get('/:id/tokens', async (req, res) => {
     }
 });
 
+// Admin DPC enrollment: trades the one-time token from the provisioning QR for the device key
+// that authenticates the device-only routes below (middleware/deviceAuth)
+router.post('/:id/enroll', async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id })
+            .select('deviceBindToken bindTokenExpiresAt offlineCodeSecret').lean();
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        if (!customer.bindTokenExpiresAt || customer.bindTokenExpiresAt < new Date()
+            || !deviceAuth.secretMatches(req.body.token, customer.deviceBindToken)) {
+            logger.warn('Enrollment rejected', { customerId: req.params.id });
+            return res.status(403).json({ success: false, message: 'Invalid or expired enrollment token' });
+        }
+
+        // Conditional on the token still being there, so it is redeemed exactly once
+        const deviceKey = crypto.randomBytes(32).toString('base64url');
+        const result = await Customer.updateOne(
+            { id: req.params.id, deviceBindToken: customer.deviceBindToken },
+            {
+                $set: {
+                    deviceKeyHash: deviceAuth.hashSecret(deviceKey),
+                    offlineCodeSecret: customer.offlineCodeSecret || offlineCode.generateSecret()
+                },
+                $unset: { deviceBindToken: 1, bindTokenExpiresAt: 1 }
+            }
+        );
+        if (result.modifiedCount === 0) {
+            return res.status(403).json({ success: false, message: 'Invalid or expired enrollment token' });
+        }
+
+        res.json({ success: true, deviceKey });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Offline code material the Admin DPC caches to verify time-windowed codes offline (enrolled device only)
+router.get('/:id/offline-material', deviceAuth, async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id }).select('offlineCodeSecret');
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        if (!customer.offlineCodeSecret) {
+            customer.offlineCodeSecret = offlineCode.generateSecret();
+            await customer.save();
+        }
+
+        res.json({
+            offlineCode: {
+                secret: customer.offlineCodeSecret,
+                period: offlineCode.PERIOD_SECONDS,
+                digits: offlineCode.DIGITS
+            }
+        });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // Set offline tokens for a device
 router.post('/:id/tokens', async (req, res) => {
     try {
@@ -870,6 +1178,120 @@ router.post('/:id/tokens', async (req, res) => {
     }
 });
 
+// Pending command with params, without consuming it (the heartbeat route clears it on read; enrolled device only)
+router.get('/:id/command', deviceAuth, async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id }).select('remoteCommand').lean();
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        const remoteCommand = customer.remoteCommand && customer.remoteCommand.command
+            ? {
+                command: customer.remoteCommand.command,
+                params: customer.remoteCommand.params || {},
+                timestamp: customer.remoteCommand.timestamp
+            }
+            : null;
+        res.json({ command: remoteCommand });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Batched command results from the Admin DPC (enrolled device only)
+// Body: { acks: [{ timestamp (ms), command, status: 'done' | 'failed', result }] }
+const MAX_COMMAND_HISTORY = 50;
+
+router.post('/:id/command-ack', deviceAuth, async (req, res) => {
+    try {
+        const acks = Array.isArray(req.body.acks) ? req.body.acks : [];
+        const entries = acks
+            .filter(a => Number.isFinite(a.timestamp) && typeof a.command === 'string')
+            .map(a => ({
+                command: a.command,
+                issuedAt: new Date(a.timestamp),
+                status: a.status === 'done' ? 'done' : 'failed',
+                result: typeof a.result === 'string' ? a.result.substring(0, 200) : undefined
+            }));
+        if (entries.length === 0) return res.status(400).json({ message: 'No valid acks' });
+
+        const customer = await Customer.findOneAndUpdate(
+            { id: req.params.id },
+            { $push: { commandHistory: { $each: entries, $slice: -MAX_COMMAND_HISTORY } } },
+            { new: true, projection: { id: 1, remoteCommand: 1 } }
+        );
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        // Stop offering the pending command once the device has executed it
+        const pendingAt = customer.remoteCommand?.timestamp?.getTime();
+        if (pendingAt && entries.some(e => e.issuedAt.getTime() === pendingAt)) {
+            await Customer.findOneAndUpdate(
+                { id: req.params.id, 'remoteCommand.timestamp': customer.remoteCommand.timestamp },
+                { $unset: { remoteCommand: '' } },
+                { new: true }
+            );
+        }
+
+        entries.filter(e => e.status === 'failed').forEach(e => {
+            logger.warn('Remote command failed on device', { customerId: req.params.id, command: e.command, result: e.result });
+        });
+
+        res.json({ success: true, acked: entries.length });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Current offline codes for the dealer to read out to a customer in the field
+router.get('/:id/offline-codes', auth, async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id }).select('id offlineCodeSecret');
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+        if (!customer.offlineCodeSecret) {
+            // Device has not fetched code material yet - codes would not verify
+            return res.status(409).json({ message: 'Device has not synced offline codes yet' });
+        }
+
+        res.json(offlineCode.currentCodes(customer.offlineCodeSecret));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Device reports an unlock code it accepted offline (may arrive long after entry; enrolled device only)
+router.post('/:id/offline-unlock', deviceAuth, async (req, res) => {
+    try {
+        const { counter, code } = req.body;
+        const customer = await Customer.findOne({ id: req.params.id });
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        if (!customer.offlineCodeSecret || !offlineCode.verifyRedeem(customer.offlineCodeSecret, 'unlock',
+            counter, code, customer.offlineCodeLastCounter)) {
+            logger.warn('Offline unlock rejected', { customerId: customer.id, counter });
+            return res.status(403).json({ success: false, message: 'Invalid or already used code' });
+        }
+
+        customer.offlineCodeLastCounter = counter;
+        customer.isLocked = false;
+        customer.lockHistory.push({
+            id: Date.now().toString(),
+            action: 'unlocked',
+            reason: 'Offline unlock code',
+            timestamp: new Date().toISOString()
+        });
+        await customer.save();
+
+        logger.logDeviceEvent('DEVICE_UNLOCKED', customer.id, customer.id, {
+            customerName: customer.name,
+            reason: 'Offline unlock code',
+            enteredAt: new Date(counter * offlineCode.PERIOD_SECONDS * 1000).toISOString()
+        });
+
+        res.json({ success: true });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // Fix for User APK v2.0 heartbeat path and status flow
 router.post('/:id/heartbeat', async (req, res) => {
     try {
@@ -1049,6 +1471,183 @@ router.post('/:id/heartbeat', async (req, res) => {
     }
 });
 
+// Batched telemetry from the Admin DPC (see TelemetryUploader). Unlike the
+// heartbeat it never consumes remoteCommand - commands have their own path.
+// Body: { technical?, sim?, lockScreen?, boot?, metrics?, samples: [{ t, t1, n, battery, charging, network, storageFree, locked, security }] }
+// metrics is a MetricsRegistry delta snapshot, rolled up fleet-wide (services/fleetMetrics).
+const MAX_TELEMETRY_SAMPLES = 500;
+
+router.post('/:id/telemetry', async (req, res) => {
+    try {
+        const { technical, sim } = req.body;
+        const samples = Array.isArray(req.body.samples)
+            ? req.body.samples.filter(s => Number.isFinite(s.t)).slice(-MAX_TELEMETRY_SAMPLES)
+            : [];
+        if (samples.length === 0 && !technical && !req.body.metrics) return res.status(400).json({ message: 'No samples' });
+
+        const updateData = {};
+        const deviceUpdate = {};
+
+        // Samples arrive oldest first; the newest one is the device's current state
+        const latest = samples[samples.length - 1];
+        if (latest) {
+            const seenAt = new Date(Math.min(latest.t1 || latest.t, Date.now()));
+            updateData['deviceStatus.lastSeen'] = seenAt;
+            updateData['deviceFeatures.lastUpdated'] = seenAt;
+            deviceUpdate.lastSeenAt = seenAt;
+
+            if (Number.isFinite(latest.battery) && latest.battery >= 0) {
+                updateData['deviceStatus.batteryLevel'] = latest.battery;
+                updateData['deviceFeatures.batteryLevel'] = latest.battery;
+                deviceUpdate.batteryLevel = latest.battery;
+            }
+            if (typeof latest.charging === 'boolean') updateData['deviceFeatures.isCharging'] = latest.charging;
+            if (latest.network) {
+                updateData['deviceFeatures.networkType'] = latest.network;
+                updateData['deviceFeatures.networkConnected'] = latest.network !== 'none';
+                deviceUpdate.networkType = latest.network;
+            }
+            if (Number.isFinite(latest.storageFree)) {
+                const available = `${(latest.storageFree / 1024).toFixed(2)} GB`;
+                updateData['deviceStatus.technical.availableStorage'] = available;
+                deviceUpdate.availableStorage = available;
+            }
+            if (latest.security) {
+                updateData['deviceFeatures.factoryResetBlocked'] = !!latest.security.factoryResetBlocked;
+                updateData['deviceFeatures.usbDebuggingEnabled'] = !latest.security.adbBlocked;
+            }
+        }
+
+        if (technical) {
+            for (const key of ['brand', 'model', 'osVersion', 'sdkLevel', 'totalMemory', 'totalStorage', 'androidId', 'serial']) {
+                if (technical[key]) updateData[`deviceStatus.technical.${key}`] = technical[key];
+            }
+        }
+        if (sim && sim.operator) updateData['simDetails.operator'] = sim.operator;
+        if (req.body.lockScreen && Number.isFinite(req.body.lockScreen.ttffP50)) {
+            updateData['deviceStatus.lockScreen'] = {
+                ttffP50Ms: req.body.lockScreen.ttffP50,
+                ttffP95Ms: req.body.lockScreen.ttffP95,
+                samples: req.body.lockScreen.count,
+                updatedAt: new Date()
+            };
+        }
+        const boot = req.body.boot;
+        if (boot && Number.isFinite(boot.receiverMs)) {
+            updateData['deviceStatus.bootLock'] = {
+                directBoot: !!boot.directBoot,
+                receiverMs: boot.receiverMs,
+                policyMs: boot.policyMs,
+                lockScreenMs: boot.lockScreenMs,
+                reportedAt: new Date()
+            };
+        }
+
+        const customer = await Customer.findOneAndUpdate(
+            { id: req.params.id },
+            { $set: updateData },
+            { projection: { id: 1 } }
+        );
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        if (Object.keys(deviceUpdate).length > 0) {
+            deviceUpdate.isConnected = true;
+            await Device.updateOne({ assignedCustomerId: req.params.id }, { $set: deviceUpdate });
+        }
+
+        // The device commits its snapshot on 2xx, so a roll-up failure must not fail the batch
+        await fleetMetrics.ingest(req.body.metrics).catch(err => logger.warn(`Fleet metrics ingest failed: ${err.message}`));
+
+        res.json({ ok: true, accepted: samples.length });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Location track batch from the Admin DPC (LocationTracker)
+// Body: { format, points, from, to, data } - data is base64 trackCodec blocks, oldest first
+router.post('/:id/track', async (req, res) => {
+    try {
+        const { format, data } = req.body;
+        if (format !== trackCodec.FORMAT || typeof data !== 'string') {
+            return res.status(400).json({ message: 'Invalid track batch' });
+        }
+        const buf = Buffer.from(data, 'base64');
+        let points;
+        try {
+            points = trackCodec.decode(buf);
+        } catch (err) {
+            return res.status(400).json({ message: err.message });
+        }
+        if (points.length === 0) return res.status(400).json({ message: 'No points' });
+
+        // Newest plausible point becomes the device's current location
+        const latest = points.filter(p => Math.abs(p.lat) <= 90 && Math.abs(p.lng) <= 180).pop();
+        const updateData = {};
+        if (latest) {
+            const seenAt = new Date(Math.min(latest.t, Date.now()));
+            updateData['location.lat'] = latest.lat;
+            updateData['location.lng'] = latest.lng;
+            updateData['location.lastUpdated'] = seenAt;
+        }
+        const customer = await Customer.findOneAndUpdate(
+            { id: req.params.id },
+            { $set: updateData },
+            { projection: { id: 1 } }
+        );
+        if (!customer) return res.status(404).json({ message: 'Customer not found' });
+
+        await LocationTrack.create({
+            customerId: req.params.id,
+            from: new Date(points[0].t),
+            to: new Date(points[points.length - 1].t),
+            points: points.length,
+            data: buf
+        });
+        if (latest) {
+            const lastLocation = {
+                lat: latest.lat, lng: latest.lng, accuracy: latest.acc, timestamp: updateData['location.lastUpdated']
+            };
+            await Device.updateOne({ assignedCustomerId: req.params.id }, { $set: { lastLocation } });
+        }
+
+        res.json({ ok: true, accepted: points.length });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Decoded location trail for the dashboard map: ?from=&to= (ms or ISO), default the last 24 hours
+router.get('/:id/track', auth, async (req, res) => {
+    try {
+        const filter = { id: req.params.id };
+        if (req.user && req.user.role !== 'SUPER_ADMIN') {
+            filter.dealerId = req.user._id;
+        }
+        if (!await Customer.exists(filter)) {
+            return res.status(404).json({ message: 'Customer not found or access denied' });
+        }
+
+        const parseTime = value => new Date(/^\d+$/.test(value) ? Number(value) : value);
+        const to = req.query.to ? parseTime(req.query.to) : new Date();
+        const from = req.query.from ? parseTime(req.query.from) : new Date(to.getTime() - 24 * 3600 * 1000);
+        if (isNaN(from) || isNaN(to)) return res.status(400).json({ message: 'Invalid time range' });
+
+        const uploads = await LocationTrack.find({ customerId: req.params.id, from: { $lte: to }, to: { $gte: from } })
+            .sort({ from: 1 }).lean();
+        const points = [];
+        for (const upload of uploads) {
+            for (const point of trackCodec.decode(upload.data.buffer || upload.data)) {
+                if (point.t >= from.getTime() && point.t <= to.getTime()) points.push(point);
+            }
+        }
+        points.sort((a, b) => a.t - b.t);
+        res.json({ from, to, count: points.length, points });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // FCM Token Registration
 // POST /api/customers/:id/fcm-token
 router.post('/:id/fcm-token', async (req, res) => {
@@ -3,6 +3,7 @@ const router = express.Router();
 const Device = require('../models/Device');
 const Customer = require('../models/Customer');
 const crypto = require('crypto');
+const { syncPage, isSyncRequest } = require('../utils/syncPage');
 
 /**
  * Device Management Routes
@@ -19,6 +20,12 @@ router.get('/', async (req, res) => {
         if (platform) filter.platform = platform;
         if (customerId) filter.assignedCustomerId = customerId;
 
+        // Incremental sync (admin app FleetData plugin): raw devices - the app joins
+        // customer fields from its own customer cache, so a lock change is not a device change
+        if (isSyncRequest(req.query)) {
+            return res.json(await syncPage(Device, filter, req.query));
+        }
+
         const devices = await Device.find(filter)
             .sort({ updatedAt: -1 })
             .lean();
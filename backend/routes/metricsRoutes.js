@@ -0,0 +1,33 @@
+const express = require('express');
+const router = express.Router();
+const auth = require('../middleware/auth');
+const fleetMetrics = require('../services/fleetMetrics');
+const logger = require('../config/logger');
+
+const MAX_HOURS = 30 * 24;
+
+/**
+ * @route   GET /api/metrics/fleet?name=poll.rtt_ms&hours=24
+ * @desc    Fleet-wide percentiles / totals for one Admin DPC metric
+ * @access  Private
+ */
+router.get('/fleet', auth, async (req, res) => {
+    try {
+        const { name } = req.query;
+        if (!name) {
+            return res.status(400).json({ success: false, message: 'name is required' });
+        }
+        const hours = Math.min(Math.max(parseInt(req.query.hours, 10) || 24, 1), MAX_HOURS);
+
+        const summary = await fleetMetrics.summary(String(name), hours);
+        if (!summary) {
+            return res.status(404).json({ success: false, message: 'No data for metric' });
+        }
+        res.json({ success: true, metric: summary });
+    } catch (err) {
+        logger.error('Fleet metrics error:', err);
+        res.status(500).json({ success: false, message: err.message });
+    }
+});
+
+module.exports = router;
@@ -2,12 +2,24 @@ const express = require('express');
 const router = express.Router();
 const path = require('path');
 const fs = require('fs');
+const crypto = require('crypto');
 const { getApkChecksum } = require('../utils/checksum');
+const Customer = require('../models/Customer');
+const auth = require('../middleware/auth');
+const { hashSecret } = require('../middleware/deviceAuth');
+
+// The QR's enrollment token is exchanged once for the device key (POST /api/customers/:id/enroll)
+const ENROLLMENT_TTL_MS = 7 * 24 * 3600 * 1000;
 
 // GET /api/provisioning/payload/:customerId
-router.get('/payload/:customerId', (req, res) => {
+// Dealer only: the payload carries a fresh one-time enrollment token for the device
+router.get('/payload/:customerId', auth, async (req, res) => {
     try {
         const { customerId } = req.params;
+        const filter = { id: customerId };
+        if (req.user && req.user.role !== 'SUPER_ADMIN') {
+            filter.dealerId = req.user._id;
+        }
         const { wifiSsid, wifiPassword } = req.query; // Accept Wi-Fi credentials for Samsung Knox
 
         // 🎯 DYNAMIC: Use current host to support both Local and Production testing
@@ -18,6 +30,10 @@ router.get('/payload/:customerId', (req, res) => {
         // If running on localhost, use local IP. Otherwise prefer Env var or default to Render
         const baseUrl = isNetworkIp ? `${protocol}://${host}` : (process.env.PROVISIONING_BASE_URL || 'https://fins-pro.onrender.com');
 
+        // Optional failover endpoints for the agent, tried after baseUrl (comma separated)
+        const fallbackUrls = (process.env.PROVISIONING_FALLBACK_URLS || '')
+            .split(',').map(url => url.trim()).filter(url => url && url !== baseUrl);
+
         // 🎯 ADMIN APK - OEM-Grade Device Owner (Pure Java)
         const apkVersion = '3.1.0';
         const apkFileName = `admin-v${apkVersion}.apk`;
@@ -46,6 +62,19 @@ router.get('/payload/:customerId', (req, res) => {
 
         console.log(`📦 APK Download URL: ${downloadUrl}`);
 
+        // Lender name is shown on the lock screen before the first status poll
+        const customer = await Customer.findOne(filter).select('financeName').lean();
+        if (!customer) {
+            return res.status(404).json({ error: 'Customer not found or access denied' });
+        }
+        const lenderName = customer.financeName;
+
+        // A new QR replaces any unused token; an enrolled device keeps its key until it enrolls again
+        const enrollmentToken = crypto.randomBytes(24).toString('base64url');
+        await Customer.updateOne(filter, {
+            $set: { deviceBindToken: hashSecret(enrollmentToken), bindTokenExpiresAt: new Date(Date.now() + ENROLLMENT_TTL_MS) }
+        });
+
         // Construct Android Enterprise Provisioning Payload (SAMSUNG-SAFE)
         const payload = {
             "android.app.extra.PROVISIONING_DEVICE_ADMIN_COMPONENT_NAME":
@@ -72,7 +101,10 @@ router.get('/payload/:customerId', (req, res) => {
             // Admin extras bundle
             "android.app.extra.PROVISIONING_ADMIN_EXTRAS_BUNDLE": {
                 "customerId": customerId,
-                "serverUrl": baseUrl
+                "serverUrl": baseUrl,
+                "enrollmentToken": enrollmentToken,
+                ...(fallbackUrls.length && { "serverUrls": fallbackUrls.join(',') }),
+                ...(lenderName && { "lenderName": lenderName })
             }
         };
 
@@ -89,7 +121,32 @@ router.get('/payload/:customerId', (req, res) => {
     }
 });
 
-module.exports = router;
+// Stages the DPC can report (Customer.provisioningStages enum)
+const PROVISIONING_STAGES = Customer.schema.path('provisioningStages').schema.path('stage').enumValues;
+const PROVISIONING_STATUSES = ['pending', 'in_progress', 'success', 'failed'];
+const MAX_STAGE_HISTORY = 100;
+const MAX_BATCH_EVENTS = 64;
+
+// deviceStatus.status implied by the newest stage that changes it
+function deviceStatusFor(events) {
+    let status = null;
+    for (const event of events) {
+        if (event.stage === 'DPC_INSTALLED') status = 'ADMIN_INSTALLED';
+        else if (event.stage === 'PROVISIONING_COMPLETE') status = event.status === 'success' ? 'connected' : 'warning';
+    }
+    return status;
+}
+
+// One atomic update per report, so concurrent reports from a batch session never overwrite each other
+async function recordStages(customerId, events) {
+    const update = {
+        $push: { provisioningStages: { $each: events, $slice: -MAX_STAGE_HISTORY } }
+    };
+    const status = deviceStatusFor(events);
+    if (status) update.$set = { 'deviceStatus.status': status };
+    const result = await Customer.updateOne({ id: customerId }, update);
+    return result.matchedCount > 0;
+}
 
 // POST /api/provisioning/status/:customerId - Update provisioning progress
 router.post('/status/:customerId', async (req, res) => {
@@ -97,31 +154,19 @@ router.post('/status/:customerId', async (req, res) => {
         const { customerId } = req.params;
         const { stage, status, message } = req.body;
 
-        const Customer = require('../models/Customer');
-        const customer = await Customer.findOne({ customerId });
-
-        if (!customer) {
-            return res.status(404).json({ error: 'Customer not found' });
+        if (!PROVISIONING_STAGES.includes(stage)) {
+            return res.status(400).json({ error: 'Unknown stage' });
         }
-
-        // Add new provisioning stage
-        customer.provisioningStages = customer.provisioningStages || [];
-        customer.provisioningStages.push({
+        const found = await recordStages(customerId, [{
             stage,
             status,
             message: message || '',
             timestamp: new Date()
-        });
-
-        // Update device status based on stage
-        if (stage === 'DPC_INSTALLED') {
-            customer.deviceStatus.status = 'ADMIN_INSTALLED';
-        } else if (stage === 'PROVISIONING_COMPLETE') {
-            customer.deviceStatus.status = 'connected';
+        }]);
+        if (!found) {
+            return res.status(404).json({ error: 'Customer not found' });
         }
 
-        await customer.save();
-
         console.log(`✅ Provisioning status updated: ${customerId} - ${stage} (${status})`);
         res.json({ success: true, stage, status });
 
@@ -130,3 +175,81 @@ router.post('/status/:customerId', async (req, res) => {
         res.status(500).json({ error: 'Failed to update provisioning status' });
     }
 });
+
+// POST /api/provisioning/status/:customerId/batch - Several steps in one request (ProvisioningPipeline)
+// Body: { events: [{ stage, status, message, timestamp }] } - device timestamps, oldest first
+router.post('/status/:customerId/batch', async (req, res) => {
+    try {
+        const { customerId } = req.params;
+        const raw = Array.isArray(req.body.events) ? req.body.events.slice(0, MAX_BATCH_EVENTS) : [];
+        const now = Date.now();
+        const events = raw
+            .filter(e => e && PROVISIONING_STAGES.includes(e.stage) && PROVISIONING_STATUSES.includes(e.status))
+            .map(e => ({
+                stage: e.stage,
+                status: e.status,
+                message: typeof e.message === 'string' ? e.message.slice(0, 500) : '',
+                // Device clocks can be off before the first NTP sync - never store the future
+                timestamp: new Date(Number.isFinite(e.timestamp) ? Math.min(e.timestamp, now) : now)
+            }))
+            .sort((a, b) => a.timestamp - b.timestamp);
+        if (events.length === 0) {
+            return res.status(400).json({ error: 'No valid events' });
+        }
+
+        const found = await recordStages(customerId, events);
+        if (!found) {
+            return res.status(404).json({ error: 'Customer not found' });
+        }
+
+        const last = events[events.length - 1];
+        console.log(`✅ Provisioning status updated: ${customerId} - ${events.length} step(s), last ${last.stage} (${last.status})`);
+        res.json({ success: true, accepted: events.length, skipped: raw.length - events.length });
+
+    } catch (err) {
+        console.error('❌ Provisioning batch status error:', err);
+        res.status(500).json({ error: 'Failed to update provisioning status' });
+    }
+});
+
+// Stage shown for a device: the latest one, unless a step of the current run failed.
+// A run starts at DEVICE_OWNER_SET; agents before the final-stage fix still report
+// PROVISIONING_COMPLETE as success after a failed step, so the whole run is checked.
+function summarizeStages(stages) {
+    let runStart = 0;
+    stages.forEach((s, i) => { if (s.stage === 'DEVICE_OWNER_SET') runStart = i; });
+    const failed = stages.slice(runStart).find(s => s.status === 'failed');
+    return failed || stages[stages.length - 1] || null;
+}
+
+// GET /api/provisioning/status?ids=a,b,c - Current stage per device for the batch provisioning page
+router.get('/status', async (req, res) => {
+    try {
+        const ids = String(req.query.ids || '').split(',').map(id => id.trim()).filter(Boolean).slice(0, 100);
+        if (ids.length === 0) {
+            return res.json({ devices: [] });
+        }
+        const customers = await Customer.find({ id: { $in: ids } })
+            .select({ id: 1, 'deviceStatus.status': 1, provisioningStages: { $slice: -MAX_STAGE_HISTORY } })
+            .lean();
+
+        res.json({
+            devices: customers.map(c => {
+                const latest = summarizeStages(c.provisioningStages || []);
+                return {
+                    id: c.id,
+                    deviceStatus: c.deviceStatus?.status || null,
+                    stage: latest?.stage || null,
+                    status: latest?.status || null,
+                    message: latest?.message || null,
+                    timestamp: latest?.timestamp || null
+                };
+            })
+        });
+    } catch (err) {
+        console.error('❌ Provisioning status lookup error:', err);
+        res.status(500).json({ error: 'Failed to load provisioning status' });
+    }
+});
+
+module.exports = router;
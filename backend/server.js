@@ -139,7 +139,7 @@ app.get('/healthz', (req, res) => {
 
 // Health Check (detailed)
 app.get('/health', (req, res) => {
-    res.json({ status: 'ok', timestamp: new Date() });
+    res.json({ status: 'ok', timestamp: new Date(), push: require('./services/pushHub').stats() });
 });
 
 // Version Info - Dynamic (Reads from version.json)
@@ -169,6 +169,7 @@ app.use('/api/customers', require('./routes/customerRoutes'));
 app.use('/api/devices', require('./routes/deviceRoutes'));
 app.use('/api/provisioning', require('./routes/provisioningRoutes'));
 app.use('/api/payments', require('./routes/paymentRoutes'));
+app.use('/api/metrics', require('./routes/metricsRoutes')); // Fleet roll-up of device metrics
 app.use('/api', require('./routes/versionRoutes'));
 
 // Serve frontend build (production)
@@ -183,11 +184,16 @@ app.get(/^(?!\/(api|downloads|assets|apk|staff|healthz|health|version|debug-file
 app.use(errorHandler);
 
 // Start HTTP Server FIRST (Render health checks need this)
-app.listen(PORT, '0.0.0.0', () => {
+const server = app.listen(PORT, '0.0.0.0', () => {
     logger.logSystemEvent('Server Started', { port: PORT, env: process.env.NODE_ENV || 'development' });
     console.log(`🚀 Server listening on 0.0.0.0:${PORT}`);
 });
 
+// Keep idle device connections open between polls (agent pool keep-alive is 130s).
+// Node's 5s default forces a fresh TCP + TLS handshake on nearly every poll.
+server.keepAliveTimeout = 150 * 1000;
+server.headersTimeout = 151 * 1000; // Must exceed keepAliveTimeout
+
 // MongoDB Connection (non-blocking - server starts even if DB is down)
 mongoose.connect(process.env.MONGODB_URI)
     .then(() => {
@@ -0,0 +1,114 @@
+const crypto = require('crypto');
+const fs = require('fs');
+const path = require('path');
+
+/**
+ * Admin Release - Staged self-update rollout for the Admin DPC (SelfUpdater)
+ *
+ * The admin entry of public/downloads/version.json is the release:
+ * - versionCode / apk: the build and its path under public (served with Range support)
+ * - rollout: percent of devices offered the build (default 0 - nothing ships by accident)
+ * - spreadHours: device start times are spread over this window after updatedAt
+ * - maxBytesPerSec / allowMetered: per-device download limits
+ * - signature: optional base64 SHA256withECDSA signature of the APK by the release key
+ *   (openssl dgst -sha256 -sign release-key.pem admin.apk | base64)
+ *
+ * A device's bucket comes from a hash of its id and the versionCode, so raising
+ * the percentage keeps the devices already included and every release picks
+ * a different first wave. SHA-256 and size of the APK are computed on demand
+ * and cached until the file changes.
+ */
+
+const VERSION_PATH = path.join(__dirname, '../public/downloads/version.json');
+const PUBLIC_DIR = path.join(__dirname, '../public');
+const RELOAD_MS = 10 * 1000; // The lock view asks on every poll - stat at most this often
+
+let cached = null;
+let cachedMtime = 0;
+let checkedAt = 0;
+const digests = new Map(); // apk path -> { mtimeMs, size, sha256 }
+
+function release() {
+    const now = Date.now();
+    if (now - checkedAt < RELOAD_MS) return cached;
+    checkedAt = now;
+    try {
+        const { mtimeMs } = fs.statSync(VERSION_PATH);
+        if (mtimeMs !== cachedMtime) {
+            const admin = JSON.parse(fs.readFileSync(VERSION_PATH, 'utf8')).admin;
+            cached = admin && Number.isInteger(admin.versionCode) && admin.apk ? admin : null;
+            cachedMtime = mtimeMs;
+        }
+    } catch (err) {
+        cached = null;
+        cachedMtime = 0;
+    }
+    return cached;
+}
+
+/** versionCode advertised on the lock view, or null if there is no release. */
+function advertisedVersionCode() {
+    const admin = release();
+    return admin ? admin.versionCode : null;
+}
+
+/** Stable 0..1 position of a device within one release. */
+function bucketOf(customerId, versionCode) {
+    const hash = crypto.createHash('sha256').update(`${customerId}:${versionCode}`).digest();
+    return hash.readUInt32BE(0) / 0x100000000;
+}
+
+function digestOf(filePath) {
+    const { mtimeMs, size } = fs.statSync(filePath);
+    const known = digests.get(filePath);
+    if (known && known.mtimeMs === mtimeMs && known.size === size) {
+        return Promise.resolve(known);
+    }
+    return new Promise((resolve, reject) => {
+        const hash = crypto.createHash('sha256');
+        fs.createReadStream(filePath)
+            .on('data', chunk => hash.update(chunk))
+            .on('error', reject)
+            .on('end', () => {
+                const entry = { mtimeMs, size, sha256: hash.digest('hex') };
+                digests.set(filePath, entry);
+                resolve(entry);
+            });
+    });
+}
+
+/**
+ * Offer for one device, or null if it is up to date or outside the rollout.
+ * startAfterMs > 0 means the device's slot in the spread window is still ahead.
+ */
+async function offerFor(customerId, installedVersionCode, now = Date.now()) {
+    const admin = release();
+    if (!admin || !(admin.versionCode > installedVersionCode)) return null;
+
+    const bucket = bucketOf(customerId, admin.versionCode);
+    if (bucket * 100 >= (admin.rollout || 0)) return null;
+
+    const apkPath = path.join(PUBLIC_DIR, path.normalize(admin.apk).replace(/^([/\\])+/, ''));
+    if (!apkPath.startsWith(PUBLIC_DIR)) return null;
+    const { size, sha256 } = await digestOf(apkPath);
+
+    const releasedAt = Date.parse(admin.updatedAt) || now;
+    const spreadMs = (admin.spreadHours || 0) * 3600 * 1000;
+    // Position within the rollout share, so each step of the percentage spreads over the whole window
+    const slot = admin.rollout > 0 ? (bucket * 100) / admin.rollout : 0;
+    const startAfterMs = Math.max(0, Math.round(releasedAt + slot * spreadMs - now));
+
+    return {
+        versionCode: admin.versionCode,
+        version: admin.version,
+        url: admin.apk,
+        size,
+        sha256,
+        signature: admin.signature || undefined,
+        maxBytesPerSec: admin.maxBytesPerSec || 0,
+        allowMetered: !!admin.allowMetered,
+        startAfterMs
+    };
+}
+
+module.exports = { advertisedVersionCode, offerFor, bucketOf };
@@ -0,0 +1,97 @@
+const FleetMetric = require('../models/FleetMetric');
+const histogram = require('../utils/metricsHistogram');
+
+/**
+ * Fleet Metrics - Roll-up of Admin DPC MetricsRegistry snapshots
+ *
+ * Devices attach { seq, c, g, h } to their telemetry batch with only the
+ * deltas since their last acknowledged batch:
+ * - c: counter deltas, $inc'ed into count
+ * - g: gauge values, count/sum so the fleet mean can be derived
+ * - h: histograms { n, s, b } with delta-encoded buckets, $inc'ed per bucket
+ * Everything lands in one FleetMetric document per metric per UTC hour via a
+ * single unordered bulkWrite, so ingest cost does not grow with history.
+ */
+
+const HOUR_MS = 3600 * 1000;
+const MAX_METRICS_PER_REPORT = 64;
+const METRIC_NAME = /^[a-z0-9._]{1,64}$/;
+
+function hourOf(timeMs) {
+    return new Date(Math.floor(timeMs / HOUR_MS) * HOUR_MS);
+}
+
+function upsert(name, hour, kind, inc) {
+    return {
+        updateOne: {
+            filter: { name, hour },
+            update: { $setOnInsert: { kind }, $inc: inc },
+            upsert: true
+        }
+    };
+}
+
+/** Builds the bulk ops for one device report; invalid entries are skipped. */
+function opsFor(metrics, now = Date.now()) {
+    const hour = hourOf(now);
+    const ops = [];
+    const entries = (group) => (group && typeof group === 'object' ? Object.entries(group) : [])
+        .filter(([name]) => METRIC_NAME.test(name));
+
+    for (const [name, delta] of entries(metrics.c)) {
+        if (Number.isFinite(delta) && delta > 0) {
+            ops.push(upsert(name, hour, 'counter', { count: delta, devices: 1 }));
+        }
+    }
+    for (const [name, value] of entries(metrics.g)) {
+        if (Number.isFinite(value)) {
+            ops.push(upsert(name, hour, 'gauge', { count: 1, sum: value, devices: 1 }));
+        }
+    }
+    for (const [name, h] of entries(metrics.h)) {
+        const buckets = h && histogram.decodeBuckets(h.b);
+        if (!buckets || !Number.isFinite(h.s)) continue;
+        const inc = { count: 0, sum: h.s, devices: 1 };
+        for (const [index, count] of Object.entries(buckets)) {
+            inc[`buckets.${index}`] = count;
+            inc.count += count;
+        }
+        ops.push(upsert(name, hour, 'histogram', inc));
+    }
+    return ops.slice(0, MAX_METRICS_PER_REPORT);
+}
+
+async function ingest(metrics) {
+    if (!metrics || typeof metrics !== 'object') return 0;
+    const ops = opsFor(metrics);
+    if (ops.length > 0) await FleetMetric.bulkWrite(ops, { ordered: false });
+    return ops.length;
+}
+
+/** Merged view of one metric over the last `hours` hours. */
+async function summary(name, hours) {
+    const since = hourOf(Date.now() - (hours - 1) * HOUR_MS);
+    const docs = await FleetMetric.find({ name, hour: { $gte: since } }).sort({ hour: 1 }).lean();
+    if (docs.length === 0) return null;
+
+    const result = { name, kind: docs[0].kind, hours, count: 0, sum: 0, reports: 0 };
+    const buckets = {};
+    for (const doc of docs) {
+        result.count += doc.count || 0;
+        result.sum += doc.sum || 0;
+        result.reports += doc.devices || 0;
+        if (doc.buckets) histogram.mergeBuckets(buckets, doc.buckets);
+    }
+    if (result.kind === 'gauge') {
+        result.mean = result.count > 0 ? result.sum / result.count : null;
+    } else if (result.kind === 'histogram') {
+        result.mean = result.count > 0 ? result.sum / result.count : null;
+        result.p50 = histogram.percentile(buckets, 50);
+        result.p90 = histogram.percentile(buckets, 90);
+        result.p99 = histogram.percentile(buckets, 99);
+        result.max = histogram.percentile(buckets, 100);
+    }
+    return result;
+}
+
+module.exports = { ingest, summary, opsFor };
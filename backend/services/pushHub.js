@@ -0,0 +1,195 @@
+const logger = require('../config/logger');
+
+/**
+ * Push Hub - Server-Sent Events fan-out for the Admin DPC
+ *
+ * Each device holds one idle GET /api/customers/:id/stream connection instead
+ * of polling GET /api/customers/:id every few seconds.
+ * - One shared heartbeat timer writes ":" comments to every open stream
+ * - Events carry ids "<bootId>-<seq>"; a reconnect with Last-Event-ID replays
+ *   what it missed from a small per-customer ring, or gets a fresh snapshot
+ *   (always, when its ring has expired)
+ * - State is published from Customer model hooks and de-duplicated, so
+ *   heartbeats and unrelated updates never reach the device
+ *
+ * In-process only: with several app instances a device is only notified by
+ * the instance it is connected to, and its safety poll covers the rest.
+ */
+
+const HEARTBEAT_INTERVAL_MS = 25 * 1000;
+const RETRY_HINT_MS = 5000;
+const REPLAY_BUFFER_SIZE = 8;
+const REPLAY_TTL_MS = 10 * 60 * 1000;
+
+const bootId = Date.now().toString(36);
+let seq = 0;
+
+// customerId -> Set<res>
+const subscribers = new Map();
+// customerId -> { key, events: [{ seq, id, type, data, at }] }
+const channels = new Map();
+
+let heartbeatTimer = null;
+
+function stateOf(customer) {
+    const remoteCommand = customer.remoteCommand && customer.remoteCommand.command
+        ? {
+            command: customer.remoteCommand.command,
+            params: customer.remoteCommand.params || {},
+            timestamp: customer.remoteCommand.timestamp
+        }
+        : null;
+
+    return {
+        id: customer.id,
+        isLocked: !!customer.isLocked,
+        lockMessage: customer.lockMessage || null,
+        supportPhone: customer.supportPhone || null,
+        command: remoteCommand
+    };
+}
+
+function stateKey(state) {
+    const commandTs = state.command && state.command.timestamp
+        ? new Date(state.command.timestamp).getTime()
+        : 0;
+    return `${state.isLocked}|${state.lockMessage}|${state.supportPhone}|${commandTs}`;
+}
+
+function writeEvent(res, event) {
+    res.write(`id: ${event.id}\nevent: ${event.type}\ndata: ${event.data}\n\n`);
+}
+
+function ensureHeartbeat() {
+    if (heartbeatTimer) return;
+    heartbeatTimer = setInterval(() => {
+        const now = Date.now();
+        for (const streams of subscribers.values()) {
+            for (const res of streams) {
+                res.write(': ping\n\n');
+            }
+        }
+        // Drop replay buffers nobody can resume from any more
+        for (const [customerId, channel] of channels) {
+            const last = channel.events[channel.events.length - 1];
+            if (!subscribers.has(customerId) && (!last || now - last.at > REPLAY_TTL_MS)) {
+                channels.delete(customerId);
+            }
+        }
+        if (subscribers.size === 0 && channels.size === 0) {
+            clearInterval(heartbeatTimer);
+            heartbeatTimer = null;
+        }
+    }, HEARTBEAT_INTERVAL_MS);
+    heartbeatTimer.unref();
+}
+
+function parseEventId(lastEventId) {
+    if (!lastEventId) return null;
+    const [boot, n] = String(lastEventId).split('-');
+    const parsed = parseInt(n, 10);
+    if (boot !== bootId || Number.isNaN(parsed)) return null;
+    return parsed;
+}
+
+function nextEvent(type, payload) {
+    seq += 1;
+    return { seq, id: `${bootId}-${seq}`, type, data: JSON.stringify(payload), at: Date.now() };
+}
+
+/**
+ * Attach an SSE stream for a customer.
+ * @param {object} customer - Lean customer doc (id, isLocked, lockMessage, supportPhone, remoteCommand)
+ */
+function subscribe(customer, req, res) {
+    const customerId = customer.id;
+
+    res.status(200);
+    res.set({
+        'Content-Type': 'text/event-stream',
+        'Cache-Control': 'no-cache, no-transform',
+        'Connection': 'keep-alive',
+        'X-Accel-Buffering': 'no'
+    });
+    res.flushHeaders();
+    res.write(`retry: ${RETRY_HINT_MS}\n\n`);
+
+    const state = stateOf(customer);
+    // A new channel has no history to replay from: it was never created or has expired, and
+    // updates made meanwhile were not recorded, so an up-to-date Last-Event-ID proves nothing
+    let channel = channels.get(customerId);
+    const fresh = !channel;
+    if (fresh) {
+        channel = { key: stateKey(state), events: [] };
+        channels.set(customerId, channel);
+    }
+
+    // Resume: replay missed events if the ring still covers them, otherwise send a snapshot
+    const lastSeq = parseEventId(req.get('Last-Event-ID'));
+    const oldest = channel.events.length > 0 ? channel.events[0].seq : seq + 1;
+    if (!fresh && lastSeq !== null && lastSeq >= oldest - 1) {
+        channel.events.filter(e => e.seq > lastSeq).forEach(e => writeEvent(res, e));
+    } else {
+        channel.key = stateKey(state);
+        writeEvent(res, nextEvent('state', state));
+    }
+
+    let streams = subscribers.get(customerId);
+    if (!streams) {
+        streams = new Set();
+        subscribers.set(customerId, streams);
+    }
+    streams.add(res);
+    ensureHeartbeat();
+
+    req.on('close', () => {
+        streams.delete(res);
+        if (streams.size === 0) subscribers.delete(customerId);
+    });
+}
+
+/** Is anyone listening (or able to resume) for this customer? */
+function hasInterest(customerId) {
+    return subscribers.has(customerId) || channels.has(customerId);
+}
+
+/**
+ * Publish the customer's device-facing state if it changed since the last event.
+ * Called from Customer model hooks after every save / findOneAndUpdate.
+ */
+function publishState(customer) {
+    if (!customer || !hasInterest(customer.id)) return;
+
+    const state = stateOf(customer);
+    const key = stateKey(state);
+    const channel = channels.get(customer.id);
+    if (channel.key === key) return;
+
+    const event = nextEvent('state', state);
+    channel.key = key;
+    channel.events.push(event);
+    if (channel.events.length > REPLAY_BUFFER_SIZE) channel.events.shift();
+
+    const streams = subscribers.get(customer.id);
+    if (streams) {
+        streams.forEach(res => writeEvent(res, event));
+    }
+    logger.info('Push state published', {
+        customerId: customer.id,
+        isLocked: state.isLocked,
+        streams: streams ? streams.size : 0
+    });
+}
+
+function stats() {
+    let streams = 0;
+    for (const set of subscribers.values()) streams += set.size;
+    return { customers: subscribers.size, streams, replayChannels: channels.size };
+}
+
+module.exports = {
+    subscribe,
+    publishState,
+    hasInterest,
+    stats
+};
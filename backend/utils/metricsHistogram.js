@@ -0,0 +1,62 @@
+/**
+ * Log-linear histogram buckets shared with MetricsRegistry on the Admin DPC.
+ *
+ *   value < 8      -> bucket = value (exact)
+ *   value >= 8     -> 8 linear sub-buckets per power of two (<= 12.5% error)
+ *   value >= 2^40  -> overflow bucket (BUCKETS - 1)
+ *
+ * Devices send only non-empty buckets as [gap, count, gap, count, ...] where
+ * gap is the distance from the previous bucket index (the first from 0).
+ */
+const SUB_BUCKET_BITS = 3;
+const SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+const MAX_EXPONENT = 40;
+const BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+function bucketLowerBound(index) {
+    if (index < SUB_BUCKETS) return index;
+    const exponent = Math.floor(index / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+    const sub = index % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) * 2 ** (exponent - SUB_BUCKET_BITS);
+}
+
+/** Delta-encoded device buckets -> { index: count }. Malformed input yields null. */
+function decodeBuckets(encoded) {
+    if (!Array.isArray(encoded) || encoded.length % 2 !== 0) return null;
+    const buckets = {};
+    let index = 0;
+    for (let i = 0; i < encoded.length; i += 2) {
+        const gap = encoded[i];
+        const count = encoded[i + 1];
+        if (!Number.isInteger(gap) || gap < 0 || !Number.isInteger(count) || count <= 0) return null;
+        index += gap;
+        if (index >= BUCKETS) return null;
+        buckets[index] = (buckets[index] || 0) + count;
+    }
+    return buckets;
+}
+
+/** Adds { index: count } maps (plain objects or Mongoose Maps) into target. */
+function mergeBuckets(target, source) {
+    const entries = source instanceof Map ? source.entries() : Object.entries(source || {});
+    for (const [index, count] of entries) {
+        target[index] = (target[index] || 0) + count;
+    }
+    return target;
+}
+
+/** Lower bound of the bucket holding the p-th percentile, or null when empty. */
+function percentile(buckets, p) {
+    const indexes = Object.keys(buckets).map(Number).sort((a, b) => a - b);
+    const total = indexes.reduce((sum, index) => sum + buckets[index], 0);
+    if (total === 0) return null;
+    const rank = Math.max(1, Math.ceil((p / 100) * total));
+    let seen = 0;
+    for (const index of indexes) {
+        seen += buckets[index];
+        if (seen >= rank) return bucketLowerBound(index);
+    }
+    return bucketLowerBound(indexes[indexes.length - 1]);
+}
+
+module.exports = { BUCKETS, bucketLowerBound, decodeBuckets, mergeBuckets, percentile };
@@ -0,0 +1,62 @@
+const crypto = require('crypto');
+
+/**
+ * Offline lock/unlock codes (TOTP-style, RFC 6238 truncation).
+ *
+ *   code    = truncate(HMAC-SHA256(secret, counter || purpose)) mod 10^digits
+ *   counter = floor(unixSeconds / period)
+ *
+ * Must match OfflineCodeVerifier on the Admin DPC. The device accepts the
+ * previous, current and next period; each counter can be redeemed once.
+ */
+const PERIOD_SECONDS = 300;
+const DIGITS = 8;
+const PURPOSE = { unlock: 1, lock: 2 };
+
+// Field unlocks may be reported days later when the device regains network
+const REDEEM_MAX_AGE_COUNTERS = Math.ceil((7 * 24 * 3600) / PERIOD_SECONDS);
+
+function generateSecret() {
+    return crypto.randomBytes(32).toString('base64');
+}
+
+function counterAt(timeMs = Date.now()) {
+    return Math.floor(timeMs / 1000 / PERIOD_SECONDS);
+}
+
+function codeFor(secret, purpose, counter) {
+    const message = Buffer.alloc(9);
+    message.writeBigUInt64BE(BigInt(counter), 0);
+    message.writeUInt8(PURPOSE[purpose], 8);
+
+    const hash = crypto.createHmac('sha256', Buffer.from(secret, 'base64')).update(message).digest();
+    const offset = hash[hash.length - 1] & 0x0f;
+    const binary = hash.readUInt32BE(offset) & 0x7fffffff;
+    return binary % 10 ** DIGITS;
+}
+
+/** Zero-padded codes for the current period, for the dealer dashboard. */
+function currentCodes(secret, timeMs = Date.now()) {
+    const counter = counterAt(timeMs);
+    const pad = (code) => String(code).padStart(DIGITS, '0');
+    return {
+        unlockCode: pad(codeFor(secret, 'unlock', counter)),
+        lockCode: pad(codeFor(secret, 'lock', counter)),
+        period: PERIOD_SECONDS,
+        validUntil: new Date((counter + 2) * PERIOD_SECONDS * 1000) // Device accepts one period of drift
+    };
+}
+
+/**
+ * Check a code the device already accepted offline.
+ * @returns {boolean} true if the code matches its counter and the counter is redeemable
+ */
+function verifyRedeem(secret, purpose, counter, code, lastCounter, timeMs = Date.now()) {
+    if (!Number.isSafeInteger(counter) || !Number.isSafeInteger(code)) return false;
+    const now = counterAt(timeMs);
+    if (counter > now + 1 || counter < now - REDEEM_MAX_AGE_COUNTERS) return false;
+    if (lastCounter != null && counter <= lastCounter) return false;
+    return codeFor(secret, purpose, counter) === code;
+}
+
+module.exports = { PERIOD_SECONDS, DIGITS, generateSecret, counterAt, codeFor, currentCodes, verifyRedeem };
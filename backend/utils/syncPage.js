@@ -0,0 +1,70 @@
+const mongoose = require('mongoose');
+
+/**
+ * Sync Page - Keyset paging for incremental list sync (admin app FleetData plugin)
+ *
+ * Lists are read in (updatedAt, _id) order from a cursor, so a client that keeps
+ * the cursor of its last page only ever downloads what changed since:
+ * - ?since=<cursor>&limit=<n>: cursor is "<updatedAtMs>_<ObjectId>" from the previous
+ *   page; empty or unreadable starts from the beginning (a full resync)
+ * - Response: { items, cursor, hasMore, total } - total (count of the whole filter)
+ *   only on the last page, so the client can notice deleted documents
+ * - The body depends only on the data, so Express's ETag answers an unchanged
+ *   page with a bodiless 304 (If-None-Match)
+ *
+ * Documents saved before timestamps existed have no updatedAt; they sort first
+ * and are paged by _id alone.
+ */
+
+const DEFAULT_LIMIT = 200;
+const MAX_LIMIT = 500;
+
+function isSyncRequest(query) {
+    return query.since !== undefined || query.limit !== undefined;
+}
+
+function parseCursor(value) {
+    const match = /^(\d+)_([0-9a-f]{24})$/.exec(typeof value === 'string' ? value : '');
+    if (!match) return null;
+    return { at: Number(match[1]), id: new mongoose.Types.ObjectId(match[2]) };
+}
+
+function cursorOf(doc) {
+    return `${doc.updatedAt ? new Date(doc.updatedAt).getTime() : 0}_${doc._id}`;
+}
+
+function afterCursor(cursor) {
+    if (cursor.at === 0) {
+        // Still among the documents without updatedAt
+        return { $or: [{ updatedAt: null, _id: { $gt: cursor.id } }, { updatedAt: { $ne: null } }] };
+    }
+    const at = new Date(cursor.at);
+    return { $or: [{ updatedAt: { $gt: at } }, { updatedAt: at, _id: { $gt: cursor.id } }] };
+}
+
+/**
+ * One page of Model documents matching filter, after query.since.
+ * @param {object} [options] - select / populate applied to the page query
+ */
+async function syncPage(Model, filter, query, options = {}) {
+    const limit = Math.min(Math.max(parseInt(query.limit, 10) || DEFAULT_LIMIT, 1), MAX_LIMIT);
+    const cursor = parseCursor(query.since);
+    const pageFilter = cursor ? { $and: [filter, afterCursor(cursor)] } : filter;
+
+    let pageQuery = Model.find(pageFilter).sort({ updatedAt: 1, _id: 1 }).limit(limit + 1);
+    if (options.select) pageQuery = pageQuery.select(options.select);
+    if (options.populate) pageQuery = pageQuery.populate(options.populate.path, options.populate.select);
+    const docs = await pageQuery.lean();
+
+    const hasMore = docs.length > limit;
+    const items = hasMore ? docs.slice(0, limit) : docs;
+    const page = {
+        items,
+        cursor: items.length ? cursorOf(items[items.length - 1]) : (cursor ? query.since : ''),
+        hasMore
+    };
+    if (!hasMore) page.total = await Model.countDocuments(filter);
+    return page;
+}
+
+module.exports = { syncPage, isSyncRequest, DEFAULT_LIMIT, MAX_LIMIT };
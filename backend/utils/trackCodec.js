@@ -0,0 +1,54 @@
+/**
+ * Location track blocks uploaded by the Admin DPC (LocationTracker).
+ *
+ *   block  = u8 FORMAT, varint count, point[count]
+ *   point0 = zigzag(unixSeconds), zigzag(latE5), zigzag(lngE5), varint accuracyM
+ *   pointN = zigzag(dSeconds),    zigzag(dLatE5), zigzag(dLngE5), varint accuracyM
+ *
+ * Must match TrackCodec on the device. Values go past 2^31 (unix seconds
+ * zigzagged), so varints are decoded with arithmetic, not bitwise operators.
+ */
+const FORMAT = 1;
+const SCALE = 1e5;
+
+function readVarint(buf, state) {
+    let value = 0;
+    let factor = 1;
+    for (;;) {
+        if (state.pos >= buf.length) throw new Error('Truncated track block');
+        const b = buf[state.pos++];
+        value += (b & 0x7f) * factor;
+        if (b < 0x80) return value;
+        factor *= 128;
+        if (factor > 2 ** 56) throw new Error('Varint too long');
+    }
+}
+
+function readZigzag(buf, state) {
+    const n = readVarint(buf, state);
+    return n % 2 === 0 ? n / 2 : -(n + 1) / 2;
+}
+
+/** All points in a buffer of concatenated blocks, oldest first: [{ t, lat, lng, acc }] */
+function decode(buf) {
+    const points = [];
+    const state = { pos: 0 };
+    while (state.pos < buf.length) {
+        const format = buf[state.pos++];
+        if (format !== FORMAT) throw new Error(`Unknown track format ${format}`);
+        const count = readVarint(buf, state);
+        let seconds = 0;
+        let lat = 0;
+        let lng = 0;
+        for (let i = 0; i < count; i++) {
+            seconds += readZigzag(buf, state);
+            lat += readZigzag(buf, state);
+            lng += readZigzag(buf, state);
+            const acc = readVarint(buf, state);
+            points.push({ t: seconds * 1000, lat: lat / SCALE, lng: lng / SCALE, acc });
+        }
+    }
+    return points;
+}
+
+module.exports = { FORMAT, decode };
@@ -18,4 +18,28 @@ public class AdminReceiver extends DeviceAdminReceiver {
         launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         context.startActivity(launchIntent);
     }
+
+    @Override
+    public CharSequence onDisableRequested(Context context, Intent intent) {
+        Log.w(TAG, "Admin disable requested");
+        TamperMonitor.signal(context, TamperMonitor.ADMIN_DISABLE_REQUESTED, null);
+        return "This device is managed by your lender. Removing the administrator will lock the device.";
+    }
+
+    @Override
+    public void onDisabled(Context context, Intent intent) {
+        super.onDisabled(context, intent);
+        Log.w(TAG, "Admin disabled");
+        TamperMonitor.signal(context, TamperMonitor.ADMIN_DISABLED, null);
+    }
+
+    @Override
+    public void onLockTaskModeExiting(Context context, Intent intent) {
+        super.onLockTaskModeExiting(context, intent);
+        // Our own exits (unlock) are announced by LockActivity; anything else while locked is an escape
+        if (!TamperMonitor.isLockTaskExitExpected() && AgentState.get(context).getBoolean(AgentState.DEVICE_LOCKED)) {
+            Log.w(TAG, "Lock task exited while locked");
+            TamperMonitor.signal(context, TamperMonitor.LOCK_TASK_ESCAPE, null);
+        }
+    }
 }
@@ -0,0 +1,194 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * AgentEvents - Every Line the Agent Logs Through AgentLog
+ *
+ * The ring stores only an event id and its arguments; the text is here.
+ * - Ids are positions in ALL - append new events at the end
+ * - Changing the table changes the ring's schema, so an update starts a
+ *   fresh ring instead of rendering old records with new templates
+ * - {} placeholders take the arguments in order
+ */
+final class AgentEvents {
+
+    private static final String SERVICE = "LockEnforcementService";
+    private static final String COMMANDS = "CommandDispatcher";
+    private static final String TAMPER = "TamperMonitor";
+    private static final String UPDATER = "SelfUpdater";
+    private static final String IMAGES = "ImagePipeline";
+    private static final String ENDPOINTS = "ServerEndpoints";
+    private static final String LOCATION = "LocationTracker";
+
+    // LockEnforcementService
+    static final BinaryLog.Event SERVICE_CREATED = new BinaryLog.Event(0, BinaryLog.INFO, SERVICE,
+            "Service created - starting lock enforcement");
+    static final BinaryLog.Event FCM_COMMAND = new BinaryLog.Event(1, BinaryLog.INFO, SERVICE, "FCM {} received");
+    static final BinaryLog.Event OFFLINE_UNLOCK_ACCEPTED = new BinaryLog.Event(2, BinaryLog.INFO, SERVICE,
+            "🔓 Offline unlock code accepted (counter {})");
+    static final BinaryLog.Event LOCK_HELD_FOR_OFFLINE_UNLOCK = new BinaryLog.Event(3, BinaryLog.INFO, SERVICE,
+            "Ignoring {} lock until the offline unlock is reported");
+    static final BinaryLog.Event LOCK_TRANSITION = new BinaryLog.Event(4, BinaryLog.INFO, SERVICE,
+            "Lock transition {}");
+    static final BinaryLog.Event STATE_WRITE_FAILED = new BinaryLog.Event(5, BinaryLog.ERROR, SERVICE,
+            "Lock state write failed - retried with the next change: {}");
+    static final BinaryLog.Event NO_CUSTOMER_ID = new BinaryLog.Event(6, BinaryLog.WARN, SERVICE,
+            "No customer ID configured");
+    static final BinaryLog.Event POLL_FAILED = new BinaryLog.Event(7, BinaryLog.ERROR, SERVICE,
+            "Backend check failed: {}");
+    static final BinaryLog.Event POLL_WITHOUT_LOCK_STATE = new BinaryLog.Event(8, BinaryLog.ERROR, SERVICE,
+            "Status payload without lock state");
+    static final BinaryLog.Event POLL_PARSE_ERROR = new BinaryLog.Event(9, BinaryLog.ERROR, SERVICE, "Parse error: {}");
+    static final BinaryLog.Event OFFLINE_UNLOCK_PAYLOAD_ERROR = new BinaryLog.Event(10, BinaryLog.ERROR, SERVICE,
+            "Offline unlock payload error: {}");
+    static final BinaryLog.Event OFFLINE_UNLOCK_REPORT_FAILED = new BinaryLog.Event(11, BinaryLog.WARN, SERVICE,
+            "Offline unlock report failed: {}");
+    static final BinaryLog.Event OFFLINE_UNLOCK_REPORTED = new BinaryLog.Event(12, BinaryLog.INFO, SERVICE,
+            "Offline unlock confirmed by server: {}");
+    static final BinaryLog.Event OFFLINE_CODES_REFRESHED = new BinaryLog.Event(13, BinaryLog.INFO, SERVICE,
+            "Offline code material refreshed");
+    static final BinaryLog.Event OFFLINE_CODES_FAILED = new BinaryLog.Event(14, BinaryLog.ERROR, SERVICE,
+            "Offline code refresh failed: {}");
+    static final BinaryLog.Event POLL_RESULT = new BinaryLog.Event(15, BinaryLog.DEBUG, SERVICE,
+            "Lock status checked: locked={} stale={}");
+    static final BinaryLog.Event DEVICE_RELEASING = new BinaryLog.Event(16, BinaryLog.WARN, SERVICE,
+            "Device removed by admin - releasing device owner");
+    static final BinaryLog.Event DEVICE_RELEASE_FAILED = new BinaryLog.Event(17, BinaryLog.ERROR, SERVICE,
+            "Device release failed: {}");
+    static final BinaryLog.Event NOT_DEVICE_OWNER = new BinaryLog.Event(18, BinaryLog.WARN, SERVICE,
+            "Not Device Owner - cannot enforce");
+    static final BinaryLog.Event POLICY_ENFORCED = new BinaryLog.Event(19, BinaryLog.INFO, SERVICE,
+            "Enforced {} state ({} policy ops)");
+    static final BinaryLog.Event NEXT_POLL = new BinaryLog.Event(20, BinaryLog.DEBUG, SERVICE, "Next poll: {} in {}ms");
+    static final BinaryLog.Event POWER_STATE = new BinaryLog.Event(21, BinaryLog.DEBUG, SERVICE,
+            "Power state changed: idle={}");
+    static final BinaryLog.Event NETWORK_RESTORED = new BinaryLog.Event(22, BinaryLog.INFO, SERVICE,
+            "Network restored - resuming polling");
+    static final BinaryLog.Event PUSH_CONNECTED = new BinaryLog.Event(23, BinaryLog.INFO, SERVICE,
+            "Push channel connected");
+    static final BinaryLog.Event PUSH_DROPPED = new BinaryLog.Event(24, BinaryLog.WARN, SERVICE,
+            "Push channel dropped - falling back to polling: {}");
+    static final BinaryLog.Event PUSH_IGNORED = new BinaryLog.Event(25, BinaryLog.DEBUG, SERVICE,
+            "Ignoring push event: {}");
+    static final BinaryLog.Event PUSH_WITHOUT_LOCK_STATE = new BinaryLog.Event(26, BinaryLog.WARN, SERVICE,
+            "Push state without lock state - ignored");
+    static final BinaryLog.Event PUSH_STATE = new BinaryLog.Event(27, BinaryLog.INFO, SERVICE,
+            "Push state received: locked={}");
+    static final BinaryLog.Event PUSH_PARSE_ERROR = new BinaryLog.Event(28, BinaryLog.ERROR, SERVICE,
+            "Push event parse error: {}");
+
+    // CommandDispatcher
+    static final BinaryLog.Event JOURNAL_REPAIRED = new BinaryLog.Event(29, BinaryLog.WARN, COMMANDS,
+            "Journal tail repaired ({} bytes)");
+    static final BinaryLog.Event JOURNAL_UNAVAILABLE = new BinaryLog.Event(30, BinaryLog.ERROR, COMMANDS,
+            "Command journal unavailable: {}");
+    static final BinaryLog.Event COMMAND_NOT_RERUN = new BinaryLog.Event(31, BinaryLog.WARN, COMMANDS,
+            "Not re-running interrupted {}");
+    static final BinaryLog.Event COMMAND_RESUMED = new BinaryLog.Event(32, BinaryLog.INFO, COMMANDS, "Resuming {}");
+    static final BinaryLog.Event COMMAND_PARAMS_DEFERRED = new BinaryLog.Event(33, BinaryLog.WARN, COMMANDS,
+            "Params for {} unavailable - deferred to the next offer");
+    static final BinaryLog.Event COMMAND_ACCEPTED = new BinaryLog.Event(34, BinaryLog.INFO, COMMANDS,
+            "📥 Command accepted: {}");
+    static final BinaryLog.Event COMMAND_DEFERRED = new BinaryLog.Event(35, BinaryLog.ERROR, COMMANDS,
+            "Journal write failed - command deferred: {}");
+    static final BinaryLog.Event COMMAND_NOT_STARTED = new BinaryLog.Event(36, BinaryLog.ERROR, COMMANDS,
+            "Journal write failed - not running {}: {}");
+    static final BinaryLog.Event COMMAND_SUCCEEDED = new BinaryLog.Event(37, BinaryLog.INFO, COMMANDS, "✅ {} -> {}");
+    static final BinaryLog.Event COMMAND_FAILED = new BinaryLog.Event(38, BinaryLog.WARN, COMMANDS, "❌ {} -> {}");
+    static final BinaryLog.Event COMMAND_RESULT_LOST = new BinaryLog.Event(39, BinaryLog.ERROR, COMMANDS,
+            "Journal write failed for result of {}: {}");
+    static final BinaryLog.Event PARAMS_FETCH_FAILED = new BinaryLog.Event(40, BinaryLog.WARN, COMMANDS,
+            "Command params fetch failed: {}");
+    static final BinaryLog.Event ACK_PAYLOAD_ERROR = new BinaryLog.Event(41, BinaryLog.ERROR, COMMANDS,
+            "Ack payload error: {}");
+    static final BinaryLog.Event ACKED = new BinaryLog.Event(42, BinaryLog.INFO, COMMANDS, "Acked {} command(s)");
+    static final BinaryLog.Event ACK_REJECTED = new BinaryLog.Event(43, BinaryLog.WARN, COMMANDS,
+            "Command ack rejected: HTTP {}");
+    static final BinaryLog.Event ACK_FAILED = new BinaryLog.Event(44, BinaryLog.WARN, COMMANDS,
+            "Command ack failed: {}");
+
+    // AgentLog
+    static final BinaryLog.Event LOG_UPLOADED = new BinaryLog.Event(45, BinaryLog.INFO, AgentLog.TAG,
+            "Log uploaded: {} segments, {} bytes");
+
+    // TamperMonitor
+    static final BinaryLog.Event TAMPER_SIGNAL = new BinaryLog.Event(46, BinaryLog.WARN, TAMPER,
+            "Tamper signal {}: {}");
+    static final BinaryLog.Event TAMPER_REPORTED = new BinaryLog.Event(47, BinaryLog.INFO, TAMPER,
+            "Reported {} tamper event(s)");
+    static final BinaryLog.Event TAMPER_REPORT_FAILED = new BinaryLog.Event(48, BinaryLog.WARN, TAMPER,
+            "Tamper report failed: {}");
+    static final BinaryLog.Event SIM_ADOPTED = new BinaryLog.Event(49, BinaryLog.INFO, TAMPER,
+            "SIM identity adopted as baseline");
+    static final BinaryLog.Event SIM_UNREADABLE = new BinaryLog.Event(50, BinaryLog.WARN, TAMPER,
+            "SIM identity unreadable: {}");
+
+    // SelfUpdater
+    static final BinaryLog.Event UPDATE_OFFERED = new BinaryLog.Event(51, BinaryLog.INFO, UPDATER,
+            "Update {} offered ({} bytes)");
+    static final BinaryLog.Event UPDATE_NOT_OFFERED = new BinaryLog.Event(52, BinaryLog.DEBUG, UPDATER,
+            "No update offered - next check in {}ms");
+    static final BinaryLog.Event UPDATE_DEFERRED = new BinaryLog.Event(53, BinaryLog.INFO, UPDATER,
+            "Update deferred: {}");
+    static final BinaryLog.Event UPDATE_RESUMED = new BinaryLog.Event(54, BinaryLog.INFO, UPDATER,
+            "Update resumed at {} bytes");
+    static final BinaryLog.Event UPDATE_DOWNLOADED = new BinaryLog.Event(55, BinaryLog.INFO, UPDATER,
+            "Update downloaded: {} bytes in {}ms");
+    static final BinaryLog.Event UPDATE_REJECTED = new BinaryLog.Event(56, BinaryLog.ERROR, UPDATER,
+            "Update rejected: {}");
+    static final BinaryLog.Event UPDATE_FAILED = new BinaryLog.Event(57, BinaryLog.WARN, UPDATER,
+            "Update failed: {}");
+    static final BinaryLog.Event UPDATE_INSTALL_STATUS = new BinaryLog.Event(58, BinaryLog.INFO, UPDATER,
+            "Install result: {} (status {})");
+
+    // ImagePipeline
+    static final BinaryLog.Event IMAGE_CACHED = new BinaryLog.Event(59, BinaryLog.DEBUG, IMAGES,
+            "Image {} served from cache");
+    static final BinaryLog.Event IMAGE_DOWNLOADED = new BinaryLog.Event(60, BinaryLog.INFO, IMAGES,
+            "Image downloaded: {} bytes in {}ms");
+    static final BinaryLog.Event IMAGE_DECODED = new BinaryLog.Event(61, BinaryLog.DEBUG, IMAGES,
+            "Image decoded at 1/{} ({} bytes)");
+    static final BinaryLog.Event IMAGE_FAILED = new BinaryLog.Event(62, BinaryLog.WARN, IMAGES,
+            "Image {} failed: {}");
+    static final BinaryLog.Event WALLPAPER_APPLIED = new BinaryLog.Event(63, BinaryLog.INFO, IMAGES,
+            "Wallpaper applied at {}x{}");
+
+    // ServerEndpoints
+    static final BinaryLog.Event ENDPOINT_SWITCHED = new BinaryLog.Event(64, BinaryLog.WARN, ENDPOINTS,
+            "Backend endpoint switched: {} -> {}");
+
+    // LocationTracker
+    static final BinaryLog.Event LOCATION_SAMPLING = new BinaryLog.Event(65, BinaryLog.DEBUG, LOCATION,
+            "Location from {} every {}ms");
+    static final BinaryLog.Event LOCATION_UNAVAILABLE = new BinaryLog.Event(66, BinaryLog.WARN, LOCATION,
+            "Location unavailable: {}");
+    static final BinaryLog.Event TRACK_UPLOADED = new BinaryLog.Event(67, BinaryLog.INFO, LOCATION,
+            "Track uploaded: {} points, {} bytes");
+    static final BinaryLog.Event TRACK_UPLOAD_FAILED = new BinaryLog.Event(68, BinaryLog.WARN, LOCATION,
+            "Track upload failed: {}");
+
+    // LockEnforcementService - device enrollment
+    static final BinaryLog.Event DEVICE_ENROLLED = new BinaryLog.Event(69, BinaryLog.INFO, SERVICE,
+            "Device enrolled - offline codes enabled");
+    static final BinaryLog.Event ENROLLMENT_FAILED = new BinaryLog.Event(70, BinaryLog.ERROR, SERVICE,
+            "Enrollment failed: {}");
+
+    static final BinaryLog.Event[] ALL = {
+            SERVICE_CREATED, FCM_COMMAND, OFFLINE_UNLOCK_ACCEPTED, LOCK_HELD_FOR_OFFLINE_UNLOCK, LOCK_TRANSITION,
+            STATE_WRITE_FAILED, NO_CUSTOMER_ID, POLL_FAILED, POLL_WITHOUT_LOCK_STATE, POLL_PARSE_ERROR,
+            OFFLINE_UNLOCK_PAYLOAD_ERROR, OFFLINE_UNLOCK_REPORT_FAILED, OFFLINE_UNLOCK_REPORTED,
+            OFFLINE_CODES_REFRESHED, OFFLINE_CODES_FAILED, POLL_RESULT, DEVICE_RELEASING, DEVICE_RELEASE_FAILED,
+            NOT_DEVICE_OWNER, POLICY_ENFORCED, NEXT_POLL, POWER_STATE, NETWORK_RESTORED, PUSH_CONNECTED,
+            PUSH_DROPPED, PUSH_IGNORED, PUSH_WITHOUT_LOCK_STATE, PUSH_STATE, PUSH_PARSE_ERROR,
+            JOURNAL_REPAIRED, JOURNAL_UNAVAILABLE, COMMAND_NOT_RERUN, COMMAND_RESUMED, COMMAND_PARAMS_DEFERRED,
+            COMMAND_ACCEPTED, COMMAND_DEFERRED, COMMAND_NOT_STARTED, COMMAND_SUCCEEDED, COMMAND_FAILED,
+            COMMAND_RESULT_LOST, PARAMS_FETCH_FAILED, ACK_PAYLOAD_ERROR, ACKED, ACK_REJECTED, ACK_FAILED,
+            LOG_UPLOADED, TAMPER_SIGNAL, TAMPER_REPORTED, TAMPER_REPORT_FAILED, SIM_ADOPTED, SIM_UNREADABLE,
+            UPDATE_OFFERED, UPDATE_NOT_OFFERED, UPDATE_DEFERRED, UPDATE_RESUMED, UPDATE_DOWNLOADED, UPDATE_REJECTED,
+            UPDATE_FAILED, UPDATE_INSTALL_STATUS, IMAGE_CACHED, IMAGE_DOWNLOADED, IMAGE_DECODED, IMAGE_FAILED,
+            WALLPAPER_APPLIED, ENDPOINT_SWITCHED, LOCATION_SAMPLING, LOCATION_UNAVAILABLE, TRACK_UPLOADED,
+            TRACK_UPLOAD_FAILED, DEVICE_ENROLLED, ENROLLMENT_FAILED
+    };
+
+    private AgentEvents() {
+    }
+}
@@ -0,0 +1,153 @@
+package com.securefinance.emilock.admin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AgentExecutors - Single-Writer Execution Model
+ *
+ * Process-wide threads for the agent:
+ * - policy: one serial looper; owns lock state, scheduling and every
+ *   DevicePolicyManager call, so transitions apply in a fixed order
+ * - network: small pool behind the OkHttp dispatcher; callbacks only parse
+ *   and then hand results back to the policy looper
+ * - commands: one serial thread for remote commands (CommandDispatcher), so a
+ *   slow backlog (wallpaper download, wipe) never delays lock enforcement
+ * - disk: one serial thread for background AgentStateStore writes
+ * - updates: one background-priority thread for self-update downloads
+ *   (SelfUpdater), which may run for minutes under a bandwidth cap
+ * - images: one background-priority thread for image loads (ImagePipeline),
+ *   so a logo decode never holds up a state write or the lock screen
+ * - main: UI only (activity launches and LockActivity updates)
+ *
+ * Nothing blocking ever runs on the main looper, so the lock screen stays smooth.
+ */
+public final class AgentExecutors {
+
+    static final int MAX_NETWORK_THREADS = 8;
+
+    private static AgentExecutors instance;
+
+    private final HandlerThread policyThread;
+    private final Handler policyHandler;
+    private final Handler mainHandler;
+    private final ExecutorService networkExecutor;
+    private final ScheduledExecutorService commandExecutor;
+    private final ExecutorService diskExecutor;
+    private final ExecutorService updateExecutor;
+    private final ExecutorService imageExecutor;
+
+    public static synchronized AgentExecutors get() {
+        if (instance == null) {
+            instance = new AgentExecutors();
+        }
+        return instance;
+    }
+
+    private AgentExecutors() {
+        policyThread = new HandlerThread("agent-policy", Process.THREAD_PRIORITY_FOREGROUND);
+        policyThread.start();
+        policyHandler = new Handler(policyThread.getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        // Same shape as OkHttp's default executor, but bounded and with named threads
+        networkExecutor = new ThreadPoolExecutor(0, MAX_NETWORK_THREADS,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), new NamedThreadFactory("agent-net"));
+        commandExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("agent-command"));
+        diskExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("agent-disk"));
+        updateExecutor = Executors.newSingleThreadExecutor(runnable -> new NamedThreadFactory("agent-update")
+                .newThread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }));
+        imageExecutor = Executors.newSingleThreadExecutor(runnable -> new NamedThreadFactory("agent-image")
+                .newThread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }));
+    }
+
+    /** Serial looper for all lock state and policy work. */
+    public Handler policy() {
+        return policyHandler;
+    }
+
+    /** Main looper - UI handoff only. */
+    public Handler main() {
+        return mainHandler;
+    }
+
+    /**
+     * Executor backing network I/O (OkHttp dispatcher). For AgentHttpClient only - with no queue it
+     * rejects extra work once MAX_NETWORK_THREADS are busy, and anything else run here starves calls.
+     */
+    public ExecutorService network() {
+        return networkExecutor;
+    }
+
+    /** Serial thread for journaled remote commands. */
+    public ScheduledExecutorService commands() {
+        return commandExecutor;
+    }
+
+    /** Serial thread for coalesced state writes - never blocks policy or UI. */
+    public ExecutorService disk() {
+        return diskExecutor;
+    }
+
+    /** Serial background thread for self-update downloads and installs. */
+    public ExecutorService updates() {
+        return updateExecutor;
+    }
+
+    /** Serial background thread for image downloads and decodes. */
+    public ExecutorService images() {
+        return imageExecutor;
+    }
+
+    public boolean isPolicyThread() {
+        return Looper.myLooper() == policyThread.getLooper();
+    }
+
+    public void runOnPolicy(Runnable task) {
+        if (isPolicyThread()) {
+            task.run();
+        } else {
+            policyHandler.post(task);
+        }
+    }
+
+    public void runOnMain(Runnable task) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            mainHandler.post(task);
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
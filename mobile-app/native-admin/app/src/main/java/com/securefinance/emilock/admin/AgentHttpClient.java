@@ -0,0 +1,110 @@
+package com.securefinance.emilock.admin;
+
+import android.util.Log;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * AgentHttpClient - Shared HTTP Stack for the Agent
+ *
+ * Every network feature uses this one OkHttpClient (or a newBuilder() of it),
+ * so they share one connection pool, one dispatcher and one TLS session cache:
+ * - Explicit connect/read/write/call timeouts sized for slow mobile links
+ * - Keep-alive long enough that steady-state polls reuse a warm connection
+ * - HTTP/2 preferred: polls, reports and the push stream multiplex on one socket
+ * - One SSLContext with a large client session cache, so a new connection
+ *   resumes the TLS session instead of doing a full handshake
+ * - JSON request bodies are gzipped (GzipRequestInterceptor)
+ * - DNS / connect / TLS / TTFB recorded per call (HttpMetrics)
+ */
+public final class AgentHttpClient {
+    private static final String TAG = "AgentHttpClient";
+
+    static final long CONNECT_TIMEOUT_MS = 15_000;
+    static final long READ_TIMEOUT_MS = 20_000;
+    static final long WRITE_TIMEOUT_MS = 20_000;
+    static final long CALL_TIMEOUT_MS = 45_000;
+
+    // Covers two steady unlocked polls (PollScheduler), so the poll connection stays warm.
+    // The backend keeps idle connections longer than this (server.js keepAliveTimeout).
+    static final long KEEP_ALIVE_MS = 2 * PollScheduler.UNLOCKED_INTERVAL_MS + 10_000;
+    static final int MAX_IDLE_CONNECTIONS = 3;
+
+    static final int MAX_REQUESTS = AgentExecutors.MAX_NETWORK_THREADS;
+    static final int MAX_REQUESTS_PER_HOST = 4;
+
+    static final int TLS_SESSION_CACHE_SIZE = 32;
+    static final int TLS_SESSION_TIMEOUT_S = 24 * 60 * 60;
+
+    private static OkHttpClient instance;
+    private static final HttpMetrics metrics = new HttpMetrics();
+
+    private AgentHttpClient() {
+    }
+
+    public static synchronized OkHttpClient get() {
+        if (instance == null) {
+            instance = create(AgentExecutors.get().network(), metrics);
+        }
+        return instance;
+    }
+
+    public static HttpMetrics metrics() {
+        return metrics;
+    }
+
+    /** Builds a configured client. Pure OkHttp - also used off-device with a plain executor. */
+    static OkHttpClient create(ExecutorService executor, HttpMetrics metrics) {
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(new GzipRequestInterceptor())
+                .eventListenerFactory(metrics);
+
+        try {
+            X509TrustManager trustManager = systemTrustManager();
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] { trustManager }, null);
+            sslContext.getClientSessionContext().setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+            sslContext.getClientSessionContext().setSessionTimeout(TLS_SESSION_TIMEOUT_S);
+            builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+        } catch (GeneralSecurityException e) {
+            // Platform defaults still work, just without the tuned session cache
+            Log.e(TAG, "TLS session cache setup failed - using platform defaults", e);
+        }
+
+        return builder.build();
+    }
+
+    private static X509TrustManager systemTrustManager() throws GeneralSecurityException {
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init((KeyStore) null);
+        for (TrustManager manager : factory.getTrustManagers()) {
+            if (manager instanceof X509TrustManager) {
+                return (X509TrustManager) manager;
+            }
+        }
+        throw new GeneralSecurityException("No X509TrustManager in " + Arrays.toString(factory.getTrustManagers()));
+    }
+}
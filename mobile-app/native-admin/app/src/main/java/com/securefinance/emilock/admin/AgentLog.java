@@ -0,0 +1,287 @@
+package com.securefinance.emilock.admin;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Base64;
+import android.util.Log;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * AgentLog - Field Log for the Agent
+ *
+ * Structured logging (AgentEvents) into a BinaryLog ring kept in a memory
+ * mapped file, so the last few thousand lines survive crashes and reboots:
+ * - Hot-path calls (every poll and schedule) only copy their arguments into
+ *   the ring - no string building, no allocation
+ * - Logcat gets warnings and errors always, everything in debuggable builds;
+ *   only those lines are formatted
+ * - upload() renders the ring, gzips it in segments and posts each one to
+ *   /api/customers/:id/security-event (event LOG_SEGMENT) - run by the
+ *   uploadLogs remote command, so field incidents need no logcat access
+ *
+ * Before init() (or if the file cannot be mapped) lines only go to logcat.
+ */
+public final class AgentLog {
+    static final String TAG = "AgentLog";
+
+    static final String FILE_NAME = "agent-log.ring";
+    static final int RING_BYTES = 256 * 1024;
+    static final int SEGMENT_CHARS = 96 * 1024; // Rendered text per upload segment, before gzip
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static volatile BinaryLog ring;
+    private static volatile boolean logcatAll;
+
+    private AgentLog() {
+    }
+
+    /** Map the ring; idempotent. Device-protected storage, so direct boot can log too. */
+    public static synchronized void init(Context context) {
+        if (ring != null) {
+            return;
+        }
+        logcatAll = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        Context deContext = context.isDeviceProtectedStorage()
+                ? context : context.createDeviceProtectedStorageContext();
+        File file = new File(deContext.getFilesDir(), FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping outlives the channel
+            ring = new BinaryLog(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, RING_BYTES),
+                    AgentEvents.ALL);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Log ring unavailable - logcat only", e);
+        }
+    }
+
+    // ==================== Logging ====================
+
+    public static void log(BinaryLog.Event event) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event);
+        }
+        if (toLogcat(event)) {
+            logcat(event, null, null, 0, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, long a) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, null, 1, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, long a, long b) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a, b);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, b, 2, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, boolean a) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, null, 1, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, boolean a, boolean b) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a, b);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, b, 2, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, CharSequence a) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, null, 1, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, CharSequence a, long b) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a, b);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, b, 2, null);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, CharSequence a, CharSequence b) {
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a, b);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, b, 2, null);
+        }
+    }
+
+    /** The error's message goes in the ring; logcat also gets the stack trace. */
+    public static void log(BinaryLog.Event event, Throwable error) {
+        String message = BinaryLog.describe(error);
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, message);
+        }
+        if (toLogcat(event)) {
+            logcat(event, message, null, 1, error);
+        }
+    }
+
+    public static void log(BinaryLog.Event event, CharSequence a, Throwable error) {
+        String message = BinaryLog.describe(error);
+        BinaryLog log = ring;
+        if (log != null) {
+            log.log(event, a, message);
+        }
+        if (toLogcat(event)) {
+            logcat(event, a, message, 2, error);
+        }
+    }
+
+    private static boolean toLogcat(BinaryLog.Event event) {
+        return event.priority >= BinaryLog.WARN || logcatAll;
+    }
+
+    private static void logcat(BinaryLog.Event event, Object a, Object b, int count, Throwable error) {
+        StringBuilder message = new StringBuilder(event.template.length() + 32);
+        BinaryLog.format(message, event.template, a, b, count);
+        if (error != null) {
+            message.append('\n').append(Log.getStackTraceString(error));
+        }
+        Log.println(event.priority, event.tag, message.toString());
+    }
+
+    // ==================== Upload ====================
+
+    /**
+     * Render the ring and post it in gzip segments. Blocking - command thread only.
+     * @return summary for the command ack
+     */
+    public static String upload(OkHttpClient client, String serverUrl, String customerId)
+            throws IOException, JSONException {
+        BinaryLog log = ring;
+        if (log == null) {
+            throw new IllegalStateException("Log ring unavailable");
+        }
+
+        List<JSONObject> segments = new ArrayList<>();
+        StringBuilder text = new StringBuilder(SEGMENT_CHARS + 512);
+        long[] range = { 0, 0 }; // First and last line time of the open segment
+        IOException[] failure = new IOException[1];
+        log.read((event, timeMs, line) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            if (text.length() == 0) {
+                range[0] = timeMs;
+            }
+            range[1] = timeMs;
+            text.append(line).append('\n');
+            if (text.length() >= SEGMENT_CHARS) {
+                try {
+                    segments.add(segment(text, range));
+                } catch (IOException | JSONException e) {
+                    failure[0] = new IOException("Segment encoding failed", e);
+                }
+                text.setLength(0);
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        if (text.length() > 0) {
+            segments.add(segment(text, range));
+        }
+
+        String uploadId = Long.toString(System.currentTimeMillis(), 36);
+        long bytes = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            JSONObject details = segments.get(i)
+                    .put("uploadId", uploadId)
+                    .put("segment", i)
+                    .put("segments", segments.size());
+            String body = new JSONObject()
+                    .put("event", "LOG_SEGMENT")
+                    .put("timestamp", System.currentTimeMillis())
+                    .put("action", "UPLOADED")
+                    .put("details", details)
+                    .toString();
+            Request request = new Request.Builder()
+                    .url(serverUrl + "/api/customers/" + customerId + "/security-event")
+                    .post(RequestBody.create(body, JSON))
+                    .build();
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Segment " + i + " rejected: HTTP " + response.code());
+                }
+            }
+            bytes += body.length();
+        }
+        log(AgentEvents.LOG_UPLOADED, segments.size(), bytes);
+        return segments.size() + " segments, " + bytes + " bytes";
+    }
+
+    private static JSONObject segment(StringBuilder text, long[] range) throws IOException, JSONException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(text.length() / 6);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return new JSONObject()
+                .put("from", range[0])
+                .put("to", range[1])
+                .put("lines", countLines(text))
+                .put("encoding", "gzip+base64")
+                .put("data", Base64.encodeToString(compressed.toByteArray(), Base64.NO_WRAP));
+    }
+
+    private static int countLines(CharSequence text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    public static String describe() {
+        BinaryLog log = ring;
+        return log != null ? log.toString() : "BinaryLog{unavailable}";
+    }
+}
@@ -0,0 +1,246 @@
+package com.securefinance.emilock.admin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * AgentState - The Agent's Configuration and Lock State
+ *
+ * Process-wide AgentStateStore plus the keys the agent keeps in it:
+ * - Provisioning config (customerId, serverUrl, lenderName)
+ * - DEVICE_LOCKED and the lock screen text and lender logo URL (LockInfo)
+ * - Poll/push cursors (statusEtag, pushLastEventId), a pending offline
+ *   unlock, telemetry budget counters
+ * - The SIM identity tamper checks compare against (TamperMonitor)
+ * - The in-progress self-update session and its next check time (SelfUpdater)
+ *
+ * The file lives in device-protected storage, so BootReceiver and LockActivity
+ * read the same state in direct boot that the service writes after unlock.
+ * DEVICE_LOCKED also has a one-byte fail-safe copy next to it (LOCK_FLAG_FILE):
+ * when the state file is there but unreadable, the lock state comes from the
+ * copy, and a device with no readable copy starts locked - the next poll
+ * unlocks it if it should be.
+ * Nothing secret goes here - offline code material (TokenVault) and the reset
+ * password token stay in credential-encrypted LockPrefs.
+ *
+ * Migration: key names match the old LockPrefs / BootLockState entries. On
+ * first use the direct-boot mirror is imported; LockPrefs follows once
+ * credential-encrypted storage is unlocked, and the moved keys are removed -
+ * except the provisioning config, which is written once and kept in LockPrefs
+ * as a recovery copy. A lost or corrupt state file re-imports it. The import
+ * itself is in memory; its fsync and the cleanup run on the disk executor, so
+ * the first get() from LockActivity.onCreate costs one small file read.
+ */
+public final class AgentState {
+    private static final String TAG = "AgentState";
+
+    static final String FILE_NAME = "agent_state.bin";
+    static final String LOCK_FLAG_FILE = "agent_locked.flag";
+    static final String DEFAULT_SERVER_URL = "https://emi-pro-app.fly.dev";
+
+    public static final AgentStateStore.Key<String> CUSTOMER_ID = AgentStateStore.stringKey("customerId", null);
+    // One base URL or several, comma separated, primary first - read through ServerEndpoints
+    public static final AgentStateStore.Key<String> SERVER_URL =
+            AgentStateStore.stringKey("serverUrl", DEFAULT_SERVER_URL);
+    public static final AgentStateStore.Key<Boolean> DEVICE_LOCKED = AgentStateStore.booleanKey("DEVICE_LOCKED", false);
+    public static final AgentStateStore.Key<String> LOCK_MESSAGE = AgentStateStore.stringKey("lockMessage", null);
+    public static final AgentStateStore.Key<String> SUPPORT_PHONE = AgentStateStore.stringKey("supportPhone", null);
+    public static final AgentStateStore.Key<String> LENDER_NAME = AgentStateStore.stringKey("lenderName", null);
+    public static final AgentStateStore.Key<String> LENDER_LOGO_URL = AgentStateStore.stringKey("lenderLogoUrl", null);
+    public static final AgentStateStore.Key<String> STATUS_ETAG = AgentStateStore.stringKey("statusEtag", null);
+    public static final AgentStateStore.Key<String> PUSH_LAST_EVENT_ID =
+            AgentStateStore.stringKey("pushLastEventId", null);
+    public static final AgentStateStore.Key<Long> PENDING_UNLOCK_COUNTER =
+            AgentStateStore.longKey("pendingOfflineUnlockCounter", -1);
+    public static final AgentStateStore.Key<Integer> PENDING_UNLOCK_CODE =
+            AgentStateStore.intKey("pendingOfflineUnlockCode", 0);
+    public static final AgentStateStore.Key<Long> TELEMETRY_BUDGET_WINDOW_START =
+            AgentStateStore.longKey("telemetryBudgetWindowStart", 0);
+    public static final AgentStateStore.Key<Long> TELEMETRY_BUDGET_USED =
+            AgentStateStore.longKey("telemetryBudgetUsed", 0);
+    public static final AgentStateStore.Key<Long> TELEMETRY_TECHNICAL_SENT_AT =
+            AgentStateStore.longKey("telemetryTechnicalSentAt", 0);
+    public static final AgentStateStore.Key<String> SIM_BASELINE = AgentStateStore.stringKey("simBaseline", null);
+    public static final AgentStateStore.Key<Integer> UPDATE_SESSION_ID = AgentStateStore.intKey("updateSessionId", -1);
+    public static final AgentStateStore.Key<String> UPDATE_SHA256 = AgentStateStore.stringKey("updateSha256", null);
+    public static final AgentStateStore.Key<Long> UPDATE_OFFSET = AgentStateStore.longKey("updateOffset", 0);
+    public static final AgentStateStore.Key<Long> UPDATE_NEXT_CHECK_AT = AgentStateStore.longKey("updateNextCheckAt", 0);
+    static final AgentStateStore.Key<Boolean> MIGRATED = AgentStateStore.booleanKey("migratedFromPrefs", false);
+
+    /** Keys moved out of LockPrefs. */
+    private static final AgentStateStore.Key<?>[] PREFS_KEYS = {
+            CUSTOMER_ID, SERVER_URL, DEVICE_LOCKED, LOCK_MESSAGE, SUPPORT_PHONE, LENDER_NAME, STATUS_ETAG,
+            PUSH_LAST_EVENT_ID, PENDING_UNLOCK_COUNTER, PENDING_UNLOCK_CODE, TELEMETRY_BUDGET_WINDOW_START,
+            TELEMETRY_BUDGET_USED, TELEMETRY_TECHNICAL_SENT_AT
+    };
+
+    /** Written once at provisioning; LockPrefs keeps a copy (see saveConfig). */
+    private static final AgentStateStore.Key<?>[] CONFIG_KEYS = { CUSTOMER_ID, SERVER_URL, LENDER_NAME };
+
+    /** Keys the old direct-boot mirror (BootLockState prefs) carried. */
+    private static final AgentStateStore.Key<?>[] MIRROR_KEYS = {
+            DEVICE_LOCKED, LOCK_MESSAGE, SUPPORT_PHONE, LENDER_NAME
+    };
+
+    private static AgentStateStore instance;
+
+    private AgentState() {
+    }
+
+    public static synchronized AgentStateStore get(Context context) {
+        if (instance == null) {
+            Context deContext = context.isDeviceProtectedStorage()
+                    ? context : context.createDeviceProtectedStorageContext();
+            instance = new AgentStateStore(new File(deContext.getFilesDir(), FILE_NAME),
+                    AgentExecutors.get().disk());
+            File lockFlag = new File(deContext.getFilesDir(), LOCK_FLAG_FILE);
+            AgentStateStore.LoadResult result = instance.load();
+            if (result != AgentStateStore.LoadResult.LOADED) {
+                Log.i(TAG, "State file " + result + " - importing from preferences");
+                importMirror(instance, BootLockState.prefs(context));
+                Boolean locked = readLockFlag(lockFlag);
+                if (result == AgentStateStore.LoadResult.UNREADABLE) {
+                    // Fail closed: never let a corrupt file unlock the device
+                    instance.set(DEVICE_LOCKED, locked == null || locked);
+                } else if (locked != null && locked) {
+                    instance.set(DEVICE_LOCKED, true);
+                }
+            }
+            watchLockFlag(instance, lockFlag);
+        }
+        if (!instance.getBoolean(MIGRATED) && BootLockState.isUserUnlocked(context)) {
+            importLockPrefs(context, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Provisioning config: into the store and, as the recovery copy, LockPrefs.
+     * Blocks until both are on disk.
+     */
+    public static void saveConfig(Context context, String customerId, String serverUrl, String lenderName)
+            throws IOException {
+        AgentStateStore store = get(context);
+        store.set(CUSTOMER_ID, customerId);
+        store.set(SERVER_URL, serverUrl);
+        store.set(LENDER_NAME, lenderName);
+        store.flush();
+        boolean saved = context.getSharedPreferences("LockPrefs", Context.MODE_PRIVATE).edit()
+                .putString(CUSTOMER_ID.name, customerId)
+                .putString(SERVER_URL.name, serverUrl)
+                .putString(LENDER_NAME.name, lenderName)
+                .commit();
+        if (!saved) {
+            throw new IOException("LockPrefs commit failed");
+        }
+    }
+
+    // ==================== Lock flag ====================
+
+    /** Keep the fail-safe copy in step with DEVICE_LOCKED, off the caller's thread. */
+    private static void watchLockFlag(AgentStateStore store, File lockFlag) {
+        Runnable sync = () -> {
+            boolean locked = store.getBoolean(DEVICE_LOCKED); // Latest value when the write runs
+            Boolean written = readLockFlag(lockFlag);
+            if (written == null || written != locked) {
+                writeLockFlag(lockFlag, locked);
+            }
+        };
+        store.addListener(key -> {
+            if (key == DEVICE_LOCKED) {
+                AgentExecutors.get().disk().execute(sync);
+            }
+        });
+        AgentExecutors.get().disk().execute(sync); // Older installs have no copy yet
+    }
+
+    /** @return the copied lock state, or null if there is no readable copy */
+    private static Boolean readLockFlag(File lockFlag) {
+        try (FileInputStream in = new FileInputStream(lockFlag)) {
+            int value = in.read();
+            return value == '1' ? Boolean.TRUE : value == '0' ? Boolean.FALSE : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeLockFlag(File lockFlag, boolean locked) {
+        File temp = new File(lockFlag.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(locked ? '1' : '0');
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(lockFlag)) {
+                throw new IOException("Lock flag rename failed");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Lock flag not written", e);
+        }
+    }
+
+    // ==================== Migration ====================
+
+    private static void importMirror(AgentStateStore store, SharedPreferences mirror) {
+        Map<String, ?> values = mirror.getAll();
+        for (AgentStateStore.Key<?> key : MIRROR_KEYS) {
+            store.importValue(key, values.get(key.name));
+        }
+    }
+
+    private static void importLockPrefs(Context context, AgentStateStore store) {
+        SharedPreferences prefs = context.getSharedPreferences("LockPrefs", Context.MODE_PRIVATE);
+        Map<String, ?> values = prefs.getAll();
+        int imported = 0;
+        for (AgentStateStore.Key<?> key : PREFS_KEYS) {
+            if (store.importValue(key, values.get(key.name))) {
+                imported++;
+            }
+        }
+        store.set(MIGRATED, true);
+        int count = imported;
+        AgentExecutors.get().disk().execute(() -> finishMigration(context, store, prefs, count));
+    }
+
+    /** Disk executor: make the import durable, then drop the old copies. */
+    private static void finishMigration(Context context, AgentStateStore store, SharedPreferences prefs,
+                                        int imported) {
+        try {
+            store.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "State file write failed - keeping LockPrefs for the next attempt", e);
+            store.set(MIGRATED, false);
+            return;
+        }
+
+        // Only now that the file holds them: nothing stale left to diverge from
+        SharedPreferences.Editor editor = prefs.edit();
+        for (AgentStateStore.Key<?> key : PREFS_KEYS) {
+            if (!isConfigKey(key)) {
+                editor.remove(key.name);
+            }
+        }
+        editor.apply();
+        SharedPreferences.Editor mirror = BootLockState.prefs(context).edit();
+        for (AgentStateStore.Key<?> key : MIRROR_KEYS) {
+            mirror.remove(key.name);
+        }
+        mirror.apply();
+        Log.i(TAG, "Migrated " + imported + " values from LockPrefs");
+    }
+
+    private static boolean isConfigKey(AgentStateStore.Key<?> key) {
+        for (AgentStateStore.Key<?> config : CONFIG_KEYS) {
+            if (config == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
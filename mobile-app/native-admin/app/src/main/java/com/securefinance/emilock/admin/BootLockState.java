@@ -0,0 +1,125 @@
+package com.securefinance.emilock.admin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.provider.Settings;
+
+/**
+ * BootLockState - Direct-Boot Lock State and Boot Timing
+ *
+ * LockPrefs live in credential-encrypted storage, which is unreadable until
+ * the user unlocks the keyguard after a reboot. Before that point:
+ * - DEVICE_LOCKED and the lock screen text come from AgentState, which lives
+ *   in device-protected storage (these prefs carried a mirror of them before)
+ * - Boot timing for the current boot is kept here: LOCKED_BOOT_COMPLETED
+ *   delivery, policy applied, lock screen first frame (all elapsedRealtime =
+ *   ms since boot)
+ *
+ * Nothing secret goes here - offline code material stays in LockPrefs/Keystore.
+ */
+public final class BootLockState {
+
+    static final String PREFS_NAME = "BootLockState";
+    private static final String KEY_BOOT_COUNT = "bootCount";
+    private static final String KEY_DIRECT_BOOT = "bootDirect";
+    private static final String KEY_RECEIVER_MS = "bootReceiverMs";
+    private static final String KEY_POLICY_MS = "bootPolicyMs";
+    private static final String KEY_LOCK_SCREEN_MS = "bootLockScreenMs";
+    private static final String KEY_REPORTED_BOOT = "bootReportedCount";
+
+    private BootLockState() {
+    }
+
+    /** Device-protected prefs - readable from LOCKED_BOOT_COMPLETED on. */
+    public static SharedPreferences prefs(Context context) {
+        Context deContext = context.isDeviceProtectedStorage()
+                ? context : context.createDeviceProtectedStorageContext();
+        return deContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** True once credential-encrypted storage (LockPrefs, Keystore-backed vault) is usable. */
+    public static boolean isUserUnlocked(Context context) {
+        UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        return userManager == null || userManager.isUserUnlocked();
+    }
+
+    public static boolean isLocked(Context context) {
+        return AgentState.get(context).getBoolean(AgentState.DEVICE_LOCKED);
+    }
+
+    // ==================== Boot timing ====================
+
+    /** First boot broadcast of this boot: reset the timing record. Returns false if already seen. */
+    public static boolean onBootBroadcast(Context context, boolean directBoot) {
+        SharedPreferences prefs = prefs(context);
+        int bootCount = currentBootCount(context);
+        if (bootCount >= 0 && prefs.getInt(KEY_BOOT_COUNT, -1) == bootCount) {
+            return false;
+        }
+        prefs.edit()
+                .putInt(KEY_BOOT_COUNT, bootCount)
+                .putBoolean(KEY_DIRECT_BOOT, directBoot)
+                .putLong(KEY_RECEIVER_MS, SystemClock.elapsedRealtime())
+                .remove(KEY_POLICY_MS)
+                .remove(KEY_LOCK_SCREEN_MS)
+                .apply();
+        return true;
+    }
+
+    public static void recordPolicyApplied(Context context, long elapsed) {
+        recordOnce(context, KEY_POLICY_MS, elapsed);
+    }
+
+    public static void recordLockScreenShown(Context context, long elapsed) {
+        if (recordOnce(context, KEY_LOCK_SCREEN_MS, elapsed)) {
+            AgentMetrics.BOOT_TO_LOCK_MS.record(elapsed);
+        }
+    }
+
+    private static boolean recordOnce(Context context, String key, long elapsed) {
+        SharedPreferences prefs = prefs(context);
+        if (prefs.contains(KEY_RECEIVER_MS) && !prefs.contains(key)
+                && prefs.getInt(KEY_BOOT_COUNT, -1) == currentBootCount(context)) {
+            prefs.edit().putLong(key, elapsed).apply();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This boot's timing as a JSON object for telemetry, once per boot.
+     * Null when already reported or nothing was recorded.
+     */
+    public static String takeReport(Context context) {
+        SharedPreferences prefs = prefs(context);
+        int bootCount = prefs.getInt(KEY_BOOT_COUNT, -1);
+        if (!prefs.contains(KEY_RECEIVER_MS) || prefs.getInt(KEY_REPORTED_BOOT, -2) == bootCount
+                || bootCount != currentBootCount(context)) {
+            return null;
+        }
+        return "{\"directBoot\":" + prefs.getBoolean(KEY_DIRECT_BOOT, false)
+                + ",\"receiverMs\":" + prefs.getLong(KEY_RECEIVER_MS, -1)
+                + ",\"policyMs\":" + prefs.getLong(KEY_POLICY_MS, -1)
+                + ",\"lockScreenMs\":" + prefs.getLong(KEY_LOCK_SCREEN_MS, -1) + "}";
+    }
+
+    public static void markReported(Context context) {
+        SharedPreferences prefs = prefs(context);
+        prefs.edit().putInt(KEY_REPORTED_BOOT, prefs.getInt(KEY_BOOT_COUNT, -1)).apply();
+    }
+
+    public static String describe(Context context) {
+        SharedPreferences prefs = prefs(context);
+        return "boot #" + prefs.getInt(KEY_BOOT_COUNT, -1)
+                + (prefs.getBoolean(KEY_DIRECT_BOOT, false) ? " direct" : " normal")
+                + " receiver=" + prefs.getLong(KEY_RECEIVER_MS, -1) + "ms"
+                + " policy=" + prefs.getLong(KEY_POLICY_MS, -1) + "ms"
+                + " lockScreen=" + prefs.getLong(KEY_LOCK_SCREEN_MS, -1) + "ms (since boot)";
+    }
+
+    private static int currentBootCount(Context context) {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+    }
+}
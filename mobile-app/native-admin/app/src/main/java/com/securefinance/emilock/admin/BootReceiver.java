@@ -1,9 +1,11 @@
 package com.securefinance.emilock.admin;
 
+import android.app.admin.DevicePolicyManager;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -13,37 +15,77 @@ import android.util.Log;
  * - Survives power off/on
  * - Auto-launches lock screen if device is locked
  * - Identical to Samsung Finance Lock behavior
+ * - Direct boot: LOCKED_BOOT_COMPLETED arrives before the user unlocks the
+ *   keyguard, so policy and lock screen are applied from the device-protected
+ *   BootLockState mirror without waiting for BOOT_COMPLETED
+ * - Boot -> policy -> lock screen timing is recorded in BootLockState
+ * - MY_PACKAGE_REPLACED (self-update, SelfUpdater) restarts the service the
+ *   install killed; policy and lock screen are still in place
  */
 public class BootReceiver extends BroadcastReceiver {
     private static final String TAG = "BootReceiver";
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-            Log.i(TAG, "Boot completed - checking lock status");
+        String action = intent.getAction();
+        if (Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            Log.i(TAG, "Agent updated - restarting service");
+            context.startForegroundService(new Intent(context, LockEnforcementService.class));
+            return;
+        }
+        boolean directBoot = Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action);
+        if (!directBoot && !Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            return;
+        }
+        Log.i(TAG, (directBoot ? "Locked boot" : "Boot") + " completed at "
+                + SystemClock.elapsedRealtime() + "ms - checking lock status");
 
-            SharedPreferences prefs = context.getSharedPreferences("LockPrefs", Context.MODE_PRIVATE);
-            boolean isLocked = prefs.getBoolean("DEVICE_LOCKED", false);
+        // Only the first broadcast of a boot enforces; BOOT_COMPLETED after a direct boot just re-checks
+        boolean firstForBoot = BootLockState.onBootBroadcast(context, directBoot);
+        boolean isLocked = BootLockState.isLocked(context);
 
-            if (isLocked) {
+        if (isLocked) {
+            if (firstForBoot) {
+                enforceLockPolicy(context);
+            }
+            if (firstForBoot || !LockActivity.isShowing()) {
                 Log.i(TAG, "Device is locked - launching lock screen");
 
                 // Launch lock screen
-                Intent lockIntent = new Intent(context, LockActivity.class);
+                Intent lockIntent = new Intent(context, LockActivity.class)
+                        .putExtra(LockActivity.EXTRA_TRIGGER_ELAPSED, SystemClock.elapsedRealtime());
                 lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
                         Intent.FLAG_ACTIVITY_CLEAR_TASK);
                 context.startActivity(lockIntent);
             }
+        }
 
-            // Always start the lock enforcement service
-            Intent serviceIntent = new Intent(context, LockEnforcementService.class);
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-                context.startForegroundService(serviceIntent);
-            } else {
-                context.startService(serviceIntent);
-            }
+        if (directBoot) {
+            // LockEnforcementService needs credential-encrypted LockPrefs - it starts on BOOT_COMPLETED
+            return;
+        }
+
+        // Always start the lock enforcement service
+        Intent serviceIntent = new Intent(context, LockEnforcementService.class);
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+            context.startForegroundService(serviceIntent);
+        } else {
+            context.startService(serviceIntent);
+        }
+
+        Log.i(TAG, "Boot persistence complete");
+    }
 
-            Log.i(TAG, "Boot persistence complete");
+    /** Lock-task allowlist, status bar and keyguard before the first frame - DPM only, no prefs. */
+    private static void enforceLockPolicy(Context context) {
+        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        if (dpm == null || !dpm.isDeviceOwnerApp(context.getPackageName())) {
+            return;
         }
+        PolicyReconciler reconciler = new PolicyReconciler(dpm,
+                new ComponentName(context, AdminReceiver.class), context.getPackageName());
+        int ops = reconciler.reconcile(true, SystemClock.elapsedRealtime());
+        BootLockState.recordPolicyApplied(context, SystemClock.elapsedRealtime());
+        Log.i(TAG, "Boot lock policy enforced (" + ops + " ops) at " + SystemClock.elapsedRealtime() + "ms");
     }
 }
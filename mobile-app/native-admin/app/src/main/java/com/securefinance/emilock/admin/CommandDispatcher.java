@@ -0,0 +1,495 @@
+package com.securefinance.emilock.admin;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.RingtoneManager;
+import android.os.SystemClock;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandDispatcher - Journaled Remote Command Execution
+ *
+ * Runs the commands accepted by POST /api/customers/:id/command exactly once:
+ * - Commands arrive with the lock status (poll or push) and are deduplicated
+ *   by their server timestamp against the CommandJournal
+ * - Every step is journaled (fsync) before it takes effect, so process death
+ *   or a reboot never re-runs a command that completed
+ * - A command interrupted mid-run is re-run only if it is idempotent; wipe,
+ *   reset and remove are closed out instead (reset = reboot, which is exactly
+ *   what interrupted it)
+ * - Results are acknowledged in batches (POST /:id/command-ack), retried
+ *   with backoff until the server has them
+ *
+ * Everything runs on the agent-command thread; lock state changes are
+ * handed to the policy looper through Host, so a slow backlog never delays
+ * enforcement.
+ */
+public class CommandDispatcher {
+
+    /** Policy-side effects, implemented by LockEnforcementService (called off the policy thread). */
+    public interface Host {
+        void onLockCommand(boolean locked);
+
+        /** logoUrl is null to keep the current logo; the image is already cached when this is called. */
+        void onLockInfoCommand(String message, String phone, String logoUrl);
+
+        /** Forget applied policy and re-apply it, plus any extra user restrictions. */
+        void onReapplyPolicy(List<String> extraRestrictions);
+
+        /** Admin removed the device: unlock and hand the device back. */
+        void onRelease();
+    }
+
+    // Safe to run again if we died part-way through
+    static final Set<String> IDEMPOTENT = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "lock", "unlock", "setLockInfo", "setWallpaper", "setPin",
+            "alarm", "stopAlarm", "grantPermissions", "applyRestrictions", "uploadLogs")));
+
+    static final Set<String> NEEDS_PARAMS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "setLockInfo", "setWallpaper", "setPin", "grantPermissions", "applyRestrictions")));
+
+    static final long ACK_DELAY_MS = 2_000;
+    static final long ACK_RETRY_BASE_MS = 30_000;
+    static final long ACK_RETRY_MAX_MS = 10 * 60_000;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final Context context;
+    private final TokenVault vault; // Keystore-sealed reset password token and device key, in LockPrefs
+    private final AgentStateStore state;
+    private final OkHttpClient client;
+    private final Host host;
+    private final ScheduledExecutorService executor;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+
+    // Command thread only
+    private CommandJournal journal;
+    private ScheduledFuture<?> pendingAckFlush;
+    private long ackRetryMs = ACK_RETRY_BASE_MS;
+    private MediaPlayer alarmPlayer;
+    private String deviceKey; // X-Device-Key, cached once enrolled
+    private volatile String summary = "CommandDispatcher{not started}";
+
+    public CommandDispatcher(Context context, SharedPreferences prefs, AgentStateStore state, OkHttpClient client,
+                             Host host) {
+        this.context = context.getApplicationContext();
+        this.vault = new TokenVault(prefs);
+        this.state = state;
+        this.client = client;
+        this.host = host;
+        this.executor = AgentExecutors.get().commands();
+        this.dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.admin = new ComponentName(context, AdminReceiver.class);
+    }
+
+    /** Open the journal and finish whatever a previous process left behind. */
+    public void start() {
+        executor.execute(this::recover);
+    }
+
+    /** A command seen in a status payload. Cheap to call on every poll. */
+    public void offer(String command, long timestamp, String paramsJson) {
+        if (command == null || timestamp <= 0) {
+            return;
+        }
+        long receivedAt = SystemClock.elapsedRealtime();
+        executor.execute(() -> receive(command, timestamp, paramsJson, receivedAt));
+    }
+
+    public void stop() {
+        executor.execute(() -> {
+            if (pendingAckFlush != null) {
+                pendingAckFlush.cancel(false);
+            }
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        });
+    }
+
+    // ==================== Command thread ====================
+
+    private boolean openJournal() {
+        if (journal != null) {
+            return true;
+        }
+        try {
+            journal = new CommandJournal(new File(context.getFilesDir(), "command-journal.bin"));
+            if (journal.getTruncatedBytes() > 0) {
+                AgentLog.log(AgentEvents.JOURNAL_REPAIRED, journal.getTruncatedBytes());
+            }
+            updateSummary(null);
+            return true;
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.JOURNAL_UNAVAILABLE, e);
+            return false;
+        }
+    }
+
+    private void recover() {
+        if (!openJournal()) {
+            return;
+        }
+        for (CommandJournal.Entry entry : journal.unfinished()) {
+            if (entry.state == CommandJournal.State.STARTED && !IDEMPOTENT.contains(entry.command)) {
+                // Died mid-command: never repeat a destructive one
+                boolean rebooted = "reset".equals(entry.command);
+                AgentLog.log(AgentEvents.COMMAND_NOT_RERUN, entry.toString());
+                finish(entry, rebooted, rebooted ? "rebooted" : "interrupted");
+            } else {
+                AgentLog.log(AgentEvents.COMMAND_RESUMED, entry.toString());
+                execute(entry, -1); // Receipt time died with the previous process
+            }
+        }
+        scheduleAckFlush(0);
+    }
+
+    private void receive(String command, long timestamp, String paramsJson, long receivedAt) {
+        if (!openJournal() || journal.isKnown(timestamp)) {
+            return; // Duplicate (every poll repeats the pending command until it is acked)
+        }
+        if (paramsJson == null && NEEDS_PARAMS.contains(command)) {
+            // The lock view carries only name + timestamp; fetch the full command once
+            paramsJson = fetchParams(timestamp);
+            if (paramsJson == null) {
+                AgentLog.log(AgentEvents.COMMAND_PARAMS_DEFERRED, command);
+                return;
+            }
+        }
+        try {
+            CommandJournal.Entry entry = journal.accept(timestamp, command, paramsJson);
+            AgentLog.log(AgentEvents.COMMAND_ACCEPTED, entry.toString());
+            execute(entry, receivedAt);
+        } catch (IOException e) {
+            // Not journaled = not run; the next status payload offers it again
+            AgentLog.log(AgentEvents.COMMAND_DEFERRED, e);
+            return;
+        }
+        scheduleAckFlush(ACK_DELAY_MS);
+    }
+
+    /** @param receivedAt elapsedRealtime when the status payload offered it, -1 if unknown */
+    private void execute(CommandJournal.Entry entry, long receivedAt) {
+        try {
+            journal.markStarted(entry);
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.COMMAND_NOT_STARTED, entry.toString(), e);
+            return;
+        }
+
+        String result;
+        boolean success;
+        try {
+            JSONObject params = entry.paramsJson != null ? new JSONObject(entry.paramsJson) : new JSONObject();
+            result = run(entry.command, params);
+            success = true;
+        } catch (Exception e) {
+            result = e.getClass().getSimpleName() + ": " + e.getMessage();
+            success = false;
+        }
+        AgentLog.log(success ? AgentEvents.COMMAND_SUCCEEDED : AgentEvents.COMMAND_FAILED, entry.command, result);
+        if (receivedAt >= 0) {
+            // Device clock only: the server timestamp is on another clock and skews the difference
+            AgentMetrics.COMMAND_LATENCY_MS.record(SystemClock.elapsedRealtime() - receivedAt);
+        }
+        if (!success) {
+            AgentMetrics.COMMAND_FAILURES.inc();
+        }
+        finish(entry, success, result);
+    }
+
+    private void finish(CommandJournal.Entry entry, boolean success, String result) {
+        try {
+            journal.markFinished(entry, success, result);
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.COMMAND_RESULT_LOST, entry.toString(), e);
+        }
+        updateSummary(entry);
+    }
+
+    /** @return short result text for the ack; throws on failure */
+    private String run(String command, JSONObject params) throws Exception {
+        switch (command) {
+            case "lock":
+            case "unlock":
+                host.onLockCommand("lock".equals(command));
+                return "ok";
+
+            case "setLockInfo":
+                return setLockInfo(params);
+
+            case "applyRestrictions":
+                host.onReapplyPolicy(strings(params.optJSONArray("restrictions")));
+                return "ok";
+
+            case "grantPermissions":
+                return grantPermissions(params);
+
+            case "setWallpaper":
+                return setWallpaper(params.optString("wallpaperUrl", null), params.optString("sha256", null));
+
+            case "setPin":
+                return setPin(params.optString("pin", null));
+
+            case "alarm":
+                return startAlarm();
+
+            case "stopAlarm":
+                stopAlarm();
+                return "ok";
+
+            case "uploadLogs":
+                return uploadLogs();
+
+            case "reset":
+                dpm.reboot(admin);
+                return "rebooting";
+
+            case "wipe":
+                dpm.wipeData(0);
+                return "wiping";
+
+            case "remove":
+                host.onRelease();
+                return "released";
+
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private String uploadLogs() throws Exception {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        if (customerId == null) {
+            throw new IllegalStateException("No customer ID configured");
+        }
+        return AgentLog.upload(client, ServerEndpoints.get(context).baseUrl(), customerId);
+    }
+
+    private String grantPermissions(JSONObject params) {
+        String packageName = params.optString("packageName", null);
+        List<String> permissions = strings(params.optJSONArray("permissions"));
+        if (packageName == null || permissions.isEmpty()) {
+            throw new IllegalArgumentException("packageName and permissions required");
+        }
+        int granted = 0;
+        for (String permission : permissions) {
+            if (dpm.setPermissionGrantState(admin, packageName, permission,
+                    DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED)) {
+                granted++;
+            }
+        }
+        return granted + "/" + permissions.size() + " granted";
+    }
+
+    /** Streamed to the image cache and decoded at screen size - a repeat does not download again. */
+    private String setWallpaper(String url, String sha256) throws IOException {
+        if (url == null) {
+            throw new IllegalArgumentException("wallpaperUrl required");
+        }
+        return ImagePipeline.get(context).applyWallpaper(url, sha256);
+    }
+
+    /** A logo is fetched before it is saved, so the lock screen never shows a URL it cannot load offline. */
+    private String setLockInfo(JSONObject params) throws IOException {
+        String logoUrl = params.optString("logoUrl", null);
+        if (logoUrl != null) {
+            ImagePipeline.get(context).fetch(logoUrl, params.optString("logoSha256", null));
+        }
+        host.onLockInfoCommand(params.optString("message", null), params.optString("phone", null), logoUrl);
+        return "ok";
+    }
+
+    /**
+     * Device owner PIN reset with the token registered at provisioning (ResetPasswordToken). A device
+     * provisioned without one registers it here; that token activates at the user's next unlock.
+     */
+    private String setPin(String pin) throws GeneralSecurityException {
+        if (pin == null) {
+            throw new IllegalArgumentException("pin required");
+        }
+        byte[] token = ResetPasswordToken.ensure(dpm, admin, vault);
+        if (!dpm.isResetPasswordTokenActive(admin)) {
+            throw new IllegalStateException("Reset token not active yet (needs one user unlock)");
+        }
+        if (!dpm.resetPasswordWithToken(admin, pin, token, 0)) {
+            throw new IllegalStateException("PIN rejected by password policy");
+        }
+        return "ok";
+    }
+
+    private String startAlarm() throws IOException {
+        stopAlarm();
+        AudioManager audio = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        audio.setStreamVolume(AudioManager.STREAM_ALARM, audio.getStreamMaxVolume(AudioManager.STREAM_ALARM), 0);
+
+        MediaPlayer player = new MediaPlayer();
+        player.setAudioAttributes(new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_ALARM)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build());
+        player.setDataSource(context, RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM));
+        player.setLooping(true);
+        player.prepare();
+        player.start();
+        alarmPlayer = player;
+        return "ringing";
+    }
+
+    private void stopAlarm() {
+        if (alarmPlayer != null) {
+            alarmPlayer.stop();
+            alarmPlayer.release();
+            alarmPlayer = null;
+        }
+    }
+
+    /** Non-destructive read of the pending command's params (GET /:id/command), null if unavailable. */
+    private String fetchParams(long timestamp) {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        String serverUrl = ServerEndpoints.get(context).baseUrl();
+        Request.Builder request = new Request.Builder()
+                .url(serverUrl + "/api/customers/" + customerId + "/command");
+        String key = loadDeviceKey();
+        if (key != null) {
+            request.header(LockEnforcementService.DEVICE_KEY_HEADER, key); // Params are served to the device only
+        }
+        try (Response response = client.newCall(request.build()).execute()) {
+            ResponseBody body = response.body();
+            if (response.isSuccessful() && body != null) {
+                LockStatus status = new LockStatusDecoder().decode(body.byteStream(), new LockStatus());
+                if (status.commandTimestamp == timestamp) {
+                    return status.commandParamsJson != null ? status.commandParamsJson : "{}";
+                }
+            }
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.PARAMS_FETCH_FAILED, e);
+        }
+        return null;
+    }
+
+    /** Device key from TokenVault; not cached until enrollment has stored one. */
+    private String loadDeviceKey() {
+        if (deviceKey == null) {
+            deviceKey = vault.getDeviceKey(); // Keystore decrypt, fine on the command thread
+        }
+        return deviceKey;
+    }
+
+    // ==================== Acks ====================
+
+    private void scheduleAckFlush(long delayMs) {
+        if (pendingAckFlush != null && !pendingAckFlush.isDone()) {
+            return; // Batch with the flush already queued
+        }
+        pendingAckFlush = executor.schedule(this::flushAcks, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushAcks() {
+        pendingAckFlush = null;
+        if (journal == null) {
+            return;
+        }
+        List<CommandJournal.Entry> unacked = journal.unacked();
+        if (unacked.isEmpty()) {
+            return;
+        }
+
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        String serverUrl = ServerEndpoints.get(context).baseUrl();
+        if (customerId == null) {
+            return;
+        }
+
+        JSONArray acks = new JSONArray();
+        try {
+            for (CommandJournal.Entry entry : unacked) {
+                acks.put(new JSONObject()
+                        .put("timestamp", entry.timestamp)
+                        .put("command", entry.command)
+                        .put("status", entry.state == CommandJournal.State.DONE ? "done" : "failed")
+                        .put("result", entry.result));
+            }
+        } catch (Exception e) {
+            AgentLog.log(AgentEvents.ACK_PAYLOAD_ERROR, e);
+            return;
+        }
+
+        Request.Builder request = new Request.Builder()
+                .url(serverUrl + "/api/customers/" + customerId + "/command-ack")
+                .post(RequestBody.create("{\"acks\":" + acks + "}", JSON));
+        String key = loadDeviceKey();
+        if (key != null) {
+            request.header(LockEnforcementService.DEVICE_KEY_HEADER, key); // Not enrolled yet: 401, retried below
+        }
+        try (Response response = client.newCall(request.build()).execute()) {
+            if (response.isSuccessful()) {
+                journal.markAcked(unacked);
+                ackRetryMs = ACK_RETRY_BASE_MS;
+                updateSummary(null);
+                AgentLog.log(AgentEvents.ACKED, unacked.size());
+                return;
+            }
+            AgentLog.log(AgentEvents.ACK_REJECTED, response.code());
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.ACK_FAILED, e);
+        }
+
+        // Keep them journaled as unacked and retry later
+        scheduleAckFlush(ackRetryMs);
+        ackRetryMs = Math.min(ACK_RETRY_MAX_MS, ackRetryMs * 2);
+    }
+
+    private static List<String> strings(JSONArray array) {
+        if (array == null) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            String value = array.optString(i, null);
+            if (value != null) {
+                list.add(value);
+            }
+        }
+        return list;
+    }
+
+    private void updateSummary(CommandJournal.Entry last) {
+        summary = "CommandDispatcher{journaled=" + journal.entries().size()
+                + ", unfinished=" + journal.unfinished().size()
+                + ", unacked=" + journal.unacked().size()
+                + (last != null ? ", last=" + last : "") + "}";
+    }
+
+    /** Safe from any thread (dumpsys). */
+    @Override
+    public String toString() {
+        return summary;
+    }
+}
@@ -0,0 +1,69 @@
+package com.securefinance.emilock.admin;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+import java.io.IOException;
+
+/**
+ * GzipRequestInterceptor - Compressed Request Bodies
+ *
+ * Gzips JSON request bodies (telemetry, heartbeats, reports) before they go
+ * on the air. express.json() inflates Content-Encoding: gzip transparently.
+ * - Only application/json: multipart uploads and APK traffic are left alone
+ * - Bodies under MIN_GZIP_BYTES are sent as-is (gzip header overhead wins)
+ * - Requests that already set Content-Encoding are not touched
+ */
+public final class GzipRequestInterceptor implements Interceptor {
+
+    static final long MIN_GZIP_BYTES = 512;
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header("Content-Encoding") != null || !isJson(body.contentType())) {
+            return chain.proceed(request);
+        }
+        long length = body.contentLength();
+        if (length >= 0 && length < MIN_GZIP_BYTES) {
+            return chain.proceed(request);
+        }
+
+        Request compressed = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), gzip(body))
+                .build();
+        return chain.proceed(compressed);
+    }
+
+    private static boolean isJson(MediaType type) {
+        return type != null && "json".equals(type.subtype());
+    }
+
+    private static RequestBody gzip(final RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                return -1; // Unknown until compressed - sent chunked
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                body.writeTo(gzipSink);
+                gzipSink.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,240 @@
+package com.securefinance.emilock.admin;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HttpMetrics - Per-Call Network Timing
+ *
+ * OkHttp EventListener factory recording, for every call:
+ * - DNS, TCP connect, TLS handshake and TTFB (request sent -> first response byte)
+ * - Whether a pooled connection was reused (no DNS/connect/TLS at all)
+ * - TLS resumption is not reported by OkHttp; a short TLS phase on a new
+ *   connection is the tell
+ *
+ * Aggregates are kept for dumpsys; the last SAMPLE_CAPACITY calls are kept verbatim.
+ * Thread-safe; pure Java + OkHttp.
+ */
+public final class HttpMetrics implements EventListener.Factory {
+
+    static final int SAMPLE_CAPACITY = 16;
+
+    /** Timings of one finished call, in milliseconds (-1 = phase did not happen). */
+    public static final class Sample {
+        public final String path;
+        public final boolean success;
+        public final boolean reusedConnection;
+        public final Protocol protocol;
+        public final long dnsMs;
+        public final long connectMs;
+        public final long tlsMs;
+        public final long ttfbMs;
+        public final long totalMs;
+
+        Sample(String path, boolean success, boolean reusedConnection, Protocol protocol,
+               long dnsMs, long connectMs, long tlsMs, long ttfbMs, long totalMs) {
+            this.path = path;
+            this.success = success;
+            this.reusedConnection = reusedConnection;
+            this.protocol = protocol;
+            this.dnsMs = dnsMs;
+            this.connectMs = connectMs;
+            this.tlsMs = tlsMs;
+            this.ttfbMs = ttfbMs;
+            this.totalMs = totalMs;
+        }
+
+        @Override
+        public String toString() {
+            return path + " " + (success ? "ok" : "FAILED")
+                    + " " + protocol
+                    + (reusedConnection ? " reused" : " dns=" + dnsMs + " connect=" + connectMs + " tls=" + tlsMs)
+                    + " ttfb=" + ttfbMs + " total=" + totalMs + "ms";
+        }
+    }
+
+    private final Sample[] samples = new Sample[SAMPLE_CAPACITY];
+    private int sampleCount;
+
+    private long calls;
+    private long failures;
+    private long reused;
+    private long newConnections;
+    private long dnsTotalMs;
+    private long connectTotalMs;
+    private long tlsTotalMs;
+    private long ttfbTotalMs;
+    private long ttfbCount;
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallTimer();
+    }
+
+    private synchronized void record(Sample sample) {
+        calls++;
+        if (!sample.success) {
+            failures++;
+        }
+        if (sample.reusedConnection) {
+            reused++;
+        } else if (sample.connectMs >= 0) {
+            newConnections++;
+            connectTotalMs += sample.connectMs;
+            if (sample.dnsMs >= 0) {
+                dnsTotalMs += sample.dnsMs;
+            }
+            if (sample.tlsMs >= 0) {
+                tlsTotalMs += sample.tlsMs;
+            }
+        }
+        if (sample.ttfbMs >= 0) {
+            ttfbTotalMs += sample.ttfbMs;
+            ttfbCount++;
+        }
+        samples[sampleCount++ % SAMPLE_CAPACITY] = sample;
+    }
+
+    /** Most recent samples, oldest first. */
+    public synchronized List<Sample> getRecentSamples() {
+        int count = Math.min(sampleCount, SAMPLE_CAPACITY);
+        List<Sample> recent = new ArrayList<>(count);
+        for (int i = sampleCount - count; i < sampleCount; i++) {
+            recent.add(samples[i % SAMPLE_CAPACITY]);
+        }
+        return recent;
+    }
+
+    public synchronized long getCallCount() {
+        return calls;
+    }
+
+    public synchronized long getReusedCount() {
+        return reused;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HttpMetrics{calls=" + calls
+                + ", failures=" + failures
+                + ", reused=" + reused
+                + ", newConnections=" + newConnections
+                + ", avgDns=" + avg(dnsTotalMs, newConnections)
+                + ", avgConnect=" + avg(connectTotalMs, newConnections)
+                + ", avgTls=" + avg(tlsTotalMs, newConnections)
+                + ", avgTtfb=" + avg(ttfbTotalMs, ttfbCount) + "ms}";
+    }
+
+    private static long avg(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /** One instance per call - OkHttp delivers a call's events sequentially. */
+    private final class CallTimer extends EventListener {
+        private long callStart;
+        private long dnsStart = -1;
+        private long dnsMs = -1;
+        private long connectStart = -1;
+        private long connectMs = -1;
+        private long tlsStart = -1;
+        private long tlsMs = -1;
+        private long requestSent = -1;
+        private long ttfbMs = -1;
+        private boolean newConnection;
+        private Protocol protocol;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            dnsMs = elapsedMs(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = System.nanoTime();
+            newConnection = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsMs = elapsedMs(tlsStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            connectMs = elapsedMs(connectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connectMs = elapsedMs(connectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            protocol = connection.protocol();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestSent = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestSent = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (requestSent >= 0 && ttfbMs < 0) {
+                ttfbMs = elapsedMs(requestSent);
+            }
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            finish(call, true);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            finish(call, false);
+        }
+
+        private void finish(Call call, boolean success) {
+            record(new Sample(call.request().url().encodedPath(), success,
+                    !newConnection && protocol != null, protocol,
+                    dnsMs, connectMs, tlsMs, ttfbMs, elapsedMs(callStart)));
+        }
+
+        private long elapsedMs(long startNanos) {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+    }
+}
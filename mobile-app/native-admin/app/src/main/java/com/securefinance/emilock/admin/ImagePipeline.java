@@ -0,0 +1,186 @@
+package com.securefinance.emilock.admin;
+
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ImagePipeline - Wallpaper and Lock Screen Branding Images
+ *
+ * Gets server images onto the screen without large allocations or main
+ * thread work:
+ * - Downloads stream straight to disk (ImageCache, keyed by content hash),
+ *   so a repeated setWallpaper / setLockInfo reuses the file it already has
+ * - Decodes read the bounds first and subsample to the target size, so a
+ *   12 MP photo never becomes a 48 MB bitmap; wallpapers decode as RGB_565
+ * - Decoded branding bitmaps stay in a small memory LRU, so a re-created
+ *   lock screen shows its logo on the first frame
+ * - load() runs on the agent-image thread and answers on the main looper
+ *
+ * The disk cache lives in device-protected storage, so the lock screen has
+ * its logo in direct boot too. Bitmaps handed out by load() are shared -
+ * callers must not recycle them.
+ */
+public final class ImagePipeline {
+
+    static final String CACHE_DIR = "images";
+    static final long DISK_CACHE_BYTES = 16 * 1024 * 1024;
+    static final long MAX_IMAGE_BYTES = 8 * 1024 * 1024;
+    static final int MAX_MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    static final long MAX_DECODE_PIXELS = 8_000_000; // 16 MB as RGB_565, whatever the source
+
+    /** Answer from load(), on the main looper; null if the image could not be loaded. */
+    public interface Callback {
+        void onImage(Bitmap bitmap);
+    }
+
+    private static ImagePipeline instance;
+
+    private final Context context;
+    private final ImageCache disk;
+    private final LruCache<String, Bitmap> memory;
+    private final ExecutorService executor;
+
+    public static synchronized ImagePipeline get(Context context) {
+        if (instance == null) {
+            instance = new ImagePipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ImagePipeline(Context context) {
+        this.context = context;
+        Context deContext = context.isDeviceProtectedStorage()
+                ? context : context.createDeviceProtectedStorageContext();
+        // No disk access here - ImageCache reads its directory on first use, off the main thread
+        this.disk = new ImageCache(new File(deContext.getCacheDir(), CACHE_DIR), DISK_CACHE_BYTES, MAX_IMAGE_BYTES);
+        int memoryBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_MEMORY_CACHE_BYTES);
+        this.memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+        this.executor = AgentExecutors.get().images();
+    }
+
+    // ==================== Async (UI) ====================
+
+    /**
+     * Load an image to fit width x height: memory cache at once, else disk or
+     * network on the image thread. The callback always runs on the main looper.
+     */
+    public void load(String url, int width, int height, Callback callback) {
+        String key = url + '@' + width + 'x' + height;
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            AgentExecutors.get().runOnMain(() -> callback.onImage(cached));
+            return;
+        }
+        executor.execute(() -> {
+            Bitmap bitmap = null;
+            try {
+                bitmap = decode(fetch(url, null), width, height, MAX_DECODE_PIXELS, Bitmap.Config.ARGB_8888);
+                memory.put(key, bitmap);
+            } catch (IOException | RuntimeException e) {
+                AgentLog.log(AgentEvents.IMAGE_FAILED, url, e);
+            }
+            Bitmap result = bitmap;
+            AgentExecutors.get().runOnMain(() -> callback.onImage(result));
+        });
+    }
+
+    // ==================== Blocking (command thread) ====================
+
+    /**
+     * The cached file for an image, downloading it if needed.
+     * @param sha256 expected content hash, or null to trust the URL
+     */
+    public File fetch(String url, String sha256) throws IOException {
+        File file = disk.lookup(url, sha256);
+        if (file != null) {
+            AgentLog.log(AgentEvents.IMAGE_CACHED, url);
+            return file;
+        }
+        long start = SystemClock.elapsedRealtime();
+        Request request = new Request.Builder().url(url).build();
+        // Client built here, off the main thread - TLS setup is not free
+        OkHttpClient client = AgentHttpClient.get();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Download failed: HTTP " + response.code());
+            }
+            file = disk.store(url, sha256, body.byteStream(), body.contentLength());
+        }
+        AgentLog.log(AgentEvents.IMAGE_DOWNLOADED, file.length(), SystemClock.elapsedRealtime() - start);
+        return file;
+    }
+
+    /**
+     * Decode subsampled so the bitmap just covers width x height (0 = full size)
+     * with at most maxPixels (see ImageCache.sampleSize).
+     */
+    public Bitmap decode(File file, int width, int height, long maxPixels, Bitmap.Config config) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image");
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ImageCache.sampleSize(options.outWidth, options.outHeight, width, height, maxPixels);
+        options.inPreferredConfig = config;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Decode failed");
+        }
+        AgentLog.log(AgentEvents.IMAGE_DECODED, options.inSampleSize, bitmap.getAllocationByteCount());
+        return bitmap;
+    }
+
+    /**
+     * Set home and lock screen wallpaper, decoded at the size the launcher
+     * asks for rather than the source size.
+     * @return applied size for the command ack
+     */
+    public String applyWallpaper(String url, String sha256) throws IOException {
+        WallpaperManager wallpapers = WallpaperManager.getInstance(context);
+        DisplayMetrics display = context.getResources().getDisplayMetrics();
+        int width = wallpapers.getDesiredMinimumWidth();
+        int height = wallpapers.getDesiredMinimumHeight();
+        if (width <= 0 || height <= 0) {
+            width = display.widthPixels;
+            height = display.heightPixels;
+        }
+        // Opaque by nature - half the memory of ARGB_8888. Twice the screen's pixels is
+        // plenty for the launcher's crop; more would only be scaled away
+        long maxPixels = Math.min(2L * width * height, MAX_DECODE_PIXELS);
+        Bitmap bitmap = decode(fetch(url, sha256), width, height, maxPixels, Bitmap.Config.RGB_565);
+        int appliedWidth = bitmap.getWidth();
+        int appliedHeight = bitmap.getHeight();
+        try {
+            wallpapers.setBitmap(bitmap, null, true, WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK);
+        } finally {
+            bitmap.recycle();
+        }
+        AgentLog.log(AgentEvents.WALLPAPER_APPLIED, appliedWidth, appliedHeight);
+        return appliedWidth + "x" + appliedHeight;
+    }
+
+    @Override
+    public String toString() {
+        return disk + ", memory=" + memory.size() + "/" + memory.maxSize() + " bytes";
+    }
+}
@@ -0,0 +1,340 @@
+package com.securefinance.emilock.admin;
+
+import android.Manifest;
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Base64;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * LocationTracker - Battery-Light Location Trail
+ *
+ * Records where the device has been so a defaulted device can be recovered
+ * from a trail rather than a single last-known point:
+ * - Sampling follows LocationPolicy: network fixes every 15 minutes while the
+ *   device is parked, GPS spaced by speed while it moves, tighter while
+ *   locked. Fixes other apps request arrive free through the passive provider
+ * - Kept points go into a bounded TrackStore (delta/varint blocks, CRC
+ *   framed, oldest dropped first) in credential-encrypted storage
+ * - Uploads ride on a successful status poll like telemetry: once
+ *   BATCH_POINTS are pending or the oldest is MAX_AGE_MS old (longer on
+ *   metered networks, much shorter while locked). One POST
+ *   /api/customers/:id/track carries the raw blocks, base64 in JSON;
+ *   blocks leave the store only after a 2xx
+ * - The device owner grants itself the location permissions; with location
+ *   off or denied the tracker idles and says so in dumpsys, and picks up
+ *   again on PROVIDERS_CHANGED when location comes back
+ *
+ * Everything runs on the policy looper except the HTTP call itself.
+ */
+public class LocationTracker {
+
+    static final String TRACK_FILE = "location_track.bin";
+    static final int MAX_STORE_BYTES = 128 * 1024; // Weeks of parked points, days of driving
+    static final int MAX_UPLOAD_BYTES = 16 * 1024;
+    static final int BATCH_POINTS = 120;
+    static final long MAX_AGE_MS = 60 * 60_000L;
+    static final long MAX_AGE_METERED_MS = 4 * 60 * 60_000L;
+    static final long MAX_AGE_LOCKED_MS = 5 * 60_000L;
+    static final long BACKOFF_BASE_MS = 60_000L;
+    static final long BACKOFF_MAX_MS = 60 * 60_000L;
+    static final long UNSUPPORTED_RETRY_MS = 24 * 60 * 60_000L;
+    static final long PASSIVE_MIN_INTERVAL_MS = LocationPolicy.MOVING_MIN_MS;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final Context context;
+    private final AgentStateStore state;
+    private final OkHttpClient client;
+    private final Handler handler;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final ConnectivityManager connectivityManager;
+    private final LocationManager locationManager;
+
+    private final LocationPolicy policy = new LocationPolicy();
+    private final TrackStore store;
+    private final LocationListener activeListener = this::onLocation;
+    private final LocationListener passiveListener = this::onPassiveLocation;
+    private final BroadcastReceiver providersReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            requestUpdates(); // Location switched on or off, or a provider came or went
+        }
+    };
+
+    private boolean started;
+    private String activeProvider; // Current request, null when none
+    private long activeIntervalMs;
+    private String unavailable; // Why nothing is being recorded, for dumpsys
+
+    private boolean uploading;
+    private int failures;
+    private long backoffUntilElapsed;
+
+    // Counters for dump
+    private int batchesSent;
+    private long pointsSent;
+    private long bytesSent;
+
+    public LocationTracker(Context context, AgentStateStore state, OkHttpClient client, Handler handler,
+                           DevicePolicyManager dpm, ComponentName admin) {
+        this.context = context.getApplicationContext();
+        this.state = state;
+        this.client = client;
+        this.handler = handler;
+        this.dpm = dpm;
+        this.admin = admin;
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        this.store = new TrackStore(new File(this.context.getFilesDir(), TRACK_FILE), MAX_STORE_BYTES);
+    }
+
+    // ==================== Lifecycle ====================
+
+    /** Policy looper. */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        store.open();
+        if (locationManager == null) {
+            unavailable = "no LocationManager";
+            return;
+        }
+        if (dpm.isDeviceOwnerApp(context.getPackageName())) {
+            // Location needs runtime grants - the device owner grants them to itself
+            grant(Manifest.permission.ACCESS_FINE_LOCATION);
+            grant(Manifest.permission.ACCESS_COARSE_LOCATION);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                grant(Manifest.permission.ACCESS_BACKGROUND_LOCATION);
+            }
+        }
+        try {
+            locationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, PASSIVE_MIN_INTERVAL_MS, 0,
+                    passiveListener, handler.getLooper());
+        } catch (SecurityException | IllegalArgumentException e) {
+            AgentLog.log(AgentEvents.LOCATION_UNAVAILABLE, e.getMessage());
+        }
+        context.registerReceiver(providersReceiver, new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION),
+                null, handler);
+        requestUpdates();
+    }
+
+    /** Policy looper. Unsent points stay in the store for the next start. */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        if (locationManager != null) {
+            context.unregisterReceiver(providersReceiver);
+            locationManager.removeUpdates(activeListener);
+            locationManager.removeUpdates(passiveListener);
+        }
+        activeProvider = null;
+        store.seal();
+    }
+
+    public void setLocked(boolean locked) {
+        policy.setLocked(locked);
+        requestUpdates();
+    }
+
+    public void setPowerSave(boolean powerSave) {
+        policy.setPowerSave(powerSave);
+        requestUpdates();
+    }
+
+    private void grant(String permission) {
+        try {
+            dpm.setPermissionGrantState(admin, context.getPackageName(), permission,
+                    DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
+        } catch (SecurityException e) {
+            AgentLog.log(AgentEvents.LOCATION_UNAVAILABLE, permission + " not granted");
+        }
+    }
+
+    // ==================== Sampling ====================
+
+    /** Re-register the active request when the policy wants a different source or interval. */
+    private void requestUpdates() {
+        if (!started || locationManager == null) {
+            return;
+        }
+        String provider = pickProvider();
+        long interval = policy.intervalMs();
+        if (provider == null) {
+            unavailable = "location off";
+            if (activeProvider != null) {
+                locationManager.removeUpdates(activeListener);
+                activeProvider = null;
+            }
+            return;
+        }
+        if (provider.equals(activeProvider) && interval == activeIntervalMs) {
+            return;
+        }
+        try {
+            locationManager.removeUpdates(activeListener);
+            locationManager.requestLocationUpdates(provider, interval, 0, activeListener, handler.getLooper());
+            activeProvider = provider;
+            activeIntervalMs = interval;
+            unavailable = null;
+            AgentLog.log(AgentEvents.LOCATION_SAMPLING, provider, interval);
+        } catch (SecurityException e) {
+            activeProvider = null;
+            unavailable = "permission denied";
+            AgentLog.log(AgentEvents.LOCATION_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    private String pickProvider() {
+        boolean gps = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+        boolean network = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+        if (policy.wantsPrecise() && gps) {
+            return LocationManager.GPS_PROVIDER;
+        }
+        if (network) {
+            return LocationManager.NETWORK_PROVIDER;
+        }
+        return gps ? LocationManager.GPS_PROVIDER : null;
+    }
+
+    /** The passive provider also hands back our own fixes - those already came through activeListener. */
+    private void onPassiveLocation(Location location) {
+        if (activeProvider == null || !activeProvider.equals(location.getProvider())) {
+            onLocation(location);
+        }
+    }
+
+    private void onLocation(Location location) {
+        AgentMetrics.LOCATION_FIXES.inc();
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+        float speed = location.hasSpeed() ? location.getSpeed() : -1;
+        if (policy.onFix(location.getTime(), location.getLatitude(), location.getLongitude(), accuracy, speed)) {
+            store.add(location.getTime(), location.getLatitude(), location.getLongitude(), Math.round(accuracy));
+            AgentMetrics.LOCATION_POINTS.inc();
+        }
+        requestUpdates(); // Started or stopped moving
+    }
+
+    // ==================== Upload ====================
+
+    /** A status poll just succeeded - the radio is up, so send the track if a batch is due. */
+    public void onNetworkWakeup() {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        long elapsed = SystemClock.elapsedRealtime();
+        if (customerId == null || uploading || elapsed < backoffUntilElapsed || store.pendingPoints() == 0) {
+            return;
+        }
+        NetworkCapabilities caps = connectivityManager != null
+                ? connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork()) : null;
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+            return;
+        }
+        boolean metered = !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        // A locked device is one being recovered - its trail is worth the radio time
+        long maxAge = isLocked() ? MAX_AGE_LOCKED_MS : metered ? MAX_AGE_METERED_MS : MAX_AGE_MS;
+        if (store.pendingPoints() < BATCH_POINTS && System.currentTimeMillis() - store.oldestAt() < maxAge) {
+            return;
+        }
+
+        TrackStore.Batch batch = store.takeBatch(MAX_UPLOAD_BYTES);
+        if (batch == null) {
+            return;
+        }
+        String body = "{\"format\":" + TrackCodec.FORMAT
+                + ",\"points\":" + batch.points
+                + ",\"from\":" + batch.from
+                + ",\"to\":" + batch.to
+                + ",\"data\":\"" + Base64.encodeToString(batch.data, Base64.NO_WRAP) + "\"}";
+        Request request = new Request.Builder()
+                .url(ServerEndpoints.get(context).baseUrl() + "/api/customers/" + customerId + "/track")
+                .post(RequestBody.create(body, JSON))
+                .build();
+        uploading = true;
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                AgentLog.log(AgentEvents.TRACK_UPLOAD_FAILED, e);
+                handler.post(() -> onUploadResult(batch, 0));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                int code;
+                try (Response r = response) {
+                    code = r.code();
+                }
+                handler.post(() -> onUploadResult(batch, code));
+            }
+        });
+    }
+
+    private void onUploadResult(TrackStore.Batch batch, int code) {
+        uploading = false;
+        if (code >= 200 && code < 300) {
+            store.remove(batch);
+            failures = 0;
+            backoffUntilElapsed = 0;
+            batchesSent++;
+            pointsSent += batch.points;
+            bytesSent += batch.data.length;
+            AgentMetrics.TRACK_UPLOAD_BYTES.add(batch.data.length);
+            AgentLog.log(AgentEvents.TRACK_UPLOADED, batch.points, batch.data.length);
+            return;
+        }
+        if (code == 404) {
+            // Backend without the track endpoint - keep recording, ask again tomorrow
+            backoffUntilElapsed = SystemClock.elapsedRealtime() + UNSUPPORTED_RETRY_MS;
+            return;
+        }
+        if (code == 400 || code == 422) {
+            // Rejected as malformed - retrying the same blocks would never succeed.
+            // Other 4xx (401, 403, 429) say nothing about the data: back off and keep it
+            AgentLog.log(AgentEvents.TRACK_UPLOAD_FAILED, "HTTP " + code + ", dropped " + batch.points + " points");
+            store.remove(batch);
+            return;
+        }
+        failures++;
+        backoffUntilElapsed = SystemClock.elapsedRealtime()
+                + Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(failures - 1, 10));
+    }
+
+    private boolean isLocked() {
+        return state.getBoolean(AgentState.DEVICE_LOCKED);
+    }
+
+    @Override
+    public String toString() {
+        return "LocationTracker{provider=" + activeProvider
+                + ", intervalMs=" + activeIntervalMs
+                + (unavailable != null ? ", unavailable=" + unavailable : "")
+                + ", batches=" + batchesSent
+                + ", pointsSent=" + pointsSent
+                + ", bytesSent=" + bytesSent
+                + ", failures=" + failures + "}\n  " + policy + "\n  " + store;
+    }
+}
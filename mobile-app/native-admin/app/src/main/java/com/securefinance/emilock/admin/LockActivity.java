@@ -2,12 +2,15 @@ package com.securefinance.emilock.admin;
 
 import android.app.Activity;
 import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.Settings;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
@@ -21,35 +24,117 @@ import android.widget.TextView;
  * Legal Compliance:
  * - Displays lender name
  * - Shows customer care number (click-to-call)
- * - Explains lock reason
+ * - Explains lock reason (server lockMessage, see LockInfo)
  * - Shows unlock conditions
  * - Allows emergency calls (112/100/108)
+ * - Accepts a dealer unlock code on an on-screen keypad, verified offline
+ *   (OfflineCodeVerifier) so a field payment unlocks with no network
+ *
+ * Cold start: the first frame is built from cached LockInfo only; the keypad
+ * and keystore work come after it. Content updates and unlocks arrive through
+ * an AgentState listener while started; content rebinds the existing views.
+ * Time-to-first-frame is recorded in LockScreenMetrics - for a cold start and
+ * for a relaunch onto the screen that is already up (onNewIntent).
+ *
+ * Direct-boot aware: AgentState lives in device-protected storage, so the
+ * screen can show before the keyguard is first unlocked after a reboot.
  */
 public class LockActivity extends Activity {
     private static final String TAG = "LockActivity";
     private DevicePolicyManager dpm;
     private ComponentName adminComponent;
-    private SharedPreferences prefs;
+    private AgentStateStore state;
+
+    // Read by LockEnforcementService so it only relaunches us when we are not on screen
+    private static volatile boolean showing;
+
+    // Trigger time (SystemClock.elapsedRealtime) for the time-to-first-frame metric
+    static final String EXTRA_TRIGGER_ELAPSED = "triggerElapsed";
+
+    private static final int COLOR_BACKGROUND = 0xFF1A1A1A;
+    private static final int COLOR_SURFACE = 0xFF2A2A2A;
+    private static final int COLOR_DANGER = 0xFFEF4444;
+    private static final int COLOR_WARNING = 0xFFFBBF24;
+    private static final int COLOR_MUTED = 0xFF9CA3AF;
+    private static final int COLOR_TEXT = 0xFFD1D5DB;
+    private static final int COLOR_PRIMARY = 0xFF2563EB;
+
+    // Lender logo bounds, px - also the decode target
+    private static final int LOGO_MAX_WIDTH = 480;
+    private static final int LOGO_MAX_HEIGHT = 160;
+
+    // Lock screen content (main thread only) - rebound in place when AgentState changes
+    private LockInfo lockInfo;
+    private android.widget.ImageView logoView;
+    private TextView lenderView;
+    private TextView reasonView;
+    private TextView unlockView;
+    private android.widget.LinearLayout root;
+    // Called on the writer's thread (policy looper) - hop to main
+    private final AgentStateStore.Listener stateListener = key -> {
+        if (LockInfo.isLockInfoKey(key) || key == AgentState.DEVICE_LOCKED) {
+            AgentExecutors.get().runOnMain(this::onStateChanged);
+        }
+    };
+
+    // Time-to-first-frame (main thread only)
+    private long triggerElapsed;
+    private boolean firstFrameRecorded;
+    private boolean relaunchFramePending;
+
+    private BroadcastReceiver userUnlockReceiver;
+
+    // Offline unlock code entry (main thread only)
+    private OfflineCodeVerifier codeVerifier;
+    private TokenVault tokenVault; // Persists the verifier's lockout
+    private int bootCount;
+    private int enteredValue;
+    private int enteredDigits;
+    private android.widget.LinearLayout codeSection;
+    private TextView codeDisplay;
+    private TextView codeStatus;
+
+    static boolean isShowing() {
+        return showing;
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createdAt = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
+        triggerElapsed = getIntent().getLongExtra(EXTRA_TRIGGER_ELAPSED, createdAt);
 
         dpm = (DevicePolicyManager) getSystemService(Context.DEVICE_POLICY_SERVICE);
         adminComponent = new ComponentName(this, AdminReceiver.class);
-        prefs = getSharedPreferences("LockPrefs", Context.MODE_PRIVATE);
+        // Device-protected: readable in direct boot, before the keyguard is first unlocked
+        state = AgentState.get(this);
 
         // Setup full-screen lock UI
         setupLockScreen();
 
-        // HARDENING: Detect Safe Mode
+        // HARDENING: Detect Safe Mode (reported by TamperMonitor)
         if (getPackageManager().isSafeMode()) {
             Log.e(TAG, "⚠️ SAFE MODE DETECTED - Enforcing hard lock");
             forceHardLock();
         }
 
-        // Create UI
+        // Create UI from the cached lock info - nothing here waits on disk or network
         createLockUI();
+        bindLockInfo(LockInfo.fromState(state));
+        watchFirstFrame();
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        // Re-triggered while already up (singleTask) - content may have changed, the activity has not
+        setIntent(intent);
+        bindLockInfo(LockInfo.fromState(state));
+        long trigger = intent.getLongExtra(EXTRA_TRIGGER_ELAPSED, -1);
+        // Before the first frame the cold measurement covers this trigger too
+        if (trigger >= 0 && firstFrameRecorded && !relaunchFramePending) {
+            watchRelaunchFrame(trigger);
+        }
     }
 
     private void setupLockScreen() {
@@ -71,83 +156,55 @@ public class LockActivity extends Activity {
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN);
     }
 
+    /**
+     * Build the first-frame view tree: static chrome plus empty text views that
+     * bindLockInfo() fills. The code keypad is built after the first frame.
+     */
     private void createLockUI() {
-        // Create layout programmatically (no XML needed for simplicity)
-        android.widget.LinearLayout root = new android.widget.LinearLayout(this);
+        root = new android.widget.LinearLayout(this);
         root.setOrientation(android.widget.LinearLayout.VERTICAL);
         root.setGravity(android.view.Gravity.CENTER);
-        root.setBackgroundColor(android.graphics.Color.parseColor("#1a1a1a"));
+        root.setBackgroundColor(COLOR_BACKGROUND);
         root.setPadding(60, 60, 60, 60);
 
         // Lock icon
         android.widget.ImageView icon = new android.widget.ImageView(this);
         icon.setImageResource(android.R.drawable.ic_lock_lock);
-        icon.setColorFilter(android.graphics.Color.parseColor("#EF4444"));
+        icon.setColorFilter(COLOR_DANGER);
         android.widget.LinearLayout.LayoutParams iconParams = new android.widget.LinearLayout.LayoutParams(200, 200);
         iconParams.bottomMargin = 40;
         root.addView(icon, iconParams);
 
         // Title
-        TextView title = new TextView(this);
-        title.setText("🔒 DEVICE LOCKED");
-        title.setTextColor(android.graphics.Color.WHITE);
-        title.setTextSize(28);
+        TextView title = addText("🔒 DEVICE LOCKED", android.graphics.Color.WHITE, 28, 20);
         title.setTypeface(null, android.graphics.Typeface.BOLD);
-        title.setGravity(android.view.Gravity.CENTER);
-        android.widget.LinearLayout.LayoutParams titleParams = new android.widget.LinearLayout.LayoutParams(
-                android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
-                android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
-        titleParams.bottomMargin = 20;
-        root.addView(title, titleParams);
+
+        // Lender logo - hidden until ImagePipeline has it, text never waits for it
+        logoView = new android.widget.ImageView(this);
+        logoView.setScaleType(android.widget.ImageView.ScaleType.FIT_CENTER);
+        logoView.setAdjustViewBounds(true);
+        logoView.setVisibility(View.GONE);
+        android.widget.LinearLayout.LayoutParams logoParams = new android.widget.LinearLayout.LayoutParams(
+                LOGO_MAX_WIDTH, LOGO_MAX_HEIGHT);
+        logoParams.bottomMargin = 10;
+        root.addView(logoView, logoParams);
 
         // Lender name (LEGAL REQUIREMENT)
-        TextView lender = new TextView(this);
-        lender.setText("Financed by: XYZ Finance Pvt Ltd");
-        lender.setTextColor(android.graphics.Color.parseColor("#9CA3AF"));
-        lender.setTextSize(14);
-        lender.setGravity(android.view.Gravity.CENTER);
-        android.widget.LinearLayout.LayoutParams lenderParams = new android.widget.LinearLayout.LayoutParams(
-                android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
-                android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
-        lenderParams.bottomMargin = 30;
-        root.addView(lender, lenderParams);
+        lenderView = addText(null, COLOR_MUTED, 14, 30);
 
         // Lock reason (LEGAL REQUIREMENT)
-        TextView reason = new TextView(this);
-        reason.setText("Reason: Payment overdue by 7 days");
-        reason.setTextColor(android.graphics.Color.parseColor("#FBBF24"));
-        reason.setTextSize(16);
-        reason.setGravity(android.view.Gravity.CENTER);
-        android.widget.LinearLayout.LayoutParams reasonParams = new android.widget.LinearLayout.LayoutParams(
-                android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
-                android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
-        reasonParams.bottomMargin = 20;
-        root.addView(reason, reasonParams);
+        reasonView = addText(null, COLOR_WARNING, 16, 20);
 
         // Unlock condition (LEGAL REQUIREMENT)
-        TextView unlock = new TextView(this);
-        unlock.setText("To unlock: Pay ₹2,350 or contact support");
-        unlock.setTextColor(android.graphics.Color.parseColor("#D1D5DB"));
-        unlock.setTextSize(14);
-        unlock.setGravity(android.view.Gravity.CENTER);
-        android.widget.LinearLayout.LayoutParams unlockParams = new android.widget.LinearLayout.LayoutParams(
-                android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
-                android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
-        unlockParams.bottomMargin = 40;
-        root.addView(unlock, unlockParams);
+        unlockView = addText(null, COLOR_TEXT, 14, 40);
 
         // Support call button (LEGAL REQUIREMENT)
         Button supportBtn = new Button(this);
         supportBtn.setText("📞 CALL SUPPORT");
         supportBtn.setTextColor(android.graphics.Color.WHITE);
-        supportBtn.setBackgroundColor(android.graphics.Color.parseColor("#2563EB"));
+        supportBtn.setBackgroundColor(COLOR_PRIMARY);
         supportBtn.setPadding(60, 30, 60, 30);
-        supportBtn.setOnClickListener(v -> {
-            Intent intent = new Intent(Intent.ACTION_DIAL);
-            intent.setData(Uri.parse("tel:+918876655444"));
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
-        });
+        supportBtn.setOnClickListener(v -> dial(lockInfo.dialUri()));
         android.widget.LinearLayout.LayoutParams btnParams = new android.widget.LinearLayout.LayoutParams(
                 android.widget.LinearLayout.LayoutParams.WRAP_CONTENT,
                 android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
@@ -157,20 +214,296 @@ public class LockActivity extends Activity {
         // Emergency call button
         Button emergencyBtn = new Button(this);
         emergencyBtn.setText("🚨 EMERGENCY (112)");
-        emergencyBtn.setTextColor(android.graphics.Color.parseColor("#EF4444"));
-        emergencyBtn.setBackgroundColor(android.graphics.Color.parseColor("#2a2a2a"));
+        emergencyBtn.setTextColor(COLOR_DANGER);
+        emergencyBtn.setBackgroundColor(COLOR_SURFACE);
         emergencyBtn.setPadding(60, 30, 60, 30);
-        emergencyBtn.setOnClickListener(v -> {
-            Intent intent = new Intent(Intent.ACTION_DIAL);
-            intent.setData(Uri.parse("tel:112"));
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
-        });
+        emergencyBtn.setOnClickListener(v -> dial("tel:112"));
         root.addView(emergencyBtn, btnParams);
 
         setContentView(root);
     }
 
+    private TextView addText(String text, int color, float size, int bottomMargin) {
+        TextView view = new TextView(this);
+        view.setText(text);
+        view.setTextColor(color);
+        view.setTextSize(size);
+        view.setGravity(android.view.Gravity.CENTER);
+        android.widget.LinearLayout.LayoutParams params = new android.widget.LinearLayout.LayoutParams(
+                android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
+                android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
+        params.bottomMargin = bottomMargin;
+        root.addView(view, params);
+        return view;
+    }
+
+    /** Main thread: rebind the text, or leave if the device was unlocked. */
+    private void onStateChanged() {
+        if (!showing) {
+            return; // Stopped - onStart catches up
+        }
+        if (!state.getBoolean(AgentState.DEVICE_LOCKED)) {
+            closeUnlocked();
+            return;
+        }
+        bindLockInfo(LockInfo.fromState(state));
+    }
+
+    private void closeUnlocked() {
+        Log.i(TAG, "Device unlocked - closing lock screen");
+        if (isInLockTask()) {
+            TamperMonitor.expectLockTaskExit();
+            try {
+                stopLockTask();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to stop lock task", e);
+            }
+        }
+        finish();
+    }
+
+    /** Update the screen text in place; a no-op when nothing changed. */
+    private void bindLockInfo(LockInfo info) {
+        if (info.sameAs(lockInfo)) {
+            return;
+        }
+        String previousLogo = lockInfo != null ? lockInfo.logoUrl : null;
+        lockInfo = info;
+        lenderView.setText(info.hasLender() ? "Financed by: " + info.lenderName : null);
+        lenderView.setVisibility(info.hasLender() ? View.VISIBLE : View.GONE);
+        reasonView.setText("Reason: " + info.message);
+        unlockView.setText("To unlock: Pay your overdue EMI or contact support at " + info.supportPhone);
+        if (info.logoUrl == null) {
+            logoView.setImageDrawable(null);
+            logoView.setVisibility(View.GONE);
+        } else if (!info.logoUrl.equals(previousLogo)) {
+            bindLogo(info.logoUrl);
+        }
+    }
+
+    /** Decoded off the main thread at view size; a late answer for a replaced URL is dropped. */
+    private void bindLogo(String url) {
+        ImagePipeline.get(this).load(url, LOGO_MAX_WIDTH, LOGO_MAX_HEIGHT, bitmap -> {
+            if (isDestroyed() || lockInfo == null || !url.equals(lockInfo.logoUrl)) {
+                return;
+            }
+            logoView.setImageBitmap(bitmap);
+            logoView.setVisibility(bitmap != null ? View.VISIBLE : View.GONE);
+        });
+    }
+
+    private void dial(String uri) {
+        Intent intent = new Intent(Intent.ACTION_DIAL);
+        intent.setData(Uri.parse(uri));
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        startActivity(intent);
+    }
+
+    /** Record time-to-first-frame, then start the work the first frame did not need. */
+    private void watchFirstFrame() {
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnDrawListener(new android.view.ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (firstFrameRecorded) {
+                    return;
+                }
+                firstFrameRecorded = true;
+                long drawnAt = SystemClock.elapsedRealtime();
+                long ttff = drawnAt - triggerElapsed;
+                LockScreenMetrics.get().record(ttff, true);
+                Log.i(TAG, "Lock screen first frame in " + ttff + "ms (" + drawnAt + "ms since boot)");
+
+                // Listeners cannot be removed from inside onDraw
+                decor.post(() -> {
+                    decor.getViewTreeObserver().removeOnDrawListener(this);
+                    BootLockState.recordLockScreenShown(LockActivity.this, drawnAt);
+                    if (BootLockState.isUserUnlocked(LockActivity.this)) {
+                        loadOfflineCodes();
+                    } else {
+                        waitForUserUnlock();
+                    }
+                });
+            }
+        });
+    }
+
+    /** Warm relaunch: time from the trigger to the next frame, recorded once. */
+    private void watchRelaunchFrame(final long trigger) {
+        relaunchFramePending = true;
+        final View decor = getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnDrawListener(new android.view.ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (!relaunchFramePending) {
+                    return;
+                }
+                relaunchFramePending = false;
+                LockScreenMetrics.get().record(SystemClock.elapsedRealtime() - trigger, false);
+                decor.post(() -> decor.getViewTreeObserver().removeOnDrawListener(this));
+            }
+        });
+        decor.invalidate(); // The content may be unchanged - make sure a frame follows
+    }
+
+    private android.widget.LinearLayout createCodeSection() {
+        android.widget.LinearLayout section = new android.widget.LinearLayout(this);
+        section.setOrientation(android.widget.LinearLayout.VERTICAL);
+        section.setGravity(android.view.Gravity.CENTER);
+
+        TextView label = new TextView(this);
+        label.setText("Paid your dealer? Enter the unlock code");
+        label.setTextColor(COLOR_MUTED);
+        label.setTextSize(13);
+        label.setGravity(android.view.Gravity.CENTER);
+        section.addView(label);
+
+        codeDisplay = new TextView(this);
+        codeDisplay.setTextColor(android.graphics.Color.WHITE);
+        codeDisplay.setTextSize(24);
+        codeDisplay.setLetterSpacing(0.3f);
+        codeDisplay.setGravity(android.view.Gravity.CENTER);
+        section.addView(codeDisplay);
+
+        codeStatus = new TextView(this);
+        codeStatus.setTextColor(COLOR_WARNING);
+        codeStatus.setTextSize(12);
+        codeStatus.setGravity(android.view.Gravity.CENTER);
+        section.addView(codeStatus);
+
+        // On-screen keypad - no IME, so nothing can escape the lock task through the keyboard
+        String[][] rows = { { "1", "2", "3" }, { "4", "5", "6" }, { "7", "8", "9" }, { "✕", "0", "⌫" } };
+        for (String[] row : rows) {
+            android.widget.LinearLayout rowLayout = new android.widget.LinearLayout(this);
+            rowLayout.setOrientation(android.widget.LinearLayout.HORIZONTAL);
+            for (String key : row) {
+                Button button = new Button(this);
+                button.setText(key);
+                button.setTextColor(android.graphics.Color.WHITE);
+                button.setTextSize(18);
+                button.setBackgroundColor(COLOR_SURFACE);
+                button.setOnClickListener(v -> onKeypad(key));
+                android.widget.LinearLayout.LayoutParams keyParams = new android.widget.LinearLayout.LayoutParams(160, 110);
+                keyParams.setMargins(6, 6, 6, 6);
+                rowLayout.addView(button, keyParams);
+            }
+            section.addView(rowLayout);
+        }
+        return section;
+    }
+
+    /** Direct boot: offline codes live in credential-encrypted LockPrefs - load them once unlocked. */
+    private void waitForUserUnlock() {
+        userUnlockReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                unregisterReceiver(this);
+                userUnlockReceiver = null;
+                loadOfflineCodes();
+            }
+        };
+        registerReceiver(userUnlockReceiver, new IntentFilter(Intent.ACTION_USER_UNLOCKED));
+    }
+
+    private void loadOfflineCodes() {
+        // Keystore decrypt is binder IPC - keep it off the main thread. The disk thread, not network():
+        // that pool is OkHttp's dispatcher and rejects work once its threads are busy
+        AgentExecutors executors = AgentExecutors.get();
+        executors.disk().execute(() -> {
+            TokenVault vault = new TokenVault(getSharedPreferences("LockPrefs", Context.MODE_PRIVATE));
+            int boot = Settings.Global.getInt(getContentResolver(), Settings.Global.BOOT_COUNT, 0);
+            OfflineCodeVerifier verifier = vault.openVerifier(boot, SystemClock.elapsedRealtime());
+            executors.runOnMain(() -> {
+                tokenVault = vault;
+                bootCount = boot;
+                codeVerifier = verifier;
+                if (verifier != null && !isFinishing()) {
+                    // Keypad goes between the unlock condition and the call buttons
+                    codeSection = createCodeSection();
+                    android.widget.LinearLayout.LayoutParams codeParams = new android.widget.LinearLayout.LayoutParams(
+                            android.widget.LinearLayout.LayoutParams.WRAP_CONTENT,
+                            android.widget.LinearLayout.LayoutParams.WRAP_CONTENT);
+                    codeParams.bottomMargin = 30;
+                    root.addView(codeSection, root.indexOfChild(unlockView) + 1, codeParams);
+                    renderCode();
+                }
+                reportFullyDrawn();
+            });
+        });
+    }
+
+    private void onKeypad(String key) {
+        if (codeVerifier == null) {
+            return;
+        }
+        long lockout = codeVerifier.lockoutRemainingMs(SystemClock.elapsedRealtime());
+        if (lockout > 0) {
+            codeStatus.setText("Too many attempts. Try again in " + (lockout / 1000 + 1) + "s");
+            return;
+        }
+
+        if ("⌫".equals(key)) {
+            if (enteredDigits > 0) {
+                enteredValue /= 10;
+                enteredDigits--;
+            }
+        } else if ("✕".equals(key)) {
+            enteredValue = 0;
+            enteredDigits = 0;
+        } else if (enteredDigits < codeVerifier.getDigits()) {
+            enteredValue = enteredValue * 10 + (key.charAt(0) - '0');
+            enteredDigits++;
+        }
+        codeStatus.setText("");
+
+        if (enteredDigits == codeVerifier.getDigits()) {
+            verifyCode();
+        }
+        renderCode();
+    }
+
+    private void verifyCode() {
+        int code = enteredValue;
+        enteredValue = 0;
+        enteredDigits = 0;
+
+        long counter = codeVerifier.verify(OfflineCodeVerifier.Purpose.UNLOCK, code,
+                System.currentTimeMillis(), SystemClock.elapsedRealtime());
+        tokenVault.storeLockout(codeVerifier, bootCount); // Relaunching the activity must not reset the count
+        if (counter < 0) {
+            long lockout = codeVerifier.lockoutRemainingMs(SystemClock.elapsedRealtime());
+            codeStatus.setText(lockout > 0
+                    ? "Too many attempts. Try again in " + (lockout / 1000 + 1) + "s"
+                    : "Invalid or expired code");
+            return;
+        }
+
+        Log.i(TAG, "✅ Offline unlock code accepted");
+        Intent unlockIntent = new Intent(this, LockEnforcementService.class)
+                .setAction(LockEnforcementService.ACTION_OFFLINE_UNLOCK)
+                .putExtra(LockEnforcementService.EXTRA_COUNTER, counter)
+                .putExtra(LockEnforcementService.EXTRA_CODE, code);
+        startService(unlockIntent);
+
+        if (isInLockTask()) {
+            TamperMonitor.expectLockTaskExit();
+            try {
+                stopLockTask();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to stop lock task", e);
+            }
+        }
+        finish();
+    }
+
+    private void renderCode() {
+        StringBuilder display = new StringBuilder();
+        for (int i = 0; i < codeVerifier.getDigits(); i++) {
+            display.append(i < enteredDigits ? '•' : '_');
+        }
+        codeDisplay.setText(display);
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
         // Block all keys except volume
@@ -191,6 +524,30 @@ public class LockActivity extends Activity {
         Log.w(TAG, "Back button blocked");
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        showing = true;
+        state.addListener(stateListener);
+        onStateChanged(); // Catch changes made while stopped
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        showing = false;
+        state.removeListener(stateListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (userUnlockReceiver != null) {
+            unregisterReceiver(userUnlockReceiver);
+            userUnlockReceiver = null;
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -206,31 +563,16 @@ public class LockActivity extends Activity {
                 }
             }
         }
-
-        // Re-check lock status
-        boolean isLocked = prefs.getBoolean("DEVICE_LOCKED", false);
-
-        if (!isLocked) {
-            // Device unlocked - exit lock screen
-            Log.i(TAG, "Device unlocked - closing lock screen");
-            if (isInLockTask()) {
-                try {
-                    stopLockTask();
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to stop lock task", e);
-                }
-            }
-            finish();
-        }
     }
 
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
 
-        // HARDENING LAYER 2: Prevent escape via window focus loss
+        // HARDENING LAYER 2: Re-enter lock task on focus loss (shade, dialogs) - cheap if still in it.
+        // Actual escapes are detected by AdminReceiver.onLockTaskModeExiting (TamperMonitor)
         if (!hasFocus && dpm.isDeviceOwnerApp(getPackageName())) {
-            Log.w(TAG, "Window focus lost - re-enforcing lock");
+            Log.d(TAG, "Window focus lost - re-enforcing lock");
             if (!isInLockTask()) {
                 try {
                     startLockTask();
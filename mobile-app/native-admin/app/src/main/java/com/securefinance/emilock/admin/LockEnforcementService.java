@@ -1,71 +1,179 @@
 package com.securefinance.emilock.admin;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.util.Log;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Base64;
 import androidx.core.app.NotificationCompat;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.json.JSONObject;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * LockEnforcementService - 24/7 Lock Monitoring & Enforcement
  * 
  * OEM-Grade Implementation:
  * - Runs as foreground service (survives OEM battery optimization)
- * - Polls backend for lock status
+ * - Polls backend for lock status on an adaptive cadence (see PollScheduler)
  * - Enforces kiosk mode when locked
  * - Handles FCM push for instant lock/unlock
+ * - Holds a server push channel (SSE) and falls back to polling when it drops
+ * - Caches offline code material and honours field unlock codes with no network
+ * - Hands remote commands to the journaled CommandDispatcher
+ *
+ * Threading (see AgentExecutors): all state and DPM work runs on the serial
+ * policy looper, network I/O on the network executor, UI on the main looper.
  */
 public class LockEnforcementService extends Service {
-    private static final String TAG = "LockEnforcementService";
     private static final String CHANNEL_ID = "LockServiceChannel";
-    private static final long POLL_INTERVAL = 5000; // 5 seconds
+    static final String ACTION_POLL = "com.securefinance.emilock.admin.action.POLL";
+    static final String ACTION_OFFLINE_UNLOCK = "com.securefinance.emilock.admin.action.OFFLINE_UNLOCK";
+    static final String EXTRA_COUNTER = "counter";
+    static final String EXTRA_CODE = "code";
+
+    private static final long OFFLINE_CODES_REFRESH_MS = 24 * 60 * 60_000L;
+    static final String DEVICE_KEY_HEADER = "X-Device-Key"; // Device-only routes (backend middleware/deviceAuth)
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // Compact lock view preferred; servers without it answer with the full JSON view
+    private static final String STATUS_ACCEPT = LockStatusDecoder.COMPACT_MEDIA_TYPE + ", application/json;q=0.5";
+
+    // One decoder per network thread - decoding reuses its buffers
+    private static final ThreadLocal<LockStatusDecoder> DECODER = new ThreadLocal<LockStatusDecoder>() {
+        @Override
+        protected LockStatusDecoder initialValue() {
+            return new LockStatusDecoder();
+        }
+    };
 
-    private Handler handler;
+    private Handler handler; // policy looper - single writer for lock state
+    private AgentExecutors executors;
+    private LockStateMachine stateMachine;
     private Runnable lockLoop;
+    private boolean destroyed; // policy looper only
+    private String statusEtag; // ETag of the last status body we parsed
     private OkHttpClient client;
     private DevicePolicyManager dpm;
     private ComponentName adminComponent;
-    private SharedPreferences prefs;
+    private PolicyReconciler reconciler;
+    private AgentStateStore state;
+    private ServerEndpoints endpoints;
+
+    // Adaptive polling
+    private final PollScheduler scheduler = new PollScheduler();
+    private AlarmManager alarmManager;
+    private PowerManager powerManager;
+    private ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private BroadcastReceiver powerStateReceiver;
+    private PendingIntent pollAlarmIntent;
+
+    // Server push
+    private PushChannel pushChannel;
+
+    // Remote commands (own thread, see CommandDispatcher)
+    private CommandDispatcher commandDispatcher;
+
+    // Telemetry (policy looper, uploads ride on successful polls)
+    private TelemetryUploader telemetry;
+
+    // Location track (policy looper; uploads ride on successful polls like telemetry)
+    private LocationTracker locationTracker;
+
+    // Tamper detection (policy looper, callback-driven)
+    private TamperMonitor tamperMonitor;
+
+    // Self-update (own thread; version check rides on status polls)
+    private SelfUpdater selfUpdater;
+
+    // Offline codes (policy looper only)
+    private TokenVault tokenVault;
+    private String deviceKey; // From TokenVault once enrolled, null before
+    private boolean offlineCodesFetching;
+    private long pendingOfflineUnlock = -1; // Counter of a field unlock not yet reported
+    private int pendingOfflineCode;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        client = new OkHttpClient();
-        handler = new Handler(Looper.getMainLooper());
+        executors = AgentExecutors.get();
+        handler = executors.policy();
+        client = AgentHttpClient.get();
         dpm = (DevicePolicyManager) getSystemService(Context.DEVICE_POLICY_SERVICE);
         adminComponent = new ComponentName(this, AdminReceiver.class);
-        prefs = getSharedPreferences("LockPrefs", Context.MODE_PRIVATE);
+        reconciler = new PolicyReconciler(dpm, adminComponent, getPackageName());
+        state = AgentState.get(this);
+        endpoints = ServerEndpoints.get(this);
+        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
 
         createNotificationChannel();
         startForeground(1001, createNotification());
 
-        Log.i(TAG, "Service created - starting lock enforcement");
+        AgentLog.init(this);
+        AgentLog.log(AgentEvents.SERVICE_CREATED);
+
+        stateMachine = new LockStateMachine(state.getBoolean(AgentState.DEVICE_LOCKED));
+        statusEtag = state.getString(AgentState.STATUS_ETAG);
+        // Offline code material is secret - it stays in credential-encrypted LockPrefs
+        SharedPreferences lockPrefs = getSharedPreferences("LockPrefs", Context.MODE_PRIVATE);
+        tokenVault = new TokenVault(lockPrefs);
+        pendingOfflineUnlock = state.getLong(AgentState.PENDING_UNLOCK_COUNTER);
+        pendingOfflineCode = state.getInt(AgentState.PENDING_UNLOCK_CODE);
+        scheduler.setLocked(stateMachine.isLocked());
+        commandDispatcher = new CommandDispatcher(this, lockPrefs, state, client, new CommandHost());
+        commandDispatcher.start();
+        ProvisioningPipeline.get(this).resume(); // Setup interrupted by a crash or reboot
+        telemetry = new TelemetryUploader(this, state, client, handler, dpm, adminComponent);
+        tamperMonitor = new TamperMonitor(this, state, client, handler, dpm, adminComponent);
+        locationTracker = new LocationTracker(this, state, client, handler, dpm, adminComponent);
+        locationTracker.setLocked(stateMachine.isLocked());
+        selfUpdater = new SelfUpdater(this, state, client);
+        handler.post(() -> {
+            tamperMonitor.start();
+            registerPowerStateReceiver();
+            locationTracker.start();
+            registerNetworkCallback();
+            startPushChannel();
+        });
 
-        // Start monitoring loop
+        // Start monitoring loop - each tick reschedules itself once the poll completes
         lockLoop = new Runnable() {
             @Override
             public void run() {
                 checkLockStatus();
                 enforcePolicy();
-                handler.postDelayed(this, POLL_INTERVAL);
+                telemetry.sample(stateMachine.isLocked());
             }
         };
         handler.post(lockLoop);
@@ -74,105 +182,696 @@ public class LockEnforcementService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
+            // Doze-friendly wakeup scheduled by scheduleNextPoll()
+            if (ACTION_POLL.equals(intent.getAction())) {
+                handler.post(this::pollNow);
+            }
+
+            // Field unlock code accepted by LockActivity (already verified on device)
+            if (ACTION_OFFLINE_UNLOCK.equals(intent.getAction())) {
+                long counter = intent.getLongExtra(EXTRA_COUNTER, -1);
+                int code = intent.getIntExtra(EXTRA_CODE, 0);
+                if (counter >= 0) {
+                    handler.post(() -> onOfflineUnlock(counter, code));
+                }
+            }
+
+            // Self-update install result (PackageInstaller status)
+            if (SelfUpdater.ACTION_INSTALL_STATUS.equals(intent.getAction())) {
+                selfUpdater.onInstallStatus(intent);
+            }
+
+            // Tamper signal from AdminReceiver
+            if (TamperMonitor.ACTION_TAMPER.equals(intent.getAction())) {
+                String kind = intent.getStringExtra(TamperMonitor.EXTRA_KIND);
+                String detail = intent.getStringExtra(TamperMonitor.EXTRA_DETAIL);
+                handler.post(() -> onTamperSignal(kind, detail));
+            }
+
             // Handle FCM push commands
             if (intent.getBooleanExtra("forceLock", false)) {
-                Log.i(TAG, "FCM FORCE LOCK received");
-                prefs.edit().putBoolean("DEVICE_LOCKED", true).apply();
-                enforcePolicy();
+                AgentLog.log(AgentEvents.FCM_COMMAND, "FORCE LOCK");
+                handler.post(() -> onCommandState(true));
             }
 
             if (intent.getBooleanExtra("forceUnlock", false)) {
-                Log.i(TAG, "FCM FORCE UNLOCK received");
-                prefs.edit().putBoolean("DEVICE_LOCKED", false).apply();
-                enforcePolicy();
+                AgentLog.log(AgentEvents.FCM_COMMAND, "FORCE UNLOCK");
+                handler.post(() -> onCommandState(false));
             }
         }
 
         return START_STICKY;
     }
 
+    private void onTamperSignal(String kind, String detail) {
+        tamperMonitor.onSignal(kind, detail);
+        if (TamperMonitor.LOCK_TASK_ESCAPE.name.equals(kind) && stateMachine.isLocked()) {
+            showLockScreen(); // Back into lock task (LockActivity.onResume) even if it is still "showing"
+        }
+    }
+
+    /** Authoritative lock state from FCM or the push channel. Policy thread only. */
+    private void onCommandState(boolean isLocked) {
+        applyLockState(LockStateMachine.Source.COMMAND, isLocked, LockStateMachine.AUTHORITATIVE);
+        scheduler.onTrigger(PollScheduler.Trigger.COMMAND, SystemClock.elapsedRealtime());
+        scheduleNextPoll();
+    }
+
+    /**
+     * Unlock from a field code. Applied at once; the server is told on the next
+     * poll (redeemOfflineUnlock) and until then server LOCK states are ignored.
+     */
+    private void onOfflineUnlock(long counter, int code) {
+        AgentLog.log(AgentEvents.OFFLINE_UNLOCK_ACCEPTED, counter);
+        tokenVault.markUsed(OfflineCodeVerifier.Purpose.UNLOCK, counter);
+        pendingOfflineUnlock = counter;
+        pendingOfflineCode = code;
+        state.set(AgentState.PENDING_UNLOCK_COUNTER, counter);
+        state.set(AgentState.PENDING_UNLOCK_CODE, code);
+        applyLockState(LockStateMachine.Source.OFFLINE_TOKEN, false, LockStateMachine.AUTHORITATIVE);
+        pollNow();
+    }
+
+    /**
+     * The only place lock state changes. Persists and enforces a transition,
+     * or ignores the observation if it is unchanged or stale.
+     */
+    private boolean applyLockState(LockStateMachine.Source source, boolean isLocked, long observedAtVersion) {
+        if (isLocked && pendingOfflineUnlock >= 0
+                && (source == LockStateMachine.Source.POLL || source == LockStateMachine.Source.PUSH)) {
+            // Server has not heard about the field unlock yet
+            AgentLog.log(AgentEvents.LOCK_HELD_FOR_OFFLINE_UNLOCK, source.name());
+            return false;
+        }
+        LockStateMachine.Transition transition = stateMachine.onObserved(source, isLocked, observedAtVersion);
+        if (transition == null) {
+            return false;
+        }
+        AgentLog.log(AgentEvents.LOCK_TRANSITION, transition.toString());
+        long acceptedAt = SystemClock.elapsedRealtime();
+        state.set(AgentState.DEVICE_LOCKED, transition.locked);
+        try {
+            state.flush(); // A lock must survive a power cut right after it is applied
+        } catch (IOException e) {
+            AgentLog.log(AgentEvents.STATE_WRITE_FAILED, e);
+        }
+        scheduler.setLocked(transition.locked);
+        locationTracker.setLocked(transition.locked);
+        enforcePolicy();
+        AgentMetrics.LOCK_TRANSITIONS.inc();
+        AgentMetrics.LOCK_ENFORCE_MS.record(SystemClock.elapsedRealtime() - acceptedAt);
+        return true;
+    }
+
     private void checkLockStatus() {
-        String customerId = prefs.getString("customerId", null);
-        String serverUrl = prefs.getString("serverUrl", "https://emi-pro-app.fly.dev");
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
 
         if (customerId == null) {
-            Log.w(TAG, "No customer ID configured");
+            AgentLog.log(AgentEvents.NO_CUSTOMER_ID);
+            scheduleNextPoll();
+            return;
+        }
+
+        if (pendingOfflineUnlock >= 0) {
+            // Report the field unlock first, otherwise the poll would re-lock
+            redeemOfflineUnlock(endpoints.baseUrl(), customerId);
             return;
         }
 
-        String url = serverUrl + "/api/customers/" + customerId + "?t=" + System.currentTimeMillis();
+        // Conditional GET of the lock-only view: unchanged state costs a bodiless 304.
+        // Fails over across backend endpoints and is hedged past the primary's p95.
+        final long requestVersion = stateMachine.getVersion();
+        final long sentAt = SystemClock.elapsedRealtime();
+        final String etag = statusEtag;
+        ServerEndpoints.RequestFactory request = baseUrl -> {
+            Request.Builder builder = new Request.Builder()
+                    .url(baseUrl + "/api/customers/" + customerId + "?view=lock")
+                    .header("Accept", STATUS_ACCEPT);
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            return builder.build();
+        };
+
+        endpoints.enqueue(client, request, true, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                AgentLog.log(AgentEvents.POLL_FAILED, e);
+                handler.post(() -> onPollResult(PollResult.FAILED, requestVersion));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                PollResult result = PollResult.FAILED;
+                long advertised = -1;
+                // Always closed, even when decoding throws
+                try (Response r = response; ResponseBody body = r.body()) {
+                    advertised = advertisedVersion(r);
+                    if (r.code() == 304) {
+                        result = PollResult.NOT_MODIFIED;
+                    } else if (r.isSuccessful() && body != null) {
+                        // Decoded straight off the socket - no body String, no JSON tree
+                        LockStatus status = DECODER.get().decode(body.byteStream(), new LockStatus());
+                        if (status.hasLockState) {
+                            result = new PollResult(true, false, status, r.header("ETag"));
+                        } else {
+                            AgentLog.log(AgentEvents.POLL_WITHOUT_LOCK_STATE);
+                        }
+                    }
+                } catch (Exception e) {
+                    AgentLog.log(AgentEvents.POLL_PARSE_ERROR, e);
+                }
+
+                AgentMetrics.POLL_RTT_MS.record(SystemClock.elapsedRealtime() - sentAt);
+                if (result.success) {
+                    selfUpdater.onAdvertisedVersion(advertised);
+                }
+                final PollResult outcome = result;
+                handler.post(() -> onPollResult(outcome, requestVersion));
+            }
+        });
+    }
+
+    /** Released agent versionCode the server advertises on every lock view (200 and 304), or -1. */
+    private static long advertisedVersion(Response response) {
+        String header = response.header(SelfUpdater.ADVERTISED_VERSION_HEADER);
+        if (header != null) {
+            try {
+                return Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                // Ignored - treated as no advertisement
+            }
+        }
+        return -1;
+    }
+
+    private void redeemOfflineUnlock(String serverUrl, String customerId) {
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("counter", pendingOfflineUnlock);
+            payload.put("code", pendingOfflineCode);
+        } catch (Exception e) {
+            AgentLog.log(AgentEvents.OFFLINE_UNLOCK_PAYLOAD_ERROR, e);
+        }
+        Request.Builder request = new Request.Builder()
+                .url(serverUrl + "/api/customers/" + customerId + "/offline-unlock")
+                .post(RequestBody.create(payload.toString(), JSON));
+        String key = loadDeviceKey();
+        if (key != null) {
+            request.header(DEVICE_KEY_HEADER, key); // Without it the server rejects the report (4xx)
+        }
+
+        client.newCall(request.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                AgentLog.log(AgentEvents.OFFLINE_UNLOCK_REPORT_FAILED, e);
+                handler.post(() -> onPollResult(PollResult.FAILED, stateMachine.getVersion()));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                int code = response.code();
+                response.close();
+                if (code >= 500) {
+                    handler.post(() -> onPollResult(PollResult.FAILED, stateMachine.getVersion()));
+                } else {
+                    // 2xx: server unlocked. 4xx: rejected - server state wins on the next poll
+                    handler.post(() -> onOfflineUnlockReported(code < 300));
+                }
+            }
+        });
+    }
+
+    private void onOfflineUnlockReported(boolean accepted) {
+        AgentLog.log(AgentEvents.OFFLINE_UNLOCK_REPORTED, accepted);
+        pendingOfflineUnlock = -1;
+        state.remove(AgentState.PENDING_UNLOCK_COUNTER);
+        state.remove(AgentState.PENDING_UNLOCK_CODE);
+        checkLockStatus();
+    }
+
+    /** Prefetch offline code material so field unlocks work with no network. */
+    private void refreshOfflineCodes() {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        long now = System.currentTimeMillis();
+        if (customerId == null || offlineCodesFetching
+                || (tokenVault.hasSecret() && Math.abs(now - tokenVault.getFetchedAt()) < OFFLINE_CODES_REFRESH_MS)) {
+            return;
+        }
+        String key = loadDeviceKey();
+        if (key == null) {
+            enroll(customerId);
+            return;
+        }
+        offlineCodesFetching = true;
+
+        // The secret is served only to the enrolled device
         Request request = new Request.Builder()
-                .url(url)
-                .header("Cache-Control", "no-cache")
+                .url(endpoints.baseUrl() + "/api/customers/" + customerId + "/offline-material")
+                .header(DEVICE_KEY_HEADER, key)
                 .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                handler.post(() -> offlineCodesFetching = false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.code() == 401) {
+                        AgentLog.log(AgentEvents.OFFLINE_CODES_FAILED, "device key rejected");
+                    } else if (r.isSuccessful() && r.body() != null) {
+                        JSONObject offlineCode = new JSONObject(r.body().string()).optJSONObject("offlineCode");
+                        if (offlineCode != null) {
+                            // Keystore work stays on the network thread
+                            byte[] secret = Base64.decode(offlineCode.getString("secret"),
+                                    Base64.NO_WRAP);
+                            tokenVault.store(secret, offlineCode.optLong("period", 300),
+                                    offlineCode.optInt("digits", 8), now);
+                            Arrays.fill(secret, (byte) 0);
+                            AgentLog.log(AgentEvents.OFFLINE_CODES_REFRESHED);
+                        }
+                    }
+                } catch (Exception e) {
+                    AgentLog.log(AgentEvents.OFFLINE_CODES_FAILED, e);
+                }
+                handler.post(() -> offlineCodesFetching = false);
+            }
+        });
+    }
+
+    /** Device key from TokenVault, cached after the first read. Policy looper. */
+    private String loadDeviceKey() {
+        if (deviceKey == null) {
+            deviceKey = tokenVault.getDeviceKey(); // Keystore decrypt - once per process
+        }
+        return deviceKey;
+    }
 
+    /** Trade the provisioning enrollment token for the device key; no-op when there is no token. */
+    private void enroll(String customerId) {
+        String token = tokenVault.getEnrollmentToken();
+        if (token == null) {
+            return; // Provisioned before enrollment existed - re-provision to get offline codes
+        }
+        offlineCodesFetching = true;
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("token", token);
+        } catch (Exception e) {
+            AgentLog.log(AgentEvents.ENROLLMENT_FAILED, e);
+        }
+        Request request = new Request.Builder()
+                .url(endpoints.baseUrl() + "/api/customers/" + customerId + "/enroll")
+                .post(RequestBody.create(payload.toString(), JSON))
+                .build();
         client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Backend check failed: " + e.getMessage());
+                handler.post(() -> offlineCodesFetching = false);
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    try {
-                        String jsonData = response.body().string();
-                        JSONObject json = new JSONObject(jsonData);
-                        boolean isLocked = json.optBoolean("isLocked", false);
-
-                        prefs.edit().putBoolean("DEVICE_LOCKED", isLocked).apply();
-                        Log.d(TAG, "Lock status updated: " + isLocked);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Parse error", e);
+            public void onResponse(Call call, Response response) {
+                String key = null;
+                try (Response r = response) {
+                    if (r.isSuccessful() && r.body() != null) {
+                        key = new JSONObject(r.body().string()).getString("deviceKey");
+                        tokenVault.storeDeviceKey(key); // Keystore work stays on the network thread
+                        AgentLog.log(AgentEvents.DEVICE_ENROLLED);
+                    } else if (r.code() == 403) {
+                        // Used or expired - retrying cannot succeed
+                        tokenVault.removeEnrollmentToken();
+                        AgentLog.log(AgentEvents.ENROLLMENT_FAILED, "token rejected");
                     }
+                } catch (Exception e) {
+                    key = null;
+                    AgentLog.log(AgentEvents.ENROLLMENT_FAILED, e);
                 }
-                response.close();
+                String enrolledKey = key;
+                handler.post(() -> {
+                    offlineCodesFetching = false;
+                    if (enrolledKey != null) {
+                        deviceKey = enrolledKey;
+                        refreshOfflineCodes();
+                    }
+                });
             }
         });
     }
 
+    /** Outcome of one status poll, handed from the network thread to the policy looper. */
+    private static final class PollResult {
+        static final PollResult FAILED = new PollResult(false, false, null, null);
+        static final PollResult NOT_MODIFIED = new PollResult(true, true, null, null);
+
+        final boolean success;
+        final boolean notModified;
+        final LockStatus status;
+        final String etag;
+
+        PollResult(boolean success, boolean notModified, LockStatus status, String etag) {
+            this.success = success;
+            this.notModified = notModified;
+            this.status = status;
+            this.etag = etag;
+        }
+    }
+
+    private void onPollResult(PollResult result, long requestVersion) {
+        if (!result.success) {
+            AgentMetrics.POLL_FAILURES.inc();
+            scheduler.onPollFailure();
+        } else if (result.notModified) {
+            AgentMetrics.POLL_NOT_MODIFIED.inc();
+            // Server state still matches the last body we parsed - nothing to apply
+            scheduler.onPollSuccess(stateMachine.isLocked(), SystemClock.elapsedRealtime());
+        } else {
+            AgentMetrics.POLL_OK.inc();
+            // Transitions are enforced immediately instead of waiting for the next tick
+            boolean stale = requestVersion != stateMachine.getVersion();
+            applyLockState(LockStateMachine.Source.POLL, result.status.isLocked, requestVersion);
+            AgentLog.log(AgentEvents.POLL_RESULT, result.status.isLocked, stale);
+            if (!stale) {
+                applyLockInfo(result.status);
+            }
+
+            // A dropped body must not become the 304 baseline - fetch in full next time
+            String etag = stale ? null : result.etag;
+            if (etag == null ? statusEtag != null : !etag.equals(statusEtag)) {
+                statusEtag = etag;
+                state.set(AgentState.STATUS_ETAG, statusEtag);
+            }
+            scheduler.onPollSuccess(stateMachine.isLocked(), SystemClock.elapsedRealtime());
+        }
+        if (result.success) {
+            refreshOfflineCodes();
+            telemetry.onNetworkWakeup();
+            locationTracker.onNetworkWakeup();
+        }
+        endpoints.probe(client); // Radio is up anyway - re-measure standby endpoints while it is
+        scheduleNextPoll();
+    }
+
+    /** Lock screen text and pending command from a status payload. Policy thread only. */
+    private void applyLockInfo(LockStatus status) {
+        saveLockInfo(status.lockMessage, status.supportPhone);
+        if (status.hasCommand()) {
+            // Repeated on every payload until acked - the journal deduplicates
+            commandDispatcher.offer(status.command, status.commandTimestamp, status.commandParamsJson);
+        }
+    }
+
+    /** Written only when the text changed; LockActivity rebinds from the store's listener. */
+    private void saveLockInfo(String message, String phone) {
+        state.set(AgentState.LOCK_MESSAGE, message);
+        state.set(AgentState.SUPPORT_PHONE, phone);
+    }
+
+    /** Remote command effects that touch lock state or policy, moved onto the policy looper. */
+    private final class CommandHost implements CommandDispatcher.Host {
+        @Override
+        public void onLockCommand(boolean locked) {
+            handler.post(() -> onCommandState(locked));
+        }
+
+        @Override
+        public void onLockInfoCommand(String message, String phone, String logoUrl) {
+            handler.post(() -> {
+                saveLockInfo(message, phone);
+                if (logoUrl != null) {
+                    state.set(AgentState.LENDER_LOGO_URL, logoUrl);
+                }
+            });
+        }
+
+        @Override
+        public void onReapplyPolicy(List<String> extraRestrictions) {
+            handler.post(() -> {
+                reconciler.invalidate();
+                for (String restriction : extraRestrictions) {
+                    dpm.addUserRestriction(adminComponent, restriction);
+                }
+                enforcePolicy();
+            });
+        }
+
+        @Override
+        public void onRelease() {
+            handler.post(LockEnforcementService.this::releaseDevice);
+        }
+    }
+
+    /** Admin removed the device: unlock, clear our policy and give up device owner. */
+    @SuppressWarnings("deprecation") // clearDeviceOwnerApp has no replacement for a device owner removing itself
+    private void releaseDevice() {
+        AgentLog.log(AgentEvents.DEVICE_RELEASING);
+        applyLockState(LockStateMachine.Source.COMMAND, false, LockStateMachine.AUTHORITATIVE);
+        try {
+            for (String restriction : PolicyReconciler.BASELINE_RESTRICTIONS) {
+                dpm.clearUserRestriction(adminComponent, restriction);
+            }
+            dpm.setUninstallBlocked(adminComponent, getPackageName(), false);
+            dpm.setLockTaskPackages(adminComponent, new String[0]);
+            dpm.clearDeviceOwnerApp(getPackageName());
+        } catch (Exception e) {
+            AgentLog.log(AgentEvents.DEVICE_RELEASE_FAILED, e);
+        }
+        reconciler.invalidate();
+        stopSelf();
+    }
+
+    /**
+     * Converge device policy to the current lock state. Only issues DPM calls
+     * when something differs from what was applied (see PolicyReconciler), and
+     * only launches LockActivity when it is not already on screen.
+     */
     private void enforcePolicy() {
-        boolean isLocked = prefs.getBoolean("DEVICE_LOCKED", false);
+        boolean isLocked = stateMachine.isLocked();
 
-        if (!dpm.isDeviceOwnerApp(getPackageName())) {
-            Log.w(TAG, "Not Device Owner - cannot enforce");
+        if (!reconciler.isDeviceOwner()) {
+            AgentLog.log(AgentEvents.NOT_DEVICE_OWNER);
             return;
         }
 
-        if (isLocked) {
-            Log.i(TAG, "Enforcing LOCK state");
+        int ops = reconciler.reconcile(isLocked, SystemClock.elapsedRealtime());
+        if (ops > 0) {
+            AgentLog.log(AgentEvents.POLICY_ENFORCED, isLocked ? "LOCK" : "UNLOCK", ops);
+        }
 
-            // Enable kiosk mode
-            dpm.setLockTaskPackages(adminComponent, new String[] { getPackageName() });
+        if (isLocked && !LockActivity.isShowing()) {
+            showLockScreen();
+        }
+    }
 
-            // Disable status bar
-            dpm.setStatusBarDisabled(adminComponent, true);
+    private void showLockScreen() {
+        // Launch lock screen (UI handoff to main looper)
+        Intent lockIntent = new Intent(this, LockActivity.class)
+                .putExtra(LockActivity.EXTRA_TRIGGER_ELAPSED, SystemClock.elapsedRealtime());
+        lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
+                Intent.FLAG_ACTIVITY_CLEAR_TOP |
+                Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        executors.runOnMain(() -> startActivity(lockIntent));
+    }
 
-            // Disable keyguard
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                dpm.setKeyguardDisabled(adminComponent, true);
-            }
+    private void pollNow() {
+        if (destroyed) {
+            return;
+        }
+        handler.removeCallbacks(lockLoop);
+        handler.post(lockLoop);
+    }
+
+    /**
+     * Ask the scheduler for the next delay and arm the matching wakeup:
+     * - Interactive: Handler on the service looper
+     * - Doze: inexact AlarmManager window so the system can batch it with other alarms
+     * - Offline: nothing - the network callback restarts polling
+     */
+    private void scheduleNextPoll() {
+        if (destroyed) {
+            return;
+        }
+        handler.removeCallbacks(lockLoop);
+        alarmManager.cancel(getPollAlarmIntent());
+
+        long now = SystemClock.elapsedRealtime();
+        long delay = scheduler.nextDelay(now);
+        AgentLog.log(AgentEvents.NEXT_POLL, scheduler.getCurrentMode().name(), delay);
 
-            // Launch lock screen
-            Intent lockIntent = new Intent(this, LockActivity.class);
-            lockIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
-                    Intent.FLAG_ACTIVITY_CLEAR_TOP |
-                    Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            startActivity(lockIntent);
+        if (delay < 0) {
+            return;
+        }
 
+        if (scheduler.getCurrentMode() == PollScheduler.Mode.IDLE) {
+            alarmManager.setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    now + delay, delay / 4, getPollAlarmIntent());
         } else {
-            Log.i(TAG, "Enforcing UNLOCK state");
+            handler.postDelayed(lockLoop, delay);
+        }
+    }
 
-            // Disable kiosk mode
-            dpm.setLockTaskPackages(adminComponent, new String[] {});
+    private PendingIntent getPollAlarmIntent() {
+        if (pollAlarmIntent == null) {
+            Intent intent = new Intent(this, LockEnforcementService.class).setAction(ACTION_POLL);
+            pollAlarmIntent = PendingIntent.getService(this, 0, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        }
+        return pollAlarmIntent;
+    }
+
+    private void registerPowerStateReceiver() {
+        scheduler.setDeviceIdle(powerManager.isDeviceIdleMode());
+        scheduler.setPowerSave(powerManager.isPowerSaveMode());
+        locationTracker.setPowerSave(powerManager.isPowerSaveMode());
+
+        powerStateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                boolean idle = powerManager.isDeviceIdleMode();
+                scheduler.setDeviceIdle(idle);
+                scheduler.setPowerSave(powerManager.isPowerSaveMode());
+                locationTracker.setPowerSave(powerManager.isPowerSaveMode());
+                AgentLog.log(AgentEvents.POWER_STATE, idle);
+                if (!idle) {
+                    // Leaving Doze - catch up immediately, then resume normal cadence
+                    pollNow();
+                } else {
+                    scheduleNextPoll();
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        registerReceiver(powerStateReceiver, filter, null, handler);
+    }
+
+    private void registerNetworkCallback() {
+        if (connectivityManager == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            // Delivered on the policy looper (registered with handler below)
+            @Override
+            public void onAvailable(Network network) {
+                boolean wasOffline = scheduler.getCurrentMode() == PollScheduler.Mode.OFFLINE;
+                scheduler.setNetworkAvailable(true);
+                if (wasOffline) {
+                    AgentLog.log(AgentEvents.NETWORK_RESTORED);
+                    pollNow();
+                }
+                if (pushChannel != null) {
+                    pushChannel.reconnectNow();
+                }
+            }
+
+            @Override
+            public void onLost(Network network) {
+                scheduler.setNetworkAvailable(false);
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback, handler);
+    }
+
+    private void startPushChannel() {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        if (customerId == null) {
+            return;
+        }
+
+        // Reconnects go to whichever endpoint is primary by then
+        PushChannel.UrlSource url = () -> endpoints.baseUrl() + "/api/customers/" + customerId + "/stream";
+        pushChannel = new PushChannel(client, url, state.getString(AgentState.PUSH_LAST_EVENT_ID),
+                new PushChannel.Listener() {
+                    @Override
+                    public void onConnected() {
+                        handler.post(() -> {
+                            AgentLog.log(AgentEvents.PUSH_CONNECTED);
+                            AgentMetrics.PUSH_CONNECTED.set(1);
+                            scheduler.setPushConnected(true);
+                            scheduleNextPoll();
+                        });
+                    }
 
-            // Enable status bar
-            dpm.setStatusBarDisabled(adminComponent, false);
+                    @Override
+                    public void onEvent(String id, String type, String data) {
+                        handler.post(() -> onPushEvent(id, type, data));
+                    }
+
+                    @Override
+                    public void onDisconnected(Throwable cause) {
+                        handler.post(() -> {
+                            AgentLog.log(AgentEvents.PUSH_DROPPED, cause);
+                            scheduler.setPushConnected(false);
+                            AgentMetrics.PUSH_CONNECTED.set(0);
+                            // Events may have been missed while the stream was dying
+                            pollNow();
+                        });
+                    }
+                });
+        pushChannel.start();
+    }
 
-            // Enable keyguard
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                dpm.setKeyguardDisabled(adminComponent, false);
+    private void onPushEvent(String id, String type, String data) {
+        if (id != null) {
+            state.set(AgentState.PUSH_LAST_EVENT_ID, id);
+        }
+        if (!"state".equals(type)) {
+            AgentLog.log(AgentEvents.PUSH_IGNORED, type);
+            return;
+        }
+        try {
+            // Same decoder as polls; push events arrive on the policy looper's own instance
+            LockStatus status = DECODER.get().decode(data.getBytes(StandardCharsets.UTF_8), new LockStatus());
+            if (!status.hasLockState) {
+                AgentLog.log(AgentEvents.PUSH_WITHOUT_LOCK_STATE);
+                return;
+            }
+            AgentLog.log(AgentEvents.PUSH_STATE, status.isLocked);
+            if (applyLockState(LockStateMachine.Source.PUSH, status.isLocked, LockStateMachine.AUTHORITATIVE)) {
+                scheduler.onTrigger(PollScheduler.Trigger.COMMAND, SystemClock.elapsedRealtime());
             }
+            applyLockInfo(status);
+            scheduleNextPoll();
+        } catch (Exception e) {
+            AgentLog.log(AgentEvents.PUSH_PARSE_ERROR, e);
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        // adb shell dumpsys activity service com.securefinance.emilock.admin/.LockEnforcementService
+        writer.println(stateMachine);
+        writer.println(scheduler);
+        writer.println(reconciler);
+        writer.println(commandDispatcher);
+        writer.println("telemetry " + telemetry);
+        writer.println(tamperMonitor);
+        writer.println(locationTracker);
+        writer.println(selfUpdater);
+        writer.println(ImagePipeline.get(this));
+        writer.println(LockScreenMetrics.get());
+        writer.println(BootLockState.describe(this));
+        writer.println(ProvisioningPipeline.get(this));
+        writer.println(MetricsRegistry.get());
+        writer.println(state);
+        writer.println(AgentLog.describe());
+        writer.println("offline codes cached=" + tokenVault.hasSecret() + " enrolled=" + (deviceKey != null)
+                + " pendingUnlock=" + pendingOfflineUnlock);
+        writer.println(endpoints);
+        writer.println(AgentHttpClient.metrics());
+        for (HttpMetrics.Sample sample : AgentHttpClient.metrics().getRecentSamples()) {
+            writer.println("  " + sample);
+        }
+        if (pushChannel != null) {
+            writer.println("push connected=" + pushChannel.isConnected()
+                    + " heartbeats=" + pushChannel.getHeartbeatCount()
+                    + " lastEventId=" + pushChannel.getLastEventId());
+        }
+        for (PollScheduler.Decision decision : scheduler.getRecentDecisions()) {
+            writer.println("  " + decision);
         }
     }
 
@@ -203,9 +902,28 @@ public class LockEnforcementService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (handler != null && lockLoop != null) {
-            handler.removeCallbacks(lockLoop);
+        if (handler == null) {
+            return;
         }
+        handler.removeCallbacks(lockLoop);
+        // Teardown runs on the policy looper after any queued work, like everything else
+        handler.post(() -> {
+            destroyed = true;
+            commandDispatcher.stop();
+            tamperMonitor.stop();
+            locationTracker.stop();
+            handler.removeCallbacks(lockLoop);
+            alarmManager.cancel(getPollAlarmIntent());
+            if (pushChannel != null) {
+                pushChannel.stop();
+            }
+            if (powerStateReceiver != null) {
+                unregisterReceiver(powerStateReceiver);
+            }
+            if (connectivityManager != null && networkCallback != null) {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            }
+        });
     }
 
     @Override
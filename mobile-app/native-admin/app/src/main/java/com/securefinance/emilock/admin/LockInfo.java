@@ -0,0 +1,71 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * LockInfo - What the Lock Screen Shows
+ *
+ * Immutable snapshot of the lock screen content, cached in AgentState so the
+ * screen renders with no network on its very first frame:
+ * - lockMessage / supportPhone come from the server lock view (saved by
+ *   LockEnforcementService on every status change)
+ * - lenderName is set at provisioning (extra "lenderName")
+ * - logoUrl (lender branding) comes with a setLockInfo command; the image
+ *   itself is in the ImagePipeline cache, fetched before the URL is saved
+ * - Missing message and phone fall back to the same defaults the backend
+ *   uses; a missing lender stays empty and the screen leaves the line out
+ *   rather than name a lender that did not finance the device
+ */
+public final class LockInfo {
+
+    static final String DEFAULT_MESSAGE = "This device has been locked due to payment overdue.";
+    static final String DEFAULT_PHONE = "8876655444";
+
+    public final String message;
+    public final String supportPhone;
+    public final String lenderName; // Empty: unknown
+    public final String logoUrl; // Null: no branding image
+
+    LockInfo(String message, String supportPhone, String lenderName, String logoUrl) {
+        this.message = isBlank(message) ? DEFAULT_MESSAGE : message;
+        this.supportPhone = isBlank(supportPhone) ? DEFAULT_PHONE : supportPhone.trim();
+        this.lenderName = isBlank(lenderName) ? "" : lenderName.trim();
+        this.logoUrl = isBlank(logoUrl) ? null : logoUrl.trim();
+    }
+
+    public static LockInfo fromState(AgentStateStore state) {
+        return new LockInfo(state.getString(AgentState.LOCK_MESSAGE),
+                state.getString(AgentState.SUPPORT_PHONE),
+                state.getString(AgentState.LENDER_NAME),
+                state.getString(AgentState.LENDER_LOGO_URL));
+    }
+
+    /** True for the state keys this model is built from. */
+    public static boolean isLockInfoKey(AgentStateStore.Key<?> key) {
+        return key == AgentState.LOCK_MESSAGE || key == AgentState.SUPPORT_PHONE || key == AgentState.LENDER_NAME
+                || key == AgentState.LENDER_LOGO_URL;
+    }
+
+    /** tel: URI for the support dialer; bare 10-digit numbers are Indian mobiles. */
+    public String dialUri() {
+        String digits = supportPhone.replaceAll("[^0-9+]", "");
+        if (!digits.startsWith("+") && digits.length() == 10) {
+            digits = "+91" + digits;
+        }
+        return "tel:" + digits;
+    }
+
+    public boolean hasLender() {
+        return !lenderName.isEmpty();
+    }
+
+    public boolean sameAs(LockInfo other) {
+        return other != null
+                && message.equals(other.message)
+                && supportPhone.equals(other.supportPhone)
+                && lenderName.equals(other.lenderName)
+                && (logoUrl == null ? other.logoUrl == null : logoUrl.equals(other.logoUrl));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,240 @@
+package com.securefinance.emilock.admin;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.UserManager;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PolicyReconciler - Idempotent Device Owner Enforcement
+ *
+ * Tracks the policy we have APPLIED and only issues the DevicePolicyManager
+ * calls needed to reach the DESIRED policy for the current lock state.
+ * - Steady state (nothing changed): zero binder calls per tick
+ * - Covers kiosk packages, status bar, keyguard and the baseline restrictions
+ *   from provisioning (factory reset, safe boot, uninstall, add user)
+ * - verify() re-reads the cheap DPM getters every VERIFY_INTERVAL_MS and
+ *   reports drift (someone/something changed policy behind our back); drifted
+ *   fields are forgotten so the next reconcile re-applies them
+ *
+ * Not thread-safe: call from the policy looper only.
+ */
+public class PolicyReconciler {
+    private static final String TAG = "PolicyReconciler";
+
+    static final long VERIFY_INTERVAL_MS = 10 * 60_000;
+
+    static final String[] BASELINE_RESTRICTIONS = {
+            UserManager.DISALLOW_FACTORY_RESET,
+            UserManager.DISALLOW_SAFE_BOOT,
+            UserManager.DISALLOW_UNINSTALL_APPS,
+            UserManager.DISALLOW_ADD_USER
+    };
+
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final String packageName;
+    private final PolicyState desiredLocked;
+    private final PolicyState desiredUnlocked;
+
+    private PolicyState applied = PolicyState.unknown();
+    private Boolean deviceOwner;
+    private long lastVerifyAt = -1;
+
+    // Counters (dumpsys / metrics)
+    private long reconciles;
+    private long noOpReconciles;
+    private long opsIssued;
+    private long opFailures;
+    private long drifts;
+
+    public PolicyReconciler(DevicePolicyManager dpm, ComponentName admin, String packageName) {
+        this.dpm = dpm;
+        this.admin = admin;
+        this.packageName = packageName;
+        this.desiredLocked = desiredFor(true, packageName);
+        this.desiredUnlocked = desiredFor(false, packageName);
+    }
+
+    /** Desired policy for a lock state. Baseline restrictions apply in both states. */
+    public static PolicyState desiredFor(boolean locked, String packageName) {
+        Set<String> restrictions = new HashSet<>(Arrays.asList(BASELINE_RESTRICTIONS));
+        return new PolicyState(
+                locked ? new String[] { packageName } : new String[0],
+                locked,
+                locked,
+                restrictions,
+                true);
+    }
+
+    /** Cached - refreshed by verify(). */
+    public boolean isDeviceOwner() {
+        if (deviceOwner == null) {
+            deviceOwner = dpm.isDeviceOwnerApp(packageName);
+        }
+        return deviceOwner;
+    }
+
+    /**
+     * Converge the device to the desired policy.
+     *
+     * @return number of DPM operations issued (0 when already converged)
+     */
+    public int reconcile(boolean locked, long now) {
+        if (lastVerifyAt < 0 || now - lastVerifyAt >= VERIFY_INTERVAL_MS) {
+            verify(now);
+        }
+        if (!isDeviceOwner()) {
+            return 0;
+        }
+
+        reconciles++;
+        List<PolicyDiff.Op> ops = PolicyDiff.compute(locked ? desiredLocked : desiredUnlocked, applied);
+        if (ops.isEmpty()) {
+            noOpReconciles++;
+            return 0;
+        }
+
+        Log.i(TAG, "Applying " + ops.size() + " policy op(s) for " + (locked ? "LOCK" : "UNLOCK") + ": " + ops);
+        for (PolicyDiff.Op op : ops) {
+            apply(op);
+        }
+        return ops.size();
+    }
+
+    private void apply(PolicyDiff.Op op) {
+        opsIssued++;
+        long startNs = System.nanoTime();
+        try {
+            switch (op.action) {
+                case SET_LOCK_TASK_PACKAGES:
+                    dpm.setLockTaskPackages(admin, op.packages);
+                    applied = applied.withLockTaskPackages(op.packages);
+                    break;
+
+                case SET_STATUS_BAR_DISABLED:
+                    if (!dpm.setStatusBarDisabled(admin, op.enabled)) {
+                        opFailures++;
+                        Log.w(TAG, "setStatusBarDisabled(" + op.enabled + ") refused");
+                    }
+                    // Recorded either way - retrying a refused call every tick cannot help
+                    applied = applied.withStatusBarDisabled(op.enabled);
+                    break;
+
+                case SET_KEYGUARD_DISABLED:
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                            && !dpm.setKeyguardDisabled(admin, op.enabled)) {
+                        // Not recorded, so the next reconcile retries once the secure lock screen is gone
+                        opFailures++;
+                        Log.w(TAG, "setKeyguardDisabled(" + op.enabled + ") refused (secure lock screen set?)");
+                        break;
+                    }
+                    applied = applied.withKeyguardDisabled(op.enabled);
+                    break;
+
+                case ADD_USER_RESTRICTION:
+                    dpm.addUserRestriction(admin, op.key);
+                    Set<String> restrictions = applied.userRestrictions == null
+                            ? new HashSet<String>() : new HashSet<>(applied.userRestrictions);
+                    restrictions.add(op.key);
+                    applied = applied.withUserRestrictions(restrictions);
+                    break;
+
+                case SET_UNINSTALL_BLOCKED:
+                    dpm.setUninstallBlocked(admin, packageName, op.enabled);
+                    applied = applied.withUninstallBlocked(op.enabled);
+                    break;
+            }
+        } catch (Exception e) {
+            // applied keeps its old value, which still differs from desired, so the next reconcile retries it
+            opFailures++;
+            Log.e(TAG, "Policy op failed: " + op, e);
+        } finally {
+            AgentMetrics.DPM_CALL_US.record((System.nanoTime() - startNs) / 1000);
+        }
+    }
+
+    /**
+     * Re-read the DPM getters that exist (lock task packages, restrictions,
+     * uninstall block, device owner) and compare with what we applied.
+     * Status bar and keyguard have no getter and are trusted.
+     *
+     * @return human-readable drift descriptions (empty if none)
+     */
+    public List<String> verify(long now) {
+        lastVerifyAt = now;
+        deviceOwner = dpm.isDeviceOwnerApp(packageName);
+        if (!deviceOwner) {
+            return Collections.emptyList();
+        }
+
+        List<String> drift = new ArrayList<>();
+
+        if (applied.lockTaskPackages != null) {
+            String[] actual = dpm.getLockTaskPackages(admin);
+            PolicyState actualState = applied.withLockTaskPackages(actual);
+            if (!applied.lockTaskPackages.equals(actualState.lockTaskPackages)) {
+                drift.add("lockTaskPackages expected=" + applied.lockTaskPackages
+                        + " actual=" + actualState.lockTaskPackages);
+                applied = applied.withLockTaskPackages(null);
+            }
+        }
+
+        if (applied.userRestrictions != null) {
+            Bundle actual = dpm.getUserRestrictions(admin);
+            Set<String> kept = new HashSet<>();
+            for (String restriction : applied.userRestrictions) {
+                if (actual.getBoolean(restriction, false)) {
+                    kept.add(restriction);
+                } else {
+                    drift.add("userRestriction " + restriction + " cleared");
+                }
+            }
+            if (kept.size() != applied.userRestrictions.size()) {
+                applied = applied.withUserRestrictions(kept);
+            }
+        }
+
+        if (applied.uninstallBlocked != null) {
+            boolean actual = dpm.isUninstallBlocked(admin, packageName);
+            if (actual != applied.uninstallBlocked) {
+                drift.add("uninstallBlocked expected=" + applied.uninstallBlocked + " actual=" + actual);
+                applied = applied.withUninstallBlocked(null);
+            }
+        }
+
+        if (!drift.isEmpty()) {
+            drifts += drift.size();
+            Log.w(TAG, "⚠️ Policy drift detected: " + drift);
+        }
+        return drift;
+    }
+
+    /** Forget everything we applied - next reconcile re-issues the full policy. */
+    public void invalidate() {
+        applied = PolicyState.unknown();
+        deviceOwner = null;
+    }
+
+    public PolicyState getApplied() {
+        return applied;
+    }
+
+    @Override
+    public String toString() {
+        return "PolicyReconciler{reconciles=" + reconciles
+                + ", noOp=" + noOpReconciles
+                + ", opsIssued=" + opsIssued
+                + ", opFailures=" + opFailures
+                + ", drifts=" + drifts
+                + ", applied=" + applied + "}";
+    }
+}
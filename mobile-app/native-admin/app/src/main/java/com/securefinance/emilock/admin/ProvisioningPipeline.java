@@ -0,0 +1,422 @@
+package com.securefinance.emilock.admin;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+/**
+ * ProvisioningPipeline - Resumable Device-Owner Setup
+ *
+ * Replaces the synchronous setup in ProvisioningActivity.onCreate:
+ * - Setup is a fixed list of idempotent steps (ProvisioningCheckpoint.Step),
+ *   run on the policy looper like every other DevicePolicyManager call
+ * - Each attempt and result is checkpointed (fsync) before moving on, so a
+ *   crash or reboot resumes at the first unsettled step
+ *   (LockEnforcementService.onCreate calls resume())
+ * - A failing step is retried; after MAX_ATTEMPTS it is recorded as failed and
+ *   setup continues, so one broken restriction never leaves a device unmanaged
+ * - The service starts right after the config is saved, so its first poll
+ *   overlaps the remaining policy steps instead of waiting for them
+ * - Step results go to POST /api/provisioning/status/:customerId/batch in
+ *   batches, off the setup path; unsent reports survive in the checkpoint
+ *
+ * The checkpoint is deleted once every step is settled and reported.
+ */
+public final class ProvisioningPipeline {
+    private static final String TAG = "ProvisioningPipeline";
+
+    /** Setup finished (every step settled); called on the main thread. */
+    public interface Listener {
+        void onFinished(boolean success, String summary);
+    }
+
+    static final String CHECKPOINT_FILE = "provisioning.ckpt";
+    static final int MAX_ATTEMPTS = 3;
+    static final long STEP_RETRY_MS = 2_000;
+    static final long REPORT_BATCH_MS = 1_500;
+    static final long REPORT_RETRY_BASE_MS = 5_000;
+    static final long REPORT_RETRY_MAX_MS = 5 * 60_000;
+    // Stage of the last step; reported as failed when any step before it failed
+    static final String FINAL_STAGE = "PROVISIONING_COMPLETE";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static ProvisioningPipeline instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final OkHttpClient client;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final File file;
+    private final TokenVault vault;
+
+    // Policy thread only
+    private ProvisioningCheckpoint checkpoint;
+    private boolean running;
+    private Listener listener;
+    private boolean reportInFlight;
+    private boolean flushScheduled;
+    private long reportRetryMs = REPORT_RETRY_BASE_MS;
+    private volatile String summary = "ProvisioningPipeline{idle}";
+
+    public static synchronized ProvisioningPipeline get(Context context) {
+        if (instance == null) {
+            instance = new ProvisioningPipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ProvisioningPipeline(Context context) {
+        this.context = context;
+        this.handler = AgentExecutors.get().policy();
+        this.client = AgentHttpClient.get();
+        this.dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.admin = new ComponentName(context, AdminReceiver.class);
+        this.file = new File(context.getNoBackupFilesDir(), CHECKPOINT_FILE);
+        this.vault = new TokenVault(context.getSharedPreferences("LockPrefs", Context.MODE_PRIVATE));
+    }
+
+    /** Provision with the extras from the provisioning intent (continues a matching unfinished run). */
+    public void start(String customerId, String serverUrl, String lenderName, String enrollmentToken,
+                      Listener listener) {
+        handler.post(() -> {
+            this.listener = listener;
+            if (running) {
+                return; // Activity recreated mid-setup - the listener gets the result
+            }
+            if (enrollmentToken != null) {
+                // Sealed right away, not in the checkpoint - the service exchanges it for the device key
+                try {
+                    vault.storeEnrollmentToken(enrollmentToken);
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Enrollment token not stored - offline codes unavailable", e);
+                }
+            }
+            ProvisioningCheckpoint existing = loadCheckpoint();
+            if (existing != null && !existing.isComplete() && equals(existing.customerId, customerId)) {
+                Log.i(TAG, "Continuing interrupted provisioning: " + existing);
+                checkpoint = existing;
+            } else {
+                checkpoint = new ProvisioningCheckpoint();
+                checkpoint.customerId = customerId;
+                checkpoint.serverUrl = serverUrl;
+                checkpoint.lenderName = lenderName;
+                checkpoint.startedAt = System.currentTimeMillis();
+                save();
+            }
+            runSteps();
+        });
+    }
+
+    /** After a crash or reboot: finish unsettled steps and send unsent reports. No-op when there are none. */
+    public void resume() {
+        handler.post(() -> {
+            if (running || checkpoint != null) {
+                return; // Already in this process
+            }
+            ProvisioningCheckpoint existing = loadCheckpoint();
+            if (existing == null) {
+                return;
+            }
+            Log.i(TAG, "Resuming provisioning: " + existing);
+            checkpoint = existing;
+            runSteps();
+        });
+    }
+
+    // ==================== Steps ====================
+
+    private void runSteps() {
+        running = true;
+        for (ProvisioningCheckpoint.Step step : ProvisioningCheckpoint.Step.values()) {
+            if (checkpoint.isSettled(step)) {
+                continue;
+            }
+            int attempt = checkpoint.beginAttempt(step);
+            if (attempt > MAX_ATTEMPTS) {
+                // Died inside this step every time - do not try it again
+                settleFailed(step, "gave up after " + MAX_ATTEMPTS + " attempts");
+                continue;
+            }
+            save(); // The attempt counts even if the step takes the process down
+
+            long startedAt = SystemClock.elapsedRealtime();
+            try {
+                runStep(step);
+            } catch (Exception e) {
+                Log.e(TAG, "Step " + step + " failed (attempt " + attempt + ")", e);
+                if (step == ProvisioningCheckpoint.Step.VERIFY_OWNER) {
+                    abort(e.getMessage());
+                    return;
+                }
+                if (attempt < MAX_ATTEMPTS) {
+                    handler.postDelayed(this::runSteps, STEP_RETRY_MS);
+                    updateSummary();
+                    return;
+                }
+                settleFailed(step, e.getMessage());
+                continue;
+            }
+            checkpoint.markDone(step);
+            String message = step.name() + " in " + (SystemClock.elapsedRealtime() - startedAt) + "ms"
+                    + (attempt > 1 ? " (attempt " + attempt + ")" : "");
+            if (step.stage.equals(FINAL_STAGE) && checkpoint.hasFailures()) {
+                // The dealer's batch page stops at this stage - never call it complete over a failed step
+                report(step, false, message + ", failed: " + failedSteps());
+            } else {
+                report(step, true, message);
+            }
+            save();
+        }
+        running = false;
+        finish();
+    }
+
+    private void runStep(ProvisioningCheckpoint.Step step) throws IOException, GeneralSecurityException {
+        switch (step) {
+            case VERIFY_OWNER:
+                if (!dpm.isDeviceOwnerApp(context.getPackageName())) {
+                    throw new IllegalStateException("Not Device Owner");
+                }
+                break;
+            case SAVE_CONFIG:
+                saveConfig();
+                break;
+            case START_SERVICE:
+                Intent serviceIntent = new Intent(context, LockEnforcementService.class);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    context.startForegroundService(serviceIntent);
+                } else {
+                    context.startService(serviceIntent);
+                }
+                break;
+            case RESTRICTIONS:
+                // Same baseline LockEnforcementService keeps re-verifying via PolicyReconciler
+                for (String restriction : PolicyReconciler.BASELINE_RESTRICTIONS) {
+                    dpm.addUserRestriction(admin, restriction);
+                }
+                dpm.setUninstallBlocked(admin, context.getPackageName(), true);
+                break;
+            case LOCK_TASK:
+                dpm.setLockTaskPackages(admin, new String[] { context.getPackageName() });
+                break;
+            case RESET_TOKEN:
+                // Now, while the user has no screen lock: a token set later waits for their next unlock
+                ResetPasswordToken.ensure(dpm, admin, vault);
+                if (!dpm.isResetPasswordTokenActive(admin)) {
+                    Log.w(TAG, "Reset password token registered but not active until the next user unlock");
+                }
+                break;
+            case HIDE_LAUNCHER:
+                context.getPackageManager().setComponentEnabledSetting(
+                        new ComponentName(context, ProvisioningActivity.class),
+                        PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                        PackageManager.DONT_KILL_APP);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void saveConfig() throws IOException {
+        AgentStateStore state = AgentState.get(context);
+        state.set(AgentState.DEVICE_LOCKED, false); // Start unlocked
+        // Synchronous - the service reads these as soon as the next step starts it
+        AgentState.saveConfig(context, checkpoint.customerId, checkpoint.serverUrl, checkpoint.lenderName);
+        Log.i(TAG, "Configuration saved: customerId=" + checkpoint.customerId);
+    }
+
+    private String failedSteps() {
+        StringBuilder failed = new StringBuilder();
+        for (ProvisioningCheckpoint.Step step : ProvisioningCheckpoint.Step.values()) {
+            if (checkpoint.isFailed(step)) {
+                failed.append(failed.length() > 0 ? ", " : "").append(step.name());
+            }
+        }
+        return failed.toString();
+    }
+
+    private void settleFailed(ProvisioningCheckpoint.Step step, String reason) {
+        checkpoint.markFailed(step);
+        report(step, false, step.name() + ": " + reason);
+        save();
+    }
+
+    /** Not device owner: nothing else can work, so every remaining step is settled as failed. */
+    private void abort(String reason) {
+        for (ProvisioningCheckpoint.Step step : ProvisioningCheckpoint.Step.values()) {
+            if (!checkpoint.isSettled(step)) {
+                checkpoint.markFailed(step);
+            }
+        }
+        report(ProvisioningCheckpoint.Step.VERIFY_OWNER, false, reason);
+        save();
+        running = false;
+        finish();
+    }
+
+    private void finish() {
+        boolean success = !checkpoint.hasFailures();
+        long tookMs = System.currentTimeMillis() - checkpoint.startedAt;
+        Log.i(TAG, (success ? "✅ Provisioning complete in " : "⚠️ Provisioning finished with failures in ")
+                + tookMs + "ms: " + checkpoint);
+        flushReports();
+        updateSummary();
+
+        Listener done = listener;
+        listener = null;
+        if (done != null) {
+            String text = success ? "complete" : checkpoint.toString();
+            AgentExecutors.get().runOnMain(() -> done.onFinished(success, text));
+        }
+    }
+
+    // ==================== Reporting ====================
+
+    private void report(ProvisioningCheckpoint.Step step, boolean success, String message) {
+        checkpoint.addReport(new ProvisioningCheckpoint.Report(step.stage, success ? "success" : "failed",
+                message, System.currentTimeMillis()));
+        if (!flushScheduled && !reportInFlight) {
+            flushScheduled = true;
+            handler.postDelayed(this::flushReports, REPORT_BATCH_MS);
+        }
+    }
+
+    private void flushReports() {
+        flushScheduled = false;
+        if (reportInFlight || checkpoint == null || !checkpoint.hasPendingReports()) {
+            return;
+        }
+        List<String> serverUrls = EndpointSelector.parse(checkpoint.serverUrl);
+        if (checkpoint.customerId == null || serverUrls.isEmpty()) {
+            // Nobody to report to (provisioned without extras)
+            checkpoint.removeReports(Integer.MAX_VALUE);
+            maybeDiscard();
+            return;
+        }
+
+        final List<ProvisioningCheckpoint.Report> batch = checkpoint.pendingReports();
+        JSONArray events = new JSONArray();
+        try {
+            for (ProvisioningCheckpoint.Report report : batch) {
+                events.put(new JSONObject()
+                        .put("stage", report.stage)
+                        .put("status", report.status)
+                        .put("message", report.message)
+                        .put("timestamp", report.timestamp));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Report payload error", e);
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(serverUrls.get(0) + "/api/provisioning/status/" + checkpoint.customerId + "/batch")
+                .post(RequestBody.create("{\"events\":" + events + "}", JSON))
+                .build();
+        reportInFlight = true;
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "Progress report failed: " + e.getMessage());
+                handler.post(() -> onReportResult(batch.size(), false));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean ok = response.isSuccessful();
+                if (!ok) {
+                    Log.w(TAG, "Progress report rejected: HTTP " + response.code());
+                }
+                response.close();
+                handler.post(() -> onReportResult(batch.size(), ok));
+            }
+        });
+    }
+
+    private void onReportResult(int sent, boolean ok) {
+        reportInFlight = false;
+        if (!ok) {
+            // Kept in the checkpoint; a restart resumes them too
+            flushScheduled = true;
+            handler.postDelayed(this::flushReports, reportRetryMs);
+            reportRetryMs = Math.min(REPORT_RETRY_MAX_MS, reportRetryMs * 2);
+            return;
+        }
+        reportRetryMs = REPORT_RETRY_BASE_MS;
+        checkpoint.removeReports(sent);
+        save();
+        Log.i(TAG, "Reported " + sent + " provisioning step(s)");
+        if (checkpoint.hasPendingReports()) {
+            flushReports();
+        } else {
+            maybeDiscard();
+        }
+        updateSummary();
+    }
+
+    /** Everything settled and reported: nothing left to resume. */
+    private void maybeDiscard() {
+        if (running || !checkpoint.isComplete() || checkpoint.hasPendingReports()) {
+            return;
+        }
+        if (!file.delete() && file.exists()) {
+            Log.w(TAG, "Could not delete provisioning checkpoint");
+        }
+    }
+
+    // ==================== Persistence ====================
+
+    private ProvisioningCheckpoint loadCheckpoint() {
+        ProvisioningCheckpoint loaded = ProvisioningCheckpoint.load(file);
+        if (loaded == null && file.exists()) {
+            Log.w(TAG, "Provisioning checkpoint unreadable - discarded");
+            file.delete();
+        }
+        return loaded;
+    }
+
+    private void save() {
+        try {
+            checkpoint.save(file);
+        } catch (IOException e) {
+            // Setup itself must not fail on this; we only lose the ability to resume
+            Log.e(TAG, "Checkpoint write failed", e);
+        }
+        updateSummary();
+    }
+
+    private void updateSummary() {
+        summary = checkpoint != null ? checkpoint.toString() : "ProvisioningPipeline{idle}";
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** Safe from any thread (dumpsys). */
+    @Override
+    public String toString() {
+        return summary;
+    }
+}
@@ -0,0 +1,223 @@
+package com.securefinance.emilock.admin;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PushChannel - Long-Lived Server Push (SSE over OkHttp)
+ *
+ * Keeps one idle connection to GET /api/customers/:id/stream so lock/unlock
+ * decisions arrive in well under a second instead of on the next poll.
+ * - Server sends a ":" heartbeat every HEARTBEAT_INTERVAL_MS; a missed
+ *   heartbeat trips the read timeout and forces a reconnect
+ * - Reconnects send Last-Event-ID so the server can replay missed events
+ * - Reconnects back off exponentially with jitter; while disconnected the
+ *   service falls back to PollScheduler cadence
+ *
+ * Pure Java + OkHttp so it can be pointed at a local stand-in server.
+ * Listener callbacks run on the channel thread.
+ */
+public class PushChannel {
+
+    public interface Listener {
+        void onConnected();
+
+        void onEvent(String id, String type, String data);
+
+        /** Only called after a connection that was established has dropped. */
+        void onDisconnected(Throwable cause);
+    }
+
+    /** Stream URL, asked again on every connect - follows backend failover (ServerEndpoints). */
+    public interface UrlSource {
+        String url();
+    }
+
+    static final long HEARTBEAT_INTERVAL_MS = 25_000;
+    static final long READ_TIMEOUT_MS = HEARTBEAT_INTERVAL_MS * 5 / 2;
+    static final long RECONNECT_BASE_MS = 1_000;
+    static final long RECONNECT_MAX_MS = 5 * 60_000;
+
+    private final OkHttpClient client;
+    private final UrlSource url;
+    private final Listener listener;
+    private final Random random = new Random();
+    private final SseParser parser;
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile Call currentCall;
+    private volatile long retryHintMs = RECONNECT_BASE_MS;
+    private volatile long heartbeats;
+    private Thread thread;
+
+    public PushChannel(OkHttpClient baseClient, String url, String lastEventId, Listener listener) {
+        this(baseClient, () -> url, lastEventId, listener);
+    }
+
+    public PushChannel(OkHttpClient baseClient, UrlSource url, String lastEventId, Listener listener) {
+        // Same connection pool and dispatcher, but no call timeout and a
+        // read timeout sized to the server heartbeat
+        this.client = baseClient.newBuilder()
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(0, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+        this.url = url;
+        this.listener = listener;
+        this.parser = new SseParser(new SseParser.Listener() {
+            @Override
+            public void onEvent(String id, String type, String data) {
+                PushChannel.this.listener.onEvent(id, type, data);
+            }
+
+            @Override
+            public void onComment(String comment) {
+                heartbeats++;
+            }
+
+            @Override
+            public void onRetry(long retryMs) {
+                retryHintMs = Math.max(RECONNECT_BASE_MS, retryMs);
+            }
+        });
+        this.parser.setLastEventId(lastEventId);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::runLoop, "push-channel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Call call = currentCall;
+        if (call != null) {
+            call.cancel();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /** Skip the current backoff wait, e.g. when the network comes back. */
+    public synchronized void reconnectNow() {
+        if (running && !connected && thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public String getLastEventId() {
+        return parser.getLastEventId();
+    }
+
+    public long getHeartbeatCount() {
+        return heartbeats;
+    }
+
+    private void runLoop() {
+        int failures = 0;
+        while (running) {
+            Throwable cause = null;
+            boolean wasConnected = false;
+            try {
+                wasConnected = connectOnce();
+            } catch (IOException e) {
+                cause = e;
+                wasConnected = connected;
+            } catch (RuntimeException e) {
+                cause = e;
+                wasConnected = connected;
+            }
+
+            boolean serverWithoutPush = cause instanceof PushUnavailableException;
+            connected = false;
+            parser.reset();
+            if (!running) {
+                break;
+            }
+            if (wasConnected) {
+                listener.onDisconnected(cause);
+                failures = 0;
+            }
+
+            failures++;
+            long delay = serverWithoutPush ? RECONNECT_MAX_MS : reconnectDelay(failures);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // stop() or reconnectNow()
+                failures = 0;
+            }
+        }
+        connected = false;
+    }
+
+    /** @return true if the stream was established before it ended. */
+    private boolean connectOnce() throws IOException {
+        Request.Builder builder = new Request.Builder()
+                .url(url.url())
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache");
+        String lastEventId = parser.getLastEventId();
+        if (lastEventId != null) {
+            builder.header("Last-Event-ID", lastEventId);
+        }
+
+        Call call = client.newCall(builder.build());
+        currentCall = call;
+        try (Response response = call.execute()) {
+            if (response.code() == 404 || response.code() == 501) {
+                throw new PushUnavailableException("Push not available: HTTP " + response.code());
+            }
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Push connect failed: HTTP " + response.code());
+            }
+
+            connected = true;
+            listener.onConnected();
+
+            BufferedSource source = response.body().source();
+            String line;
+            while (running && (line = source.readUtf8Line()) != null) {
+                parser.feedLine(line);
+            }
+            return true;
+        } finally {
+            currentCall = null;
+        }
+    }
+
+    /** Exponential backoff with equal jitter, never below the server retry hint. */
+    private long reconnectDelay(int failures) {
+        int shift = Math.min(failures - 1, 16);
+        long ceiling = Math.min(RECONNECT_MAX_MS, Math.max(retryHintMs, RECONNECT_BASE_MS << shift));
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * half);
+    }
+
+    /** Server answered but has no push endpoint - retry rarely, rely on polling. */
+    static final class PushUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PushUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
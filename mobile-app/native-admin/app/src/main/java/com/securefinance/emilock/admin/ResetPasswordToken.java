@@ -0,0 +1,43 @@
+package com.securefinance.emilock.admin;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * ResetPasswordToken - Device Owner PIN Reset Token
+ *
+ * resetPasswordWithToken (setPin command) only works with a token that is
+ * active, and a token set while the user has a screen lock stays inactive
+ * until they next confirm their credentials:
+ * - Registered during provisioning (ProvisioningPipeline RESET_TOKEN step),
+ *   before the user has any lock, so it is active at once
+ * - setResetPasswordToken's result is checked - a refused token is never stored
+ * - Kept sealed in TokenVault (Keystore), like the offline code material
+ *
+ * DevicePolicyManager and Keystore calls - not on the main thread.
+ */
+final class ResetPasswordToken {
+
+    static final int TOKEN_BYTES = 32;
+
+    private ResetPasswordToken() {
+    }
+
+    /** The stored token, or a newly registered one when there is none. */
+    static byte[] ensure(DevicePolicyManager dpm, ComponentName admin, TokenVault vault)
+            throws GeneralSecurityException {
+        byte[] token = vault.getResetToken();
+        if (token != null) {
+            return token;
+        }
+        token = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(token);
+        if (!dpm.setResetPasswordToken(admin, token)) {
+            throw new IllegalStateException("Reset password token refused");
+        }
+        vault.storeResetToken(token);
+        return token;
+    }
+}
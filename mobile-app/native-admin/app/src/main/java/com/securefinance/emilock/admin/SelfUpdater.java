@@ -0,0 +1,407 @@
+package com.securefinance.emilock.admin;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageInstaller;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.os.Environment;
+import android.os.StatFs;
+import android.os.SystemClock;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SelfUpdater - Silent, Resumable Self-Update
+ *
+ * Rolls a new agent build out without reprovisioning:
+ * - Version check rides on the status poll: the lock view carries the
+ *   released versionCode in a header (ADVERTISED_VERSION_HEADER), so an
+ *   up-to-date device makes no extra request
+ * - A newer release is offered per device by GET /:id/admin-update, which
+ *   applies the staged rollout percentage and spreads start times; a device
+ *   outside the rollout asks again after CHECK_INTERVAL_MS
+ * - The APK streams straight into a PackageInstaller session (no temp file),
+ *   through UpdateVerifier (SHA-256, release signature) and a BandwidthLimiter
+ *   at the offer's maxBytesPerSec
+ * - Progress is fsynced every SYNC_BYTES; after a crash, reboot or lost
+ *   connection the session is reopened, its bytes re-hashed locally and the
+ *   download continues with an HTTP Range request
+ * - Only on a validated network, unmetered unless the offer allows it, and
+ *   with the package plus STORAGE_RESERVE_BYTES free
+ * - A verified package is committed silently (device owner); the process is
+ *   replaced and BootReceiver restarts the service on MY_PACKAGE_REPLACED
+ *
+ * Runs on the updates executor; onAdvertisedVersion() may be called from any thread.
+ */
+public class SelfUpdater {
+    static final String ACTION_INSTALL_STATUS = "com.securefinance.emilock.admin.action.UPDATE_STATUS";
+    static final String ADVERTISED_VERSION_HEADER = "X-Admin-Version-Code";
+
+    static final String SESSION_FILE = "base.apk";
+    static final long CHECK_INTERVAL_MS = 6 * 60 * 60_000L;
+    static final long NETWORK_RETRY_MS = 60 * 60_000L;
+    static final long FAILURE_BACKOFF_MS = 60 * 60_000L;
+    static final long STORAGE_RESERVE_BYTES = 200L * 1024 * 1024;
+    static final int BUFFER_BYTES = 64 * 1024;
+    static final long SYNC_BYTES = 1024 * 1024;
+
+    /** Per-device offer from GET /:id/admin-update. */
+    static final class Offer {
+        long versionCode;
+        String url;
+        long size;
+        String sha256;
+        byte[] signature;
+        long maxBytesPerSec;
+        boolean allowMetered;
+        long startAfterMs;
+
+        static Offer parse(String json) throws JSONException {
+            JSONObject object = new JSONObject(json);
+            Offer offer = new Offer();
+            offer.versionCode = object.getLong("versionCode");
+            offer.url = object.getString("url");
+            offer.size = object.getLong("size");
+            offer.sha256 = object.getString("sha256");
+            String signature = object.optString("signature", null);
+            offer.signature = signature != null ? Base64.getDecoder().decode(signature) : null;
+            offer.maxBytesPerSec = object.optLong("maxBytesPerSec", 0);
+            offer.allowMetered = object.optBoolean("allowMetered", false);
+            offer.startAfterMs = object.optLong("startAfterMs", 0);
+            return offer;
+        }
+    }
+
+    private final Context context;
+    private final AgentStateStore state;
+    private final OkHttpClient client;
+    private final OkHttpClient downloadClient;
+    private final AgentExecutors executors;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final long installedVersion;
+
+    // For dump (written on the updates thread)
+    private volatile String lastOutcome = "idle";
+    private volatile long bytesDownloaded;
+
+    public SelfUpdater(Context context, AgentStateStore state, OkHttpClient client) {
+        this.context = context.getApplicationContext();
+        this.state = state;
+        this.client = client;
+        // A throttled APK takes minutes (20 MB at 256 KB/s is 80 s) - no whole-call limit, only read timeouts
+        this.downloadClient = client.newBuilder().callTimeout(0, TimeUnit.MILLISECONDS).build();
+        this.executors = AgentExecutors.get();
+        this.installedVersion = installedVersionCode(this.context);
+    }
+
+    /** From the status poll: the versionCode the server is rolling out (header), or -1. */
+    public void onAdvertisedVersion(long versionCode) {
+        if (versionCode <= installedVersion
+                || System.currentTimeMillis() < state.getLong(AgentState.UPDATE_NEXT_CHECK_AT)
+                || !running.compareAndSet(false, true)) {
+            return;
+        }
+        executors.updates().execute(() -> {
+            try {
+                update();
+            } catch (IOException | JSONException | GeneralSecurityException | RuntimeException e) {
+                AgentLog.log(AgentEvents.UPDATE_FAILED, e);
+                lastOutcome = "failed: " + BinaryLog.describe(e);
+                deferFor(FAILURE_BACKOFF_MS);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    /** Installer result (service intent from the commit's status PendingIntent). */
+    public void onInstallStatus(Intent intent) {
+        int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+        String message = intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE);
+        AgentLog.log(AgentEvents.UPDATE_INSTALL_STATUS, message, status);
+        if (status != PackageInstaller.STATUS_SUCCESS) {
+            lastOutcome = "install failed: " + status + " " + message;
+            deferFor(FAILURE_BACKOFF_MS);
+        }
+    }
+
+    // ==================== Update (updates thread) ====================
+
+    private void update() throws IOException, JSONException, GeneralSecurityException {
+        Offer offer = fetchOffer();
+        if (offer == null) {
+            return;
+        }
+        if (offer.startAfterMs > 0) {
+            // Staggered start: this device's slot in the rollout window has not come yet
+            defer("rollout slot in " + offer.startAfterMs + "ms", offer.startAfterMs);
+            return;
+        }
+        String unsuitable = checkConditions(offer);
+        if (unsuitable != null) {
+            defer(unsuitable, NETWORK_RETRY_MS);
+            return;
+        }
+
+        PackageInstaller installer = context.getPackageManager().getPackageInstaller();
+        int sessionId = openOrCreateSession(installer, offer);
+        try (PackageInstaller.Session session = installer.openSession(sessionId)) {
+            UpdateVerifier verifier = newVerifier(offer);
+            long offset = rehash(session, verifier, state.getLong(AgentState.UPDATE_OFFSET));
+            if (offset > 0) {
+                AgentLog.log(AgentEvents.UPDATE_RESUMED, offset);
+            }
+
+            verifier = download(session, offer, verifier, offset);
+            if (verifier == null) {
+                return; // Server asked us to come back later
+            }
+            String problem = verifier.getBytes() == offer.size ? verifier.verify()
+                    : "Size mismatch (" + verifier.getBytes() + " of " + offer.size + ")";
+            if (problem != null) {
+                AgentLog.log(AgentEvents.UPDATE_REJECTED, problem);
+                session.abandon();
+                clearSession();
+                lastOutcome = "rejected: " + problem;
+                deferFor(FAILURE_BACKOFF_MS);
+                return;
+            }
+
+            clearSession(); // Committed sessions cannot be reopened
+            session.commit(statusIntent().getIntentSender());
+            lastOutcome = "committed " + offer.versionCode;
+        }
+    }
+
+    /** @return the offer, or null if this device is not (yet) in the rollout */
+    private Offer fetchOffer() throws IOException, JSONException {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        if (customerId == null) {
+            return null;
+        }
+        Request request = new Request.Builder()
+                .url(ServerEndpoints.get(context).baseUrl() + "/api/customers/" + customerId
+                        + "/admin-update?versionCode=" + installedVersion)
+                .build();
+        try (Response response = client.newCall(request).execute(); ResponseBody body = response.body()) {
+            if (response.code() == 204) {
+                AgentLog.log(AgentEvents.UPDATE_NOT_OFFERED, CHECK_INTERVAL_MS);
+                lastOutcome = "not in rollout";
+                deferFor(CHECK_INTERVAL_MS);
+                return null;
+            }
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Update offer: HTTP " + response.code());
+            }
+            Offer offer = Offer.parse(body.string());
+            AgentLog.log(AgentEvents.UPDATE_OFFERED, offer.versionCode, offer.size);
+            return offer;
+        }
+    }
+
+    private String checkConditions(Offer offer) {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkCapabilities caps = connectivity != null
+                ? connectivity.getNetworkCapabilities(connectivity.getActiveNetwork()) : null;
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+            return "no validated network";
+        }
+        if (!offer.allowMetered && !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)) {
+            return "metered network";
+        }
+        long remaining = offer.size - state.getLong(AgentState.UPDATE_OFFSET);
+        long free = new StatFs(Environment.getDataDirectory().getPath()).getAvailableBytes();
+        if (free < remaining + STORAGE_RESERVE_BYTES) {
+            return "low storage (" + (free >> 20) + " MB free)";
+        }
+        return null;
+    }
+
+    private int openOrCreateSession(PackageInstaller installer, Offer offer) throws IOException {
+        int sessionId = state.getInt(AgentState.UPDATE_SESSION_ID);
+        if (sessionId >= 0 && installer.getSessionInfo(sessionId) != null
+                && offer.sha256.equals(state.getString(AgentState.UPDATE_SHA256))) {
+            return sessionId;
+        }
+        if (sessionId >= 0 && installer.getSessionInfo(sessionId) != null) {
+            installer.abandonSession(sessionId); // A different build - its bytes are useless
+        }
+
+        PackageInstaller.SessionParams params =
+                new PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+        params.setAppPackageName(context.getPackageName());
+        params.setSize(offer.size); // Lets the system clear cache for the space up front
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            params.setRequireUserAction(PackageInstaller.SessionParams.USER_ACTION_NOT_REQUIRED);
+        }
+        sessionId = installer.createSession(params);
+        state.set(AgentState.UPDATE_SESSION_ID, sessionId);
+        state.set(AgentState.UPDATE_SHA256, offer.sha256);
+        state.set(AgentState.UPDATE_OFFSET, 0L);
+        state.flush();
+        return sessionId;
+    }
+
+    private static UpdateVerifier newVerifier(Offer offer) throws GeneralSecurityException {
+        String key = BuildConfig.UPDATE_SIGNING_KEY;
+        PublicKey releaseKey = key.isEmpty() ? null : UpdateVerifier.parseKey(key);
+        return new UpdateVerifier(offer.sha256, releaseKey, offer.signature);
+    }
+
+    /**
+     * Feed the verifier what an earlier attempt already wrote (local read, no network).
+     * @return bytes recovered - at most the last fsynced offset
+     */
+    private static long rehash(PackageInstaller.Session session, UpdateVerifier verifier, long synced)
+            throws IOException {
+        if (synced <= 0) {
+            return 0;
+        }
+        byte[] buffer = new byte[BUFFER_BYTES];
+        long read = 0;
+        try (InputStream in = session.openRead(SESSION_FILE)) {
+            while (read < synced) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, synced - read));
+                if (n < 0) {
+                    break;
+                }
+                verifier.update(buffer, 0, n);
+                read += n;
+            }
+        } catch (IOException e) {
+            // Unreadable from here on - continue after what was re-hashed
+        }
+        return read;
+    }
+
+    /**
+     * Stream the rest of the APK into the session.
+     * @return the verifier holding every byte, or null if the server deferred us
+     */
+    private UpdateVerifier download(PackageInstaller.Session session, Offer offer, UpdateVerifier verifier,
+                                    long offset) throws IOException, GeneralSecurityException {
+        if (offset >= offer.size) {
+            return verifier;
+        }
+        String url = offer.url.startsWith("/") ? ServerEndpoints.get(context).baseUrl() + offer.url : offer.url;
+        Request.Builder builder = new Request.Builder().url(url).header("Accept-Encoding", "identity");
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+        }
+        long startedAt = SystemClock.elapsedRealtime();
+        try (Response response = downloadClient.newCall(builder.build()).execute();
+             ResponseBody body = response.body()) {
+            if (response.code() == 429 || response.code() == 503) {
+                defer("server busy", retryAfterMs(response.header("Retry-After")));
+                return null;
+            }
+            if (response.code() == 200 && offset > 0) {
+                // Range not honoured - start over from the first byte
+                offset = 0;
+                verifier = newVerifier(offer);
+            } else if (response.code() != 200 && response.code() != 206) {
+                throw new IOException("Download: HTTP " + response.code());
+            }
+            if (body == null) {
+                throw new IOException("Download: empty body");
+            }
+
+            BandwidthLimiter limiter = new BandwidthLimiter(offer.maxBytesPerSec);
+            byte[] buffer = new byte[BUFFER_BYTES];
+            long sinceSync = 0;
+            try (InputStream in = body.byteStream();
+                 OutputStream out = session.openWrite(SESSION_FILE, offset, offer.size - offset)) {
+                int n;
+                while (offset < offer.size && (n = in.read(buffer, 0, (int) Math.min(buffer.length,
+                        offer.size - offset))) > 0) {
+                    out.write(buffer, 0, n);
+                    verifier.update(buffer, 0, n);
+                    offset += n;
+                    sinceSync += n;
+                    bytesDownloaded += n;
+                    if (sinceSync >= SYNC_BYTES) {
+                        session.fsync(out);
+                        state.set(AgentState.UPDATE_OFFSET, offset);
+                        sinceSync = 0;
+                    }
+                    long delay = limiter.delayFor(n, SystemClock.elapsedRealtime());
+                    if (delay > 0) {
+                        SystemClock.sleep(delay);
+                    }
+                }
+                session.fsync(out);
+                state.set(AgentState.UPDATE_OFFSET, offset);
+            }
+        }
+        AgentLog.log(AgentEvents.UPDATE_DOWNLOADED, offset, SystemClock.elapsedRealtime() - startedAt);
+        return verifier;
+    }
+
+    private PendingIntent statusIntent() {
+        Intent intent = new Intent(context, LockEnforcementService.class).setAction(ACTION_INSTALL_STATUS);
+        // Mutable: the installer adds the status extras
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT
+                | (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0);
+        return PendingIntent.getService(context, 0, intent, flags);
+    }
+
+    private void clearSession() {
+        state.remove(AgentState.UPDATE_SESSION_ID);
+        state.remove(AgentState.UPDATE_SHA256);
+        state.remove(AgentState.UPDATE_OFFSET);
+    }
+
+    private void defer(String reason, long delayMs) {
+        AgentLog.log(AgentEvents.UPDATE_DEFERRED, reason);
+        lastOutcome = "deferred: " + reason;
+        deferFor(delayMs);
+    }
+
+    private void deferFor(long delayMs) {
+        state.set(AgentState.UPDATE_NEXT_CHECK_AT, System.currentTimeMillis() + delayMs);
+    }
+
+    static long retryAfterMs(String header) {
+        if (header != null) {
+            try {
+                return Math.max(60_000L, Long.parseLong(header.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // HTTP-date form - fall through to the default
+            }
+        }
+        return NETWORK_RETRY_MS;
+    }
+
+    static long installedVersionCode(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? info.getLongVersionCode() : info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return Long.MAX_VALUE; // Cannot happen for our own package; never update blind
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SelfUpdater{installed=" + installedVersion + ", " + lastOutcome
+                + ", downloaded=" + bytesDownloaded + ", running=" + running.get() + '}';
+    }
+}
@@ -0,0 +1,288 @@
+package com.securefinance.emilock.admin;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServerEndpoints - Which Backend the Agent Talks To
+ *
+ * SERVER_URL may hold several base URLs (comma separated, primary first -
+ * provisioning extras "serverUrl" plus "serverUrls"). This wraps them in one
+ * process-wide EndpointSelector:
+ * - baseUrl(): the endpoint every feature should use right now
+ * - enqueue(): an idempotent GET with automatic failover - a failed or 5xx
+ *   attempt moves straight on to the next healthy endpoint - and, when
+ *   hedged, a second copy to the runner-up once the primary exceeds its p95
+ *   budget. The first good answer wins; the other call is cancelled
+ * - probe(): re-measures unused endpoints (GET /healthz) on network wakeups,
+ *   so a recovered primary is noticed without a failed lock check first
+ *
+ * The selector is rebuilt whenever SERVER_URL changes (provisioning).
+ */
+public final class ServerEndpoints {
+
+    static final String PROBE_PATH = "/healthz";
+    static final long PROBE_TIMEOUT_MS = 5_000;
+
+    /** Builds the same request against any base URL. */
+    public interface RequestFactory {
+        Request create(String baseUrl);
+    }
+
+    private static ServerEndpoints instance;
+
+    private final AgentStateStore state;
+    private final Handler handler; // hedge timers (policy looper)
+    private String config;
+    private EndpointSelector selector;
+    private String lastPrimary;
+
+    public static synchronized ServerEndpoints get(Context context) {
+        if (instance == null) {
+            instance = new ServerEndpoints(AgentState.get(context), AgentExecutors.get().policy());
+        }
+        return instance;
+    }
+
+    private ServerEndpoints(AgentStateStore state, Handler handler) {
+        this.state = state;
+        this.handler = handler;
+    }
+
+    /** Current best base URL. */
+    public String baseUrl() {
+        EndpointSelector current = selector();
+        String url = current.primary(SystemClock.elapsedRealtime());
+        synchronized (this) {
+            if (lastPrimary != null && !lastPrimary.equals(url)) {
+                AgentLog.log(AgentEvents.ENDPOINT_SWITCHED, lastPrimary, url);
+                AgentMetrics.ENDPOINT_SWITCHES.inc();
+            }
+            lastPrimary = url;
+        }
+        return url;
+    }
+
+    synchronized EndpointSelector selector() {
+        String value = state.getString(AgentState.SERVER_URL);
+        if (value == null) {
+            value = AgentState.DEFAULT_SERVER_URL;
+        }
+        if (selector == null || !value.equals(config)) {
+            List<String> urls = EndpointSelector.parse(value);
+            if (urls.isEmpty()) {
+                urls = EndpointSelector.parse(AgentState.DEFAULT_SERVER_URL);
+            }
+            selector = new EndpointSelector(urls);
+            config = value;
+            lastPrimary = null;
+        }
+        return selector;
+    }
+
+    // ==================== Calls ====================
+
+    /**
+     * Run an idempotent request with failover (and hedging if asked). The
+     * callback gets exactly one outcome: the winning response, the last 5xx
+     * when every endpoint answered badly, or the last I/O error.
+     */
+    public void enqueue(OkHttpClient client, RequestFactory factory, boolean hedge, Callback callback) {
+        new Exchange(client, selector(), factory, callback).start(hedge);
+    }
+
+    /** Health-probe endpoints the selector wants re-measured. Cheap no-op with one endpoint. */
+    public void probe(OkHttpClient client) {
+        EndpointSelector current = selector();
+        List<String> due = current.takeProbesDue(SystemClock.elapsedRealtime());
+        if (due.isEmpty()) {
+            return;
+        }
+        OkHttpClient probeClient = client.newBuilder()
+                .callTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        for (String url : due) {
+            final long sentAt = SystemClock.elapsedRealtime();
+            probeClient.newCall(new Request.Builder().url(url + PROBE_PATH).build()).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    current.onFailure(url, SystemClock.elapsedRealtime());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    long now = SystemClock.elapsedRealtime();
+                    if (response.isSuccessful()) {
+                        current.onSuccess(url, now - sentAt, now);
+                    } else {
+                        current.onFailure(url, now);
+                    }
+                }
+            });
+        }
+    }
+
+    /** One logical request: attempts across endpoints until one answers well. */
+    private final class Exchange {
+        private final OkHttpClient client;
+        private final EndpointSelector selector;
+        private final RequestFactory factory;
+        private final Callback callback;
+
+        // Guarded by this
+        private final List<String> tried = new ArrayList<>();
+        private final List<Call> calls = new ArrayList<>();
+        private int inFlight;
+        private boolean done;
+        private Response lastResponse;
+        private IOException lastError;
+        private Runnable hedgeTimer;
+
+        Exchange(OkHttpClient client, EndpointSelector selector, RequestFactory factory, Callback callback) {
+            this.client = client;
+            this.selector = selector;
+            this.factory = factory;
+            this.callback = callback;
+        }
+
+        void start(boolean hedge) {
+            String primary = baseUrl();
+            synchronized (this) {
+                send(primary, false);
+                long budget = hedge ? selector.hedgeDelayMs(primary) : -1;
+                if (budget >= 0) {
+                    hedgeTimer = this::hedge;
+                    handler.postDelayed(hedgeTimer, budget);
+                }
+            }
+        }
+
+        private synchronized void hedge() {
+            hedgeTimer = null;
+            if (done) {
+                return;
+            }
+            String next = selector.alternate(tried, SystemClock.elapsedRealtime());
+            if (next != null) {
+                AgentMetrics.POLL_HEDGED.inc();
+                send(next, true);
+            }
+        }
+
+        private void send(String url, boolean hedged) {
+            tried.add(url);
+            inFlight++;
+            final long sentAt = SystemClock.elapsedRealtime();
+            Call call = client.newCall(factory.create(url));
+            calls.add(call);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    onAttempt(url, sentAt, hedged, call, null, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    onAttempt(url, sentAt, hedged, call, response, null);
+                }
+            });
+        }
+
+        private void onAttempt(String url, long sentAt, boolean hedged, Call call, Response response,
+                IOException error) {
+            Response winner = null;
+            Response finalResponse = null;
+            IOException finalError = null;
+            synchronized (this) {
+                inFlight--;
+                if (done) {
+                    // Lost the race - cancelled, or answered after the winner
+                    if (response != null) {
+                        response.close();
+                    }
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                boolean failed = response == null || response.code() >= 500;
+                if (!failed) {
+                    selector.onSuccess(url, now - sentAt, now);
+                    if (hedged) {
+                        AgentMetrics.POLL_HEDGE_WINS.inc();
+                    }
+                    winner = response;
+                    finish(call);
+                } else {
+                    selector.onFailure(url, now);
+                    keep(response, error);
+                    String next = selector.alternate(tried, now);
+                    if (next != null) {
+                        AgentMetrics.ENDPOINT_FAILOVERS.inc();
+                        send(next, false);
+                        return;
+                    }
+                    if (inFlight > 0) {
+                        return; // A hedge is still out - it may yet answer
+                    }
+                    finalResponse = lastResponse;
+                    finalError = lastError;
+                    lastResponse = null;
+                    finish(call);
+                }
+            }
+            // Outside the lock: callbacks post to the policy looper and may block on I/O
+            try {
+                if (winner != null) {
+                    callback.onResponse(call, winner);
+                } else if (finalResponse != null) {
+                    callback.onResponse(call, finalResponse);
+                } else {
+                    callback.onFailure(call, finalError != null ? finalError : new IOException("No endpoint"));
+                }
+            } catch (IOException e) {
+                callback.onFailure(call, e);
+            }
+        }
+
+        /** The newest bad outcome is the one reported if nothing succeeds. */
+        private void keep(Response response, IOException error) {
+            if (lastResponse != null) {
+                lastResponse.close();
+            }
+            lastResponse = response;
+            lastError = error;
+        }
+
+        private void finish(Call winner) {
+            done = true;
+            if (hedgeTimer != null) {
+                handler.removeCallbacks(hedgeTimer);
+                hedgeTimer = null;
+            }
+            for (Call call : calls) {
+                if (call != winner) {
+                    call.cancel();
+                }
+            }
+            if (lastResponse != null) {
+                lastResponse.close();
+                lastResponse = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return selector().toString();
+    }
+}
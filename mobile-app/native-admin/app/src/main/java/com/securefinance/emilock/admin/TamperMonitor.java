@@ -0,0 +1,438 @@
+package com.securefinance.emilock.admin;
+
+import android.Manifest;
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TamperMonitor - Event-Driven Tamper Detection
+ *
+ * Watches for tampering through callbacks only - nothing here polls or wakes
+ * the device on its own:
+ * - SIM swap: SubscriptionManager subscription changes; the SIM identity is
+ *   compared with the one adopted at provisioning (AgentState.SIM_BASELINE)
+ * - Lock-task escape: AdminReceiver.onLockTaskModeExiting while locked, unless
+ *   LockActivity announced the exit (expectLockTaskExit)
+ * - Admin state: disable requested / disabled (AdminReceiver), device owner lost
+ * - Clock tampering: TIME_SET moving wall time against elapsedRealtime by more
+ *   than CLOCK_SKEW_THRESHOLD_MS (offline unlock codes are time-windowed)
+ * - Safe mode boot
+ *
+ * Signals go through a TamperDetector (debounce, dedup, per-kind rate limit,
+ * batching). A new SIM is reported to POST /:id/sim-change (the server locks);
+ * everything else goes in one POST /:id/security-event batch. Only the reports
+ * whose request failed are requeued; they back off and merge with newer signals.
+ *
+ * Policy looper only, except the static entry points, which hop to the
+ * service. HTTP calls are enqueued and their results posted back here.
+ */
+public class TamperMonitor {
+    static final String ACTION_TAMPER = "com.securefinance.emilock.admin.action.TAMPER";
+    static final String EXTRA_KIND = "kind";
+    static final String EXTRA_DETAIL = "detail";
+
+    // A SIM swap passes through "no SIM" and card readers bounce - only a settled identity counts
+    static final TamperDetector.Kind SIM = TamperDetector.Kind.level("SIM", 60_000, 0, true);
+    static final TamperDetector.Kind LOCK_TASK_ESCAPE =
+            TamperDetector.Kind.edge("LOCK_TASK_ESCAPE", 5 * 60_000, true);
+    static final TamperDetector.Kind ADMIN_DISABLE_REQUESTED =
+            TamperDetector.Kind.edge("ADMIN_DISABLE_REQUESTED", 10 * 60_000, true);
+    static final TamperDetector.Kind ADMIN_DISABLED = TamperDetector.Kind.edge("ADMIN_DISABLED", 0, true);
+    static final TamperDetector.Kind DEVICE_OWNER_LOST = TamperDetector.Kind.edge("DEVICE_OWNER_LOST", 0, true);
+    static final TamperDetector.Kind CLOCK_CHANGED = TamperDetector.Kind.edge("CLOCK_CHANGED", 30 * 60_000, false);
+    static final TamperDetector.Kind SAFE_MODE = TamperDetector.Kind.edge("SAFE_MODE_ATTEMPT", 60 * 60_000, true);
+
+    /** Kinds other components may signal through ACTION_TAMPER. */
+    private static final TamperDetector.Kind[] SIGNAL_KINDS = {
+            LOCK_TASK_ESCAPE, ADMIN_DISABLE_REQUESTED, ADMIN_DISABLED
+    };
+
+    static final long CLOCK_SKEW_THRESHOLD_MS = 2 * 60_000;
+    static final long EXPECTED_EXIT_WINDOW_MS = 10_000;
+    static final long BACKOFF_BASE_MS = 30_000;
+    static final long BACKOFF_MAX_MS = 30 * 60_000;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // Set by LockActivity just before it leaves lock task itself
+    private static volatile long expectedExitUntil;
+
+    private final Context context;
+    private final AgentStateStore state;
+    private final OkHttpClient client;
+    private final Handler handler;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final TamperDetector detector = new TamperDetector();
+    private final Runnable flush = this::flush;
+
+    private SubscriptionManager subscriptionManager;
+    private SubscriptionManager.OnSubscriptionsChangedListener subscriptionListener;
+    private BroadcastReceiver receiver;
+    private long clockOffset; // currentTimeMillis - elapsedRealtime at the last accepted time
+    private String simOperator;
+    private boolean sending;
+    private int failures;
+
+    public TamperMonitor(Context context, AgentStateStore state, OkHttpClient client, Handler handler,
+                         DevicePolicyManager dpm, ComponentName admin) {
+        this.context = context.getApplicationContext();
+        this.state = state;
+        this.client = client;
+        this.handler = handler;
+        this.dpm = dpm;
+        this.admin = admin;
+    }
+
+    // ==================== Entry points (any thread) ====================
+
+    /** Hand a signal to the running service's monitor. */
+    static void signal(Context context, TamperDetector.Kind kind, String detail) {
+        Intent intent = new Intent(context, LockEnforcementService.class)
+                .setAction(ACTION_TAMPER)
+                .putExtra(EXTRA_KIND, kind.name)
+                .putExtra(EXTRA_DETAIL, detail);
+        context.startService(intent);
+    }
+
+    /** LockActivity is about to stop lock task on purpose (device unlocked). */
+    static void expectLockTaskExit() {
+        expectedExitUntil = SystemClock.elapsedRealtime() + EXPECTED_EXIT_WINDOW_MS;
+    }
+
+    static boolean isLockTaskExitExpected() {
+        return SystemClock.elapsedRealtime() < expectedExitUntil;
+    }
+
+    // ==================== Sources ====================
+
+    public void start() {
+        String baseline = state.getString(AgentState.SIM_BASELINE);
+        if (baseline != null) {
+            detector.baseline(SIM, baseline);
+        }
+        clockOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+
+        if (context.getPackageManager().isSafeMode()) {
+            onSignal(SAFE_MODE, null);
+        }
+
+        receiver = new BroadcastReceiver() {
+            // Delivered on the policy looper (registered with handler below)
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (Intent.ACTION_TIME_CHANGED.equals(intent.getAction())) {
+                    onTimeSet();
+                } else if (DevicePolicyManager.ACTION_DEVICE_OWNER_CHANGED.equals(intent.getAction())
+                        && !dpm.isDeviceOwnerApp(context.getPackageName())) {
+                    onSignal(DEVICE_OWNER_LOST, null);
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(DevicePolicyManager.ACTION_DEVICE_OWNER_CHANGED);
+        context.registerReceiver(receiver, filter, null, handler);
+
+        startSimWatch();
+    }
+
+    public void stop() {
+        handler.removeCallbacks(flush);
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+        if (subscriptionManager != null && subscriptionListener != null) {
+            subscriptionManager.removeOnSubscriptionsChangedListener(subscriptionListener);
+            subscriptionListener = null;
+        }
+    }
+
+    /** A signal from another component (ACTION_TAMPER). */
+    public void onSignal(String kindName, String detail) {
+        for (TamperDetector.Kind kind : SIGNAL_KINDS) {
+            if (kind.name.equals(kindName)) {
+                onSignal(kind, detail);
+                return;
+            }
+        }
+    }
+
+    private void onSignal(TamperDetector.Kind kind, String detail) {
+        AgentLog.log(AgentEvents.TAMPER_SIGNAL, kind.name, detail);
+        detector.onEvent(kind, detail, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+        scheduleFlush();
+    }
+
+    private void onTimeSet() {
+        long offset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        long skew = offset - clockOffset;
+        clockOffset = offset;
+        if (Math.abs(skew) < CLOCK_SKEW_THRESHOLD_MS) {
+            return; // Network time correction
+        }
+        boolean autoTime = Settings.Global.getInt(context.getContentResolver(), Settings.Global.AUTO_TIME, 0) == 1;
+        onSignal(CLOCK_CHANGED, "skewMs=" + skew + " autoTime=" + autoTime);
+    }
+
+    private void startSimWatch() {
+        subscriptionManager = (SubscriptionManager) context.getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        if (subscriptionManager == null) {
+            return;
+        }
+        if (dpm.isDeviceOwnerApp(context.getPackageName())) {
+            // ICCIDs need READ_PHONE_STATE - the device owner grants it to itself
+            dpm.setPermissionGrantState(admin, context.getPackageName(), Manifest.permission.READ_PHONE_STATE,
+                    DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
+        }
+        // Created on the policy looper: pre-R callbacks arrive on the creating thread's looper
+        subscriptionListener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+            @Override
+            public void onSubscriptionsChanged() {
+                onSimChanged();
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            subscriptionManager.addOnSubscriptionsChangedListener(handler::post, subscriptionListener);
+        } else {
+            subscriptionManager.addOnSubscriptionsChangedListener(subscriptionListener);
+        }
+        // Both deliver the current state once on registration
+    }
+
+    private void onSimChanged() {
+        String identity = readSimIdentity();
+        if (identity == null) {
+            return; // Unreadable - no basis for a decision
+        }
+        if (state.getString(AgentState.SIM_BASELINE) == null) {
+            if (!identity.isEmpty()) {
+                // First SIM seen since provisioning is the customer's
+                state.set(AgentState.SIM_BASELINE, identity);
+                detector.baseline(SIM, identity);
+                AgentLog.log(AgentEvents.SIM_ADOPTED);
+            }
+            return;
+        }
+        detector.onState(SIM, identity, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+        scheduleFlush();
+    }
+
+    /**
+     * Sorted ICCIDs of the active subscriptions, "" for no SIM, null if unreadable.
+     * Without ICCID access a slot falls back to slot + carrier, which still catches
+     * a swap to another operator.
+     */
+    private String readSimIdentity() {
+        List<SubscriptionInfo> subscriptions;
+        try {
+            subscriptions = subscriptionManager.getActiveSubscriptionInfoList();
+        } catch (SecurityException e) {
+            AgentLog.log(AgentEvents.SIM_UNREADABLE, e);
+            return null;
+        }
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return "";
+        }
+        List<String> ids = new ArrayList<>(subscriptions.size());
+        for (SubscriptionInfo info : subscriptions) {
+            String iccId = info.getIccId();
+            ids.add(iccId != null && !iccId.isEmpty()
+                    ? iccId : "slot" + info.getSimSlotIndex() + ":" + info.getCarrierName());
+        }
+        Collections.sort(ids);
+        simOperator = String.valueOf(subscriptions.get(0).getCarrierName());
+        return String.join(",", ids);
+    }
+
+    // ==================== Reporting ====================
+
+    private void scheduleFlush() {
+        handler.removeCallbacks(flush);
+        long due = detector.nextDueAt();
+        if (due != Long.MAX_VALUE && !sending) {
+            handler.postDelayed(flush, Math.max(0, due - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private void flush() {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        if (sending || customerId == null) {
+            return;
+        }
+        List<TamperDetector.Report> batch = detector.takeDue(SystemClock.elapsedRealtime());
+        if (batch.isEmpty()) {
+            scheduleFlush();
+            return;
+        }
+        String url = ServerEndpoints.get(context).baseUrl() + "/api/customers/" + customerId;
+        String baseline = state.getString(AgentState.SIM_BASELINE);
+
+        // A new SIM goes to /sim-change (the server locks), everything else in one /security-event batch
+        TamperDetector.Report simChange = null;
+        List<TamperDetector.Report> eventReports = new ArrayList<>();
+        JSONArray events = new JSONArray();
+        JSONObject simBody = null;
+        try {
+            for (TamperDetector.Report report : batch) {
+                if (report.kind != SIM) {
+                    events.put(event(report.kind.name, report)
+                            .put("details", new JSONObject()
+                                    .put("detail", report.value)
+                                    .put("occurrences", report.occurrences)
+                                    .put("firstAt", report.firstWallTime)));
+                    eventReports.add(report);
+                } else if (report.value.isEmpty()) {
+                    events.put(event("SIM_REMOVED", report).put("details", simDetails(report)));
+                    eventReports.add(report);
+                } else if (report.value.equals(baseline)) {
+                    events.put(event("SIM_RESTORED", report).put("details", simDetails(report)));
+                    eventReports.add(report);
+                } else {
+                    simChange = report;
+                }
+            }
+            if (simChange != null) {
+                simBody = new JSONObject()
+                        .put("originalIccid", baseline)
+                        .put("newIccid", simChange.value)
+                        .put("newOperator", simOperator)
+                        .put("timestamp", System.currentTimeMillis());
+            }
+        } catch (JSONException e) {
+            AgentLog.log(AgentEvents.TAMPER_REPORT_FAILED, e);
+            onSent(batch.size(), batch);
+            return;
+        }
+
+        sending = true;
+        if (simChange == null) {
+            sendEvents(url, events, eventReports, batch.size(), Collections.<TamperDetector.Report>emptyList());
+            return;
+        }
+        TamperDetector.Report sim = simChange;
+        post(url + "/sim-change", simBody, ok -> {
+            if (ok) {
+                state.set(AgentState.SIM_BASELINE, sim.value); // The server has locked; this SIM is now the reference
+            }
+            // Delivery is tracked per request: an accepted sim-change is never posted (and locked) twice
+            sendEvents(url, events, eventReports, batch.size(),
+                    ok ? Collections.<TamperDetector.Report>emptyList() : Collections.singletonList(sim));
+        });
+    }
+
+    private void sendEvents(String url, JSONArray events, List<TamperDetector.Report> eventReports, int total,
+                            List<TamperDetector.Report> undelivered) {
+        if (events.length() == 0) {
+            onSent(total, undelivered);
+            return;
+        }
+        JSONObject body;
+        try {
+            body = new JSONObject().put("events", events);
+        } catch (JSONException e) {
+            AgentLog.log(AgentEvents.TAMPER_REPORT_FAILED, e);
+            onSent(total, concat(undelivered, eventReports));
+            return;
+        }
+        post(url + "/security-event", body, ok -> onSent(total, ok ? undelivered : concat(undelivered, eventReports)));
+    }
+
+    private static JSONObject event(String name, TamperDetector.Report report) throws JSONException {
+        return new JSONObject()
+                .put("event", name)
+                .put("timestamp", report.lastWallTime)
+                .put("action", "DETECTED");
+    }
+
+    private static JSONObject simDetails(TamperDetector.Report report) throws JSONException {
+        return new JSONObject()
+                .put("previous", report.previous)
+                .put("flaps", report.flaps);
+    }
+
+    private static List<TamperDetector.Report> concat(List<TamperDetector.Report> a, List<TamperDetector.Report> b) {
+        List<TamperDetector.Report> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    /** Result of one POST, on the policy looper. */
+    private interface Sent {
+        void onSent(boolean ok);
+    }
+
+    /** Enqueued on OkHttp's dispatcher - never blocks or occupies one of its threads. */
+    private void post(String url, JSONObject body, Sent done) {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(body.toString(), JSON))
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                AgentLog.log(AgentEvents.TAMPER_REPORT_FAILED, e);
+                handler.post(() -> done.onSent(false));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean ok;
+                try (Response r = response) {
+                    ok = r.isSuccessful();
+                    if (!ok) {
+                        AgentLog.log(AgentEvents.TAMPER_REPORT_FAILED, "HTTP " + r.code());
+                    }
+                }
+                handler.post(() -> done.onSent(ok));
+            }
+        });
+    }
+
+    /** @param undelivered reports no request carried to a 2xx - only these are sent again */
+    private void onSent(int total, List<TamperDetector.Report> undelivered) {
+        sending = false;
+        long now = SystemClock.elapsedRealtime();
+        if (undelivered.size() < total) {
+            AgentLog.log(AgentEvents.TAMPER_REPORTED, total - undelivered.size());
+        }
+        if (undelivered.isEmpty()) {
+            failures = 0;
+        } else {
+            failures++;
+            long backoff = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(failures - 1, 10));
+            detector.requeue(undelivered, now, now + backoff);
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public String toString() {
+        return detector + " failures=" + failures;
+    }
+}
@@ -0,0 +1,345 @@
+package com.securefinance.emilock.admin;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.StatFs;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * TelemetryUploader - Batched Device Telemetry
+ *
+ * Fills the backend's device view (battery, network, storage, security,
+ * technical details) without waking the radio on its own:
+ * - Samples are taken on the existing poll ticks, at most every SAMPLE_INTERVAL_MS,
+ *   into a TelemetryBuffer that coalesces unchanged state
+ * - Uploads only ride on a successful status poll (the radio is already up),
+ *   once BATCH_SIZE samples are pending or the oldest is MAX_AGE_MS old
+ *   (longer on metered networks)
+ * - One gzipped POST /api/customers/:id/telemetry per batch; static technical
+ *   details are included at most once a day, lock screen TTFF on every batch,
+ *   boot-to-lock timing (BootLockState) once per boot, and MetricsRegistry
+ *   deltas since the last acknowledged batch
+ * - Failures back off exponentially; unvalidated networks are skipped
+ * - Compressed bytes sent are capped at DAILY_BUDGET_BYTES per 24h window
+ *
+ * Everything runs on the policy looper except the HTTP call itself.
+ */
+public class TelemetryUploader {
+    private static final String TAG = "TelemetryUploader";
+
+    static final int CAPACITY = 288; // 24h of 5-minute samples before the oldest is overwritten
+    static final int BATCH_SIZE = 12;
+    static final int MAX_BATCH = 96;
+    static final long SAMPLE_INTERVAL_MS = 5 * 60_000L;
+    static final long MAX_AGE_MS = 60 * 60_000L;
+    static final long MAX_AGE_METERED_MS = 4 * 60 * 60_000L;
+    static final long BACKOFF_BASE_MS = 60_000L;
+    static final long BACKOFF_MAX_MS = 60 * 60_000L;
+    static final long DAILY_BUDGET_BYTES = 64 * 1024;
+    static final long BUDGET_WINDOW_MS = 24 * 60 * 60_000L;
+    static final long TECHNICAL_INTERVAL_MS = 24 * 60 * 60_000L;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final Context context;
+    private final AgentStateStore state;
+    private final OkHttpClient client;
+    private final Handler handler;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final ConnectivityManager connectivityManager;
+    private final BatteryManager batteryManager;
+
+    private final TelemetryBuffer buffer = new TelemetryBuffer(CAPACITY);
+    private final TelemetryBuffer.Sample scratch = new TelemetryBuffer.Sample();
+    private final StringBuilder json = new StringBuilder(4096);
+    private String batchBootReport; // Boot timing included in the batch being written
+    private MetricsRegistry.Snapshot batchMetrics; // Metric deltas included in the batch being written
+
+    private long lastSampleElapsed = -SAMPLE_INTERVAL_MS;
+    private int failures;
+    private long backoffUntilElapsed;
+    private long budgetWindowStart;
+    private long budgetUsed;
+    private long lastTechnicalSentAt;
+
+    // Counters for dump
+    private int batchesSent;
+    private long bytesSent;
+    private long rawBytesSent;
+    private int skippedForBudget;
+
+    public TelemetryUploader(Context context, AgentStateStore state, OkHttpClient client, Handler handler,
+                             DevicePolicyManager dpm, ComponentName admin) {
+        this.context = context.getApplicationContext();
+        this.state = state;
+        this.client = client;
+        this.handler = handler;
+        this.dpm = dpm;
+        this.admin = admin;
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        this.budgetWindowStart = state.getLong(AgentState.TELEMETRY_BUDGET_WINDOW_START);
+        this.budgetUsed = state.getLong(AgentState.TELEMETRY_BUDGET_USED);
+        this.lastTechnicalSentAt = state.getLong(AgentState.TELEMETRY_TECHNICAL_SENT_AT);
+    }
+
+    // ==================== Sampling ====================
+
+    /** Called on every poll tick; cheap when the interval has not elapsed. */
+    public void sample(boolean locked) {
+        long elapsed = SystemClock.elapsedRealtime();
+        if (elapsed - lastSampleElapsed < SAMPLE_INTERVAL_MS) {
+            return;
+        }
+        lastSampleElapsed = elapsed;
+
+        scratch.locked = locked;
+        scratch.batteryLevel = batteryManager != null
+                ? batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY) : -1;
+        scratch.charging = batteryManager != null && batteryManager.isCharging();
+        scratch.network = networkType();
+        scratch.storageFreeMb = new StatFs(Environment.getDataDirectory().getPath()).getAvailableBytes() >> 20;
+        try {
+            Bundle restrictions = dpm.getUserRestrictions(admin);
+            scratch.adbBlocked = restrictions.getBoolean(UserManager.DISALLOW_DEBUGGING_FEATURES);
+            scratch.factoryResetBlocked = restrictions.getBoolean(UserManager.DISALLOW_FACTORY_RESET);
+        } catch (SecurityException e) {
+            scratch.adbBlocked = false;
+            scratch.factoryResetBlocked = false;
+        }
+        buffer.record(scratch, System.currentTimeMillis());
+    }
+
+    private String networkType() {
+        NetworkCapabilities caps = activeCapabilities();
+        if (caps == null) {
+            return "none";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        }
+        return "other";
+    }
+
+    private NetworkCapabilities activeCapabilities() {
+        if (connectivityManager == null) {
+            return null;
+        }
+        return connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+    }
+
+    // ==================== Upload ====================
+
+    /** A status poll just succeeded - the radio is up, so flush if a batch is due. */
+    public void onNetworkWakeup() {
+        String customerId = state.getString(AgentState.CUSTOMER_ID);
+        long elapsed = SystemClock.elapsedRealtime();
+        if (customerId == null || buffer.size() == 0 || buffer.isBatchInFlight() || elapsed < backoffUntilElapsed) {
+            return;
+        }
+
+        NetworkCapabilities caps = activeCapabilities();
+        if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+            return; // Captive portal or dead link - the poll got lucky, don't push a batch through it
+        }
+        boolean metered = !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        long now = System.currentTimeMillis();
+        long maxAge = metered ? MAX_AGE_METERED_MS : MAX_AGE_MS;
+        if (buffer.size() < BATCH_SIZE && now - buffer.oldestAt() < maxAge) {
+            return;
+        }
+
+        if (now - budgetWindowStart >= BUDGET_WINDOW_MS || now < budgetWindowStart) {
+            budgetWindowStart = now;
+            budgetUsed = 0;
+        }
+        if (budgetUsed >= DAILY_BUDGET_BYTES) {
+            skippedForBudget++;
+            return; // The ring keeps the newest CAPACITY samples until the window rolls over
+        }
+
+        boolean withTechnical = Math.abs(now - lastTechnicalSentAt) >= TECHNICAL_INTERVAL_MS;
+        int count = buffer.beginBatch(MAX_BATCH);
+        String body = writeBatch(count, withTechnical);
+        final byte[] compressed;
+        try {
+            compressed = gzip(body);
+        } catch (IOException e) {
+            buffer.abortBatch();
+            return;
+        }
+        if (budgetUsed + compressed.length > DAILY_BUDGET_BYTES && budgetUsed > 0) {
+            buffer.abortBatch();
+            skippedForBudget++;
+            return;
+        }
+        budgetUsed += compressed.length; // Charged up front - a failed attempt still cost airtime
+        persistBudget();
+
+        String serverUrl = ServerEndpoints.get(context).baseUrl();
+        Request request = new Request.Builder()
+                .url(serverUrl + "/api/customers/" + customerId + "/telemetry")
+                .header("Content-Encoding", "gzip") // Already compressed - GzipRequestInterceptor skips it
+                .post(RequestBody.create(compressed, JSON))
+                .build();
+        final int rawBytes = body.length();
+        final boolean withBoot = batchBootReport != null;
+        final MetricsRegistry.Snapshot metrics = batchMetrics;
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                handler.post(() -> onUploadResult(false, 0, 0, false, false));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean ok;
+                try (Response r = response) {
+                    ok = r.isSuccessful();
+                }
+                if (ok) {
+                    MetricsRegistry.get().commit(metrics); // Next snapshot carries only newer deltas
+                }
+                handler.post(() -> onUploadResult(ok, compressed.length, rawBytes, withTechnical, withBoot));
+            }
+        });
+    }
+
+    private void onUploadResult(boolean success, int bytes, int rawBytes, boolean withTechnical, boolean withBoot) {
+        if (!success) {
+            buffer.abortBatch();
+            failures++;
+            long backoff = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(failures - 1, 10));
+            backoffUntilElapsed = SystemClock.elapsedRealtime() + backoff;
+            Log.w(TAG, "Telemetry upload failed - retry in " + (backoff / 1000) + "s");
+            return;
+        }
+        buffer.commitBatch();
+        failures = 0;
+        backoffUntilElapsed = 0;
+        batchesSent++;
+        bytesSent += bytes;
+        rawBytesSent += rawBytes;
+        if (withTechnical) {
+            lastTechnicalSentAt = System.currentTimeMillis();
+            state.set(AgentState.TELEMETRY_TECHNICAL_SENT_AT, lastTechnicalSentAt);
+        }
+        if (withBoot) {
+            BootLockState.markReported(context);
+        }
+    }
+
+    private void persistBudget() {
+        state.set(AgentState.TELEMETRY_BUDGET_WINDOW_START, budgetWindowStart);
+        state.set(AgentState.TELEMETRY_BUDGET_USED, budgetUsed);
+    }
+
+    /** JSON body for the pinned batch; written by hand into a reused builder. */
+    private String writeBatch(int count, boolean withTechnical) {
+        json.setLength(0);
+        json.append('{');
+        if (withTechnical) {
+            json.append("\"technical\":{\"brand\":").append(JSONObject.quote(Build.BRAND))
+                    .append(",\"model\":").append(JSONObject.quote(Build.MODEL))
+                    .append(",\"osVersion\":").append(JSONObject.quote(Build.VERSION.RELEASE))
+                    .append(",\"sdkLevel\":").append(Build.VERSION.SDK_INT)
+                    .append(",\"totalStorage\":").append(JSONObject.quote(formatGb(
+                            new StatFs(Environment.getDataDirectory().getPath()).getTotalBytes())))
+                    .append("},");
+            TelephonyManager telephony = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+            String operator = telephony != null ? telephony.getNetworkOperatorName() : null;
+            if (operator != null && !operator.isEmpty()) {
+                json.append("\"sim\":{\"operator\":").append(JSONObject.quote(operator)).append("},");
+            }
+        }
+        LockScreenMetrics lockScreen = LockScreenMetrics.get();
+        if (lockScreen.getCount(true) > 0) { // Cold starts; warm relaunches are in the metrics snapshot
+            json.append("\"lockScreen\":{\"ttffP50\":").append(lockScreen.percentile(true, 50))
+                    .append(",\"ttffP95\":").append(lockScreen.percentile(true, 95))
+                    .append(",\"count\":").append(lockScreen.getCount(true))
+                    .append("},");
+        }
+        batchMetrics = MetricsRegistry.get().snapshot();
+        if (!batchMetrics.isEmpty()) {
+            json.append("\"metrics\":");
+            batchMetrics.writeJson(json);
+            json.append(',');
+        }
+        batchBootReport = BootLockState.takeReport(context);
+        if (batchBootReport != null) {
+            json.append("\"boot\":").append(batchBootReport).append(',');
+        }
+        json.append("\"samples\":[");
+        for (int i = 0; i < count; i++) {
+            TelemetryBuffer.Sample s = buffer.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"t\":").append(s.firstAt)
+                    .append(",\"t1\":").append(s.lastAt)
+                    .append(",\"n\":").append(s.count)
+                    .append(",\"battery\":").append(s.batteryLevel)
+                    .append(",\"charging\":").append(s.charging)
+                    .append(",\"network\":\"").append(s.network).append('"')
+                    .append(",\"storageFree\":").append(s.storageFreeMb)
+                    .append(",\"locked\":").append(s.locked)
+                    .append(",\"security\":{\"adbBlocked\":").append(s.adbBlocked)
+                    .append(",\"factoryResetBlocked\":").append(s.factoryResetBlocked)
+                    .append("}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static String formatGb(long bytes) {
+        return String.format(Locale.US, "%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        Buffer out = new Buffer();
+        BufferedSink sink = Okio.buffer(new GzipSink(out));
+        sink.writeUtf8(body);
+        sink.close();
+        return out.readByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return "pending=" + buffer.size() + " dropped=" + buffer.getDropped()
+                + " batches=" + batchesSent + " bytes=" + bytesSent + "/" + rawBytesSent + " raw"
+                + " budget=" + budgetUsed + "/" + DAILY_BUDGET_BYTES
+                + " budgetSkips=" + skippedForBudget + " failures=" + failures;
+    }
+}
@@ -0,0 +1,253 @@
+package com.securefinance.emilock.admin;
+
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * TokenVault - Keystore-Backed Offline Code Material
+ *
+ * Keeps the offline code secret (see OfflineCodeVerifier) encrypted at rest:
+ * - AES-256-GCM key generated inside the Android Keystore (never exportable)
+ * - Prefs hold only iv || ciphertext, plus the non-secret code format
+ * - Redeemed counters are stored alongside so replays stay blocked after a restart,
+ *   and so is the wrong-code lockout, so a restart does not reset it either
+ * - Same sealing for the device credential: the one-time enrollment token from
+ *   the provisioning QR and the device key it is exchanged for, which
+ *   authenticates the device-only backend routes (X-Device-Key)
+ * - And for the device owner's reset password token (ResetPasswordToken)
+ *
+ * Keystore calls are binder IPC - call off the main thread.
+ */
+public class TokenVault {
+    private static final String TAG = "TokenVault";
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "emilock_offline_codes";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final String PREF_SECRET = "offlineCodeSecret";
+    private static final String PREF_PERIOD = "offlineCodePeriod";
+    private static final String PREF_DIGITS = "offlineCodeDigits";
+    private static final String PREF_FETCHED_AT = "offlineCodeFetchedAt";
+    private static final String PREF_USED_PREFIX = "offlineCodeUsed_";
+    private static final String PREF_FAILURES = "offlineCodeFailures";
+    private static final String PREF_LOCKOUT_UNTIL = "offlineCodeLockoutUntil"; // elapsedRealtime deadline
+    private static final String PREF_LOCKOUT_BOOT = "offlineCodeLockoutBoot"; // Settings.Global.BOOT_COUNT of it
+    private static final String PREF_ENROLLMENT_TOKEN = "enrollmentToken";
+    private static final String PREF_DEVICE_KEY = "deviceKey";
+    private static final String PREF_RESET_TOKEN = "resetPasswordTokenSealed";
+    private static final String PREF_RESET_TOKEN_PLAIN = "resetPasswordToken"; // Before sealing - migrated on read
+
+    private final SharedPreferences prefs;
+
+    public TokenVault(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public boolean hasSecret() {
+        return prefs.contains(PREF_SECRET);
+    }
+
+    public long getFetchedAt() {
+        return prefs.getLong(PREF_FETCHED_AT, 0);
+    }
+
+    /** Encrypt and store fresh material from GET /api/customers/:id/offline-material. */
+    public void store(byte[] secret, long periodSeconds, int digits, long fetchedAt) throws GeneralSecurityException {
+        prefs.edit()
+                .putString(PREF_SECRET, seal(secret))
+                .putLong(PREF_PERIOD, periodSeconds)
+                .putInt(PREF_DIGITS, digits)
+                .putLong(PREF_FETCHED_AT, fetchedAt)
+                .apply();
+    }
+
+    /**
+     * Decrypt the cached material into a verifier, or null if none / unreadable.
+     *
+     * @param bootCount  Settings.Global.BOOT_COUNT - tells whether a saved lockout deadline is still on this clock
+     * @param elapsedNow SystemClock.elapsedRealtime()
+     */
+    public OfflineCodeVerifier openVerifier(int bootCount, long elapsedNow) {
+        String stored = prefs.getString(PREF_SECRET, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            byte[] secret = unseal(stored);
+            OfflineCodeVerifier verifier = new OfflineCodeVerifier(secret,
+                    prefs.getLong(PREF_PERIOD, 300), prefs.getInt(PREF_DIGITS, 8));
+            Arrays.fill(secret, (byte) 0);
+            for (OfflineCodeVerifier.Purpose purpose : OfflineCodeVerifier.Purpose.values()) {
+                verifier.setLastUsedCounter(purpose, prefs.getLong(PREF_USED_PREFIX + purpose, Long.MIN_VALUE));
+            }
+            int failures = prefs.getInt(PREF_FAILURES, 0);
+            long lockedOutUntil = prefs.getLong(PREF_LOCKOUT_UNTIL, 0);
+            if (lockedOutUntil > 0 && prefs.getInt(PREF_LOCKOUT_BOOT, bootCount) != bootCount) {
+                // Rebooted: the time left is unknown, and the wall clock is the user's to change - serve it again
+                lockedOutUntil = elapsedNow + OfflineCodeVerifier.lockoutFor(failures);
+            }
+            verifier.restoreLockout(failures, lockedOutUntil, elapsedNow);
+            return verifier;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            // Key lost (e.g. keystore reset) - drop the blob so it is fetched again
+            Log.e(TAG, "Offline code material unreadable - discarding", e);
+            prefs.edit().remove(PREF_SECRET).remove(PREF_FETCHED_AT).apply();
+            return null;
+        }
+    }
+
+    public void markUsed(OfflineCodeVerifier.Purpose purpose, long counter) {
+        prefs.edit().putLong(PREF_USED_PREFIX + purpose, counter).apply();
+    }
+
+    /** Persist the verifier's wrong-code state after every attempt (restored by openVerifier). */
+    public void storeLockout(OfflineCodeVerifier verifier, int bootCount) {
+        prefs.edit()
+                .putInt(PREF_FAILURES, verifier.getFailures())
+                .putLong(PREF_LOCKOUT_UNTIL, verifier.getLockedOutUntil())
+                .putInt(PREF_LOCKOUT_BOOT, bootCount)
+                .apply();
+    }
+
+    // ==================== Device credential ====================
+
+    /** One-time token from the provisioning extras, until it is exchanged (POST /:id/enroll). */
+    public void storeEnrollmentToken(String token) throws GeneralSecurityException {
+        if (!prefs.edit().putString(PREF_ENROLLMENT_TOKEN, seal(utf8(token))).commit()) {
+            throw new GeneralSecurityException("LockPrefs commit failed");
+        }
+    }
+
+    public boolean hasEnrollmentToken() {
+        return prefs.contains(PREF_ENROLLMENT_TOKEN);
+    }
+
+    public String getEnrollmentToken() {
+        return readString(PREF_ENROLLMENT_TOKEN);
+    }
+
+    /** Enrolled: the key replaces the token, which the backend has now consumed. */
+    public void storeDeviceKey(String key) throws GeneralSecurityException {
+        if (!prefs.edit().putString(PREF_DEVICE_KEY, seal(utf8(key))).remove(PREF_ENROLLMENT_TOKEN).commit()) {
+            throw new GeneralSecurityException("LockPrefs commit failed");
+        }
+    }
+
+    public void removeEnrollmentToken() {
+        prefs.edit().remove(PREF_ENROLLMENT_TOKEN).apply();
+    }
+
+    /** Sent as X-Device-Key; null before enrollment or if the Keystore key was lost. */
+    public String getDeviceKey() {
+        return readString(PREF_DEVICE_KEY);
+    }
+
+    // ==================== Reset password token ====================
+
+    public void storeResetToken(byte[] token) throws GeneralSecurityException {
+        if (!prefs.edit().putString(PREF_RESET_TOKEN, seal(token)).remove(PREF_RESET_TOKEN_PLAIN).commit()) {
+            throw new GeneralSecurityException("LockPrefs commit failed");
+        }
+    }
+
+    /** The registered token, or null. A plain copy left by older versions is sealed on the way. */
+    public byte[] getResetToken() {
+        String plain = prefs.getString(PREF_RESET_TOKEN_PLAIN, null);
+        if (plain != null && !prefs.contains(PREF_RESET_TOKEN)) {
+            byte[] token = Base64.decode(plain, Base64.NO_WRAP);
+            try {
+                storeResetToken(token);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Reset token not sealed - keeping the plain copy for now", e);
+            }
+            return token;
+        }
+        String stored = prefs.getString(PREF_RESET_TOKEN, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return unseal(stored);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Reset token unreadable - discarding", e);
+            prefs.edit().remove(PREF_RESET_TOKEN).apply();
+            return null;
+        }
+    }
+
+    // ==================== Sealing ====================
+
+    private String seal(byte[] plaintext) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getOrCreateKey());
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] iv = cipher.getIV();
+
+        ByteBuffer sealed = ByteBuffer.allocate(iv.length + ciphertext.length);
+        sealed.put(iv).put(ciphertext);
+        return Base64.encodeToString(sealed.array(), Base64.NO_WRAP);
+    }
+
+    private byte[] unseal(String stored) throws GeneralSecurityException {
+        byte[] sealed = Base64.decode(stored, Base64.NO_WRAP);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getOrCreateKey(), new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+        return cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+    }
+
+    private String readString(String pref) {
+        String stored = prefs.getString(pref, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return new String(unseal(stored), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, pref + " unreadable - discarding", e);
+            prefs.edit().remove(pref).apply();
+            return null;
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private SecretKey getOrCreateKey() throws GeneralSecurityException {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+            if (entry instanceof KeyStore.SecretKeyEntry) {
+                return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            }
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Keystore unavailable", e);
+        }
+
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
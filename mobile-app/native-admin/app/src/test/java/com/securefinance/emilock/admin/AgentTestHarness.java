@@ -0,0 +1,452 @@
+package com.securefinance.emilock.admin;
+
+import android.app.AlarmManager;
+import android.app.Application;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.provider.Settings;
+import androidx.test.core.app.ApplicationProvider;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import org.robolectric.Robolectric;
+import org.robolectric.Shadows;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowAlarmManager;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.time.Duration;
+
+/**
+ * AgentTestHarness - One Simulated Device for the Lock Latency Suite
+ *
+ * Runs the real LockEnforcementService, LockActivity and BootReceiver against
+ * a StandInLockServer under Robolectric, with the clock under test control:
+ * - Agent threads (policy looper, OkHttp, push channel) run for real; device
+ *   time only moves when runUntil() or advance() jump it to the next wakeup -
+ *   a policy looper message, or the Doze poll alarm, delivered to the service
+ *   the way the system would
+ * - Latency = device time jumped while waiting + real time of the final round,
+ *   so a 60 s steady poll costs no wall time but still shows in the numbers
+ * - A round ends when the agent is quiet: policy and main loopers idle and no
+ *   HTTP call in flight (the open push stream aside)
+ * - resetProcess() drops the agent's process-wide singletons; the next service
+ *   start reads its state back from disk, as after a reboot or process kill
+ *
+ * Test thread only.
+ */
+final class AgentTestHarness {
+
+    /** Real time one round of agent work may take before the test gives up. */
+    static final long ROUND_TIMEOUT_MS = 10_000;
+    private static final int MAX_ROUNDS = 10_000;
+
+    /** Process-wide agent state, dropped by resetProcess(). */
+    private static final Class<?>[] SINGLETONS = {
+            AgentExecutors.class, AgentHttpClient.class, AgentState.class,
+            ImagePipeline.class, ProvisioningPipeline.class, ServerEndpoints.class };
+
+    interface Condition {
+        boolean met();
+    }
+
+    private static final Condition NEVER = () -> false;
+
+    final Application app;
+    final StandInLockServer server;
+    private final AlarmManager alarmManager;
+    private final PowerManager powerManager;
+    private final UserManager userManager;
+
+    private ServiceController<LockEnforcementService> service;
+    private ActivityController<LockActivity> lockScreen;
+    private ShadowAlarmManager.ScheduledAlarm nextAlarm; // Set when the next wakeup is the poll alarm
+    private Intent launch; // Last LockActivity launch seen by awaitLockScreen()
+    private int startId;
+    private int bootCount = 1;
+
+    AgentTestHarness(StandInLockServer server) {
+        this.server = server;
+        app = ApplicationProvider.getApplicationContext();
+        alarmManager = (AlarmManager) app.getSystemService(Context.ALARM_SERVICE);
+        powerManager = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+        userManager = (UserManager) app.getSystemService(Context.USER_SERVICE);
+        resetProcess(); // Left over from an earlier test in this sandbox
+        DevicePolicyManager dpm = (DevicePolicyManager) app.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        Shadows.shadowOf(dpm).setDeviceOwner(new ComponentName(app, AdminReceiver.class));
+        Settings.Global.putInt(app.getContentResolver(), Settings.Global.BOOT_COUNT, bootCount);
+    }
+
+    // ==================== Device setup ====================
+
+    /** What ProvisioningPipeline leaves behind, pointed at the stand-in. */
+    void provision(boolean locked) throws IOException {
+        AgentState.saveConfig(app, StandInLockServer.CUSTOMER_ID, server.url(), "Stand-In Finance");
+        AgentStateStore state = AgentState.get(app);
+        state.set(AgentState.DEVICE_LOCKED, locked);
+        state.flush();
+        server.setLocked(locked);
+    }
+
+    /** A LockActivity up and down once, so class loading and resources are not in the first sample. */
+    void warmUp() {
+        Intent intent = new Intent(app, LockActivity.class);
+        ActivityController<LockActivity> controller = Robolectric.buildActivity(LockActivity.class, intent).setup();
+        controller.pause().stop().destroy();
+        Shadows.shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    void startService() {
+        startService(new Intent(app, LockEnforcementService.class));
+    }
+
+    void startService(Intent intent) {
+        service = Robolectric.buildService(LockEnforcementService.class, intent).create().startCommand(0, ++startId);
+        runRound(NEVER);
+    }
+
+    void stopService() {
+        if (service != null) {
+            service.destroy();
+            runRound(NEVER); // Teardown is queued on the policy looper
+            service = null;
+        }
+    }
+
+    /** Intent to the running service, like a startService() from elsewhere in the app. */
+    void deliver(Intent intent) {
+        service.withIntent(intent).startCommand(0, ++startId);
+    }
+
+    /** FCM data message ("forceLock" / "forceUnlock"), as the messaging service hands it on. */
+    void sendFcm(String flag) {
+        deliver(new Intent(app, LockEnforcementService.class).putExtra(flag, true));
+    }
+
+    /** Doze on or off, with the broadcast the platform sends. */
+    void setDeviceIdle(boolean idle) {
+        Shadows.shadowOf(powerManager).setIsDeviceIdleMode(idle);
+        app.sendBroadcast(new Intent(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED));
+        runRound(NEVER);
+    }
+
+    /** Scheduling mode the next poll was planned in. */
+    PollScheduler.Mode pollMode() {
+        PollScheduler scheduler = (PollScheduler) readField(LockEnforcementService.class, service.get(), "scheduler");
+        return scheduler.getCurrentMode();
+    }
+
+    /** Wait in real time for the push stream; polling then backs off to the safety interval. */
+    void awaitPushConnected() {
+        long deadline = System.currentTimeMillis() + ROUND_TIMEOUT_MS;
+        while (server.getOpenStreams() == 0 || pollMode() != PollScheduler.Mode.PUSH_BACKED) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Push channel not connected: " + describe());
+            }
+            Shadows.shadowOf(policyLooper()).idle();
+            sleep(5);
+        }
+        runRound(NEVER);
+    }
+
+    // ==================== Lock screen ====================
+
+    /**
+     * Run until the agent launches LockActivity, then bring it on screen.
+     * @return latency to the lock screen being up, ms
+     */
+    long awaitLockScreen(long maxWaitMs) {
+        long latency = runUntil(() -> (launch = takeLockScreenLaunch()) != null, maxWaitMs);
+        long start = System.nanoTime();
+        lockScreen = Robolectric.buildActivity(LockActivity.class, launch).setup();
+        return latency + millisSince(start);
+    }
+
+    /**
+     * Run until the lock screen closes itself after an unlock.
+     * @return latency to finish(), ms
+     */
+    long awaitUnlock(long maxWaitMs) {
+        if (lockScreen == null) {
+            throw new AssertionError("No lock screen to unlock");
+        }
+        long latency = runUntil(() -> lockScreen.get().isFinishing(), maxWaitMs);
+        closeLockScreen();
+        return latency;
+    }
+
+    boolean isLockScreenUp() {
+        return lockScreen != null && !lockScreen.get().isFinishing() && LockActivity.isShowing();
+    }
+
+    /** Next LockActivity launch recorded since the last call, or null. Other launches are dropped. */
+    Intent takeLockScreenLaunch() {
+        Intent intent;
+        while ((intent = Shadows.shadowOf(app).getNextStartedActivity()) != null) {
+            if (isFor(intent, LockActivity.class)) {
+                return intent;
+            }
+        }
+        return null;
+    }
+
+    /** Bring up a launch taken with takeLockScreenLaunch() (boot path). */
+    void showLockScreen(Intent intent) {
+        lockScreen = Robolectric.buildActivity(LockActivity.class, intent).setup();
+    }
+
+    void closeLockScreen() {
+        if (lockScreen != null) {
+            lockScreen.pause().stop().destroy();
+            lockScreen = null;
+        }
+    }
+
+    // ==================== Reboot ====================
+
+    /**
+     * Power cycle: lock screen and service die with the process, agent
+     * singletons are dropped and the boot count moves on. Nothing is flushed
+     * on the agent's behalf - what it did not persist itself is lost.
+     */
+    void powerCycle() {
+        closeLockScreen();
+        stopService();
+        resetProcess();
+        Settings.Global.putInt(app.getContentResolver(), Settings.Global.BOOT_COUNT, ++bootCount);
+    }
+
+    /** Credential-encrypted storage state: false between LOCKED_BOOT_COMPLETED and the first unlock. */
+    void setUserUnlocked(boolean unlocked) {
+        Shadows.shadowOf(userManager).setUserUnlocked(unlocked);
+    }
+
+    void sendBoot(String action) {
+        new BootReceiver().onReceive(app, new Intent(action));
+    }
+
+    /** Next LockEnforcementService start recorded since the last call, or null. */
+    Intent takeServiceStart() {
+        Intent intent;
+        while ((intent = Shadows.shadowOf(app).getNextStartedService()) != null) {
+            if (isFor(intent, LockEnforcementService.class)) {
+                return intent;
+            }
+        }
+        return null;
+    }
+
+    // ==================== Time ====================
+
+    /**
+     * Run the agent, jumping device time wakeup by wakeup, until the condition
+     * holds or maxWaitMs of device time would pass. 0: the trigger is already
+     * on its way and no wakeup may be needed.
+     * @return device time waited + real time of the round that met it, ms
+     */
+    long runUntil(Condition condition, long maxWaitMs) {
+        if (maxWaitMs == 0) {
+            return awaitInRealTime(condition);
+        }
+        long waited = 0;
+        long roundStart = System.nanoTime();
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            if (runRound(condition)) {
+                return waited + millisSince(roundStart);
+            }
+            long delay = nextWakeupDelay();
+            if (delay < 0 || waited + delay > maxWaitMs) {
+                throw new AssertionError("Not reached after " + waited + "ms of device time, next wakeup in "
+                        + delay + "ms: " + describe());
+            }
+            roundStart = System.nanoTime();
+            jump(delay);
+            waited += delay;
+        }
+        throw new AssertionError("Agent never settled: " + describe());
+    }
+
+    /**
+     * Event already on its way (push frame, FCM intent): no device time passes.
+     * There is no HTTP call to watch, so quiet loopers do not end the wait.
+     */
+    private long awaitInRealTime(Condition condition) {
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + ROUND_TIMEOUT_MS;
+        while (true) {
+            Shadows.shadowOf(policyLooper()).idle();
+            Shadows.shadowOf(Looper.getMainLooper()).idle();
+            if (condition.met()) {
+                return millisSince(start);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Not reached in " + ROUND_TIMEOUT_MS + "ms: " + describe());
+            }
+            sleep(1);
+        }
+    }
+
+    /** Move device time forward by ms, running every wakeup that falls in between. */
+    void advance(long ms) {
+        long remaining = ms;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            runRound(NEVER);
+            long delay = nextWakeupDelay();
+            if (delay < 0 || delay > remaining) {
+                nextAlarm = null;
+                jump(remaining);
+                runRound(NEVER);
+                return;
+            }
+            jump(delay);
+            remaining -= delay;
+        }
+        throw new AssertionError("Agent never settled: " + describe());
+    }
+
+    /**
+     * Let due work run in real time.
+     * @return true as soon as the condition holds, false once the agent is quiet
+     */
+    private boolean runRound(Condition condition) {
+        long deadline = System.currentTimeMillis() + ROUND_TIMEOUT_MS;
+        int quietChecks = 0;
+        while (true) {
+            // Blocks until the policy looper has run everything due, then the UI handoffs
+            Shadows.shadowOf(policyLooper()).idle();
+            Shadows.shadowOf(Looper.getMainLooper()).idle();
+            if (condition.met()) {
+                return true;
+            }
+            // Twice in a row: a response callback may have just posted to the policy looper
+            quietChecks = callsInFlight() == 0 ? quietChecks + 1 : 0;
+            if (quietChecks >= 2) {
+                return false;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Agent still busy after " + ROUND_TIMEOUT_MS + "ms: " + describe());
+            }
+            sleep(1);
+        }
+    }
+
+    /** Device time until the next policy looper message or poll alarm, or -1 if nothing is planned. */
+    private long nextWakeupDelay() {
+        long delay = -1;
+        Duration task = Shadows.shadowOf(policyLooper()).getNextScheduledTaskTime();
+        if (!task.isZero()) {
+            delay = Math.max(0, task.toMillis() - SystemClock.uptimeMillis());
+        }
+        nextAlarm = Shadows.shadowOf(alarmManager).peekNextScheduledAlarm();
+        if (nextAlarm != null) {
+            long alarmDelay = Math.max(0, nextAlarm.triggerAtTime - SystemClock.elapsedRealtime());
+            if (delay < 0 || alarmDelay <= delay) {
+                return alarmDelay;
+            }
+            nextAlarm = null;
+        }
+        return delay;
+    }
+
+    private void jump(long delay) {
+        ShadowAlarmManager.ScheduledAlarm alarm = nextAlarm;
+        nextAlarm = null;
+        Shadows.shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(delay));
+        if (alarm != null) {
+            // What the system does at the window start: fire the PendingIntent, which starts the service
+            alarmManager.cancel(alarm.operation);
+            deliver(new Intent(app, LockEnforcementService.class).setAction(LockEnforcementService.ACTION_POLL));
+        }
+    }
+
+    // ==================== Process ====================
+
+    /** A new agent process: singletons (threads, HTTP client, state store) are rebuilt on next use. */
+    void resetProcess() {
+        AgentExecutors executors = (AgentExecutors) readField(AgentExecutors.class, null, "instance");
+        if (executors != null) {
+            executors.policy().getLooper().quitSafely();
+        }
+        for (Class<?> type : SINGLETONS) {
+            writeField(type, null, "instance", null);
+        }
+        writeField(LockActivity.class, null, "showing", false);
+    }
+
+    /** Tear down whatever a test left running. */
+    void close() {
+        closeLockScreen();
+        stopService();
+        resetProcess();
+    }
+
+    String describe() {
+        return "mode=" + (service != null ? pollMode() : "no service")
+                + " calls=" + callsInFlight()
+                + " streams=" + server.getOpenStreams()
+                + " lockViews=" + server.getRequests(StandInLockServer.Endpoint.LOCK_VIEW)
+                + " serverLocked=" + server.isLocked()
+                + " agentLocked=" + AgentState.get(app).getBoolean(AgentState.DEVICE_LOCKED);
+    }
+
+    // ==================== Helpers ====================
+
+    private static Looper policyLooper() {
+        return AgentExecutors.get().policy().getLooper();
+    }
+
+    /** HTTP calls queued or running, not counting the long-lived push stream. */
+    private static int callsInFlight() {
+        Dispatcher dispatcher = AgentHttpClient.get().dispatcher();
+        int count = dispatcher.queuedCallsCount();
+        for (Call call : dispatcher.runningCalls()) {
+            if (!call.request().url().encodedPath().endsWith("/stream")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isFor(Intent intent, Class<?> component) {
+        return intent.getComponent() != null && component.getName().equals(intent.getComponent().getClassName());
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Interrupted", e);
+        }
+    }
+
+    private static Object readField(Class<?> type, Object target, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No field " + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+    private static void writeField(Class<?> type, Object target, String name, Object value) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No field " + type.getSimpleName() + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.securefinance.emilock.admin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LatencyRecorder - Command-to-Lock Latency Samples and Release Gates
+ *
+ * Collects the time from a dealer action to the lock screen reacting, keyed by
+ * transport, scheduling mode and action ("POLL/STEADY_UNLOCKED/lock"):
+ * - Percentiles are nearest-rank over every sample - exact, not bucketed
+ * - Gate: a p95 ceiling per key. Defaults are the PollScheduler interval of
+ *   the mode plus PROCESSING_SLACK_MS (push, FCM and boot: the slack alone);
+ *   -PlockLatency.gate.TRANSPORT.MODE.action=ms overrides one,
+ *   -PlockLatency.slackMs=ms all defaults
+ * - writeReport() leaves a JSON summary in build/reports/lock-latency/ (or
+ *   -PlockLatency.report=file) so CI can archive and compare releases
+ *
+ * Thread-safe; shared by every test of a run.
+ */
+final class LatencyRecorder {
+
+    enum Transport { POLL, PUSH, FCM, BOOT }
+
+    static final long PROCESSING_SLACK_MS = Long.getLong("lockLatency.slackMs", 1_000);
+    static final String DEFAULT_REPORT = "build/reports/lock-latency/latency.json";
+
+    /** Percentiles of one key, ms. */
+    static final class Summary {
+        final String key;
+        final int count;
+        final long p50;
+        final long p95;
+        final long p99;
+        final long max;
+        final long gateP95;
+
+        Summary(String key, List<Long> sorted, long gateP95) {
+            this.key = key;
+            this.count = sorted.size();
+            this.p50 = percentile(sorted, 50);
+            this.p95 = percentile(sorted, 95);
+            this.p99 = percentile(sorted, 99);
+            this.max = sorted.get(sorted.size() - 1);
+            this.gateP95 = gateP95;
+        }
+
+        boolean passes() {
+            return p95 <= gateP95;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": n=" + count + " p50=" + p50 + "ms p95=" + p95 + "ms p99=" + p99
+                    + "ms max=" + max + "ms (gate p95<=" + gateP95 + "ms)";
+        }
+    }
+
+    private final Map<String, List<Long>> samples = new TreeMap<>();
+
+    synchronized void record(Transport transport, String mode, String action, long latencyMs) {
+        String key = transport + "/" + mode + "/" + action;
+        List<Long> list = samples.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            samples.put(key, list);
+        }
+        list.add(latencyMs);
+    }
+
+    /** Keys of one transport, with their gate verdicts. */
+    synchronized List<Summary> summaries(Transport transport) {
+        List<Summary> out = new ArrayList<>();
+        for (Summary summary : summaries()) {
+            if (summary.key.startsWith(transport + "/")) {
+                out.add(summary);
+            }
+        }
+        return out;
+    }
+
+    synchronized List<Summary> summaries() {
+        List<Summary> out = new ArrayList<>(samples.size());
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            List<Long> sorted = new ArrayList<>(entry.getValue());
+            Collections.sort(sorted);
+            out.add(new Summary(entry.getKey(), sorted, gate(entry.getKey())));
+        }
+        return out;
+    }
+
+    /** Fail with every breached gate of a transport listed. */
+    void assertWithinGates(Transport transport) {
+        StringBuilder failures = new StringBuilder();
+        for (Summary summary : summaries(transport)) {
+            System.out.println("lock latency " + summary);
+            if (!summary.passes()) {
+                failures.append("\n  ").append(summary);
+            }
+        }
+        if (failures.length() > 0) {
+            throw new AssertionError("Lock latency gate exceeded:" + failures);
+        }
+    }
+
+    // ==================== Gates ====================
+
+    static long gate(String key) {
+        Long configured = Long.getLong("lockLatency.gate." + key.replace('/', '.'));
+        return configured != null ? configured : defaultGate(key);
+    }
+
+    /** Worst case wait for the next wakeup of the mode, plus time to act on it. */
+    static long defaultGate(String key) {
+        String[] parts = key.split("/");
+        if (!Transport.POLL.name().equals(parts[0])) {
+            return PROCESSING_SLACK_MS;
+        }
+        switch (PollScheduler.Mode.valueOf(parts[1])) {
+            case BURST:
+                return PollScheduler.BURST_INTERVAL_MS + PROCESSING_SLACK_MS;
+            case STEADY_LOCKED:
+                return PollScheduler.LOCKED_INTERVAL_MS + PROCESSING_SLACK_MS;
+            case STEADY_UNLOCKED:
+                return PollScheduler.UNLOCKED_INTERVAL_MS + PROCESSING_SLACK_MS;
+            case IDLE:
+                return PollScheduler.IDLE_INTERVAL_MS + PollScheduler.IDLE_ALIGN_MS + PROCESSING_SLACK_MS;
+            case PUSH_BACKED:
+                return PollScheduler.PUSH_SAFETY_INTERVAL_MS + PROCESSING_SLACK_MS;
+            default:
+                return PollScheduler.BACKOFF_MAX_MS + PROCESSING_SLACK_MS;
+        }
+    }
+
+    // ==================== Report ====================
+
+    void writeReport() throws IOException {
+        File file = new File(System.getProperty("lockLatency.report", DEFAULT_REPORT));
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"generatedAt\":").append(System.currentTimeMillis())
+                .append(",\"slackMs\":").append(PROCESSING_SLACK_MS).append(",\"results\":[");
+        List<Summary> summaries = summaries();
+        for (int i = 0; i < summaries.size(); i++) {
+            Summary summary = summaries.get(i);
+            String[] parts = summary.key.split("/");
+            json.append(i > 0 ? "," : "")
+                    .append("{\"transport\":\"").append(parts[0])
+                    .append("\",\"mode\":\"").append(parts[1])
+                    .append("\",\"action\":\"").append(parts[2])
+                    .append("\",\"count\":").append(summary.count)
+                    .append(",\"p50\":").append(summary.p50)
+                    .append(",\"p95\":").append(summary.p95)
+                    .append(",\"p99\":").append(summary.p99)
+                    .append(",\"max\":").append(summary.max)
+                    .append(",\"gateP95\":").append(summary.gateP95)
+                    .append(",\"pass\":").append(summary.passes()).append('}');
+        }
+        json.append("]}\n");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        System.out.println("lock latency report: " + file.getAbsolutePath());
+    }
+
+    static long percentile(List<Long> sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
@@ -0,0 +1,252 @@
+package com.securefinance.emilock.admin;
+
+import android.content.Intent;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * LockLatencyTest - Command-to-Lock Latency and Correctness, End to End
+ *
+ * Dealer lock/unlock on a local stand-in backend, through the real agent
+ * (LockEnforcementService, LockActivity, BootReceiver), until the lock screen
+ * is up or has closed itself - for every transport:
+ * - POLL: conditional lock view GET, in each scheduling mode the device can
+ *   be in (BURST, STEADY_LOCKED / STEADY_UNLOCKED, IDLE under Doze)
+ * - PUSH: SSE state event on the open stream
+ * - FCM: forceLock / forceUnlock intent extras
+ * - BOOT: lock screen from LOCKED_BOOT_COMPLETED after a power cycle
+ *
+ * Dealer actions land at a random point of the poll cycle, so POLL numbers
+ * spread over the whole interval as they do in the field. Every sample goes
+ * to LatencyRecorder; each test fails if its transport breaks a p95 gate.
+ *
+ *   ./gradlew :app:testDebugUnitTest --tests '*LockLatencyTest'
+ *   ./gradlew :app:testDebugUnitTest --tests '*LockLatencyTest' -PlockLatency.iterations=200
+ *   ./gradlew :app:testDebugUnitTest -PlockLatency.gate.PUSH.PUSH_BACKED.lock=500
+ *
+ * Report: app/build/reports/lock-latency/latency.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class LockLatencyTest {
+
+    private static final int ITERATIONS = Integer.getInteger("lockLatency.iterations", 20);
+    private static final long SEED = Long.getLong("lockLatency.seed", 20231013L);
+
+    // Longest device time a single transition may take before the scenario fails outright
+    private static final long MAX_POLL_WAIT_MS = PollScheduler.IDLE_INTERVAL_MS + 2 * PollScheduler.IDLE_ALIGN_MS;
+    private static final long NO_WAKEUP = 0; // Push, FCM: the change is already on its way
+
+    private static final LatencyRecorder recorder = new LatencyRecorder();
+
+    private final Random random = new Random(SEED);
+    private StandInLockServer server;
+    private AgentTestHarness device;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInLockServer(false);
+    }
+
+    @After
+    public void tearDown() {
+        if (device != null) {
+            device.close();
+        }
+        server.close();
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        recorder.writeReport();
+    }
+
+    // ==================== Poll ====================
+
+    @Test
+    public void pollLocksAndUnlocksInBurst() throws IOException {
+        startDevice(false);
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Every transition opens a burst window - the next dealer action lands inside it
+            pollLock(PollScheduler.BURST_INTERVAL_MS);
+            pollUnlock(PollScheduler.BURST_INTERVAL_MS);
+        }
+        recorder.assertWithinGates(LatencyRecorder.Transport.POLL);
+    }
+
+    @Test
+    public void pollLocksAndUnlocksInSteadyCadence() throws IOException {
+        startDevice(false);
+        for (int i = 0; i < ITERATIONS; i++) {
+            device.advance(PollScheduler.BURST_WINDOW_MS + PollScheduler.BURST_INTERVAL_MS);
+            Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, device.pollMode());
+            pollLock(PollScheduler.UNLOCKED_INTERVAL_MS);
+
+            device.advance(PollScheduler.BURST_WINDOW_MS + PollScheduler.BURST_INTERVAL_MS);
+            Assert.assertEquals(PollScheduler.Mode.STEADY_LOCKED, device.pollMode());
+            pollUnlock(PollScheduler.LOCKED_INTERVAL_MS);
+        }
+        recorder.assertWithinGates(LatencyRecorder.Transport.POLL);
+    }
+
+    @Test
+    public void pollLocksAndUnlocksUnderDoze() throws IOException {
+        startDevice(false);
+        device.setDeviceIdle(true);
+        for (int i = 0; i < ITERATIONS; i++) {
+            Assert.assertEquals(PollScheduler.Mode.IDLE, device.pollMode());
+            pollLock(PollScheduler.IDLE_INTERVAL_MS);
+            pollUnlock(PollScheduler.IDLE_INTERVAL_MS);
+        }
+        device.setDeviceIdle(false);
+        recorder.assertWithinGates(LatencyRecorder.Transport.POLL);
+    }
+
+    @Test
+    public void unchangedStatusNeitherRelaunchesNorRefetches() throws IOException {
+        startDevice(false);
+        pollLock(PollScheduler.BURST_INTERVAL_MS);
+        int notModified = server.getNotModified();
+
+        // Burst and steady polls while nothing changes: bodiless 304s, the lock screen stays as it is
+        device.advance(PollScheduler.BURST_WINDOW_MS + 4 * PollScheduler.LOCKED_INTERVAL_MS);
+        Assert.assertNull("Lock screen relaunched while up", device.takeLockScreenLaunch());
+        Assert.assertTrue("Lock screen went away", device.isLockScreenUp());
+        Assert.assertTrue("No conditional polls", server.getNotModified() > notModified);
+    }
+
+    // ==================== Push ====================
+
+    @Test
+    public void pushLocksAndUnlocks() throws IOException {
+        server.setPushEnabled(true);
+        startDevice(false);
+        device.awaitPushConnected();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String mode = device.pollMode().name();
+            server.setLocked(true);
+            long lockMs = device.awaitLockScreen(NO_WAKEUP);
+            recorder.record(LatencyRecorder.Transport.PUSH, mode, "lock", lockMs);
+
+            mode = device.pollMode().name();
+            server.setLocked(false);
+            long unlockMs = device.awaitUnlock(NO_WAKEUP);
+            recorder.record(LatencyRecorder.Transport.PUSH, mode, "unlock", unlockMs);
+        }
+        Assert.assertEquals("Push made polling redundant", PollScheduler.Mode.PUSH_BACKED, device.pollMode());
+        recorder.assertWithinGates(LatencyRecorder.Transport.PUSH);
+    }
+
+    // ==================== FCM ====================
+
+    @Test
+    public void fcmForceLocksAndUnlocks() throws IOException {
+        startDevice(false);
+        for (int i = 0; i < ITERATIONS; i++) {
+            // The backend records the state before it sends the message - later polls agree
+            String mode = device.pollMode().name();
+            server.setLocked(true);
+            device.sendFcm("forceLock");
+            long lockMs = device.awaitLockScreen(NO_WAKEUP);
+            recorder.record(LatencyRecorder.Transport.FCM, mode, "lock", lockMs);
+            device.advance(random.nextInt((int) PollScheduler.BURST_WINDOW_MS));
+            Assert.assertTrue("Poll undid the FCM lock", device.isLockScreenUp());
+
+            mode = device.pollMode().name();
+            server.setLocked(false);
+            device.sendFcm("forceUnlock");
+            long unlockMs = device.awaitUnlock(NO_WAKEUP);
+            recorder.record(LatencyRecorder.Transport.FCM, mode, "unlock", unlockMs);
+            device.advance(random.nextInt((int) PollScheduler.BURST_WINDOW_MS));
+            Assert.assertNull("Poll undid the FCM unlock", device.takeLockScreenLaunch());
+        }
+        recorder.assertWithinGates(LatencyRecorder.Transport.FCM);
+    }
+
+    // ==================== Reboot ====================
+
+    @Test
+    public void rebootWhileLockedComesBackLocked() throws IOException {
+        startDevice(false);
+        pollLock(PollScheduler.BURST_INTERVAL_MS);
+        for (int i = 0; i < ITERATIONS; i++) {
+            device.powerCycle();
+
+            // Direct boot: lock screen from device-protected state, before the user unlocks the keyguard
+            device.setUserUnlocked(false);
+            long start = System.nanoTime();
+            device.sendBoot(Intent.ACTION_LOCKED_BOOT_COMPLETED);
+            Intent launch = device.takeLockScreenLaunch();
+            Assert.assertNotNull("No lock screen on locked boot", launch);
+            device.showLockScreen(launch);
+            long lockMs = (System.nanoTime() - start) / 1_000_000;
+            recorder.record(LatencyRecorder.Transport.BOOT, "DIRECT_BOOT", "lock", lockMs);
+            Assert.assertNull("Service started before credential storage", device.takeServiceStart());
+
+            // First unlock: the service comes back and finds the lock screen already up
+            device.setUserUnlocked(true);
+            device.sendBoot(Intent.ACTION_BOOT_COMPLETED);
+            Assert.assertNull("Lock screen launched twice", device.takeLockScreenLaunch());
+            Intent serviceStart = device.takeServiceStart();
+            Assert.assertNotNull("Service not restarted on boot", serviceStart);
+            device.startService(serviceStart);
+            device.advance(PollScheduler.LOCKED_INTERVAL_MS);
+            Assert.assertNull("Lock screen relaunched after boot", device.takeLockScreenLaunch());
+            Assert.assertTrue("Lock screen went away after boot", device.isLockScreenUp());
+        }
+        // And the dealer can still unlock the rebooted device
+        pollUnlock(PollScheduler.LOCKED_INTERVAL_MS);
+        recorder.assertWithinGates(LatencyRecorder.Transport.BOOT);
+    }
+
+    @Test
+    public void rebootWhileUnlockedStaysUnlocked() throws IOException {
+        startDevice(false);
+        device.powerCycle();
+
+        device.setUserUnlocked(false);
+        device.sendBoot(Intent.ACTION_LOCKED_BOOT_COMPLETED);
+        device.setUserUnlocked(true);
+        device.sendBoot(Intent.ACTION_BOOT_COMPLETED);
+        Intent serviceStart = device.takeServiceStart();
+        Assert.assertNotNull("Service not restarted on boot", serviceStart);
+        device.startService(serviceStart);
+        device.advance(PollScheduler.UNLOCKED_INTERVAL_MS);
+        Assert.assertNull("Lock screen on an unlocked device", device.takeLockScreenLaunch());
+    }
+
+    // ==================== Helpers ====================
+
+    private void startDevice(boolean locked) throws IOException {
+        device = new AgentTestHarness(server);
+        device.warmUp();
+        device.provision(locked);
+        device.startService();
+    }
+
+    /** Dealer locks at a random point of the current poll cycle; measured to the lock screen being up. */
+    private void pollLock(long cycleMs) {
+        device.advance(random.nextInt((int) cycleMs));
+        String mode = device.pollMode().name();
+        server.setLocked(true);
+        long latency = device.awaitLockScreen(MAX_POLL_WAIT_MS);
+        recorder.record(LatencyRecorder.Transport.POLL, mode, "lock", latency);
+    }
+
+    /** Dealer unlocks at a random point of the current poll cycle; measured to the lock screen closing. */
+    private void pollUnlock(long cycleMs) {
+        device.advance(random.nextInt((int) cycleMs));
+        String mode = device.pollMode().name();
+        server.setLocked(false);
+        long latency = device.awaitUnlock(MAX_POLL_WAIT_MS);
+        recorder.record(LatencyRecorder.Transport.POLL, mode, "unlock", latency);
+    }
+}
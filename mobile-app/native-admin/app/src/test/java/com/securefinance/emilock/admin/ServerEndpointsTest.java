@@ -0,0 +1,271 @@
+package com.securefinance.emilock.admin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerEndpointsTest - Exactly One Outcome per Exchange
+ *
+ * ServerEndpoints.enqueue() may send a request to several endpoints - failover
+ * after a 5xx or I/O error, a hedged copy once the primary is past its budget -
+ * but the caller must hear exactly once:
+ * - the first good answer wins; calls still out are cancelled and their
+ *   cancellation is never reported
+ * - when every endpoint answers badly, the last 5xx; with no answer at all,
+ *   the last I/O error
+ * - a failed hedge does not end the exchange while the primary is still out
+ *
+ * Real HTTP on 127.0.0.1; device time (the hedge timer) moves through the
+ * AgentTestHarness.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class ServerEndpointsTest {
+
+    private static final String PATH = "/api/customers/" + StandInLockServer.CUSTOMER_ID + "?view=lock";
+    // Long enough for a second callback that should not come
+    private static final long QUIET_MS = 500;
+
+    private final BlockingQueue<String> outcomes = new LinkedBlockingQueue<>();
+    private final Callback recorder = new Callback() {
+        @Override
+        public void onFailure(Call call, IOException e) {
+            outcomes.add("failure");
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try (Response r = response) {
+                outcomes.add("HTTP " + r.code());
+            }
+        }
+    };
+
+    private StandInLockServer healthy;
+    private AgentTestHarness device;
+    private OkHttpClient client;
+    private ScriptedEndpoint scripted;
+    private ScriptedEndpoint scripted2;
+
+    @Before
+    public void setUp() throws IOException {
+        healthy = new StandInLockServer(false);
+        device = new AgentTestHarness(healthy);
+        client = new OkHttpClient.Builder()
+                .readTimeout(AgentTestHarness.ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        for (ScriptedEndpoint endpoint : new ScriptedEndpoint[] { scripted, scripted2 }) {
+            if (endpoint != null) {
+                endpoint.close();
+            }
+        }
+        device.close();
+        healthy.close();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    // ==================== Failover ====================
+
+    @Test
+    public void serverErrorFailsOverToTheNextEndpoint() throws Exception {
+        scripted = new ScriptedEndpoint(503);
+        configure(scripted.url(), healthy.url());
+
+        enqueue(false);
+
+        assertOnlyOutcome("HTTP 200");
+        Assert.assertEquals(1, scripted.requests.get());
+        Assert.assertEquals(1, healthy.getRequests(StandInLockServer.Endpoint.LOCK_VIEW));
+    }
+
+    @Test
+    public void everyEndpointBadReportsTheLastServerError() throws Exception {
+        scripted = new ScriptedEndpoint(503);
+        scripted2 = new ScriptedEndpoint(502);
+        configure(scripted.url(), scripted2.url());
+
+        enqueue(false);
+
+        assertOnlyOutcome("HTTP 502");
+    }
+
+    @Test
+    public void noEndpointAnsweringReportsOneFailure() throws Exception {
+        configure(closedPortUrl(), closedPortUrl());
+
+        enqueue(false);
+
+        assertOnlyOutcome("failure");
+    }
+
+    @Test
+    public void clientErrorIsAnAnswerNotAFailover() throws Exception {
+        scripted = new ScriptedEndpoint(404);
+        configure(scripted.url(), healthy.url());
+
+        enqueue(false);
+
+        assertOnlyOutcome("HTTP 404");
+        Assert.assertEquals(0, healthy.getRequests(StandInLockServer.Endpoint.LOCK_VIEW));
+    }
+
+    // ==================== Hedge and cancel ====================
+
+    @Test
+    public void hedgeWinsAndTheCancelledPrimaryIsNeverReported() throws Exception {
+        scripted = new ScriptedEndpoint(200);
+        scripted.hold();
+        configure(scripted.url(), healthy.url());
+
+        enqueue(true);
+        scripted.awaitRequest();
+        Assert.assertNull("Answered before the hedge", outcomes.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+        device.advance(EndpointSelector.HEDGE_MAX_MS); // No samples yet: the hedge waits the maximum
+
+        assertOnlyOutcome("HTTP 200");
+        Assert.assertEquals(1, healthy.getRequests(StandInLockServer.Endpoint.LOCK_VIEW));
+        scripted.release(); // The primary answers after all - too late to count
+        Assert.assertNull("Second outcome", outcomes.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedHedgeWaitsForThePrimary() throws Exception {
+        scripted = new ScriptedEndpoint(200);
+        scripted.hold();
+        scripted2 = new ScriptedEndpoint(503);
+        configure(scripted.url(), scripted2.url());
+
+        enqueue(true);
+        scripted.awaitRequest();
+        device.advance(EndpointSelector.HEDGE_MAX_MS);
+        scripted2.awaitRequest();
+        Assert.assertNull("Gave up with the primary still out", outcomes.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+
+        scripted.release();
+        assertOnlyOutcome("HTTP 200");
+    }
+
+    @Test
+    public void answerBeforeTheBudgetCancelsTheHedge() throws Exception {
+        configure(healthy.url(), closedPortUrl());
+
+        enqueue(true);
+        assertOnlyOutcome("HTTP 200");
+
+        device.advance(EndpointSelector.HEDGE_MAX_MS); // The timer was removed - nothing else is sent
+        Assert.assertNull("Second outcome", outcomes.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // ==================== Helpers ====================
+
+    private void configure(String... urls) {
+        AgentState.get(device.app).set(AgentState.SERVER_URL, String.join(",", urls));
+    }
+
+    private void enqueue(boolean hedge) {
+        ServerEndpoints.get(device.app).enqueue(client,
+                baseUrl -> new Request.Builder().url(baseUrl + PATH).build(), hedge, recorder);
+    }
+
+    private void assertOnlyOutcome(String expected) throws InterruptedException {
+        Assert.assertEquals(expected, outcomes.poll(AgentTestHarness.ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertNull("Second outcome", outcomes.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /** A port nothing listens on: connection refused at once. */
+    private static String closedPortUrl() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://127.0.0.1:" + socket.getLocalPort();
+        }
+    }
+
+    /** A backend that answers every request with one status, optionally holding it until released. */
+    private static final class ScriptedEndpoint {
+        final AtomicInteger requests = new AtomicInteger();
+        private final int status;
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CountDownLatch received = new CountDownLatch(1);
+        private volatile boolean held;
+
+        ScriptedEndpoint(int status) throws IOException {
+            this.status = status;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void hold() {
+            held = true;
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        void awaitRequest() throws InterruptedException {
+            Assert.assertTrue("No request reached " + url(),
+                    received.await(AgentTestHarness.ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                received.countDown();
+                if (held) {
+                    released.await(AgentTestHarness.ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The agent cancelled the call and closed the connection
+            } finally {
+                exchange.close();
+            }
+        }
+
+        void close() {
+            release();
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.securefinance.emilock.admin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * StandInLockServer - Local HTTP Stand-In for the Device Endpoints
+ *
+ * A real HTTP server on 127.0.0.1 answering what backend/routes/customerRoutes.js
+ * answers for the Admin DPC, so the agent under test goes through its own
+ * OkHttp client, connection pool and decoders:
+ * - GET /api/customers/:id?view=lock - compact or full view, strong ETag, bodiless 304
+ * - GET /api/customers/:id/stream - SSE (pushHub): a state event on every change
+ *   and ": ping" heartbeats; 404 while push is off, like a server without pushHub
+ * - GET /api/customers/:id/offline-material - no offline code material
+ * - Anything else (telemetry, command, acks, security events) - 200 {}
+ *
+ * The dealer side is setLocked(). Built on the JDK server rather than a
+ * scripted mock: a push stream has to stay open and be written to as events
+ * happen.
+ */
+final class StandInLockServer {
+
+    enum Endpoint { LOCK_VIEW, STREAM, TOKENS, OTHER }
+
+    static final String CUSTOMER_ID = "CUST-LATENCY";
+
+    private static final String LOCK_MESSAGE = "This device has been locked due to payment overdue.";
+    private static final String SUPPORT_PHONE = "8876655444";
+    private static final String PING_FRAME = ": ping\n\n";
+    // Compared by identity - tells a stream handler to end the response
+    private static final String END_OF_STREAM = new String("end");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<BlockingQueue<String>> streams = new CopyOnWriteArrayList<>();
+    private final AtomicIntegerArray requests = new AtomicIntegerArray(Endpoint.values().length);
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile boolean pushEnabled;
+
+    // Guarded by this
+    private boolean locked;
+    private long version; // Bumped on every change: ETag and SSE event id
+
+    StandInLockServer(boolean pushEnabled) throws IOException {
+        this.pushEnabled = pushEnabled;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Open streams hold their thread - the pool grows with them
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stand-in-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // ==================== Dealer side ====================
+
+    /** Lock or unlock the customer; open streams get the new state at once. */
+    void setLocked(boolean value) {
+        synchronized (this) {
+            if (locked == value) {
+                return;
+            }
+            locked = value;
+            version++;
+            String frame = stateFrame();
+            for (BlockingQueue<String> stream : streams) {
+                stream.add(frame);
+            }
+        }
+    }
+
+    synchronized boolean isLocked() {
+        return locked;
+    }
+
+    /** Push on or off for the next stream connect; open streams are ended. */
+    void setPushEnabled(boolean enabled) {
+        pushEnabled = enabled;
+        if (!enabled) {
+            endStreams();
+        }
+    }
+
+    int getRequests(Endpoint endpoint) {
+        return requests.get(endpoint.ordinal());
+    }
+
+    int getNotModified() {
+        return notModified.get();
+    }
+
+    int getOpenStreams() {
+        return streams.size();
+    }
+
+    void close() {
+        endStreams();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void endStreams() {
+        for (BlockingQueue<String> stream : streams) {
+            stream.add(END_OF_STREAM);
+        }
+    }
+
+    // ==================== Device endpoints ====================
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            drain(exchange.getRequestBody());
+            String path = exchange.getRequestURI().getPath();
+            String prefix = "/api/customers/" + CUSTOMER_ID;
+            if (path.equals(prefix) && "view=lock".equals(exchange.getRequestURI().getQuery())) {
+                count(Endpoint.LOCK_VIEW);
+                lockView(exchange);
+            } else if (path.equals(prefix + "/stream")) {
+                count(Endpoint.STREAM);
+                stream(exchange);
+            } else if (path.equals(prefix + "/offline-material")) {
+                count(Endpoint.TOKENS);
+                send(exchange, 200, "{\"offlineCode\":null}");
+            } else {
+                count(Endpoint.OTHER);
+                send(exchange, 200, "{}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void lockView(HttpExchange exchange) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean compact = accept != null && accept.contains(LockStatusDecoder.COMPACT_MEDIA_TYPE);
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String etag;
+        String body;
+        synchronized (this) {
+            etag = "\"v" + version + "\"";
+            body = etag.equals(ifNoneMatch) ? null : compact ? compactView() : fullView();
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (body == null) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type",
+                compact ? LockStatusDecoder.COMPACT_MEDIA_TYPE : "application/json");
+        send(exchange, 200, body);
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        if (!pushEnabled) {
+            send(exchange, 404, "{\"error\":\"Push not available\"}");
+            return;
+        }
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        // Subscribed before the headers go out, so no change falls between
+        streams.add(queue);
+        try {
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            synchronized (this) {
+                // Resume: a client behind on events gets the current state at once
+                if (lastEventId != null && !lastEventId.equals(String.valueOf(version))) {
+                    queue.add(stateFrame());
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            write(out, PING_FRAME);
+            while (true) {
+                String frame = queue.poll(PushChannel.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (frame == END_OF_STREAM) {
+                    return;
+                }
+                write(out, frame != null ? frame : PING_FRAME);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Agent went away (service destroyed, push channel stopped)
+        } finally {
+            streams.remove(queue);
+        }
+    }
+
+    // ==================== Payloads ====================
+
+    private String compactView() {
+        return "{\"l\":" + (locked ? 1 : 0) + ",\"m\":\"" + LOCK_MESSAGE + "\",\"p\":\"" + SUPPORT_PHONE + "\"}";
+    }
+
+    private String fullView() {
+        return "{\"id\":\"" + CUSTOMER_ID + "\",\"isLocked\":" + locked
+                + ",\"lockMessage\":\"" + LOCK_MESSAGE + "\",\"supportPhone\":\"" + SUPPORT_PHONE + "\""
+                + ",\"command\":null}";
+    }
+
+    private String stateFrame() {
+        return "id: " + version + "\nevent: state\ndata: " + fullView() + "\n\n";
+    }
+
+    // ==================== Helpers ====================
+
+    private void count(Endpoint endpoint) {
+        requests.incrementAndGet(endpoint.ordinal());
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void write(OutputStream out, String frame) throws IOException {
+        out.write(frame.getBytes(StandardCharsets.UTF_8));
+        out.flush(); // One chunk per frame - the agent reads line by line
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Request bodies (telemetry, acks) are not inspected
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.securefinance.emilock.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * LockStateMachineBenchmark - Observation Handling
+ *
+ * Every poll, push event and command goes through onObserved(). Measures the
+ * common no-change path and a flip (new Transition) path.
+ */
+@State(Scope.Thread)
+public class LockStateMachineBenchmark {
+
+    private final LockStateMachine machine = new LockStateMachine(true);
+    private boolean flip;
+
+    @Benchmark
+    public LockStateMachine.Transition unchangedPoll() {
+        return machine.onObserved(LockStateMachine.Source.POLL, machine.isLocked(), machine.getVersion());
+    }
+
+    @Benchmark
+    public LockStateMachine.Transition flipByCommand() {
+        flip = !flip;
+        return machine.onObserved(LockStateMachine.Source.COMMAND, flip, LockStateMachine.AUTHORITATIVE);
+    }
+
+    @Benchmark
+    public LockStateMachine.Transition staleDropped() {
+        // Observed before the current version - dropped without a transition
+        return machine.onObserved(LockStateMachine.Source.POLL, !machine.isLocked(), machine.getVersion() - 1);
+    }
+}
@@ -0,0 +1,67 @@
+package com.securefinance.emilock.admin;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LockStatusDecoderBenchmark - Status Payload Decoding
+ *
+ * One decode per poll and per push event. Compares the streaming decoder on
+ * the full and compact lock views (and a command body with params) against
+ * the org.json String + JSONObject path it replaced. Allocation per op
+ * (gc.alloc.rate.norm) is the number to watch: the streaming path should
+ * stay in the hundreds of bytes.
+ */
+@State(Scope.Thread)
+public class LockStatusDecoderBenchmark {
+
+    static final byte[] FULL_VIEW = ("{\"id\":\"CUST-1042\",\"isLocked\":true,"
+            + "\"lockMessage\":\"This device has been locked due to payment overdue.\","
+            + "\"supportPhone\":\"8876655444\","
+            + "\"command\":{\"command\":\"lock\",\"timestamp\":\"2026-03-14T09:26:53.589Z\"}}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] COMPACT_VIEW = ("{\"l\":1,\"m\":\"This device has been locked due to payment overdue.\","
+            + "\"p\":\"8876655444\",\"c\":{\"n\":\"lock\",\"t\":1773480413589}}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    static final byte[] COMMAND_WITH_PARAMS = ("{\"command\":{\"command\":\"setWallpaper\","
+            + "\"params\":{\"wallpaperUrl\":\"https://cdn.example.com/wallpapers/lender-2026.jpg\",\"fit\":\"crop\"},"
+            + "\"timestamp\":\"2026-03-14T09:26:53.589Z\"}}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final LockStatusDecoder decoder = new LockStatusDecoder();
+    private final LockStatus status = new LockStatus();
+
+    @Benchmark
+    public LockStatus streamFullView() throws IOException {
+        return decoder.decode(FULL_VIEW, status);
+    }
+
+    @Benchmark
+    public LockStatus streamCompactView() throws IOException {
+        return decoder.decode(COMPACT_VIEW, status);
+    }
+
+    @Benchmark
+    public LockStatus streamCommandWithParams() throws IOException {
+        return decoder.decode(COMMAND_WITH_PARAMS, status);
+    }
+
+    @Benchmark
+    public boolean orgJsonFullView() {
+        JSONObject json = new JSONObject(new String(FULL_VIEW, StandardCharsets.UTF_8));
+        json.optString("lockMessage");
+        json.optString("supportPhone");
+        JSONObject command = json.optJSONObject("command");
+        if (command != null) {
+            command.optString("command");
+            command.optString("timestamp");
+        }
+        return json.optBoolean("isLocked");
+    }
+}
@@ -0,0 +1,55 @@
+package com.securefinance.emilock.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import java.security.GeneralSecurityException;
+
+/**
+ * OfflineCodeVerifierBenchmark - Field Code Checks
+ *
+ * - keypress: a code checked inside an already computed window (the common case)
+ * - windowRoll: every check lands in a new period, recomputing the window
+ *   (6 HMAC-SHA256 evaluations)
+ * - codeAt: one HMAC + truncation
+ * The keypad lockout is sidestepped by advancing elapsed time past it.
+ */
+@State(Scope.Thread)
+public class OfflineCodeVerifierBenchmark {
+
+    private static final long PERIOD_SECONDS = 300;
+    private static final long LOCKOUT_SKIP_MS = OfflineCodeVerifier.LOCKOUT_MAX_MS + 1;
+
+    private OfflineCodeVerifier verifier;
+    private long wallClockMs = 1_773_480_413_589L;
+    private long elapsed;
+    private long counter = 5_911_601L;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        byte[] secret = new byte[32];
+        for (int i = 0; i < secret.length; i++) {
+            secret[i] = (byte) (i * 31 + 7);
+        }
+        verifier = new OfflineCodeVerifier(secret, PERIOD_SECONDS, 8);
+    }
+
+    @Benchmark
+    public long keypress() {
+        elapsed += LOCKOUT_SKIP_MS;
+        return verifier.verify(OfflineCodeVerifier.Purpose.UNLOCK, 12_345_678, wallClockMs, elapsed);
+    }
+
+    @Benchmark
+    public long windowRoll() {
+        elapsed += LOCKOUT_SKIP_MS;
+        wallClockMs += PERIOD_SECONDS * 1000;
+        return verifier.verify(OfflineCodeVerifier.Purpose.UNLOCK, 12_345_678, wallClockMs, elapsed);
+    }
+
+    @Benchmark
+    public int codeAt() {
+        return verifier.codeAt(OfflineCodeVerifier.Purpose.LOCK, counter++);
+    }
+}
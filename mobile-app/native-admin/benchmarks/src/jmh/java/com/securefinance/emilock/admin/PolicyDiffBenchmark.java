@@ -0,0 +1,45 @@
+package com.securefinance.emilock.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PolicyDiffBenchmark - Desired vs Applied Policy
+ *
+ * PolicyReconciler diffs on every enforcement tick. The converged case
+ * (nothing to do) is the steady state and should not allocate; the full
+ * diff is what a fresh boot or an invalidate() costs.
+ */
+@State(Scope.Thread)
+public class PolicyDiffBenchmark {
+
+    // PolicyReconciler.desiredFor(true, ...) with UserManager's key values, plus
+    // the extra restrictions an applyRestrictions command typically adds
+    private static final Set<String> RESTRICTIONS = new HashSet<>(Arrays.asList(
+            "no_factory_reset", "no_safe_boot", "no_uninstall_apps", "no_add_user",
+            "no_debugging_features", "no_install_unknown_sources", "no_usb_file_transfer",
+            "no_config_date_time"));
+
+    private final PolicyState desired = new PolicyState(
+            new String[] { "com.securefinance.emilock.admin" },
+            true, true, RESTRICTIONS, true);
+    private final PolicyState converged = new PolicyState(
+            new String[] { "com.securefinance.emilock.admin" },
+            true, true, RESTRICTIONS, true);
+    private final PolicyState unknown = PolicyState.unknown();
+
+    @Benchmark
+    public List<PolicyDiff.Op> converged() {
+        return PolicyDiff.compute(desired, converged);
+    }
+
+    @Benchmark
+    public List<PolicyDiff.Op> fromUnknown() {
+        return PolicyDiff.compute(desired, unknown);
+    }
+}
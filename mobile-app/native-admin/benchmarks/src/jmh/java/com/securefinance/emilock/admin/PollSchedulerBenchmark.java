@@ -0,0 +1,37 @@
+package com.securefinance.emilock.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import java.util.Random;
+
+/**
+ * PollSchedulerBenchmark - Scheduling Decisions
+ *
+ * One nextDelay() per poll, plus the bookkeeping of a poll outcome. Covers
+ * the steady path and the jittered backoff path.
+ */
+@State(Scope.Thread)
+public class PollSchedulerBenchmark {
+
+    private final PollScheduler steady = new PollScheduler(new Random(42));
+    private final PollScheduler failing = new PollScheduler(new Random(42));
+    private long now = 1_000_000L;
+
+    @Benchmark
+    public long steadyPoll() {
+        now += PollScheduler.LOCKED_INTERVAL_MS;
+        steady.onPollSuccess(true, now);
+        return steady.nextDelay(now);
+    }
+
+    @Benchmark
+    public long backoffPoll() {
+        now += 1_000L;
+        if (failing.getConsecutiveFailures() > 8) {
+            failing.onPollSuccess(false, now);
+        }
+        failing.onPollFailure();
+        return failing.nextDelay(now);
+    }
+}
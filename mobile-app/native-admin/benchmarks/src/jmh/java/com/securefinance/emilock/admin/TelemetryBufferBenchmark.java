@@ -0,0 +1,39 @@
+package com.securefinance.emilock.admin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * TelemetryBufferBenchmark - Sample Recording
+ *
+ * Coalesced records (unchanged state) are the steady case; changing state
+ * appends and eventually overwrites the oldest slot. Neither should allocate.
+ */
+@State(Scope.Thread)
+public class TelemetryBufferBenchmark {
+
+    private final TelemetryBuffer buffer = new TelemetryBuffer(288);
+    private final TelemetryBuffer.Sample sample = new TelemetryBuffer.Sample();
+    private long now = 1_773_480_413_589L;
+
+    {
+        sample.network = "cellular";
+        sample.batteryLevel = 64;
+        sample.storageFreeMb = 20_480;
+        sample.locked = true;
+    }
+
+    @Benchmark
+    public boolean coalesced() {
+        now += 300_000;
+        return buffer.record(sample, now);
+    }
+
+    @Benchmark
+    public boolean changedState() {
+        now += 300_000;
+        sample.charging = !sample.charging;
+        return buffer.record(sample, now);
+    }
+}
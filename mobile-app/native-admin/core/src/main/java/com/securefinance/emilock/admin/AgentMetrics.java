@@ -0,0 +1,53 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * AgentMetrics - The Agent's Metric Handles
+ *
+ * One place for every metric name, resolved once so hot paths never touch
+ * the registry map. Names are stable: fleet dashboards key on them.
+ * Units are in the name (_ms, _us).
+ */
+public final class AgentMetrics {
+
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.get();
+
+    // Status polling
+    public static final MetricsRegistry.Histogram POLL_RTT_MS = REGISTRY.histogram("poll.rtt_ms");
+    public static final MetricsRegistry.Counter POLL_OK = REGISTRY.counter("poll.ok");
+    public static final MetricsRegistry.Counter POLL_NOT_MODIFIED = REGISTRY.counter("poll.not_modified");
+    public static final MetricsRegistry.Counter POLL_FAILURES = REGISTRY.counter("poll.failures");
+    public static final MetricsRegistry.Counter POLL_HEDGED = REGISTRY.counter("poll.hedged");
+    public static final MetricsRegistry.Counter POLL_HEDGE_WINS = REGISTRY.counter("poll.hedge_wins");
+
+    // Backend endpoints (EndpointSelector)
+    public static final MetricsRegistry.Counter ENDPOINT_FAILOVERS = REGISTRY.counter("endpoint.failovers");
+    public static final MetricsRegistry.Counter ENDPOINT_SWITCHES = REGISTRY.counter("endpoint.switches");
+
+    // Lock state: observed (poll / push / command) -> policy enforced
+    public static final MetricsRegistry.Histogram LOCK_ENFORCE_MS = REGISTRY.histogram("lock.enforce_ms");
+    public static final MetricsRegistry.Counter LOCK_TRANSITIONS = REGISTRY.counter("lock.transitions");
+
+    // Remote commands: seen in a status payload -> executed (elapsedRealtime; delivery is lock propagation)
+    public static final MetricsRegistry.Histogram COMMAND_LATENCY_MS = REGISTRY.histogram("command.latency_ms");
+    public static final MetricsRegistry.Counter COMMAND_FAILURES = REGISTRY.counter("command.failures");
+
+    // DevicePolicyManager call cost
+    public static final MetricsRegistry.Histogram DPM_CALL_US = REGISTRY.histogram("dpm.call_us");
+
+    // Lock screen
+    public static final MetricsRegistry.Histogram LOCK_SCREEN_TTFF_MS = REGISTRY.histogram("lockscreen.ttff_ms");
+    public static final MetricsRegistry.Histogram LOCK_SCREEN_WARM_TTFF_MS =
+            REGISTRY.histogram("lockscreen.warm_ttff_ms"); // Relaunch onto the running screen
+    public static final MetricsRegistry.Histogram BOOT_TO_LOCK_MS = REGISTRY.histogram("boot.lock_screen_ms");
+
+    // Location track (LocationTracker)
+    public static final MetricsRegistry.Counter LOCATION_FIXES = REGISTRY.counter("location.fixes");
+    public static final MetricsRegistry.Counter LOCATION_POINTS = REGISTRY.counter("location.points_stored");
+    public static final MetricsRegistry.Counter TRACK_UPLOAD_BYTES = REGISTRY.counter("track.upload_bytes");
+
+    // Push channel
+    public static final MetricsRegistry.Gauge PUSH_CONNECTED = REGISTRY.gauge("push.connected");
+
+    private AgentMetrics() {
+    }
+}
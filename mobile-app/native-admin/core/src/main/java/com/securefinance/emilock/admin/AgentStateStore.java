@@ -0,0 +1,354 @@
+package com.securefinance.emilock.admin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * AgentStateStore - Typed, Write-on-Change Agent State
+ *
+ * Replaces SharedPreferences for the agent's configuration and lock state:
+ * - Reads come from memory; nothing on the poll path touches disk
+ * - set() of an unchanged value is a no-op: no write, no listener call
+ * - Changes are coalesced into one background write on the writer executor;
+ *   flush() writes synchronously when a change must survive a power cut
+ * - Each write is the whole state in a compact binary file: temp file, fsync,
+ *   rename, CRC32 trailer - a torn or corrupt file loads as empty, and
+ *   load() says so (UNREADABLE, not MISSING) so the caller can fail safe
+ * - Listeners hear about every change, on the thread that made it
+ *
+ * Values are booleans, ints, longs and strings; a null string removes the key.
+ * Thread-safe. Pure Java.
+ */
+public final class AgentStateStore {
+
+    /** What load() found. */
+    public enum LoadResult {
+        LOADED,
+        MISSING,
+        UNREADABLE // A file was there but failed its checks - state left empty
+    }
+
+    /** Told about each changed key on the thread that changed it. */
+    public interface Listener {
+        void onStateChanged(Key<?> key);
+    }
+
+    public static final class Key<T> {
+        public final String name;
+        final Class<T> type;
+        final T defaultValue;
+
+        private Key(String name, Class<T> type, T defaultValue) {
+            this.name = name;
+            this.type = type;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static Key<Boolean> booleanKey(String name, boolean defaultValue) {
+        return new Key<>(name, Boolean.class, defaultValue);
+    }
+
+    public static Key<Integer> intKey(String name, int defaultValue) {
+        return new Key<>(name, Integer.class, defaultValue);
+    }
+
+    public static Key<Long> longKey(String name, long defaultValue) {
+        return new Key<>(name, Long.class, defaultValue);
+    }
+
+    public static Key<String> stringKey(String name, String defaultValue) {
+        return new Key<>(name, String.class, defaultValue);
+    }
+
+    static final int MAGIC = 0x41475354; // "AGST"
+    static final int FORMAT = 1;
+    static final int MAX_FILE_BYTES = 64 * 1024;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_STRING = 4;
+
+    private final File file;
+    private final Executor writer;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object fileLock = new Object();
+
+    // Guarded by this
+    private final Map<String, Object> values = new HashMap<>();
+    private long version; // Bumped on every change
+    private long writtenVersion;
+    private boolean writeQueued;
+    private long writes;
+    private long unchangedSets;
+    private long writeFailures;
+
+    /**
+     * @param writer serial executor for background writes
+     */
+    public AgentStateStore(File file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    // ==================== Reads ====================
+
+    public <T> T get(Key<T> key) {
+        Object value;
+        synchronized (this) {
+            value = values.get(key.name);
+        }
+        return key.type.isInstance(value) ? key.type.cast(value) : key.defaultValue;
+    }
+
+    public boolean getBoolean(Key<Boolean> key) {
+        return get(key);
+    }
+
+    public int getInt(Key<Integer> key) {
+        return get(key);
+    }
+
+    public long getLong(Key<Long> key) {
+        return get(key);
+    }
+
+    public String getString(Key<String> key) {
+        return get(key);
+    }
+
+    public synchronized boolean contains(Key<?> key) {
+        return values.containsKey(key.name);
+    }
+
+    // ==================== Writes ====================
+
+    /**
+     * Set a value; null removes it. Unchanged values are dropped here.
+     * @return true if the value changed (and a write is queued)
+     */
+    public <T> boolean set(Key<T> key, T value) {
+        synchronized (this) {
+            Object current = values.get(key.name);
+            if (value == null ? current == null : value.equals(current)) {
+                unchangedSets++;
+                return false;
+            }
+            if (value == null) {
+                values.remove(key.name);
+            } else {
+                values.put(key.name, value);
+            }
+            version++;
+            if (!writeQueued) {
+                writeQueued = true;
+                writer.execute(this::writeInBackground);
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.onStateChanged(key);
+        }
+        return true;
+    }
+
+    public <T> boolean remove(Key<T> key) {
+        return set(key, null);
+    }
+
+    /**
+     * For migrations from untyped storage: set the key if the value has its
+     * type, otherwise ignore it.
+     */
+    public boolean importValue(Key<?> key, Object value) {
+        return key.type.isInstance(value) && setUnchecked(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean setUnchecked(Key<?> key, Object value) {
+        return set((Key<Object>) key, value);
+    }
+
+    /** Write now if anything changed since the last write. Blocks on disk. */
+    public void flush() throws IOException {
+        synchronized (fileLock) {
+            byte[] bytes;
+            long snapshotVersion;
+            synchronized (this) {
+                if (version == writtenVersion) {
+                    return;
+                }
+                snapshotVersion = version;
+                bytes = encode();
+            }
+            write(bytes);
+            synchronized (this) {
+                writtenVersion = Math.max(writtenVersion, snapshotVersion);
+                writes++;
+            }
+        }
+    }
+
+    private void writeInBackground() {
+        synchronized (this) {
+            writeQueued = false;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            // The in-memory state stays authoritative; the next change retries
+            synchronized (this) {
+                writeFailures++;
+            }
+        }
+    }
+
+    // ==================== Listeners ====================
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // ==================== Persistence ====================
+
+    /**
+     * Replace the in-memory state with the file's. Call once, before use.
+     * The state is left empty unless the result is LOADED.
+     */
+    public LoadResult load() {
+        boolean exists = file.exists();
+        Map<String, Object> loaded = exists ? read(file) : null;
+        synchronized (this) {
+            values.clear();
+            if (loaded != null) {
+                values.putAll(loaded);
+            }
+            writtenVersion = version;
+        }
+        return loaded != null ? LoadResult.LOADED : exists ? LoadResult.UNREADABLE : LoadResult.MISSING;
+    }
+
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+            DataOutputStream data = new DataOutputStream(body);
+            data.writeInt(MAGIC);
+            data.writeByte(FORMAT);
+            data.writeShort(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                data.writeUTF(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Boolean) {
+                    data.writeByte(TYPE_BOOLEAN);
+                    data.writeBoolean((Boolean) value);
+                } else if (value instanceof Integer) {
+                    data.writeByte(TYPE_INT);
+                    data.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    data.writeByte(TYPE_LONG);
+                    data.writeLong((Long) value);
+                } else {
+                    data.writeByte(TYPE_STRING);
+                    data.writeUTF((String) value);
+                }
+            }
+            CRC32 crc = new CRC32();
+            byte[] bytes = body.toByteArray();
+            crc.update(bytes, 0, bytes.length);
+            data.writeInt((int) crc.getValue());
+            data.flush();
+            return body.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory stream
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("State rename failed");
+        }
+    }
+
+    private static Map<String, Object> read(File file) {
+        if (!file.exists() || file.length() < 11 || file.length() > MAX_FILE_BYTES) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        } catch (IOException e) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        int stored = ((bytes[bytes.length - 4] & 0xff) << 24) | ((bytes[bytes.length - 3] & 0xff) << 16)
+                | ((bytes[bytes.length - 2] & 0xff) << 8) | (bytes[bytes.length - 1] & 0xff);
+        if ((int) crc.getValue() != stored) {
+            return null;
+        }
+
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4))) {
+            if (data.readInt() != MAGIC || data.readByte() != FORMAT) {
+                return null;
+            }
+            int count = data.readUnsignedShort();
+            Map<String, Object> loaded = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = data.readUTF();
+                byte type = data.readByte();
+                switch (type) {
+                    case TYPE_BOOLEAN:
+                        loaded.put(name, data.readBoolean());
+                        break;
+                    case TYPE_INT:
+                        loaded.put(name, data.readInt());
+                        break;
+                    case TYPE_LONG:
+                        loaded.put(name, data.readLong());
+                        break;
+                    case TYPE_STRING:
+                        loaded.put(name, data.readUTF());
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            return loaded;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AgentStateStore{keys=" + values.size() + ", writes=" + writes
+                + ", unchangedSets=" + unchangedSets + ", writeFailures=" + writeFailures + (version != writtenVersion ? ", dirty" : "") + '}';
+    }
+}
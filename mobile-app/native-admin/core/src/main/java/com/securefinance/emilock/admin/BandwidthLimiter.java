@@ -0,0 +1,42 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * BandwidthLimiter - Token Bucket for Background Transfers
+ *
+ * Caps a download at bytesPerSecond on average, allowing bursts of up to one
+ * second's worth so reads of any size pass without stalling:
+ * - delayFor() charges the bytes just read and returns how long to wait
+ *   before the next read; the caller sleeps, so the limiter never blocks
+ * - A rate of 0 or less means unlimited
+ *
+ * All times are elapsedRealtime() milliseconds supplied by the caller.
+ * Not thread-safe: one per transfer. Pure Java.
+ */
+public final class BandwidthLimiter {
+
+    private final long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = Long.MIN_VALUE;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+    }
+
+    /** @return milliseconds to wait before reading more (0 if under the rate) */
+    public long delayFor(int bytes, long now) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        if (lastRefill != Long.MIN_VALUE) {
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1000.0);
+        }
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000.0 / bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
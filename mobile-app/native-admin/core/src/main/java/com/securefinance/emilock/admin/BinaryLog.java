@@ -0,0 +1,479 @@
+package com.securefinance.emilock.admin;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * BinaryLog - Structured Log in a Fixed-Size Binary Ring
+ *
+ * Log calls on the agent's hot paths cost no formatting and no allocation:
+ * - A record is the event id, wall time and up to two typed arguments
+ *   (long, boolean, string), written straight into the ring buffer
+ * - The message text lives in the Event template ("Next poll {} in {}ms") and
+ *   is only rendered when the log is read (upload, dumpsys)
+ * - The ring is fixed-size: new records evict the oldest. Backed by a memory
+ *   mapped file on the device, so it survives process death
+ * - Head and tail live in the buffer's header; a ring written by a different
+ *   event table (schema) or torn by a power cut is reset on open
+ *
+ * Thread-safe; a log call holds the lock for one record's worth of puts.
+ * Pure Java.
+ */
+public final class BinaryLog {
+
+    // Same values as android.util.Log priorities
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /** One kind of log line; id is its index in the table the log was opened with. */
+    public static final class Event {
+        public final int id;
+        public final int priority;
+        public final String tag;
+        public final String template;
+
+        public Event(int id, int priority, String tag, String template) {
+            this.id = id;
+            this.priority = priority;
+            this.tag = tag;
+            this.template = template;
+        }
+    }
+
+    /** Receives rendered lines, oldest first; the line is reused after the call. */
+    public interface LineSink {
+        void line(Event event, long timeMs, CharSequence line);
+    }
+
+    static final int MAGIC = 0x424C4F47; // "BLOG"
+    static final int FORMAT = 1;
+    static final int HEADER_BYTES = 32;
+    static final int MAX_STRING_BYTES = 240;
+    static final int MAX_RECORD_BYTES = 13 + 2 * (3 + MAX_STRING_BYTES);
+
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_FORMAT = 4;
+    private static final int OFF_SCHEMA = 8;
+    private static final int OFF_CAPACITY = 12;
+    private static final int OFF_HEAD = 16;
+    private static final int OFF_TAIL = 24;
+
+    // Record: u16 length, u16 event, i64 time, u8 arg count, args. Length 0 = wrap to the start.
+    private static final int RECORD_HEADER = 13;
+    private static final byte ARG_LONG = 1;
+    private static final byte ARG_BOOLEAN = 2;
+    private static final byte ARG_STRING = 3;
+
+    private final ByteBuffer buffer;
+    private final Event[] events;
+    private final int capacity;
+
+    // Guarded by this
+    private long head; // Absolute write position
+    private long tail; // Absolute position of the oldest record
+    private long records;
+    private long evicted;
+    private final byte[] argTypes = new byte[2];
+    private final long[] longArgs = new long[2];
+    private final CharSequence[] stringArgs = new CharSequence[2];
+    private int argCount;
+
+    /**
+     * @param buffer whole ring including the header; its existing content is kept if valid
+     * @param events the event table, events[i].id == i
+     */
+    public BinaryLog(ByteBuffer buffer, Event[] events) {
+        for (int i = 0; i < events.length; i++) {
+            if (events[i].id != i) {
+                throw new IllegalArgumentException("Event " + i + " has id " + events[i].id);
+            }
+        }
+        this.capacity = buffer.capacity() - HEADER_BYTES;
+        if (capacity < 2 * MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Ring too small: " + buffer.capacity());
+        }
+        this.buffer = buffer;
+        this.events = events;
+
+        int schema = schema(events);
+        if (buffer.getInt(OFF_MAGIC) != MAGIC || buffer.getInt(OFF_FORMAT) != FORMAT
+                || buffer.getInt(OFF_SCHEMA) != schema || buffer.getInt(OFF_CAPACITY) != capacity) {
+            reset(schema);
+        } else {
+            head = buffer.getLong(OFF_HEAD);
+            tail = buffer.getLong(OFF_TAIL);
+            if (!isConsistent()) {
+                reset(schema);
+            }
+        }
+    }
+
+    // ==================== Logging ====================
+
+    public synchronized void log(Event event) {
+        argCount = 0;
+        append(event);
+    }
+
+    public synchronized void log(Event event, long a) {
+        argCount = 0;
+        addLong(a);
+        append(event);
+    }
+
+    public synchronized void log(Event event, long a, long b) {
+        argCount = 0;
+        addLong(a);
+        addLong(b);
+        append(event);
+    }
+
+    public synchronized void log(Event event, boolean a) {
+        argCount = 0;
+        addBoolean(a);
+        append(event);
+    }
+
+    public synchronized void log(Event event, boolean a, boolean b) {
+        argCount = 0;
+        addBoolean(a);
+        addBoolean(b);
+        append(event);
+    }
+
+    public synchronized void log(Event event, CharSequence a) {
+        argCount = 0;
+        addString(a);
+        append(event);
+    }
+
+    public synchronized void log(Event event, CharSequence a, long b) {
+        argCount = 0;
+        addString(a);
+        addLong(b);
+        append(event);
+    }
+
+    public synchronized void log(Event event, CharSequence a, CharSequence b) {
+        argCount = 0;
+        addString(a);
+        addString(b);
+        append(event);
+    }
+
+    /** The message (or the class name when there is none) as the one argument. */
+    public void log(Event event, Throwable error) {
+        log(event, describe(error));
+    }
+
+    public static String describe(Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        String message = error.getMessage();
+        return message != null ? message : error.getClass().getName();
+    }
+
+    private void addLong(long value) {
+        argTypes[argCount] = ARG_LONG;
+        longArgs[argCount++] = value;
+    }
+
+    private void addBoolean(boolean value) {
+        argTypes[argCount] = ARG_BOOLEAN;
+        longArgs[argCount++] = value ? 1 : 0;
+    }
+
+    private void addString(CharSequence value) {
+        argTypes[argCount] = ARG_STRING;
+        stringArgs[argCount++] = value;
+    }
+
+    private void append(Event event) {
+        int size = RECORD_HEADER;
+        for (int i = 0; i < argCount; i++) {
+            size += argTypes[i] == ARG_LONG ? 9 : argTypes[i] == ARG_BOOLEAN ? 2 : 3 + utf8Length(stringArgs[i]);
+        }
+
+        long position = head;
+        int offset = (int) (position % capacity);
+        if (offset + size > capacity) {
+            if (capacity - offset >= 2) {
+                buffer.putShort(HEADER_BYTES + offset, (short) 0);
+            }
+            position += capacity - offset;
+            offset = 0;
+        }
+        long end = position + size;
+        while (end - tail > capacity) {
+            evictOldest();
+        }
+
+        int at = HEADER_BYTES + offset;
+        buffer.putShort(at, (short) size);
+        buffer.putShort(at + 2, (short) event.id);
+        buffer.putLong(at + 4, System.currentTimeMillis());
+        buffer.put(at + 12, (byte) argCount);
+        at += RECORD_HEADER;
+        for (int i = 0; i < argCount; i++) {
+            buffer.put(at++, argTypes[i]);
+            if (argTypes[i] == ARG_LONG) {
+                buffer.putLong(at, longArgs[i]);
+                at += 8;
+            } else if (argTypes[i] == ARG_BOOLEAN) {
+                buffer.put(at++, (byte) longArgs[i]);
+            } else {
+                at = putUtf8(at, stringArgs[i]);
+                stringArgs[i] = null;
+            }
+        }
+
+        // Published only once the record is complete
+        head = end;
+        buffer.putLong(OFF_TAIL, tail);
+        buffer.putLong(OFF_HEAD, head);
+        records++;
+    }
+
+    private void evictOldest() {
+        int offset = (int) (tail % capacity);
+        int length = capacity - offset < 2 ? 0 : buffer.getShort(HEADER_BYTES + offset) & 0xffff;
+        if (length == 0) {
+            tail += capacity - offset; // Wrap marker
+        } else {
+            tail += length;
+            evicted++;
+        }
+    }
+
+    // ==================== Reading ====================
+
+    /** Render every record, oldest first. Copies the ring under the lock, renders outside it. */
+    public void read(LineSink sink) {
+        byte[] copy;
+        long start;
+        long end;
+        synchronized (this) {
+            start = tail;
+            end = head;
+            copy = new byte[capacity];
+            ByteBuffer view = buffer.duplicate();
+            view.position(HEADER_BYTES);
+            view.get(copy);
+        }
+        ByteBuffer ring = ByteBuffer.wrap(copy);
+        StringBuilder line = new StringBuilder(160);
+        StringBuilder scratch = new StringBuilder(MAX_STRING_BYTES);
+        SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        time.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long position = start;
+        while (position < end) {
+            int offset = (int) (position % capacity);
+            int length = capacity - offset < 2 ? 0 : ring.getShort(offset) & 0xffff;
+            if (length == 0) {
+                position += capacity - offset;
+                continue;
+            }
+            int id = ring.getShort(offset + 2) & 0xffff;
+            long timeMs = ring.getLong(offset + 4);
+            int count = ring.get(offset + 12);
+            Event event = id < events.length ? events[id] : null;
+
+            line.setLength(0);
+            line.append(time.format(new Date(timeMs))).append(' ')
+                    .append(event != null ? priorityChar(event.priority) : '?').append('/')
+                    .append(event != null ? event.tag : "?").append(": ");
+            String template = event != null ? event.template : "event " + id;
+            int templateAt = 0;
+            int at = offset + RECORD_HEADER;
+            for (int i = 0; i < count; i++) {
+                int placeholder = template.indexOf("{}", templateAt);
+                if (placeholder >= 0) {
+                    line.append(template, templateAt, placeholder);
+                    templateAt = placeholder + 2;
+                } else {
+                    line.append(' ');
+                }
+                byte type = ring.get(at++);
+                if (type == ARG_LONG) {
+                    line.append(ring.getLong(at));
+                    at += 8;
+                } else if (type == ARG_BOOLEAN) {
+                    line.append(ring.get(at++) != 0);
+                } else {
+                    at = getUtf8(ring, at, scratch);
+                    line.append(scratch);
+                }
+            }
+            line.append(template, templateAt, template.length());
+            if (event != null) {
+                sink.line(event, timeMs, line);
+            }
+            position += length;
+        }
+    }
+
+    /** Render one call's arguments into a template - for logcat, off the hot path. */
+    public static void format(StringBuilder out, String template, Object a, Object b, int count) {
+        int templateAt = 0;
+        for (int i = 0; i < count; i++) {
+            Object arg = i == 0 ? a : b;
+            int placeholder = template.indexOf("{}", templateAt);
+            if (placeholder >= 0) {
+                out.append(template, templateAt, placeholder);
+                templateAt = placeholder + 2;
+            } else {
+                out.append(' ');
+            }
+            out.append(arg);
+        }
+        out.append(template, templateAt, template.length());
+    }
+
+    // ==================== Ring maintenance ====================
+
+    public synchronized void clear() {
+        tail = head;
+        buffer.putLong(OFF_TAIL, tail);
+    }
+
+    private void reset(int schema) {
+        head = 0;
+        tail = 0;
+        buffer.putInt(OFF_MAGIC, MAGIC);
+        buffer.putInt(OFF_FORMAT, FORMAT);
+        buffer.putInt(OFF_SCHEMA, schema);
+        buffer.putInt(OFF_CAPACITY, capacity);
+        buffer.putLong(OFF_HEAD, 0);
+        buffer.putLong(OFF_TAIL, 0);
+    }
+
+    /** Walk tail to head: every length must be plausible and land exactly on head. */
+    private boolean isConsistent() {
+        if (tail < 0 || head < tail || head - tail > capacity) {
+            return false;
+        }
+        long position = tail;
+        while (position < head) {
+            int offset = (int) (position % capacity);
+            int length = capacity - offset < 2 ? 0 : buffer.getShort(HEADER_BYTES + offset) & 0xffff;
+            if (length == 0) {
+                position += capacity - offset;
+            } else if (length < RECORD_HEADER || length > MAX_RECORD_BYTES || offset + length > capacity
+                    || (buffer.getShort(HEADER_BYTES + offset + 2) & 0xffff) >= events.length) {
+                return false;
+            } else {
+                position += length;
+            }
+        }
+        return position == head;
+    }
+
+    private static int schema(Event[] events) {
+        int hash = 17;
+        for (Event event : events) {
+            hash = 31 * hash + event.priority;
+            hash = 31 * hash + event.tag.hashCode();
+            hash = 31 * hash + event.template.hashCode();
+        }
+        return hash;
+    }
+
+    // ==================== UTF-8 ====================
+
+    private static int utf8Length(CharSequence value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int bytes = charBytes(value.charAt(i));
+            if (length + bytes > MAX_STRING_BYTES) {
+                break;
+            }
+            length += bytes;
+        }
+        return length;
+    }
+
+    /** Surrogates are written as '?' - logs do not need emoji. */
+    private static int charBytes(char c) {
+        return c < 0x80 || Character.isSurrogate(c) ? 1 : c < 0x800 ? 2 : 3;
+    }
+
+    private int putUtf8(int at, CharSequence value) {
+        int lengthAt = at;
+        at += 2;
+        int written = 0;
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (Character.isSurrogate(c)) {
+                    c = '?';
+                }
+                int bytes = charBytes(c);
+                if (written + bytes > MAX_STRING_BYTES) {
+                    break;
+                }
+                if (bytes == 1) {
+                    buffer.put(at++, (byte) c);
+                } else if (bytes == 2) {
+                    buffer.put(at++, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(at++, (byte) (0x80 | (c & 0x3F)));
+                } else {
+                    buffer.put(at++, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(at++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(at++, (byte) (0x80 | (c & 0x3F)));
+                }
+                written += bytes;
+            }
+        }
+        buffer.putShort(lengthAt, (short) written);
+        return at;
+    }
+
+    private static int getUtf8(ByteBuffer ring, int at, StringBuilder out) {
+        out.setLength(0);
+        int length = ring.getShort(at) & 0xffff;
+        at += 2;
+        int end = at + length;
+        while (at < end) {
+            int b = ring.get(at++) & 0xff;
+            if (b < 0x80) {
+                out.append((char) b);
+            } else if (b < 0xE0) {
+                out.append((char) (((b & 0x1F) << 6) | (ring.get(at++) & 0x3F)));
+            } else {
+                out.append((char) (((b & 0x0F) << 12) | ((ring.get(at++) & 0x3F) << 6) | (ring.get(at++) & 0x3F)));
+            }
+        }
+        return end;
+    }
+
+    private static char priorityChar(int priority) {
+        switch (priority) {
+            case DEBUG:
+                return 'D';
+            case INFO:
+                return 'I';
+            case WARN:
+                return 'W';
+            case ERROR:
+                return 'E';
+            default:
+                return 'V';
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BinaryLog{" + (head - tail) + "/" + capacity + " bytes, records=" + records
+                + ", evicted=" + evicted + '}';
+    }
+}
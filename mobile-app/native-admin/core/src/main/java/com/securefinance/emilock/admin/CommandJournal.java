@@ -0,0 +1,380 @@
+package com.securefinance.emilock.admin;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * CommandJournal - Crash-Safe Remote Command Log
+ *
+ * Append-only, fsync'd record of every remote command the agent has seen,
+ * keyed by the server's command timestamp:
+ *   ACCEPTED (name + params) -> STARTED -> DONE | FAILED -> ACKED
+ * - A command whose timestamp is already journaled (or older than the
+ *   high watermark of compacted history) is a duplicate and is not run again
+ * - STARTED without DONE/FAILED after a restart means we died mid-command;
+ *   the dispatcher decides whether that command is safe to re-run
+ * - Each record carries a CRC32; a torn tail from a crash is truncated on open
+ * - Compaction rewrites the live entries to a temp file and renames it over
+ *   the journal once it grows past COMPACT_BYTES
+ *
+ * Not thread-safe: owned by the command thread. Pure Java.
+ */
+public final class CommandJournal {
+
+    public enum State { ACCEPTED, STARTED, DONE, FAILED }
+
+    public static final class Entry {
+        public final long timestamp;
+        public final String command;
+        public final String paramsJson;
+        public State state = State.ACCEPTED;
+        public String result;
+        public boolean acked;
+
+        Entry(long timestamp, String command, String paramsJson) {
+            this.timestamp = timestamp;
+            this.command = command;
+            this.paramsJson = paramsJson;
+        }
+
+        public boolean isFinished() {
+            return state == State.DONE || state == State.FAILED;
+        }
+
+        @Override
+        public String toString() {
+            return command + "@" + timestamp + " " + state + (acked ? " acked" : "")
+                    + (result != null ? " (" + result + ")" : "");
+        }
+    }
+
+    static final int COMPACT_BYTES = 64 * 1024;
+    static final int KEEP_FINISHED = 64;
+
+    private static final byte REC_ACCEPTED = 1;
+    private static final byte REC_STARTED = 2;
+    private static final byte REC_DONE = 3;
+    private static final byte REC_FAILED = 4;
+    private static final byte REC_ACKED = 5;
+    private static final byte REC_WATERMARK = 6;
+
+    private final File file;
+    private final Map<Long, Entry> entries = new LinkedHashMap<>();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final CRC32 crc = new CRC32();
+    private long highWatermark = Long.MIN_VALUE; // Highest timestamp dropped by compaction
+    private FileOutputStream out;
+    private long size;
+    private int truncatedBytes;
+
+    public CommandJournal(File file) throws IOException {
+        this.file = file;
+        replay();
+        out = new FileOutputStream(file, true);
+    }
+
+    // ==================== Queries ====================
+
+    /** True if this command was seen before (journaled or compacted away). */
+    public boolean isKnown(long timestamp) {
+        return entries.containsKey(timestamp) || timestamp <= highWatermark;
+    }
+
+    public Entry get(long timestamp) {
+        return entries.get(timestamp);
+    }
+
+    /** Entries not yet finished, oldest first (recovery backlog). */
+    public List<Entry> unfinished() {
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.isFinished()) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /** Finished entries the server has not acknowledged yet. */
+    public List<Entry> unacked() {
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isFinished() && !entry.acked) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public int getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    // ==================== Transitions (each one fsync'd) ====================
+
+    public Entry accept(long timestamp, String command, String paramsJson) throws IOException {
+        Entry entry = new Entry(timestamp, command, paramsJson);
+        append(REC_ACCEPTED, timestamp, command, paramsJson);
+        entries.put(timestamp, entry);
+        return entry;
+    }
+
+    public void markStarted(Entry entry) throws IOException {
+        append(REC_STARTED, entry.timestamp, null, null);
+        entry.state = State.STARTED;
+    }
+
+    public void markFinished(Entry entry, boolean success, String result) throws IOException {
+        append(success ? REC_DONE : REC_FAILED, entry.timestamp, null, result);
+        entry.state = success ? State.DONE : State.FAILED;
+        entry.result = result;
+    }
+
+    /** One fsync for a whole ack batch. */
+    public void markAcked(List<Entry> acked) throws IOException {
+        if (acked.isEmpty()) {
+            return;
+        }
+        record.reset();
+        for (Entry entry : acked) {
+            encode(REC_ACKED, entry.timestamp, null, null);
+            entry.acked = true;
+        }
+        flushRecord();
+        maybeCompact();
+    }
+
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ==================== Encoding ====================
+
+    private void append(byte type, long timestamp, String name, String payload) throws IOException {
+        record.reset();
+        encode(type, timestamp, name, payload);
+        flushRecord();
+    }
+
+    /** [type][timestamp][name][payload][crc32] appended to the record buffer. */
+    private void encode(byte type, long timestamp, String name, String payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(type);
+        data.writeLong(timestamp);
+        writeString(data, name);
+        writeString(data, payload);
+        data.flush();
+
+        byte[] bytes = body.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        record.write(bytes);
+        DataOutputStream trailer = new DataOutputStream(record);
+        trailer.writeInt((int) crc.getValue());
+        trailer.flush();
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private void flushRecord() throws IOException {
+        record.writeTo(out);
+        out.flush();
+        out.getFD().sync(); // Durable before we act on it
+        size += record.size();
+    }
+
+    // ==================== Recovery ====================
+
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                long recordLength = readRecord(in);
+                if (recordLength < 0) {
+                    break;
+                }
+                good += recordLength;
+            }
+        }
+
+        long length = file.length();
+        if (good < length) {
+            // Torn or corrupt tail from a crash mid-append
+            truncatedBytes = (int) (length - good);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(good);
+            }
+        }
+        size = good;
+    }
+
+    /** @return bytes consumed, or -1 at end of file / first bad record */
+    private long readRecord(DataInputStream in) throws IOException {
+        try {
+            byte type = in.readByte();
+            long timestamp = in.readLong();
+            byte[] name = readBytes(in);
+            byte[] payload = readBytes(in);
+            int storedCrc = in.readInt();
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+            DataOutputStream data = new DataOutputStream(body);
+            data.writeByte(type);
+            data.writeLong(timestamp);
+            writeBytes(data, name);
+            writeBytes(data, payload);
+            byte[] bytes = body.toByteArray();
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            if ((int) crc.getValue() != storedCrc) {
+                return -1;
+            }
+
+            apply(type, timestamp,
+                    name == null ? null : new String(name, StandardCharsets.UTF_8),
+                    payload == null ? null : new String(payload, StandardCharsets.UTF_8));
+            return bytes.length + 4;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > COMPACT_BYTES) {
+            throw new EOFException("Implausible record length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            data.writeInt(-1);
+        } else {
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+    }
+
+    private void apply(byte type, long timestamp, String name, String payload) {
+        if (type == REC_WATERMARK) {
+            highWatermark = Math.max(highWatermark, timestamp);
+            return;
+        }
+        if (type == REC_ACCEPTED) {
+            entries.put(timestamp, new Entry(timestamp, name, payload));
+            return;
+        }
+        Entry entry = entries.get(timestamp);
+        if (entry == null) {
+            return;
+        }
+        switch (type) {
+            case REC_STARTED:
+                entry.state = State.STARTED;
+                break;
+            case REC_DONE:
+            case REC_FAILED:
+                entry.state = type == REC_DONE ? State.DONE : State.FAILED;
+                entry.result = payload;
+                break;
+            case REC_ACKED:
+                entry.acked = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ==================== Compaction ====================
+
+    private void maybeCompact() throws IOException {
+        if (size < COMPACT_BYTES) {
+            return;
+        }
+
+        // Keep everything still in flight plus the newest finished entries for dedup
+        List<Entry> finished = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isFinished() && entry.acked) {
+                finished.add(entry);
+            }
+        }
+        int drop = Math.max(0, finished.size() - KEEP_FINISHED);
+        for (int i = 0; i < drop; i++) {
+            Entry dropped = finished.get(i);
+            highWatermark = Math.max(highWatermark, dropped.timestamp);
+            entries.remove(dropped.timestamp);
+        }
+
+        record.reset();
+        if (highWatermark != Long.MIN_VALUE) {
+            encode(REC_WATERMARK, highWatermark, null, null);
+        }
+        for (Entry entry : entries.values()) {
+            encode(REC_ACCEPTED, entry.timestamp, entry.command, entry.paramsJson);
+            if (entry.state != State.ACCEPTED) {
+                encode(REC_STARTED, entry.timestamp, null, null);
+            }
+            if (entry.isFinished()) {
+                encode(entry.state == State.DONE ? REC_DONE : REC_FAILED, entry.timestamp, null, entry.result);
+            }
+            if (entry.acked) {
+                encode(REC_ACKED, entry.timestamp, null, null);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+            record.writeTo(tempOut);
+            tempOut.flush();
+            tempOut.getFD().sync();
+        }
+        out.close();
+        if (!temp.renameTo(file)) {
+            out = new FileOutputStream(file, true);
+            throw new IOException("Journal compaction rename failed");
+        }
+        out = new FileOutputStream(file, true);
+        size = record.size();
+    }
+}
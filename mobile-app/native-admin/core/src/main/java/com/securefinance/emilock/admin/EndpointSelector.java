@@ -0,0 +1,284 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EndpointSelector - Latency-Aware Backend Selection and Failover
+ *
+ * Ranks the configured backend base URLs by what the agent observes of them:
+ * - Score: smoothed round trip (EWMA) inflated by the smoothed error rate, so
+ *   a fast endpoint that fails half its calls loses to a slower healthy one
+ * - Failures eject an endpoint for a cooldown that doubles per consecutive
+ *   failure (COOLDOWN_BASE_MS .. COOLDOWN_MAX_MS); the next success clears it
+ * - Sticky primary: a healthy primary is only replaced by an endpoint that
+ *   scores clearly better (SWITCH_MARGIN), so warm connections are not
+ *   traded away for noise
+ * - Hedge budget: p95 of the primary's recent round trips - a status check
+ *   slower than that is repeated against the runner-up
+ * - Probes: endpoints the agent is not using are re-measured every
+ *   PROBE_INTERVAL_MS, and as soon as their cooldown ends
+ *
+ * With a single endpoint everything degrades to today's behaviour: that
+ * endpoint is always the primary and nothing is hedged or probed.
+ *
+ * Pure Java (no Android imports); times are elapsedRealtime() ms from the caller.
+ * Thread-safe.
+ */
+public final class EndpointSelector {
+
+    // Assumed round trip of an endpoint with no samples yet - below a slow
+    // primary, so a failover target is tried before it has been measured
+    static final long DEFAULT_RTT_MS = 1_000;
+    static final double RTT_ALPHA = 0.3;
+    static final double ERROR_ALPHA = 0.2;
+    static final double ERROR_WEIGHT = 4;
+    static final double SWITCH_MARGIN = 0.7;
+
+    static final long COOLDOWN_BASE_MS = 10_000;
+    static final long COOLDOWN_MAX_MS = 10 * 60_000;
+    static final long PROBE_INTERVAL_MS = 15 * 60_000;
+
+    static final int RTT_WINDOW = 32;
+    static final int HEDGE_MIN_SAMPLES = 8;
+    static final long HEDGE_MIN_MS = 300;
+    static final long HEDGE_MAX_MS = 5_000;
+
+    /** What the agent has observed of one endpoint. */
+    static final class Stats {
+        final String url;
+        double rttMs = -1;
+        double errorRate;
+        int consecutiveFailures;
+        long cooldownUntil;
+        long lastObservedAt = -1;
+        long successes;
+        long failures;
+        private final long[] recent = new long[RTT_WINDOW];
+        private int recentCount;
+        private int recentHead;
+
+        Stats(String url) {
+            this.url = url;
+        }
+
+        boolean isAvailable(long now) {
+            return now >= cooldownUntil;
+        }
+
+        double score() {
+            double rtt = rttMs < 0 ? DEFAULT_RTT_MS : rttMs;
+            return rtt * (1 + ERROR_WEIGHT * errorRate);
+        }
+
+        void addSample(long rtt) {
+            recent[recentHead] = rtt;
+            recentHead = (recentHead + 1) % RTT_WINDOW;
+            recentCount = Math.min(recentCount + 1, RTT_WINDOW);
+        }
+
+        /** Nearest-rank p95 of the recent window, or -1 with too few samples. */
+        long p95() {
+            if (recentCount < HEDGE_MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(recent, recentCount);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(0.95 * recentCount);
+            return sorted[rank - 1];
+        }
+
+        @Override
+        public String toString() {
+            return url + " rtt=" + (rttMs < 0 ? "?" : Math.round(rttMs) + "ms")
+                    + " p95=" + p95() + "ms err=" + Math.round(errorRate * 100) + "%"
+                    + " ok=" + successes + " fail=" + failures
+                    + (consecutiveFailures > 0 ? " cooldownUntil=@" + cooldownUntil : "");
+        }
+    }
+
+    private final Map<String, Stats> endpoints = new LinkedHashMap<>();
+    private Stats primary;
+    private long switches;
+
+    /** @param urls base URLs in configured order; the first is the initial primary */
+    public EndpointSelector(List<String> urls) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints");
+        }
+        for (String url : urls) {
+            endpoints.put(url, new Stats(url));
+        }
+        primary = endpoints.values().iterator().next();
+    }
+
+    /**
+     * Base URLs from a config value: comma or whitespace separated, trailing
+     * slashes dropped, duplicates removed, order kept. Null or blank gives an empty list.
+     */
+    public static List<String> parse(String config) {
+        List<String> urls = new ArrayList<>();
+        if (config == null) {
+            return urls;
+        }
+        for (String part : config.split("[,\\s]+")) {
+            String url = part.trim();
+            while (url.endsWith("/")) {
+                url = url.substring(0, url.length() - 1);
+            }
+            if (!url.isEmpty() && !urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    // ==================== SELECTION ====================
+
+    /** Endpoint for the next call. Re-evaluated on every call, so failover needs no timer. */
+    public synchronized String primary(long now) {
+        Stats best = best(Collections.<String>emptySet(), now);
+        if (best != primary) {
+            boolean primaryDown = !primary.isAvailable(now);
+            if (primaryDown || best.score() < primary.score() * SWITCH_MARGIN) {
+                primary = best;
+                switches++;
+            }
+        }
+        return primary.url;
+    }
+
+    /** Best endpoint not in {@code exclude} that is out of cooldown, or null if there is none. */
+    public synchronized String alternate(Collection<String> exclude, long now) {
+        Stats best = null;
+        for (Stats stats : endpoints.values()) {
+            if (!exclude.contains(stats.url) && stats.isAvailable(now)
+                    && (best == null || stats.score() < best.score())) {
+                best = stats;
+            }
+        }
+        return best != null ? best.url : null;
+    }
+
+    /**
+     * How long a status check may take on {@code url} before a hedged copy goes
+     * to the runner-up: its recent p95, clamped; HEDGE_MAX_MS until there are
+     * enough samples. -1 with a single endpoint - there is nothing to hedge to.
+     */
+    public synchronized long hedgeDelayMs(String url) {
+        Stats stats = endpoints.get(url);
+        if (endpoints.size() < 2 || stats == null) {
+            return -1;
+        }
+        long p95 = stats.p95();
+        if (p95 < 0) {
+            return HEDGE_MAX_MS;
+        }
+        return Math.max(HEDGE_MIN_MS, Math.min(HEDGE_MAX_MS, p95));
+    }
+
+    /** Endpoints other than the primary that are due a health probe; marked as probed. */
+    public synchronized List<String> takeProbesDue(long now) {
+        List<String> due = new ArrayList<>();
+        if (endpoints.size() < 2) {
+            return due;
+        }
+        for (Stats stats : endpoints.values()) {
+            if (stats == primary || !stats.isAvailable(now)) {
+                continue;
+            }
+            boolean cooledDown = stats.consecutiveFailures > 0;
+            boolean stale = stats.lastObservedAt < 0 || now - stats.lastObservedAt >= PROBE_INTERVAL_MS;
+            if (cooledDown || stale) {
+                due.add(stats.url);
+                // Counts as observed - a probe that never returns is not repeated at once
+                stats.lastObservedAt = now;
+                if (cooledDown) {
+                    stats.cooldownUntil = now + cooldown(stats.consecutiveFailures);
+                }
+            }
+        }
+        return due;
+    }
+
+    private Stats best(Collection<String> exclude, long now) {
+        Stats best = null;
+        Stats soonest = null;
+        for (Stats stats : endpoints.values()) {
+            if (exclude.contains(stats.url)) {
+                continue;
+            }
+            if (stats.isAvailable(now) && (best == null || stats.score() < best.score())) {
+                best = stats;
+            }
+            if (soonest == null || stats.cooldownUntil < soonest.cooldownUntil) {
+                soonest = stats;
+            }
+        }
+        // Everything cooling down: the one that comes back first
+        return best != null ? best : soonest;
+    }
+
+    // ==================== OBSERVATIONS ====================
+
+    public synchronized void onSuccess(String url, long rttMs, long now) {
+        Stats stats = endpoints.get(url);
+        if (stats == null) {
+            return; // Config changed under an in-flight call
+        }
+        long rtt = Math.max(0, rttMs);
+        stats.rttMs = stats.rttMs < 0 ? rtt : stats.rttMs + RTT_ALPHA * (rtt - stats.rttMs);
+        stats.errorRate -= ERROR_ALPHA * stats.errorRate;
+        stats.consecutiveFailures = 0;
+        stats.cooldownUntil = 0;
+        stats.lastObservedAt = now;
+        stats.successes++;
+        stats.addSample(rtt);
+    }
+
+    public synchronized void onFailure(String url, long now) {
+        Stats stats = endpoints.get(url);
+        if (stats == null) {
+            return;
+        }
+        stats.errorRate += ERROR_ALPHA * (1 - stats.errorRate);
+        stats.consecutiveFailures++;
+        stats.cooldownUntil = now + cooldown(stats.consecutiveFailures);
+        stats.lastObservedAt = now;
+        stats.failures++;
+    }
+
+    static long cooldown(int consecutiveFailures) {
+        int shift = Math.min(consecutiveFailures - 1, 16);
+        return Math.min(COOLDOWN_MAX_MS, COOLDOWN_BASE_MS << shift);
+    }
+
+    // ==================== INTROSPECTION ====================
+
+    public synchronized List<String> getEndpoints() {
+        return new ArrayList<>(endpoints.keySet());
+    }
+
+    public synchronized int size() {
+        return endpoints.size();
+    }
+
+    public synchronized long getSwitchCount() {
+        return switches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder("EndpointSelector{primary=").append(primary.url)
+                .append(", switches=").append(switches).append('}');
+        for (Stats stats : endpoints.values()) {
+            out.append("\n  ").append(stats);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,327 @@
+package com.securefinance.emilock.admin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ImageCache - Content-Addressed Disk Cache for Images
+ *
+ * Downloaded images (wallpaper, lender logo) kept on disk by the SHA-256 of
+ * their bytes, so a repeated command never downloads the same asset twice:
+ * - store() streams the body straight into a temp file while hashing it -
+ *   the image is never held in memory - then renames it to its hash; a
+ *   mismatch with an expected hash throws and nothing is kept
+ * - An index maps source URLs to hashes, so lookup() finds an asset by the
+ *   URL a command carries (image URLs are immutable: new image, new URL)
+ * - Total size is capped: least recently used blobs are deleted first, the
+ *   one just stored never. Use order survives restarts (file mtime)
+ * - sampleSize() is the decode-side math: the power-of-two subsampling that
+ *   still covers the target size, within a pixel budget
+ *
+ * The directory is read lazily on first use, so constructing one costs no
+ * disk I/O. Blocking calls - background threads only. Thread-safe. Pure Java.
+ */
+public final class ImageCache {
+
+    static final String INDEX_FILE = "index";
+    static final int MAX_URLS = 64;
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    // Access-ordered: eldest first
+    private final LinkedHashMap<String, Long> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, String> urls = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    // Counters for dump
+    private long hits;
+    private long misses;
+    private long stored;
+    private long evicted;
+
+    /**
+     * @param maxBytes total size the cache trims to
+     * @param maxEntryBytes largest single image accepted by store()
+     */
+    public ImageCache(File dir, long maxBytes, long maxEntryBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    }
+
+    // ==================== Lookup ====================
+
+    /**
+     * The cached file for an image, by expected hash if known, else by URL.
+     * @return null on a miss
+     */
+    public synchronized File lookup(String url, String sha256) {
+        load();
+        String hash = sha256 != null ? sha256.toLowerCase(Locale.US) : urls.get(url);
+        File file = hash != null ? blob(hash) : null;
+        if (file == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        if (url != null && !hash.equals(urls.get(url))) {
+            urls.put(url, hash);
+            writeIndex();
+        }
+        return file;
+    }
+
+    private File blob(String hash) {
+        if (blobs.get(hash) == null) {
+            return null;
+        }
+        File file = new File(dir, hash);
+        if (!file.isFile()) {
+            forget(hash); // Cleared behind our back (storage pressure)
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    // ==================== Store ====================
+
+    /**
+     * Stream an image into the cache. Does not close the stream.
+     * @param contentLength declared size, or -1 if unknown
+     * @param sha256 expected hash, or null to accept any content
+     * @return the cached file
+     */
+    public File store(String url, String sha256, InputStream in, long contentLength) throws IOException {
+        if (contentLength > maxEntryBytes) {
+            throw new IOException("Image too large: " + contentLength + " bytes");
+        }
+        synchronized (this) {
+            load();
+        }
+        MessageDigest digest = sha256();
+        File temp = File.createTempFile(TEMP_PREFIX, null, dir);
+        long size = 0;
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxEntryBytes) {
+                        throw new IOException("Image too large: over " + maxEntryBytes + " bytes");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                out.getFD().sync();
+            }
+            String hash = hex(digest.digest());
+            if (sha256 != null && !hash.equalsIgnoreCase(sha256)) {
+                throw new IOException("Image hash mismatch: got " + hash);
+            }
+            File file = new File(dir, hash);
+            synchronized (this) {
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Rename failed: " + file);
+                }
+                Long previous = blobs.put(hash, size);
+                totalBytes += size - (previous != null ? previous : 0);
+                if (url != null) {
+                    urls.put(url, hash);
+                    trimUrls();
+                    writeIndex();
+                }
+                stored++;
+                trim(hash);
+            }
+            return file;
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    /** Drop least recently used blobs until under maxBytes, keeping the one just stored. */
+    private void trim(String keep) {
+        Iterator<Map.Entry<String, Long>> it = blobs.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            new File(dir, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            it.remove();
+            evicted++;
+        }
+        if (urls.values().retainAll(blobs.keySet())) {
+            writeIndex();
+        }
+    }
+
+    private void trimUrls() {
+        Iterator<String> it = urls.keySet().iterator();
+        while (urls.size() > MAX_URLS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void forget(String hash) {
+        Long size = blobs.remove(hash);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        if (urls.values().removeIf(hash::equals)) {
+            writeIndex();
+        }
+    }
+
+    // ==================== Persistence ====================
+
+    /** Rebuild the LRU from the directory (mtime order) and the URL index. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return; // store() fails on its own
+        }
+        File[] files = dir.listFiles();
+        List<File> found = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(TEMP_PREFIX)) {
+                    file.delete(); // Interrupted store
+                } else if (isHash(file.getName())) {
+                    found.add(file);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : found) {
+            blobs.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        File index = new File(dir, INDEX_FILE);
+        if (index.isFile()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space > 0 && blobs.containsKey(line.substring(0, space))) {
+                        urls.put(line.substring(space + 1), line.substring(0, space));
+                    }
+                }
+            } catch (IOException e) {
+                urls.clear(); // Assets are found again by URL after one more download
+            }
+        }
+        trim(null);
+    }
+
+    /** "hash url" per line, eldest first; written whole and renamed into place. */
+    private void writeIndex() {
+        File temp = new File(dir, INDEX_FILE + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> entry : urls.entrySet()) {
+                    writer.write(entry.getValue());
+                    writer.write(' ');
+                    writer.write(entry.getKey());
+                    writer.write('\n');
+                }
+            }
+            if (!temp.renameTo(new File(dir, INDEX_FILE))) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete(); // Costs a re-download by URL at worst
+        }
+    }
+
+    // ==================== Decode math ====================
+
+    /**
+     * Largest power of two the source can be subsampled by while both sides
+     * still cover the target (BitmapFactory inSampleSize), then halved further
+     * while the result has more than maxPixels - an aspect ratio far from the
+     * target's would otherwise keep a photo at full size. A target of 0 means
+     * no size to cover; maxPixels of 0 means no pixel limit.
+     */
+    public static int sampleSize(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight,
+                                 long maxPixels) {
+        int sample = 1;
+        if (targetWidth > 0 && targetHeight > 0) {
+            while (sourceWidth / (sample * 2) >= targetWidth && sourceHeight / (sample * 2) >= targetHeight) {
+                sample *= 2;
+            }
+        }
+        while (maxPixels > 0 && (long) (sourceWidth / sample) * (sourceHeight / sample) > maxPixels) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // ==================== Helpers ====================
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Required on every platform
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    private static boolean isHash(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageCache{" + blobs.size() + " images, " + totalBytes + "/" + maxBytes + " bytes"
+                + ", urls=" + urls.size() + ", hits=" + hits + ", misses=" + misses
+                + ", stored=" + stored + ", evicted=" + evicted + "}";
+    }
+}
@@ -0,0 +1,166 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * LocationPolicy - Motion-Adaptive Location Sampling
+ *
+ * Decides how often LocationTracker asks for a fix, from which source, and
+ * which fixes are worth keeping:
+ * - STATIONARY: coarse (network) fixes every STATIONARY_INTERVAL_MS; the
+ *   device drops back here after STILL_FIXES fixes without movement
+ * - MOVING: GPS, spaced so consecutive points are about TARGET_SPACING_M
+ *   apart at the current speed (MOVING_MIN_MS .. MOVING_MAX_MS)
+ * - Locked (a defaulted device being recovered): intervals are divided by
+ *   LOCKED_DIVISOR; power save multiplies them by POWER_SAVE_MULTIPLIER
+ * - Keep filter: a fix is stored if it moved further than its own accuracy
+ *   (and MIN_DISTANCE_M) from the last stored point, or if nothing was
+ *   stored for KEEPALIVE_MS - a parked device costs one point per half hour.
+ *   Fixes worse than MAX_ACCURACY_M are never stored
+ *
+ * Pure Java (no Android imports). All times are fix times (wall clock ms).
+ * Not thread-safe - policy looper only.
+ */
+public final class LocationPolicy {
+
+    public enum Mode { STATIONARY, MOVING }
+
+    static final long STATIONARY_INTERVAL_MS = 15 * 60_000L;
+    static final long MOVING_MIN_MS = 10_000;
+    static final long MOVING_MAX_MS = 60_000;
+    static final double TARGET_SPACING_M = 150;
+    static final long LOCKED_DIVISOR = 3;
+    static final long POWER_SAVE_MULTIPLIER = 2;
+
+    static final double MOVING_SPEED_MPS = 1.0; // Brisk walk is ~1.4 m/s
+    static final int STILL_FIXES = 3;
+    static final double MIN_DISTANCE_M = 25;
+    static final double MAX_ACCURACY_M = 500;
+    static final long KEEPALIVE_MS = 30 * 60_000L;
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+
+    private Mode mode = Mode.STATIONARY;
+    private boolean locked;
+    private boolean powerSave;
+    private double speedMps;
+    private int stillFixes;
+
+    // Last fix seen and last point stored (fix time, degrees)
+    private boolean hasLastFix;
+    private long lastFixAt;
+    private double lastFixLat;
+    private double lastFixLng;
+    private boolean hasStored;
+    private long storedAt;
+    private double storedLat;
+    private double storedLng;
+
+    private long fixes;
+    private long kept;
+
+    // ==================== INPUTS ====================
+
+    /**
+     * A new fix. Updates the motion state and says whether to store it.
+     * A fix no newer than the last one (a duplicate delivery) is ignored.
+     * @param speedMps reported speed, or a negative value when the fix has none
+     */
+    public boolean onFix(long timeMs, double lat, double lng, float accuracyM, float speedMps) {
+        if (hasLastFix && timeMs <= lastFixAt) {
+            return false;
+        }
+        fixes++;
+        double speed = speedMps;
+        if (speed < 0 && hasLastFix && timeMs > lastFixAt) {
+            // Network fixes carry no speed - infer it, discounting jitter inside the accuracy radius
+            double moved = Math.max(0, distanceM(lastFixLat, lastFixLng, lat, lng) - accuracyM);
+            speed = moved / ((timeMs - lastFixAt) / 1000.0);
+        }
+        if (speed >= MOVING_SPEED_MPS) {
+            mode = Mode.MOVING;
+            this.speedMps = speed;
+            stillFixes = 0;
+        } else if (++stillFixes >= STILL_FIXES) {
+            mode = Mode.STATIONARY;
+            this.speedMps = 0;
+        }
+        hasLastFix = true;
+        lastFixAt = timeMs;
+        lastFixLat = lat;
+        lastFixLng = lng;
+
+        if (accuracyM > MAX_ACCURACY_M) {
+            return false;
+        }
+        boolean keep = !hasStored
+                || timeMs - storedAt >= KEEPALIVE_MS
+                || distanceM(storedLat, storedLng, lat, lng) > Math.max(MIN_DISTANCE_M, accuracyM);
+        if (keep) {
+            hasStored = true;
+            storedAt = timeMs;
+            storedLat = lat;
+            storedLng = lng;
+            kept++;
+        }
+        return keep;
+    }
+
+    public void setLocked(boolean locked) {
+        this.locked = locked;
+    }
+
+    public void setPowerSave(boolean powerSave) {
+        this.powerSave = powerSave;
+    }
+
+    // ==================== DECISION ====================
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Time between fix requests for the current state. */
+    public long intervalMs() {
+        long interval;
+        if (mode == Mode.MOVING) {
+            long spaced = speedMps > 0 ? (long) (TARGET_SPACING_M / speedMps * 1000) : MOVING_MAX_MS;
+            interval = Math.max(MOVING_MIN_MS, Math.min(MOVING_MAX_MS, spaced));
+        } else {
+            interval = STATIONARY_INTERVAL_MS;
+        }
+        if (locked) {
+            interval = Math.max(MOVING_MIN_MS, interval / LOCKED_DIVISOR);
+        }
+        if (powerSave) {
+            interval *= POWER_SAVE_MULTIPLIER;
+        }
+        return interval;
+    }
+
+    /** GPS only while moving - a parked device is tracked well enough by cell and Wi-Fi. */
+    public boolean wantsPrecise() {
+        return mode == Mode.MOVING;
+    }
+
+    // ==================== HELPERS ====================
+
+    /** Great-circle distance (haversine). */
+    static double distanceM(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Override
+    public String toString() {
+        return "LocationPolicy{mode=" + mode
+                + ", speed=" + Math.round(speedMps * 10) / 10.0 + "m/s"
+                + ", intervalMs=" + intervalMs()
+                + ", locked=" + locked
+                + ", powerSave=" + powerSave
+                + ", fixes=" + fixes
+                + ", kept=" + kept + "}";
+    }
+}
@@ -0,0 +1,82 @@
+package com.securefinance.emilock.admin;
+
+import java.util.Arrays;
+
+/**
+ * LockScreenMetrics - Lock Screen Time-To-First-Frame
+ *
+ * Time from the lock trigger (LockEnforcementService deciding to show the
+ * lock screen, or boot) to LockActivity drawing its first frame:
+ * - Cold (activity created) and warm (relaunch onto the running screen)
+ *   samples are kept apart: warm ones are an order of magnitude faster and
+ *   would hide a slow cold start in a shared window
+ * - Last WINDOW samples of each kept in a ring; p50/p95/max computed on demand
+ * - Written by LockActivity (main thread), read by dump and telemetry
+ *
+ * Pure Java, thread-safe.
+ */
+public final class LockScreenMetrics {
+
+    static final int WINDOW = 32;
+
+    private static final LockScreenMetrics INSTANCE = new LockScreenMetrics();
+
+    private final Window cold = new Window();
+    private final Window warm = new Window();
+
+    public static LockScreenMetrics get() {
+        return INSTANCE;
+    }
+
+    /** @param cold true when the activity was created, false for an in-place relaunch */
+    public synchronized void record(long ttffMs, boolean cold) {
+        (cold ? this.cold : warm).add(ttffMs);
+        (cold ? AgentMetrics.LOCK_SCREEN_TTFF_MS : AgentMetrics.LOCK_SCREEN_WARM_TTFF_MS).record(ttffMs);
+    }
+
+    public synchronized long getCount(boolean cold) {
+        return (cold ? this.cold : warm).total;
+    }
+
+    public synchronized long percentile(boolean cold, int p) {
+        return (cold ? this.cold : warm).percentile(p);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "lockScreen ttff cold{" + cold + "} warm{" + warm + "}";
+    }
+
+    /** One ring of samples. Guarded by the enclosing instance. */
+    private static final class Window {
+        private final long[] samples = new long[WINDOW];
+        private int next;
+        private int size;
+        private long total;
+        private long lastMs = -1;
+
+        void add(long ms) {
+            samples[next] = ms;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+            total++;
+            lastMs = ms;
+        }
+
+        long percentile(int p) {
+            if (size == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100.0 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + total + " last=" + lastMs + "ms p50=" + percentile(50) + "ms p95=" + percentile(95)
+                    + "ms max=" + percentile(100) + "ms";
+        }
+    }
+}
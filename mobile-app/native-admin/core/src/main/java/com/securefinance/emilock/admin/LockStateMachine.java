@@ -0,0 +1,93 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * LockStateMachine - Ordered Lock/Unlock Transitions
+ *
+ * Single source of truth for the agent's lock state. Every observation
+ * (poll result, push event, FCM extra, boot restore) goes through here on the
+ * policy thread, so transitions happen in one deterministic order.
+ *
+ * Stale-read protection: a poll records the state version when it is sent.
+ * If a push or command moved the state while the request was in flight, the
+ * (older) poll answer is dropped instead of flipping the device back.
+ *
+ * Pure Java - no Android dependencies.
+ */
+public class LockStateMachine {
+
+    public enum Source { BOOT, POLL, PUSH, COMMAND, OFFLINE_TOKEN }
+
+    /** Pass as observedAtVersion for authoritative sources that cannot be stale. */
+    public static final long AUTHORITATIVE = -1;
+
+    public static final class Transition {
+        public final long version;
+        public final Source source;
+        public final boolean locked;
+
+        Transition(long version, Source source, boolean locked) {
+            this.version = version;
+            this.source = source;
+            this.locked = locked;
+        }
+
+        @Override
+        public String toString() {
+            return "v" + version + " " + (locked ? "LOCKED" : "UNLOCKED") + " via " + source;
+        }
+    }
+
+    private boolean locked;
+    private long version;
+    private long staleDropped;
+    private Transition lastTransition;
+
+    public LockStateMachine(boolean initiallyLocked) {
+        this.locked = initiallyLocked;
+    }
+
+    /**
+     * Apply an observed lock state.
+     *
+     * @param observedAtVersion getVersion() when the observation was requested,
+     *                          or AUTHORITATIVE for push / commands
+     * @return the transition, or null if nothing changed or the observation was stale
+     */
+    public synchronized Transition onObserved(Source source, boolean observedLocked, long observedAtVersion) {
+        if (observedAtVersion != AUTHORITATIVE && observedAtVersion != version) {
+            staleDropped++;
+            return null;
+        }
+        if (observedLocked == locked) {
+            return null;
+        }
+        locked = observedLocked;
+        version++;
+        lastTransition = new Transition(version, source, observedLocked);
+        return lastTransition;
+    }
+
+    public synchronized boolean isLocked() {
+        return locked;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long getStaleDropped() {
+        return staleDropped;
+    }
+
+    public synchronized Transition getLastTransition() {
+        return lastTransition;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LockStateMachine{locked=" + locked
+                + ", version=" + version
+                + ", staleDropped=" + staleDropped
+                + ", last=" + lastTransition + "}";
+    }
+}
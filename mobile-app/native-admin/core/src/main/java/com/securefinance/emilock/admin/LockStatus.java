@@ -0,0 +1,56 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * LockStatus - Decoded Device-Facing Status
+ *
+ * The only fields the agent reads from GET /api/customers/:id?view=lock and
+ * push "state" events. Mutable and reusable so the decoder can fill the same
+ * instance on every poll.
+ */
+public final class LockStatus {
+
+    public boolean hasLockState;
+    public boolean isLocked;
+    public String lockMessage;
+    public String supportPhone;
+
+    // Pending remote command (null when none)
+    public String command;
+    public long commandTimestamp;
+    public String commandParamsJson;
+
+    public void clear() {
+        hasLockState = false;
+        isLocked = false;
+        lockMessage = null;
+        supportPhone = null;
+        command = null;
+        commandTimestamp = 0;
+        commandParamsJson = null;
+    }
+
+    public boolean hasCommand() {
+        return command != null;
+    }
+
+    public LockStatus copy() {
+        LockStatus copy = new LockStatus();
+        copy.hasLockState = hasLockState;
+        copy.isLocked = isLocked;
+        copy.lockMessage = lockMessage;
+        copy.supportPhone = supportPhone;
+        copy.command = command;
+        copy.commandTimestamp = commandTimestamp;
+        copy.commandParamsJson = commandParamsJson;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "LockStatus{locked=" + (hasLockState ? String.valueOf(isLocked) : "?")
+                + ", message=" + lockMessage
+                + ", phone=" + supportPhone
+                + (command != null ? ", command=" + command + "@" + commandTimestamp : "")
+                + "}";
+    }
+}
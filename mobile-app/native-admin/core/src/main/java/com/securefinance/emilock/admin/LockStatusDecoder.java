@@ -0,0 +1,466 @@
+package com.securefinance.emilock.admin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * LockStatusDecoder - Streaming Status Payload Decoder
+ *
+ * Reads the lock status straight off the response stream instead of
+ * buffering the body into a String and building a JSONObject tree:
+ * - Only isLocked, lockMessage, supportPhone and the pending command are
+ *   materialized; every other field is skipped byte-by-byte
+ * - Keys are matched in a reused char buffer, so field names never become Strings
+ * - Understands both the full lock view and the compact one negotiated with
+ *   COMPACT_MEDIA_TYPE (l / m / p / c{n, t, a})
+ * - Command params are kept as raw JSON text (rare; parsed by whoever runs the command)
+ *
+ * Reusable but not thread-safe: one instance per thread.
+ */
+public final class LockStatusDecoder {
+
+    /** Compact lock view: {"l":1,"m":"...","p":"...","c":{"n":"lock","t":1700000000000}} */
+    public static final String COMPACT_MEDIA_TYPE = "application/vnd.emilock.lock+json";
+
+    private static final int BUFFER_SIZE = 512;
+    private static final int MAX_DEPTH = 32;
+
+    private static final char[][] LOCKED_KEYS = { "isLocked".toCharArray(), "l".toCharArray() };
+    private static final char[][] MESSAGE_KEYS = { "lockMessage".toCharArray(), "m".toCharArray() };
+    private static final char[][] PHONE_KEYS = { "supportPhone".toCharArray(), "p".toCharArray() };
+    private static final char[][] COMMAND_KEYS = { "command".toCharArray(), "c".toCharArray() };
+    private static final char[][] COMMAND_NAME_KEYS = { "command".toCharArray(), "n".toCharArray() };
+    private static final char[][] TIMESTAMP_KEYS = { "timestamp".toCharArray(), "t".toCharArray() };
+    private static final char[][] PARAMS_KEYS = { "params".toCharArray(), "a".toCharArray() };
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private InputStream in;
+
+    private char[] chars = new char[64];
+    private int charCount;
+
+    // Raw capture of a skipped value (command params only)
+    private ByteArrayOutputStream capture;
+    private int captureStart = -1;
+
+    /** Decode one status document from a stream. Does not close the stream. */
+    public LockStatus decode(InputStream stream, LockStatus out) throws IOException {
+        in = stream;
+        pos = 0;
+        limit = 0;
+        out.clear();
+        try {
+            readObject(out);
+        } finally {
+            in = null;
+        }
+        return out;
+    }
+
+    public LockStatus decode(byte[] data, LockStatus out) throws IOException {
+        return decode(new ByteArrayInputStream(data), out);
+    }
+
+    // ==================== Document structure ====================
+
+    private void readObject(LockStatus out) throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            readKey();
+            if (matches(LOCKED_KEYS)) {
+                out.isLocked = readFlag();
+                out.hasLockState = true;
+            } else if (matches(MESSAGE_KEYS)) {
+                out.lockMessage = readNullableString();
+            } else if (matches(PHONE_KEYS)) {
+                out.supportPhone = readNullableString();
+            } else if (matches(COMMAND_KEYS)) {
+                readCommand(out);
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                return;
+            }
+        }
+    }
+
+    private void readCommand(LockStatus out) throws IOException {
+        int c = peekToken();
+        if (c == 'n') {
+            expectLiteral("null");
+            return;
+        }
+        expect('{');
+        if (peekToken() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            readKey();
+            if (matches(COMMAND_NAME_KEYS)) {
+                out.command = readNullableString();
+            } else if (matches(TIMESTAMP_KEYS)) {
+                out.commandTimestamp = readTimestamp();
+            } else if (matches(PARAMS_KEYS)) {
+                out.commandParamsJson = captureValue();
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                return;
+            }
+        }
+    }
+
+    /** Reads "key": into the char buffer. */
+    private void readKey() throws IOException {
+        expect('"');
+        readStringBody();
+        expect(':');
+    }
+
+    /** After a member: true on ',' (more follow), false on the closing bracket. */
+    private boolean nextMember(char close) throws IOException {
+        int c = nextToken();
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw syntax("expected ',' or '" + close + "'", c);
+    }
+
+    private boolean matches(char[][] candidates) {
+        for (char[] key : candidates) {
+            if (key.length == charCount) {
+                boolean equal = true;
+                for (int i = 0; i < charCount; i++) {
+                    if (chars[i] != key[i]) {
+                        equal = false;
+                        break;
+                    }
+                }
+                if (equal) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ==================== Values ====================
+
+    /** true/false, or 1/0 in the compact view. */
+    private boolean readFlag() throws IOException {
+        int c = peekToken();
+        switch (c) {
+            case 't':
+                expectLiteral("true");
+                return true;
+            case 'f':
+                expectLiteral("false");
+                return false;
+            case 'n':
+                expectLiteral("null");
+                return false;
+            default:
+                return readLong() != 0;
+        }
+    }
+
+    private String readNullableString() throws IOException {
+        int c = peekToken();
+        if (c == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        expect('"');
+        readStringBody();
+        return new String(chars, 0, charCount);
+    }
+
+    /** Epoch millis (compact view) or an ISO-8601 string (Mongo Date serialized by Express). */
+    private long readTimestamp() throws IOException {
+        int c = peekToken();
+        if (c == '"') {
+            String iso = readNullableString();
+            try {
+                return Instant.parse(iso).toEpochMilli();
+            } catch (RuntimeException e) {
+                return 0;
+            }
+        }
+        if (c == 'n') {
+            expectLiteral("null");
+            return 0;
+        }
+        return readLong();
+    }
+
+    private long readLong() throws IOException {
+        skipWhitespace();
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) {
+            throw syntax("expected number", c);
+        }
+        // Fraction / exponent are not expected here - skip them rather than fail
+        while ((c = peek()) == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' || (c >= '0' && c <= '9')) {
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decode a string body (opening quote already consumed) into the char
+     * buffer. Handles escapes and multi-byte UTF-8.
+     */
+    private void readStringBody() throws IOException {
+        charCount = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                appendChar(readEscape());
+            } else if (b < 0x80) {
+                appendChar((char) b);
+            } else {
+                appendCodePoint(readUtf8(b));
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw new IOException("Bad \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value; // Surrogate pairs arrive as two escapes
+            default:
+                throw syntax("bad escape", c);
+        }
+    }
+
+    private int readUtf8(int lead) throws IOException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            return 0xFFFD;
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = read();
+            if ((b & 0xC0) != 0x80) {
+                return 0xFFFD;
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint >= 0x10000) {
+            appendChar(Character.highSurrogate(codePoint));
+            appendChar(Character.lowSurrogate(codePoint));
+        } else {
+            appendChar((char) codePoint);
+        }
+    }
+
+    private void appendChar(char c) {
+        if (charCount == chars.length) {
+            char[] grown = new char[chars.length * 2];
+            System.arraycopy(chars, 0, grown, 0, charCount);
+            chars = grown;
+        }
+        chars[charCount++] = c;
+    }
+
+    // ==================== Skipping ====================
+
+    /** Skip any value without materializing it. */
+    private void skipValue() throws IOException {
+        int c = peekToken();
+        if (c == '"') {
+            pos++;
+            skipStringBody();
+        } else if (c == '{' || c == '[') {
+            skipContainer();
+        } else {
+            // Literal or number: runs until a delimiter
+            while ((c = peek()) != ',' && c != '}' && c != ']' && c > ' ') {
+                pos++;
+            }
+        }
+    }
+
+    private void skipStringBody() throws IOException {
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                skipStringBody();
+            } else if (b == '{' || b == '[') {
+                if (++depth > MAX_DEPTH) {
+                    throw new IOException("Status payload nested too deeply");
+                }
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Skip a value and return its raw JSON text. */
+    private String captureValue() throws IOException {
+        if (peekToken() == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        if (capture == null) {
+            capture = new ByteArrayOutputStream(128);
+        }
+        capture.reset();
+        captureStart = pos;
+        try {
+            skipValue();
+            capture.write(buffer, captureStart, pos - captureStart);
+        } finally {
+            captureStart = -1;
+        }
+        return new String(capture.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // ==================== Buffer ====================
+
+    private int peekToken() throws IOException {
+        skipWhitespace();
+        return peek();
+    }
+
+    private int nextToken() throws IOException {
+        skipWhitespace();
+        return read();
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextToken();
+        if (c != expected) {
+            throw syntax("expected '" + expected + "'", c);
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        skipWhitespace();
+        for (int i = 0; i < literal.length(); i++) {
+            int c = read();
+            if (c != literal.charAt(i)) {
+                throw syntax("expected " + literal, c);
+            }
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            pos++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new IOException("Unexpected end of status payload");
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (captureStart >= 0) {
+            // Keep what was consumed before the buffer is overwritten
+            capture.write(buffer, captureStart, limit - captureStart);
+            captureStart = 0;
+        }
+        int n = in.read(buffer, 0, BUFFER_SIZE);
+        if (n <= 0) {
+            pos = 0;
+            limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException syntax(String message, int actual) {
+        return new IOException("Malformed status payload: " + message
+                + ", got " + (actual < 0 ? "EOF" : "'" + (char) actual + "'"));
+    }
+}
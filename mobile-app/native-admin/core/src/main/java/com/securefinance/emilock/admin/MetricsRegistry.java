@@ -0,0 +1,339 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsRegistry - Lock-Free Agent Metrics
+ *
+ * Counters, gauges and log-linear histograms that any thread can update
+ * without locks, exported as compact delta snapshots with telemetry:
+ * - Counter: LongAdder (no contention between the policy, network and main threads)
+ * - Gauge: last value wins
+ * - Histogram: HDR-style buckets - exact below 8, then 8 linear sub-buckets per
+ *   power of two (worst-case error 12.5%), up to 2^40. Recording is one
+ *   AtomicLongArray increment; percentiles are computed from the buckets
+ * - snapshot() returns only what changed since the last commit(); an upload
+ *   that fails is simply not committed, so the next snapshot carries it again
+ *
+ * Bucket layout must match backend/utils/metricsHistogram.js. Pure Java.
+ */
+public final class MetricsRegistry {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private long nextSnapshotSeq = 1;
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    // ==================== Metric types ====================
+
+    public static final class Counter {
+        final String name;
+        private final LongAdder value = new LongAdder();
+        private long exported;
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Gauge {
+        final String name;
+        private final AtomicLong value = new AtomicLong();
+        private long exported = Long.MIN_VALUE;
+
+        Gauge(String name) {
+            this.name = name;
+        }
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Histogram {
+        final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final long[] exported = new long[BUCKETS];
+        private long exportedSum;
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        /** Record a non-negative value (negative values are clamped to 0). */
+        public void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(bucketIndex(v));
+            count.increment();
+            sum.add(v);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /** Lower bound of the bucket holding the p-th percentile of everything recorded. */
+        public long percentile(double p) {
+            long total = 0;
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = buckets.get(i);
+                total += copy[i];
+            }
+            return percentileOf(copy, total, p);
+        }
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : computeCounter(name);
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        return gauge != null ? gauge : computeGauge(name);
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : computeHistogram(name);
+    }
+
+    private Counter computeCounter(String name) {
+        Counter created = new Counter(name);
+        Counter existing = counters.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    private Gauge computeGauge(String name) {
+        Gauge created = new Gauge(name);
+        Gauge existing = gauges.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    private Histogram computeHistogram(String name) {
+        Histogram created = new Histogram(name);
+        Histogram existing = histograms.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    // ==================== Bucket math ====================
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT) {
+            return BUCKETS - 1; // Overflow bucket
+        }
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long percentileOf(long[] buckets, long total, double p) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return bucketLowerBound(i);
+            }
+        }
+        return bucketLowerBound(buckets.length - 1);
+    }
+
+    // ==================== Export ====================
+
+    /** Changes since the last committed snapshot. Call from one exporting thread. */
+    public static final class Snapshot {
+        public final long seq;
+        final List<Counter> counterList = new ArrayList<>();
+        final List<Long> counterValues = new ArrayList<>();
+        final List<Gauge> gaugeList = new ArrayList<>();
+        final List<Long> gaugeValues = new ArrayList<>();
+        final List<Histogram> histogramList = new ArrayList<>();
+        final List<long[]> histogramBuckets = new ArrayList<>();
+        final List<Long> histogramSums = new ArrayList<>();
+
+        Snapshot(long seq) {
+            this.seq = seq;
+        }
+
+        public boolean isEmpty() {
+            return counterList.isEmpty() && gaugeList.isEmpty() && histogramList.isEmpty();
+        }
+
+        /**
+         * {"seq":n,"c":{"name":delta},"g":{"name":value},
+         *  "h":{"name":{"n":count,"s":sum,"b":[index,count,gap,count,...]}}}
+         * Histogram bucket indexes are delta-encoded; only non-empty buckets are sent.
+         */
+        public void writeJson(StringBuilder out) {
+            out.append("{\"seq\":").append(seq);
+            if (!counterList.isEmpty()) {
+                out.append(",\"c\":{");
+                for (int i = 0; i < counterList.size(); i++) {
+                    Counter counter = counterList.get(i);
+                    appendName(out, i, counter.name).append(counterValues.get(i) - counter.exported);
+                }
+                out.append('}');
+            }
+            if (!gaugeList.isEmpty()) {
+                out.append(",\"g\":{");
+                for (int i = 0; i < gaugeList.size(); i++) {
+                    appendName(out, i, gaugeList.get(i).name).append(gaugeValues.get(i));
+                }
+                out.append('}');
+            }
+            if (!histogramList.isEmpty()) {
+                out.append(",\"h\":{");
+                for (int i = 0; i < histogramList.size(); i++) {
+                    Histogram histogram = histogramList.get(i);
+                    long[] live = histogramBuckets.get(i);
+                    long count = 0;
+                    StringBuilder encoded = new StringBuilder();
+                    int previous = 0;
+                    for (int b = 0; b < BUCKETS; b++) {
+                        long delta = live[b] - histogram.exported[b];
+                        if (delta > 0) {
+                            if (encoded.length() > 0) {
+                                encoded.append(',');
+                            }
+                            encoded.append(b - previous).append(',').append(delta);
+                            previous = b;
+                            count += delta;
+                        }
+                    }
+                    appendName(out, i, histogram.name)
+                            .append("{\"n\":").append(count)
+                            .append(",\"s\":").append(histogramSums.get(i) - histogram.exportedSum)
+                            .append(",\"b\":[").append(encoded).append("]}");
+                }
+                out.append('}');
+            }
+            out.append('}');
+        }
+
+        private static StringBuilder appendName(StringBuilder out, int index, String name) {
+            if (index > 0) {
+                out.append(',');
+            }
+            // Metric names are code constants ([a-z0-9._]) - no escaping needed
+            return out.append('"').append(name).append("\":");
+        }
+    }
+
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(nextSnapshotSeq++);
+        for (Counter counter : counters.values()) {
+            long value = counter.get();
+            if (value != counter.exported) {
+                snapshot.counterList.add(counter);
+                snapshot.counterValues.add(value);
+            }
+        }
+        for (Gauge gauge : gauges.values()) {
+            long value = gauge.get();
+            if (value != gauge.exported) {
+                snapshot.gaugeList.add(gauge);
+                snapshot.gaugeValues.add(value);
+            }
+        }
+        for (Histogram histogram : histograms.values()) {
+            long[] live = new long[BUCKETS];
+            boolean changed = false;
+            for (int b = 0; b < BUCKETS; b++) {
+                live[b] = histogram.buckets.get(b);
+                changed |= live[b] != histogram.exported[b];
+            }
+            if (changed) {
+                snapshot.histogramList.add(histogram);
+                snapshot.histogramBuckets.add(live);
+                snapshot.histogramSums.add(histogram.sum.sum());
+            }
+        }
+        return snapshot;
+    }
+
+    /** The snapshot reached the server: later snapshots only carry what came after it. */
+    public synchronized void commit(Snapshot snapshot) {
+        for (int i = 0; i < snapshot.counterList.size(); i++) {
+            snapshot.counterList.get(i).exported = snapshot.counterValues.get(i);
+        }
+        for (int i = 0; i < snapshot.gaugeList.size(); i++) {
+            snapshot.gaugeList.get(i).exported = snapshot.gaugeValues.get(i);
+        }
+        for (int i = 0; i < snapshot.histogramList.size(); i++) {
+            Histogram histogram = snapshot.histogramList.get(i);
+            System.arraycopy(snapshot.histogramBuckets.get(i), 0, histogram.exported, 0, BUCKETS);
+            histogram.exportedSum = snapshot.histogramSums.get(i);
+        }
+    }
+
+    /** Human-readable totals for dumpsys. */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("metrics");
+        for (Counter counter : counters.values()) {
+            out.append("\n  ").append(counter.name).append('=').append(counter.get());
+        }
+        for (Gauge gauge : gauges.values()) {
+            out.append("\n  ").append(gauge.name).append('=').append(gauge.get());
+        }
+        for (Histogram histogram : histograms.values()) {
+            out.append("\n  ").append(histogram.name)
+                    .append(" n=").append(histogram.getCount())
+                    .append(" p50=").append(histogram.percentile(50))
+                    .append(" p99=").append(histogram.percentile(99))
+                    .append(" max=").append(histogram.percentile(100));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package com.securefinance.emilock.admin;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * OfflineCodeVerifier - Time-Windowed Lock/Unlock Codes
+ *
+ * Verifies field codes without any network, TOTP-style (RFC 6238 truncation):
+ *   code = truncate(HMAC-SHA256(secret, counter || purpose)) mod 10^digits
+ *   counter = unixSeconds / period
+ * - The same secret yields different LOCK and UNLOCK codes
+ * - Codes of the previous, current and next period are accepted (clock drift)
+ * - Every accepted counter is burnt: a code cannot be replayed, and rolling
+ *   the clock back cannot revive an old one
+ * - Wrong codes lock the keypad out for LOCKOUT_BASE_MS, doubling per failure;
+ *   the failure count and deadline are persisted (TokenVault) so a restart
+ *   does not reset them
+ *
+ * Fast path: the window's codes are computed once per period with a reused
+ * Mac, so checking a keypress is an int compare.
+ * Must match backend/utils/offlineCode.js. Not thread-safe; pure Java.
+ */
+public final class OfflineCodeVerifier {
+
+    public enum Purpose {
+        UNLOCK(1), LOCK(2);
+
+        final byte tag;
+
+        Purpose(int tag) {
+            this.tag = (byte) tag;
+        }
+    }
+
+    static final String ALGORITHM = "HmacSHA256";
+    static final int WINDOW = 1; // Periods accepted either side of now
+    static final int FREE_ATTEMPTS = 3;
+    static final long LOCKOUT_BASE_MS = 30_000;
+    static final long LOCKOUT_MAX_MS = 30 * 60_000;
+
+    private static final int[] POWERS_OF_TEN = {
+            1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000
+    };
+
+    private final Mac mac;
+    private final long periodSeconds;
+    private final int digits;
+    private final byte[] message = new byte[9];
+
+    // Precomputed window: codes[purpose][i] for counter windowStart + i
+    private final int[][] codes = new int[Purpose.values().length][2 * WINDOW + 1];
+    private long windowCounter = Long.MIN_VALUE;
+
+    private final long[] lastUsedCounter = new long[Purpose.values().length];
+    private int failures;
+    private long lockedOutUntil;
+
+    public OfflineCodeVerifier(byte[] secret, long periodSeconds, int digits) throws GeneralSecurityException {
+        if (digits < 6 || digits > 9 || periodSeconds <= 0) {
+            throw new IllegalArgumentException("Unsupported code format: " + digits + " digits / " + periodSeconds + "s");
+        }
+        this.mac = Mac.getInstance(ALGORITHM);
+        this.mac.init(new SecretKeySpec(secret, ALGORITHM));
+        this.periodSeconds = periodSeconds;
+        this.digits = digits;
+        Arrays.fill(lastUsedCounter, Long.MIN_VALUE);
+    }
+
+    public int getDigits() {
+        return digits;
+    }
+
+    /** Counters already redeemed (persist these so replays stay blocked across restarts). */
+    public void setLastUsedCounter(Purpose purpose, long counter) {
+        lastUsedCounter[purpose.ordinal()] = counter;
+    }
+
+    public long getLastUsedCounter(Purpose purpose) {
+        return lastUsedCounter[purpose.ordinal()];
+    }
+
+    /** Wrong codes since the last accepted one. */
+    public int getFailures() {
+        return failures;
+    }
+
+    /** Lockout deadline on the elapsedNow clock, 0 if never locked out since the last accepted code. */
+    public long getLockedOutUntil() {
+        return lockedOutUntil;
+    }
+
+    /**
+     * Restore a persisted lockout. The deadline is capped at LOCKOUT_MAX_MS from
+     * now, so one saved against another clock cannot lock the keypad for longer.
+     */
+    public void restoreLockout(int failures, long lockedOutUntil, long elapsedNow) {
+        this.failures = Math.max(0, failures);
+        this.lockedOutUntil = Math.min(lockedOutUntil, elapsedNow + LOCKOUT_MAX_MS);
+    }
+
+    /** Keypad lockout that follows the given number of wrong codes, 0 within the free attempts. */
+    public static long lockoutFor(int failures) {
+        if (failures < FREE_ATTEMPTS) {
+            return 0;
+        }
+        int doublings = Math.min(failures - FREE_ATTEMPTS, 16);
+        return Math.min(LOCKOUT_MAX_MS, LOCKOUT_BASE_MS << doublings);
+    }
+
+    /** Remaining keypad lockout after failed attempts, 0 when codes may be entered. */
+    public long lockoutRemainingMs(long elapsedNow) {
+        return Math.max(0, lockedOutUntil - elapsedNow);
+    }
+
+    /**
+     * Check a fully entered code.
+     *
+     * @param wallClockMs  System.currentTimeMillis() - selects the code window
+     * @param elapsedNow   SystemClock.elapsedRealtime() - lockout timing, immune to clock changes
+     * @return the accepted counter (to report to the server), or -1
+     */
+    public long verify(Purpose purpose, int code, long wallClockMs, long elapsedNow) {
+        if (lockoutRemainingMs(elapsedNow) > 0) {
+            return -1;
+        }
+        ensureWindow(Math.floorDiv(wallClockMs / 1000, periodSeconds));
+
+        int[] window = codes[purpose.ordinal()];
+        for (int i = 0; i < window.length; i++) {
+            long counter = windowCounter - WINDOW + i;
+            if (window[i] == code && counter > lastUsedCounter[purpose.ordinal()]) {
+                lastUsedCounter[purpose.ordinal()] = counter;
+                failures = 0;
+                lockedOutUntil = 0;
+                return counter;
+            }
+        }
+
+        failures++;
+        if (failures >= FREE_ATTEMPTS) {
+            lockedOutUntil = elapsedNow + lockoutFor(failures);
+        }
+        return -1;
+    }
+
+    /** Code for a counter - also used by tests and the fleet simulator. */
+    public int codeAt(Purpose purpose, long counter) {
+        for (int i = 7; i >= 0; i--) {
+            message[i] = (byte) counter;
+            counter >>>= 8;
+        }
+        message[8] = purpose.tag;
+        byte[] hash = mac.doFinal(message);
+
+        // RFC 4226 dynamic truncation
+        int offset = hash[hash.length - 1] & 0x0F;
+        int binary = ((hash[offset] & 0x7F) << 24)
+                | ((hash[offset + 1] & 0xFF) << 16)
+                | ((hash[offset + 2] & 0xFF) << 8)
+                | (hash[offset + 3] & 0xFF);
+        return binary % POWERS_OF_TEN[digits];
+    }
+
+    private void ensureWindow(long counter) {
+        if (counter == windowCounter) {
+            return;
+        }
+        for (Purpose purpose : Purpose.values()) {
+            int[] window = codes[purpose.ordinal()];
+            for (int i = 0; i < window.length; i++) {
+                window[i] = codeAt(purpose, counter - WINDOW + i);
+            }
+        }
+        windowCounter = counter;
+    }
+}
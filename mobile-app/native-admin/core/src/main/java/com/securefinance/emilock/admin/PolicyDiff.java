@@ -0,0 +1,99 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PolicyDiff - Minimal DevicePolicyManager Operations
+ *
+ * Compares a desired PolicyState with the applied one and returns only the
+ * operations needed to converge. An empty result means the device is already
+ * in the desired state and no binder call is made.
+ *
+ * User restrictions are additive: restrictions we do not manage are never cleared.
+ *
+ * Pure Java.
+ */
+public final class PolicyDiff {
+
+    public enum Action {
+        SET_LOCK_TASK_PACKAGES,
+        SET_STATUS_BAR_DISABLED,
+        SET_KEYGUARD_DISABLED,
+        ADD_USER_RESTRICTION,
+        SET_UNINSTALL_BLOCKED
+    }
+
+    public static final class Op {
+        public final Action action;
+        public final boolean enabled;
+        public final String key;
+        public final String[] packages;
+
+        private Op(Action action, boolean enabled, String key, String[] packages) {
+            this.action = action;
+            this.enabled = enabled;
+            this.key = key;
+            this.packages = packages;
+        }
+
+        static Op flag(Action action, boolean enabled) {
+            return new Op(action, enabled, null, null);
+        }
+
+        @Override
+        public String toString() {
+            switch (action) {
+                case SET_LOCK_TASK_PACKAGES:
+                    return action + Arrays.toString(packages);
+                case ADD_USER_RESTRICTION:
+                    return action + "(" + key + ")";
+                default:
+                    return action + "(" + enabled + ")";
+            }
+        }
+    }
+
+    private PolicyDiff() {
+    }
+
+    public static List<Op> compute(PolicyState desired, PolicyState applied) {
+        List<Op> ops = null;
+
+        if (desired.lockTaskPackages != null
+                && !desired.lockTaskPackages.equals(applied.lockTaskPackages)) {
+            ops = add(ops, new Op(Action.SET_LOCK_TASK_PACKAGES, true, null, desired.packagesArray()));
+        }
+        if (desired.statusBarDisabled != null
+                && !desired.statusBarDisabled.equals(applied.statusBarDisabled)) {
+            ops = add(ops, Op.flag(Action.SET_STATUS_BAR_DISABLED, desired.statusBarDisabled));
+        }
+        if (desired.keyguardDisabled != null
+                && !desired.keyguardDisabled.equals(applied.keyguardDisabled)) {
+            ops = add(ops, Op.flag(Action.SET_KEYGUARD_DISABLED, desired.keyguardDisabled));
+        }
+        if (desired.userRestrictions != null) {
+            for (String restriction : desired.userRestrictions) {
+                if (applied.userRestrictions == null || !applied.userRestrictions.contains(restriction)) {
+                    ops = add(ops, new Op(Action.ADD_USER_RESTRICTION, true, restriction, null));
+                }
+            }
+        }
+        if (desired.uninstallBlocked != null
+                && !desired.uninstallBlocked.equals(applied.uninstallBlocked)) {
+            ops = add(ops, Op.flag(Action.SET_UNINSTALL_BLOCKED, desired.uninstallBlocked));
+        }
+
+        return ops == null ? Collections.<Op>emptyList() : ops;
+    }
+
+    private static List<Op> add(List<Op> ops, Op op) {
+        if (ops == null) {
+            ops = new ArrayList<>(4);
+        }
+        ops.add(op);
+        return ops;
+    }
+}
@@ -0,0 +1,81 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * PolicyState - Device Owner Policy Snapshot
+ *
+ * Describes either the DESIRED policy for a lock state or the policy we
+ * believe is APPLIED on the device. In an applied snapshot a null field
+ * means "unknown" (never applied, or invalidated after drift) and will be
+ * re-issued by PolicyDiff.
+ *
+ * Immutable, pure Java.
+ */
+public final class PolicyState {
+
+    public final List<String> lockTaskPackages;
+    public final Boolean statusBarDisabled;
+    public final Boolean keyguardDisabled;
+    public final Set<String> userRestrictions;
+    public final Boolean uninstallBlocked;
+
+    public PolicyState(String[] lockTaskPackages, Boolean statusBarDisabled, Boolean keyguardDisabled,
+                       Set<String> userRestrictions, Boolean uninstallBlocked) {
+        this.lockTaskPackages = lockTaskPackages == null ? null : sortedCopy(lockTaskPackages);
+        this.statusBarDisabled = statusBarDisabled;
+        this.keyguardDisabled = keyguardDisabled;
+        this.userRestrictions = userRestrictions == null
+                ? null : Collections.unmodifiableSet(new TreeSet<>(userRestrictions));
+        this.uninstallBlocked = uninstallBlocked;
+    }
+
+    /** Nothing known - everything will be applied. */
+    public static PolicyState unknown() {
+        return new PolicyState(null, null, null, null, null);
+    }
+
+    public PolicyState withLockTaskPackages(String[] packages) {
+        return new PolicyState(packages, statusBarDisabled, keyguardDisabled, userRestrictions, uninstallBlocked);
+    }
+
+    public PolicyState withStatusBarDisabled(Boolean disabled) {
+        return new PolicyState(packagesArray(), disabled, keyguardDisabled, userRestrictions, uninstallBlocked);
+    }
+
+    public PolicyState withKeyguardDisabled(Boolean disabled) {
+        return new PolicyState(packagesArray(), statusBarDisabled, disabled, userRestrictions, uninstallBlocked);
+    }
+
+    public PolicyState withUserRestrictions(Set<String> restrictions) {
+        return new PolicyState(packagesArray(), statusBarDisabled, keyguardDisabled, restrictions, uninstallBlocked);
+    }
+
+    public PolicyState withUninstallBlocked(Boolean blocked) {
+        return new PolicyState(packagesArray(), statusBarDisabled, keyguardDisabled, userRestrictions, blocked);
+    }
+
+    public String[] packagesArray() {
+        return lockTaskPackages == null ? null : lockTaskPackages.toArray(new String[0]);
+    }
+
+    private static List<String> sortedCopy(String[] packages) {
+        List<String> list = new ArrayList<>(Arrays.asList(packages));
+        Collections.sort(list);
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public String toString() {
+        return "PolicyState{kiosk=" + lockTaskPackages
+                + ", statusBarDisabled=" + statusBarDisabled
+                + ", keyguardDisabled=" + keyguardDisabled
+                + ", restrictions=" + userRestrictions
+                + ", uninstallBlocked=" + uninstallBlocked + "}";
+    }
+}
@@ -0,0 +1,261 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * PollScheduler - Adaptive Lock Status Cadence
+ *
+ * Decides how long LockEnforcementService waits before the next status poll:
+ * - BURST: fast polling right after a lock/unlock command, payment or state change
+ * - STEADY: slow polling while nothing is happening (locked devices poll faster
+ *   than unlocked ones because the customer is usually waiting on a payment)
+ * - BACKOFF: exponential backoff with jitter while the backend is unreachable
+ * - IDLE: Doze - long, slot-aligned intervals so wakeups coalesce
+ * - OFFLINE: no network - polling pauses until connectivity returns
+ * - PUSH_BACKED: push channel connected - only a rare safety poll
+ *
+ * Lock propagation bound - how long a dealer lock can take to reach an
+ * unlocked device when the poll is the only path that delivers it:
+ * - Push connected: seconds over push; a lost push event is caught by the
+ *   safety poll within PUSH_SAFETY_INTERVAL_MS (15 min)
+ * - No push, awake: UNLOCKED_INTERVAL_MS (60 s), doubled under battery saver
+ * - Doze: IDLE_INTERVAL_MS rounded up to the next IDLE_ALIGN_MS slot (16 min)
+ * - Backend unreachable: BACKOFF_MAX_MS (5 min) once the backend answers again
+ * A high-priority FCM forceLock bypasses all of these and starts a burst,
+ * so the poll bound only applies when FCM is undeliverable too.
+ * LockLatencyTest checks the awake and Doze bounds on a virtual clock.
+ *
+ * Pure Java (no Android imports) so decisions are deterministic and testable.
+ * All times are elapsedRealtime() milliseconds supplied by the caller.
+ */
+public class PollScheduler {
+
+    public enum Mode { BURST, STEADY_LOCKED, STEADY_UNLOCKED, BACKOFF, IDLE, OFFLINE, PUSH_BACKED }
+
+    public enum Trigger { STATE_CHANGED, COMMAND, PAYMENT, USER_PRESENT, NETWORK_RESTORED }
+
+    // Cadence tuning
+    static final long BURST_INTERVAL_MS = 3_000;
+    static final long BURST_WINDOW_MS = 60_000;
+    static final long LOCKED_INTERVAL_MS = 15_000;
+    static final long UNLOCKED_INTERVAL_MS = 60_000; // Lock propagation bound without push (see above)
+    static final long IDLE_INTERVAL_MS = 15 * 60_000;
+    static final long POWER_SAVE_MULTIPLIER = 2;
+    static final long PUSH_SAFETY_INTERVAL_MS = 15 * 60_000;
+
+    // Failure backoff
+    static final long BACKOFF_BASE_MS = 5_000;
+    static final long BACKOFF_MAX_MS = 5 * 60_000;
+
+    // Wakeup coalescing: idle polls land on this grid so they batch with other alarms
+    static final long IDLE_ALIGN_MS = 60_000;
+
+    private static final int DECISION_HISTORY = 32;
+
+    /** One scheduling decision, kept for tuning and dumpsys. */
+    public static final class Decision {
+        public final long atElapsed;
+        public final Mode mode;
+        public final long delayMs;
+        public final String reason;
+
+        Decision(long atElapsed, Mode mode, long delayMs, String reason) {
+            this.atElapsed = atElapsed;
+            this.mode = mode;
+            this.delayMs = delayMs;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + atElapsed + " " + mode + " +" + delayMs + "ms (" + reason + ")";
+        }
+    }
+
+    private final Random random;
+
+    private boolean locked;
+    private boolean networkAvailable = true;
+    private boolean deviceIdle;
+    private boolean powerSave;
+    private boolean pushConnected;
+    private int consecutiveFailures;
+    private long burstUntil;
+    private String lastTrigger = "startup";
+
+    private Mode currentMode = Mode.STEADY_UNLOCKED;
+    private long currentIntervalMs = UNLOCKED_INTERVAL_MS;
+
+    private final Decision[] history = new Decision[DECISION_HISTORY];
+    private int historyHead;
+    private long decisionCount;
+
+    public PollScheduler() {
+        this(new Random());
+    }
+
+    public PollScheduler(Random random) {
+        this.random = random;
+    }
+
+    // ==================== INPUTS ====================
+
+    /** Start a burst window - called on commands, payments and observed state changes. */
+    public synchronized void onTrigger(Trigger trigger, long now) {
+        burstUntil = now + BURST_WINDOW_MS;
+        consecutiveFailures = 0;
+        lastTrigger = trigger.name();
+    }
+
+    public synchronized void onPollSuccess(boolean isLocked, long now) {
+        boolean changed = isLocked != locked;
+        locked = isLocked;
+        consecutiveFailures = 0;
+        if (changed) {
+            onTrigger(Trigger.STATE_CHANGED, now);
+        }
+    }
+
+    public synchronized void onPollFailure() {
+        consecutiveFailures++;
+    }
+
+    public synchronized void setLocked(boolean isLocked) {
+        locked = isLocked;
+    }
+
+    public synchronized void setNetworkAvailable(boolean available) {
+        boolean restored = available && !networkAvailable;
+        networkAvailable = available;
+        if (restored) {
+            consecutiveFailures = 0;
+            lastTrigger = Trigger.NETWORK_RESTORED.name();
+        }
+    }
+
+    public synchronized void setDeviceIdle(boolean idle) {
+        deviceIdle = idle;
+    }
+
+    public synchronized void setPowerSave(boolean enabled) {
+        powerSave = enabled;
+    }
+
+    /** While the push channel is up, polling is only a safety net. */
+    public synchronized void setPushConnected(boolean connected) {
+        pushConnected = connected;
+    }
+
+    // ==================== DECISION ====================
+
+    /**
+     * Compute the delay until the next poll and record the decision.
+     * Returns -1 when polling should pause until the network comes back.
+     */
+    public synchronized long nextDelay(long now) {
+        Mode mode;
+        long delay;
+        String reason;
+
+        if (!networkAvailable) {
+            mode = Mode.OFFLINE;
+            delay = -1;
+            reason = "no network - waiting for connectivity callback";
+        } else if (deviceIdle) {
+            mode = Mode.IDLE;
+            delay = alignToSlot(now, IDLE_INTERVAL_MS);
+            reason = "doze - aligned to " + IDLE_ALIGN_MS + "ms slot";
+        } else if (consecutiveFailures > 0) {
+            mode = Mode.BACKOFF;
+            delay = backoffDelay(consecutiveFailures);
+            reason = "failures=" + consecutiveFailures;
+        } else if (pushConnected) {
+            mode = Mode.PUSH_BACKED;
+            delay = PUSH_SAFETY_INTERVAL_MS;
+            reason = "push connected - safety poll";
+        } else if (now < burstUntil) {
+            mode = Mode.BURST;
+            delay = BURST_INTERVAL_MS;
+            reason = "burst after " + lastTrigger + ", " + (burstUntil - now) + "ms left";
+        } else {
+            mode = locked ? Mode.STEADY_LOCKED : Mode.STEADY_UNLOCKED;
+            delay = locked ? LOCKED_INTERVAL_MS : UNLOCKED_INTERVAL_MS;
+            reason = "steady";
+        }
+
+        if (powerSave && delay > 0 && mode != Mode.BURST) {
+            delay *= POWER_SAVE_MULTIPLIER;
+            reason += ", power save x" + POWER_SAVE_MULTIPLIER;
+        }
+
+        currentMode = mode;
+        currentIntervalMs = delay;
+        record(new Decision(now, mode, delay, reason));
+        return delay;
+    }
+
+    /** Exponential backoff with "equal jitter": half fixed, half random. */
+    long backoffDelay(int failures) {
+        int shift = Math.min(failures - 1, 16);
+        long ceiling = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << shift);
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * half);
+    }
+
+    /** Round now + minDelay up to the next slot boundary so idle wakeups line up. */
+    static long alignToSlot(long now, long minDelay) {
+        long target = now + minDelay;
+        long aligned = ((target + IDLE_ALIGN_MS - 1) / IDLE_ALIGN_MS) * IDLE_ALIGN_MS;
+        return aligned - now;
+    }
+
+    // ==================== INTROSPECTION ====================
+
+    public synchronized Mode getCurrentMode() {
+        return currentMode;
+    }
+
+    public synchronized long getCurrentIntervalMs() {
+        return currentIntervalMs;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /** Most recent decisions, oldest first. */
+    public synchronized List<Decision> getRecentDecisions() {
+        List<Decision> out = new ArrayList<>(DECISION_HISTORY);
+        int count = (int) Math.min(decisionCount, DECISION_HISTORY);
+        int start = (historyHead - count + DECISION_HISTORY) % DECISION_HISTORY;
+        for (int i = 0; i < count; i++) {
+            out.add(history[(start + i) % DECISION_HISTORY]);
+        }
+        return out;
+    }
+
+    public synchronized long getDecisionCount() {
+        return decisionCount;
+    }
+
+    private void record(Decision decision) {
+        history[historyHead] = decision;
+        historyHead = (historyHead + 1) % DECISION_HISTORY;
+        decisionCount++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PollScheduler{mode=" + currentMode
+                + ", intervalMs=" + currentIntervalMs
+                + ", locked=" + locked
+                + ", network=" + networkAvailable
+                + ", idle=" + deviceIdle
+                + ", powerSave=" + powerSave
+                + ", push=" + pushConnected
+                + ", failures=" + consecutiveFailures
+                + ", decisions=" + decisionCount + "}";
+    }
+}
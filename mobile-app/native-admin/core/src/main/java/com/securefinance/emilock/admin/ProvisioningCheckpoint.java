@@ -0,0 +1,286 @@
+package com.securefinance.emilock.admin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * ProvisioningCheckpoint - Durable Provisioning Progress
+ *
+ * Everything ProvisioningPipeline needs to pick up where a dead process left off:
+ * - The provisioning extras (customerId, serverUrl, lenderName) - the intent
+ *   that carried them is gone after a crash or reboot
+ * - Which steps are done, which failed for good, and attempts per step (so a
+ *   step that crashes the process cannot loop forever)
+ * - Progress reports not yet accepted by the backend, in order
+ *
+ * The whole state is small, so each save rewrites it: temp file, fsync, rename.
+ * A torn or corrupt file (CRC32 mismatch) loads as null. Not thread-safe. Pure Java.
+ */
+public final class ProvisioningCheckpoint {
+
+    /** Pipeline steps in execution order; stage is the backend provisioningStages enum value. */
+    public enum Step {
+        VERIFY_OWNER("DEVICE_OWNER_SET"),
+        SAVE_CONFIG("CONFIG_APPLIED"),
+        START_SERVICE("CONFIG_APPLIED"),
+        RESTRICTIONS("CONFIG_APPLIED"),
+        LOCK_TASK("CONFIG_APPLIED"),
+        RESET_TOKEN("CONFIG_APPLIED"),
+        HIDE_LAUNCHER("PROVISIONING_COMPLETE");
+
+        public final String stage;
+
+        Step(String stage) {
+            this.stage = stage;
+        }
+    }
+
+    public static final class Report {
+        public final String stage;
+        public final String status; // success | failed | in_progress
+        public final String message;
+        public final long timestamp;
+
+        public Report(String stage, String status, String message, long timestamp) {
+            this.stage = stage;
+            this.status = status;
+            this.message = message;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return stage + "/" + status + " " + message;
+        }
+    }
+
+    static final int MAGIC = 0x50524F56; // "PROV"
+    static final int FORMAT = 2; // 2: RESET_TOKEN inserted before HIDE_LAUNCHER
+    static final int MAX_REPORTS = 64;
+
+    public String customerId;
+    public String serverUrl;
+    public String lenderName;
+    public long startedAt;
+
+    private int done;
+    private int failed;
+    private final byte[] attempts = new byte[Step.values().length];
+    private final List<Report> reports = new ArrayList<>();
+
+    // ==================== Steps ====================
+
+    public boolean isDone(Step step) {
+        return (done & (1 << step.ordinal())) != 0;
+    }
+
+    public boolean isFailed(Step step) {
+        return (failed & (1 << step.ordinal())) != 0;
+    }
+
+    /** Done or given up on - either way the pipeline moves past it. */
+    public boolean isSettled(Step step) {
+        return isDone(step) || isFailed(step);
+    }
+
+    public boolean isComplete() {
+        for (Step step : Step.values()) {
+            if (!isSettled(step)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasFailures() {
+        return failed != 0;
+    }
+
+    /** Counts an attempt before the step runs, so a crash inside it still counts. */
+    public int beginAttempt(Step step) {
+        return ++attempts[step.ordinal()];
+    }
+
+    public int getAttempts(Step step) {
+        return attempts[step.ordinal()];
+    }
+
+    public void markDone(Step step) {
+        done |= 1 << step.ordinal();
+        failed &= ~(1 << step.ordinal());
+    }
+
+    public void markFailed(Step step) {
+        failed |= 1 << step.ordinal();
+    }
+
+    // ==================== Reports ====================
+
+    /** Queue a progress report; the oldest are dropped past MAX_REPORTS. */
+    public void addReport(Report report) {
+        if (reports.size() >= MAX_REPORTS) {
+            reports.remove(0);
+        }
+        reports.add(report);
+    }
+
+    public List<Report> pendingReports() {
+        return new ArrayList<>(reports);
+    }
+
+    /** The first `count` reports reached the backend. */
+    public void removeReports(int count) {
+        reports.subList(0, Math.min(count, reports.size())).clear();
+    }
+
+    public boolean hasPendingReports() {
+        return !reports.isEmpty();
+    }
+
+    // ==================== Persistence ====================
+
+    public void save(File file) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeInt(MAGIC);
+        data.writeByte(FORMAT);
+        writeString(data, customerId);
+        writeString(data, serverUrl);
+        writeString(data, lenderName);
+        data.writeLong(startedAt);
+        data.writeInt(done);
+        data.writeInt(failed);
+        data.writeByte(attempts.length);
+        data.write(attempts);
+        data.writeShort(reports.size());
+        for (Report report : reports) {
+            writeString(data, report.stage);
+            writeString(data, report.status);
+            writeString(data, report.message);
+            data.writeLong(report.timestamp);
+        }
+        data.flush();
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = body.toByteArray();
+        crc.update(bytes, 0, bytes.length);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            DataOutputStream trailer = new DataOutputStream(out);
+            trailer.writeInt((int) crc.getValue());
+            trailer.flush();
+            out.getFD().sync(); // Durable before the step it records takes effect
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Checkpoint rename failed");
+        }
+    }
+
+    /** @return the checkpoint, or null if there is none or it is unreadable */
+    public static ProvisioningCheckpoint load(File file) {
+        if (!file.exists() || file.length() < 8 || file.length() > 64 * 1024) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        } catch (IOException e) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        int stored = ((bytes[bytes.length - 4] & 0xff) << 24) | ((bytes[bytes.length - 3] & 0xff) << 16)
+                | ((bytes[bytes.length - 2] & 0xff) << 8) | (bytes[bytes.length - 1] & 0xff);
+        if ((int) crc.getValue() != stored) {
+            return null;
+        }
+
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4))) {
+            if (data.readInt() != MAGIC) {
+                return null;
+            }
+            int format = data.readByte();
+            if (format != FORMAT && format != 1) {
+                return null;
+            }
+            ProvisioningCheckpoint checkpoint = new ProvisioningCheckpoint();
+            checkpoint.customerId = readString(data);
+            checkpoint.serverUrl = readString(data);
+            checkpoint.lenderName = readString(data);
+            checkpoint.startedAt = data.readLong();
+            checkpoint.done = upgradeSteps(data.readInt(), format);
+            checkpoint.failed = upgradeSteps(data.readInt(), format);
+            int stepCount = data.readByte();
+            for (int i = 0; i < stepCount; i++) {
+                byte value = data.readByte();
+                int step = format == 1 && i >= Step.RESET_TOKEN.ordinal() ? i + 1 : i;
+                if (step < checkpoint.attempts.length) {
+                    checkpoint.attempts[step] = value;
+                }
+            }
+            int reportCount = data.readShort();
+            for (int i = 0; i < reportCount; i++) {
+                checkpoint.reports.add(new Report(readString(data), readString(data), readString(data),
+                        data.readLong()));
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Format 1 had no RESET_TOKEN: shift the later step bits up by one. */
+    private static int upgradeSteps(int bits, int format) {
+        if (format != 1) {
+            return bits;
+        }
+        int low = (1 << Step.RESET_TOKEN.ordinal()) - 1;
+        return (bits & low) | ((bits & ~low) << 1);
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("ProvisioningCheckpoint{");
+        for (Step step : Step.values()) {
+            out.append(step).append(isDone(step) ? "=done" : isFailed(step) ? "=failed" : "=pending");
+            if (attempts[step.ordinal()] > 1) {
+                out.append('(').append(attempts[step.ordinal()]).append(')');
+            }
+            out.append(", ");
+        }
+        return out.append("unsent=").append(reports.size()).append('}').toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * SseParser - Server-Sent Events line decoder
+ *
+ * Implements the text/event-stream framing used by the backend push channel
+ * (GET /api/customers/:id/stream):
+ * - "event:", "data:", "id:" and "retry:" fields
+ * - Multi-line data joined with '\n'
+ * - ":" comment lines (server heartbeats)
+ * - Blank line dispatches the buffered event
+ *
+ * Pure Java - fed one line at a time by PushChannel.
+ */
+public class SseParser {
+
+    public interface Listener {
+        void onEvent(String id, String type, String data);
+
+        void onComment(String comment);
+
+        void onRetry(long retryMs);
+    }
+
+    private final Listener listener;
+    private final StringBuilder data = new StringBuilder();
+    private String eventType;
+    private String lastEventId;
+    private boolean hasData;
+
+    public SseParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void feedLine(String line) {
+        if (line.isEmpty()) {
+            dispatch();
+            return;
+        }
+
+        if (line.charAt(0) == ':') {
+            listener.onComment(line.substring(1).trim());
+            return;
+        }
+
+        String field;
+        String value;
+        int colon = line.indexOf(':');
+        if (colon < 0) {
+            field = line;
+            value = "";
+        } else {
+            field = line.substring(0, colon);
+            int start = colon + 1;
+            if (start < line.length() && line.charAt(start) == ' ') {
+                start++;
+            }
+            value = line.substring(start);
+        }
+
+        switch (field) {
+            case "event":
+                eventType = value;
+                break;
+            case "data":
+                if (hasData) {
+                    data.append('\n');
+                }
+                data.append(value);
+                hasData = true;
+                break;
+            case "id":
+                if (value.indexOf('\0') < 0) {
+                    lastEventId = value;
+                }
+                break;
+            case "retry":
+                try {
+                    listener.onRetry(Long.parseLong(value));
+                } catch (NumberFormatException ignored) {
+                    // Spec: ignore invalid retry values
+                }
+                break;
+            default:
+                // Unknown fields are ignored per spec
+                break;
+        }
+    }
+
+    private void dispatch() {
+        if (hasData) {
+            String type = eventType != null && !eventType.isEmpty() ? eventType : "message";
+            listener.onEvent(lastEventId, type, data.toString());
+        }
+        data.setLength(0);
+        hasData = false;
+        eventType = null;
+    }
+
+    /** Last seen event id - sent back as Last-Event-ID to resume after reconnect. */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    public void setLastEventId(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
+    /** Drop any partially buffered event (connection dropped mid-event). */
+    public void reset() {
+        data.setLength(0);
+        hasData = false;
+        eventType = null;
+    }
+}
@@ -0,0 +1,313 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TamperDetector - Debounced, Deduplicated Tamper Reports
+ *
+ * Turns raw tamper signals (broadcasts, admin callbacks) into a trickle of
+ * reports that a flapping source cannot turn into a flood:
+ * - Level kinds (SIM identity) report a new value only once it has been stable
+ *   for the kind's debounce window; a value equal to the last reported one is
+ *   dropped, and a flap back to it cancels the pending report (counted in flaps)
+ * - Edge kinds (lock-task exit, clock change) coalesce: repeats while a report
+ *   is pending only bump its occurrence count and keep the newest detail
+ * - Each kind reports at most once per minIntervalMs; anything arriving sooner
+ *   waits in its single pending report
+ * - Ready reports are batched: takeDue() hands them out together BATCH_DELAY_MS
+ *   after the first became ready, or at once if an urgent kind is ready
+ * - A failed send goes back with requeue(), merged with anything newer, and no
+ *   batch is due before the caller's retry time
+ *
+ * Memory is one slot per kind. All times are elapsedRealtime() milliseconds
+ * supplied by the caller; wall times only label the reports. Thread-safe. Pure Java.
+ */
+public final class TamperDetector {
+
+    static final long BATCH_DELAY_MS = 15_000;
+
+    public static final class Kind {
+        public final String name;
+        final boolean level;
+        final long debounceMs;
+        final long minIntervalMs;
+        final boolean urgent;
+
+        private Kind(String name, boolean level, long debounceMs, long minIntervalMs, boolean urgent) {
+            this.name = name;
+            this.level = level;
+            this.debounceMs = debounceMs;
+            this.minIntervalMs = minIntervalMs;
+            this.urgent = urgent;
+        }
+
+        /** A state; reported once a new value has held for debounceMs. */
+        public static Kind level(String name, long debounceMs, long minIntervalMs, boolean urgent) {
+            return new Kind(name, true, debounceMs, minIntervalMs, urgent);
+        }
+
+        /** An occurrence; repeats coalesce into the pending report. */
+        public static Kind edge(String name, long minIntervalMs, boolean urgent) {
+            return new Kind(name, false, 0, minIntervalMs, urgent);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** One report to send. Fields are plain for cheap JSON writing. */
+    public static final class Report {
+        public final Kind kind;
+        public String value;      // Level: new value; edge: newest detail
+        public String previous;   // Level: last reported value (null if none)
+        public int occurrences;   // Edge: signals coalesced; level: always 1
+        public int flaps;         // Level: pending values cancelled since the last report
+        public long firstWallTime;
+        public long lastWallTime;
+        boolean hadPrevious;      // Level: previous is meaningful (a null value can be reported too)
+        long lastReportBefore;    // Slot's lastReportAt before this was taken, restored on requeue
+
+        Report(Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name + (kind.level ? "{" + previous + " -> " + value + ", flaps=" + flaps + "}"
+                    : "{x" + occurrences + ", " + value + "}");
+        }
+    }
+
+    private static final class Slot {
+        final Kind kind;
+        boolean hasReported;
+        String reported;          // Level: last reported (or baseline) value
+        boolean hasPending;
+        String pending;           // Level: candidate value
+        long pendingSince;
+        int flaps;
+        long pendingFirstWall;
+        Report edge;              // Edge: pending coalesced report
+        long edgeSince;
+        long lastReportAt = Long.MIN_VALUE / 2;
+
+        Slot(Kind kind) {
+            this.kind = kind;
+        }
+
+        /** When this slot's pending report may go out; Long.MAX_VALUE if none. */
+        long readyAt() {
+            long since;
+            if (kind.level) {
+                if (!hasPending) {
+                    return Long.MAX_VALUE;
+                }
+                since = pendingSince + kind.debounceMs;
+            } else {
+                if (edge == null) {
+                    return Long.MAX_VALUE;
+                }
+                since = edgeSince;
+            }
+            return Math.max(since, lastReportAt + kind.minIntervalMs);
+        }
+    }
+
+    private final Map<String, Slot> slots = new LinkedHashMap<>();
+    private long holdUntil = Long.MIN_VALUE; // No batch before this (send backoff)
+
+    // Counters for dump
+    private long signals;
+    private long reported;
+    private long suppressed; // Signals that did not become a report of their own
+
+    private Slot slot(Kind kind) {
+        Slot slot = slots.get(kind.name);
+        if (slot == null) {
+            slot = new Slot(kind);
+            slots.put(kind.name, slot);
+        }
+        return slot;
+    }
+
+    // ==================== Signals ====================
+
+    /** Level kinds: the value already known to the server (e.g. persisted across restarts). */
+    public synchronized void baseline(Kind kind, String value) {
+        Slot slot = slot(kind);
+        slot.hasReported = true;
+        slot.reported = value;
+        if (slot.hasPending && equal(slot.pending, value)) {
+            slot.hasPending = false;
+        }
+    }
+
+    /** Level kinds: the current value, as observed now. */
+    public synchronized void onState(Kind kind, String value, long now, long wallTime) {
+        signals++;
+        Slot slot = slot(kind);
+        if (slot.hasPending && equal(slot.pending, value)) {
+            suppressed++;
+            return; // Still settling
+        }
+        if (slot.hasReported && equal(slot.reported, value)) {
+            if (slot.hasPending) {
+                slot.hasPending = false; // Flapped back before the debounce ran out
+                slot.flaps++;
+            }
+            suppressed++;
+            return;
+        }
+        if (slot.hasPending) {
+            slot.flaps++;
+            suppressed++;
+        }
+        slot.hasPending = true;
+        slot.pending = value;
+        slot.pendingSince = now;
+        slot.pendingFirstWall = wallTime;
+    }
+
+    /** Edge kinds: one occurrence, with an optional detail. */
+    public synchronized void onEvent(Kind kind, String detail, long now, long wallTime) {
+        signals++;
+        Slot slot = slot(kind);
+        if (slot.edge != null) {
+            slot.edge.occurrences++;
+            slot.edge.value = detail;
+            slot.edge.lastWallTime = wallTime;
+            suppressed++;
+            return;
+        }
+        Report report = new Report(kind);
+        report.value = detail;
+        report.occurrences = 1;
+        report.firstWallTime = wallTime;
+        report.lastWallTime = wallTime;
+        slot.edge = report;
+        slot.edgeSince = now;
+    }
+
+    // ==================== Batching ====================
+
+    /** When takeDue() next has something to return; Long.MAX_VALUE if nothing is pending. */
+    public synchronized long nextDueAt() {
+        long firstReady = Long.MAX_VALUE;
+        boolean urgent = false;
+        for (Slot slot : slots.values()) {
+            long readyAt = slot.readyAt();
+            if (readyAt < firstReady) {
+                firstReady = readyAt;
+                urgent = slot.kind.urgent;
+            } else if (readyAt == firstReady && slot.kind.urgent) {
+                urgent = true;
+            }
+        }
+        if (firstReady == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        // An urgent kind ready later than the first still pulls the batch forward
+        long due = urgent ? firstReady : firstReady + BATCH_DELAY_MS;
+        for (Slot slot : slots.values()) {
+            if (slot.kind.urgent) {
+                due = Math.min(due, slot.readyAt());
+            }
+        }
+        return Math.max(due, holdUntil);
+    }
+
+    /** Every ready report if the batch is due, else an empty list. */
+    public synchronized List<Report> takeDue(long now) {
+        List<Report> batch = new ArrayList<>();
+        if (now < nextDueAt()) {
+            return batch;
+        }
+        for (Slot slot : slots.values()) {
+            if (slot.readyAt() > now) {
+                continue;
+            }
+            Report report;
+            if (slot.kind.level) {
+                report = new Report(slot.kind);
+                report.value = slot.pending;
+                report.previous = slot.hasReported ? slot.reported : null;
+                report.hadPrevious = slot.hasReported;
+                report.occurrences = 1;
+                report.flaps = slot.flaps;
+                report.firstWallTime = slot.pendingFirstWall;
+                report.lastWallTime = slot.pendingFirstWall;
+                slot.hasReported = true;
+                slot.reported = slot.pending;
+                slot.hasPending = false;
+                slot.flaps = 0;
+            } else {
+                report = slot.edge;
+                slot.edge = null;
+            }
+            report.lastReportBefore = slot.lastReportAt;
+            slot.lastReportAt = now;
+            batch.add(report);
+        }
+        reported += batch.size();
+        return batch;
+    }
+
+    /**
+     * A batch failed to send: put it back, merged with anything newer, and
+     * hold the next batch until retryAt.
+     */
+    public synchronized void requeue(List<Report> batch, long now, long retryAt) {
+        for (Report report : batch) {
+            Slot slot = slot(report.kind);
+            slot.lastReportAt = report.lastReportBefore;
+            if (report.kind.level) {
+                slot.hasReported = report.hadPrevious;
+                slot.reported = report.previous;
+                if (slot.hasPending) {
+                    if (slot.hasReported && equal(slot.pending, slot.reported)) {
+                        slot.hasPending = false; // Changed back since: the server never missed anything
+                    }
+                } else {
+                    // Nothing newer: the failed value goes out again, already debounced
+                    slot.hasPending = true;
+                    slot.pending = report.value;
+                    slot.pendingSince = now - report.kind.debounceMs;
+                    slot.pendingFirstWall = report.firstWallTime;
+                }
+                slot.flaps += report.flaps;
+            } else if (slot.edge == null) {
+                slot.edge = report;
+                slot.edgeSince = now;
+            } else {
+                slot.edge.occurrences += report.occurrences;
+                slot.edge.firstWallTime = report.firstWallTime;
+            }
+        }
+        reported -= batch.size();
+        holdUntil = retryAt;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("TamperDetector{signals=").append(signals)
+                .append(", reported=").append(reported)
+                .append(", suppressed=").append(suppressed);
+        for (Slot slot : slots.values()) {
+            if (slot.hasPending) {
+                text.append(", ").append(slot.kind.name).append(" pending");
+            } else if (slot.edge != null) {
+                text.append(", ").append(slot.kind.name).append(" x").append(slot.edge.occurrences);
+            }
+        }
+        return text.append('}').toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.securefinance.emilock.admin;
+
+/**
+ * TelemetryBuffer - Bounded, Coalescing Sample Ring
+ *
+ * Holds device telemetry between uploads without growing or allocating:
+ * - Fixed ring of preallocated Sample slots; when full the oldest is overwritten
+ *   (and counted in getDropped()) rather than blocking or growing
+ * - A sample that matches the newest one (same flags, battery within
+ *   BATTERY_COALESCE_PCT) only extends its time span and count, so an idle
+ *   device produces one entry per state instead of one per tick
+ * - Uploads are two-phase: beginBatch() pins the pending samples, then
+ *   commitBatch() drops them on success or abortBatch() keeps them for retry.
+ *   Pinned samples are never coalesced into, so nothing recorded mid-upload is lost
+ *
+ * Not thread-safe: owned by the policy looper. Pure Java.
+ */
+public final class TelemetryBuffer {
+
+    static final int BATTERY_COALESCE_PCT = 2;
+
+    /** One (possibly coalesced) observation. Fields are plain for cheap JSON writing. */
+    public static final class Sample {
+        long seq;
+        public long firstAt;     // Wall clock of the first observation
+        public long lastAt;      // Wall clock of the newest coalesced observation
+        public int count;
+        public int batteryLevel; // 0-100, -1 unknown
+        public boolean charging;
+        public String network;   // "wifi", "cellular", "ethernet", "none"
+        public long storageFreeMb;
+        public boolean locked;
+        public boolean adbBlocked;
+        public boolean factoryResetBlocked;
+
+        boolean sameStateAs(Sample other) {
+            return charging == other.charging
+                    && locked == other.locked
+                    && adbBlocked == other.adbBlocked
+                    && factoryResetBlocked == other.factoryResetBlocked
+                    && (network == null ? other.network == null : network.equals(other.network))
+                    && Math.abs(batteryLevel - other.batteryLevel) <= BATTERY_COALESCE_PCT
+                    && Math.abs(storageFreeMb - other.storageFreeMb) <= storageFreeMb / 100;
+        }
+
+        void copyFrom(Sample other) {
+            batteryLevel = other.batteryLevel;
+            charging = other.charging;
+            network = other.network;
+            storageFreeMb = other.storageFreeMb;
+            locked = other.locked;
+            adbBlocked = other.adbBlocked;
+            factoryResetBlocked = other.factoryResetBlocked;
+        }
+    }
+
+    private final Sample[] ring;
+    private int head;  // Index of the oldest sample
+    private int size;
+    private long nextSeq = 1;
+    private long pinnedUpTo; // Highest seq handed to an in-flight batch, 0 if none
+    private long dropped;
+
+    public TelemetryBuffer(int capacity) {
+        ring = new Sample[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Sample();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public boolean isBatchInFlight() {
+        return pinnedUpTo != 0;
+    }
+
+    /** Wall clock of the oldest pending observation, or -1 when empty. */
+    public long oldestAt() {
+        return size == 0 ? -1 : ring[head].firstAt;
+    }
+
+    /**
+     * Record an observation, coalescing it into the newest sample when the state is unchanged.
+     *
+     * @param observed scratch sample holding the new values; copied, never retained
+     * @return true if a new entry was added, false if it was coalesced
+     */
+    public boolean record(Sample observed, long wallClockMs) {
+        if (size > 0) {
+            Sample newest = ring[(head + size - 1) % ring.length];
+            if (newest.seq > pinnedUpTo && newest.sameStateAs(observed)) {
+                newest.lastAt = wallClockMs;
+                newest.count++;
+                newest.batteryLevel = observed.batteryLevel;
+                newest.storageFreeMb = observed.storageFreeMb;
+                return false;
+            }
+        }
+
+        if (size == ring.length) {
+            // Batches are serialized in beginBatch()'s caller, so evicting a pinned slot is safe
+            head = (head + 1) % ring.length;
+            size--;
+            dropped++;
+        }
+        Sample slot = ring[(head + size) % ring.length];
+        slot.copyFrom(observed);
+        slot.seq = nextSeq++;
+        slot.firstAt = wallClockMs;
+        slot.lastAt = wallClockMs;
+        slot.count = 1;
+        size++;
+        return true;
+    }
+
+    /**
+     * Pin up to max pending samples for upload, oldest first. Serialize them
+     * before returning to the looper - the slots are reused once evicted.
+     *
+     * @return number of samples in the batch (readable via get(i)), 0 if empty or already in flight
+     */
+    public int beginBatch(int max) {
+        if (pinnedUpTo != 0 || size == 0) {
+            return 0;
+        }
+        int count = Math.min(max, size);
+        pinnedUpTo = get(count - 1).seq;
+        return count;
+    }
+
+    /** i-th pending sample, oldest first. */
+    public Sample get(int i) {
+        return ring[(head + i) % ring.length];
+    }
+
+    /** Upload acknowledged: drop the pinned samples that are still in the ring. */
+    public void commitBatch() {
+        while (size > 0 && ring[head].seq <= pinnedUpTo) {
+            head = (head + 1) % ring.length;
+            size--;
+        }
+        pinnedUpTo = 0;
+    }
+
+    /** Upload failed: keep everything for the next attempt. */
+    public void abortBatch() {
+        pinnedUpTo = 0;
+    }
+}
@@ -0,0 +1,195 @@
+package com.securefinance.emilock.admin;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TrackCodec - Delta/Varint Encoding of Location Points
+ *
+ * A track is a sequence of self-contained blocks; each decodes on its own,
+ * so the store can drop old blocks and the backend can decode any upload:
+ *
+ *   block  = u8 FORMAT, varint count, point[count]
+ *   point0 = zigzag(unixSeconds), zigzag(latE5), zigzag(lngE5), varint accuracyM
+ *   pointN = zigzag(dSeconds),    zigzag(dLatE5), zigzag(dLngE5), varint accuracyM
+ *
+ * Coordinates are fixed point at 1e-5 degrees (about 1.1 m), below GPS error.
+ * Consecutive fixes differ by a few hundred units at most, so a typical point
+ * costs 5-7 bytes against 60+ as JSON. Must match backend/utils/trackCodec.js.
+ * Pure Java.
+ */
+public final class TrackCodec {
+
+    static final int FORMAT = 1;
+    static final double SCALE = 1e5;
+    static final int MAX_ACCURACY_M = 65_535;
+
+    /** One decoded point. */
+    public static final class Point {
+        public final long timeMs; // Stored at whole-second precision
+        public final double lat;
+        public final double lng;
+        public final int accuracyM;
+
+        public Point(long timeMs, double lat, double lng, int accuracyM) {
+            this.timeMs = timeMs;
+            this.lat = lat;
+            this.lng = lng;
+            this.accuracyM = accuracyM;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + timeMs + " " + lat + "," + lng + " ±" + accuracyM + "m";
+        }
+    }
+
+    /** Builds one block. Reusable after reset(). Not thread-safe. */
+    public static final class BlockWriter {
+        private final ByteArrayOutputStream points = new ByteArrayOutputStream(512);
+        private int count;
+        private long firstAt;
+        private long lastAt;
+        private long lastSeconds;
+        private long lastLat;
+        private long lastLng;
+
+        public void add(long timeMs, double lat, double lng, int accuracyM) {
+            long seconds = Math.floorDiv(timeMs, 1000);
+            long latE5 = Math.round(lat * SCALE);
+            long lngE5 = Math.round(lng * SCALE);
+            if (count == 0) {
+                writeSigned(points, seconds);
+                writeSigned(points, latE5);
+                writeSigned(points, lngE5);
+                firstAt = seconds * 1000;
+            } else {
+                // Wall clock may step back (time sync) - zigzag keeps that cheap too
+                writeSigned(points, seconds - lastSeconds);
+                writeSigned(points, latE5 - lastLat);
+                writeSigned(points, lngE5 - lastLng);
+            }
+            writeUnsigned(points, Math.max(0, Math.min(MAX_ACCURACY_M, accuracyM)));
+            lastSeconds = seconds;
+            lastLat = latE5;
+            lastLng = lngE5;
+            lastAt = seconds * 1000;
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public long firstAt() {
+            return firstAt;
+        }
+
+        public long lastAt() {
+            return lastAt;
+        }
+
+        /** Encoded size if sealed now. */
+        public int size() {
+            return 1 + varintSize(count) + points.size();
+        }
+
+        public byte[] toByteArray() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size());
+            out.write(FORMAT);
+            writeUnsigned(out, count);
+            out.write(points.toByteArray(), 0, points.size());
+            return out.toByteArray();
+        }
+
+        public void reset() {
+            points.reset();
+            count = 0;
+        }
+    }
+
+    private TrackCodec() {
+    }
+
+    /**
+     * Decode every block in {@code data}, appending to {@code out}.
+     * @throws IllegalArgumentException on an unknown format or a truncated block
+     */
+    public static List<Point> decode(byte[] data, List<Point> out) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        while (in.hasRemaining()) {
+            decodeBlock(in, out);
+        }
+        return out;
+    }
+
+    public static List<Point> decode(byte[] data) {
+        return decode(data, new ArrayList<Point>());
+    }
+
+    /** Decode the block at the buffer's position and leave it just past the block. */
+    public static void decodeBlock(ByteBuffer in, List<Point> out) {
+        try {
+            int format = in.get() & 0xff;
+            if (format != FORMAT) {
+                throw new IllegalArgumentException("Unknown track format " + format);
+            }
+            long count = readUnsigned(in);
+            long seconds = 0;
+            long lat = 0;
+            long lng = 0;
+            for (long i = 0; i < count; i++) {
+                seconds += readSigned(in);
+                lat += readSigned(in);
+                lng += readSigned(in);
+                int accuracy = (int) readUnsigned(in);
+                out.add(new Point(seconds * 1000, lat / SCALE, lng / SCALE, accuracy));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated track block", e);
+        }
+    }
+
+    // ==================== Varints ====================
+
+    static void writeSigned(ByteArrayOutputStream out, long value) {
+        writeUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeUnsigned(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readSigned(ByteBuffer in) {
+        long raw = readUnsigned(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    static long readUnsigned(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,322 @@
+package com.securefinance.emilock.admin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * TrackStore - Bounded On-Device Location Track
+ *
+ * Points waiting for upload, as TrackCodec blocks in one append-only file:
+ * - New points go into an open block in memory; it is sealed and appended
+ *   once it holds BLOCK_POINTS points or spans SEAL_AFTER_MS, or when a
+ *   batch is taken
+ * - Frame: u16 length, block, u32 CRC32 of the block. A torn or corrupt
+ *   tail (power cut mid-append) is cut off on open; earlier frames survive
+ * - The file never exceeds maxBytes: the oldest blocks are dropped to make
+ *   room, at least a quarter of the file at a time so drops stay rare
+ * - Uploads take whole blocks from the front (takeBatch) and remove them
+ *   only once the backend has them (remove). A batch remembers its frames,
+ *   so blocks dropped or sealed while it was in flight are never mistaken
+ *   for its own
+ *
+ * Points in the open block are lost with the process - at most an hour of
+ * them (two keepalives while parked). Not thread-safe. Pure Java.
+ */
+public final class TrackStore {
+
+    static final int BLOCK_POINTS = 64;
+    static final long SEAL_AFTER_MS = 60 * 60_000L; // Fix time; a parked device adds a point per half hour
+    static final int FRAME_OVERHEAD = 2 + 4;
+    static final int MAX_BLOCK_BYTES = 0xFFFF;
+
+    /** Sealed blocks from the front of the store, ready to upload. */
+    public static final class Batch {
+        public final byte[] data; // Concatenated blocks, no frames
+        public final int blocks;
+        public final int points;
+        public final long from;
+        public final long to;
+        final List<Frame> frames; // Identity of the blocks taken
+
+        Batch(byte[] data, List<Frame> frames, int points, long from, long to) {
+            this.data = data;
+            this.frames = frames;
+            this.blocks = frames.size();
+            this.points = points;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final class Frame {
+        final int length; // Block bytes
+        final int points;
+        final long firstAt;
+        final long lastAt;
+
+        Frame(int length, int points, long firstAt, long lastAt) {
+            this.length = length;
+            this.points = points;
+            this.firstAt = firstAt;
+            this.lastAt = lastAt;
+        }
+
+        int size() {
+            return length + FRAME_OVERHEAD;
+        }
+    }
+
+    private final File file;
+    private final int maxBytes;
+    private final List<Frame> frames = new ArrayList<>();
+    private final TrackCodec.BlockWriter open = new TrackCodec.BlockWriter();
+    private long fileBytes;
+    private int sealedPoints;
+    private long droppedPoints;
+    private long writeErrors;
+
+    public TrackStore(File file, int maxBytes) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Index the file; cuts off a torn or corrupt tail. */
+    public void open() {
+        frames.clear();
+        fileBytes = 0;
+        sealedPoints = 0;
+        if (!file.exists()) {
+            return;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            long length = file.length();
+            while (valid + FRAME_OVERHEAD <= length) {
+                int size = in.readUnsignedShort();
+                if (valid + FRAME_OVERHEAD + size > length) {
+                    break;
+                }
+                byte[] block = new byte[size];
+                in.readFully(block);
+                int stored = in.readInt();
+                Frame frame = crc(block) == stored ? index(block) : null;
+                if (frame == null) {
+                    break;
+                }
+                frames.add(frame);
+                sealedPoints += frame.points;
+                valid += frame.size();
+            }
+        } catch (IOException e) {
+            // Keep the frames read so far
+        }
+        fileBytes = valid;
+        if (valid < file.length()) {
+            truncate(valid);
+        }
+    }
+
+    // ==================== Writing ====================
+
+    public void add(long timeMs, double lat, double lng, int accuracyM) {
+        open.add(timeMs, lat, lng, accuracyM);
+        if (open.count() >= BLOCK_POINTS || open.size() >= MAX_BLOCK_BYTES - 32
+                || timeMs - open.firstAt() >= SEAL_AFTER_MS) {
+            seal();
+        }
+    }
+
+    /** Append the open block to the file. No-op when it is empty. */
+    public void seal() {
+        if (open.count() == 0) {
+            return;
+        }
+        byte[] block = open.toByteArray();
+        Frame frame = new Frame(block.length, open.count(), open.firstAt(), open.lastAt());
+        open.reset();
+        if (fileBytes + frame.size() > maxBytes) {
+            dropOldest(Math.max(fileBytes + frame.size() - maxBytes, maxBytes / 4));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(frame.size());
+        DataOutputStream data = new DataOutputStream(bytes);
+        try {
+            data.writeShort(block.length);
+            data.write(block);
+            data.writeInt(crc(block));
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            writeErrors++;
+            droppedPoints += frame.points;
+            truncate(fileBytes); // No half frame left behind
+            return;
+        }
+        frames.add(frame);
+        fileBytes += frame.size();
+        sealedPoints += frame.points;
+    }
+
+    // ==================== Upload ====================
+
+    /**
+     * Oldest sealed blocks up to {@code maxBytes} of block data (always at
+     * least one), after sealing the open block. Null when the store is empty.
+     */
+    public Batch takeBatch(int maxBytes) {
+        seal();
+        if (frames.isEmpty()) {
+            return null;
+        }
+        int count = 0;
+        int bytes = 0;
+        int points = 0;
+        while (count < frames.size() && (count == 0 || bytes + frames.get(count).length <= maxBytes)) {
+            Frame frame = frames.get(count);
+            bytes += frame.length;
+            points += frame.points;
+            count++;
+        }
+        byte[] data = new byte[bytes];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int at = 0;
+            for (int i = 0; i < count; i++) {
+                int length = in.readUnsignedShort();
+                in.readFully(data, at, length);
+                in.readInt();
+                at += length;
+            }
+        } catch (IOException e) {
+            writeErrors++;
+            return null;
+        }
+        List<Frame> taken = new ArrayList<>(frames.subList(0, count));
+        return new Batch(data, taken, points, frames.get(0).firstAt, frames.get(count - 1).lastAt);
+    }
+
+    /**
+     * The backend has {@code batch} - drop its blocks. Only those still at the
+     * front go: a seal() in the meantime may have dropped some of them to make
+     * room, and the blocks behind them were never sent.
+     */
+    public void remove(Batch batch) {
+        int count = 0;
+        long bytes = 0;
+        while (count < frames.size() && batch.frames.contains(frames.get(count))) { // Identity
+            bytes += frames.get(count).size();
+            count++;
+        }
+        removeFront(count, bytes);
+    }
+
+    // ==================== Introspection ====================
+
+    /** Points not yet uploaded, sealed or not. */
+    public int pendingPoints() {
+        return sealedPoints + open.count();
+    }
+
+    /** Time of the oldest pending point, or -1 when there is none. */
+    public long oldestAt() {
+        if (!frames.isEmpty()) {
+            return frames.get(0).firstAt;
+        }
+        return open.count() > 0 ? open.firstAt() : -1;
+    }
+
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    public long getDroppedPoints() {
+        return droppedPoints;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackStore{blocks=" + frames.size() + ", points=" + pendingPoints() + ", bytes=" + fileBytes
+                + "/" + maxBytes + ", dropped=" + droppedPoints + ", writeErrors=" + writeErrors + "}";
+    }
+
+    // ==================== Helpers ====================
+
+    private void dropOldest(long bytesNeeded) {
+        int count = 0;
+        long bytes = 0;
+        int points = 0;
+        while (count < frames.size() && bytes < bytesNeeded) {
+            bytes += frames.get(count).size();
+            points += frames.get(count).points;
+            count++;
+        }
+        droppedPoints += points;
+        removeFront(count, bytes);
+    }
+
+    /** Rewrite the file without its first {@code count} frames: temp file, then rename. */
+    private void removeFront(int count, long bytes) {
+        if (count == 0) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             FileOutputStream out = new FileOutputStream(temp)) {
+            in.seek(bytes);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            writeErrors++;
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            writeErrors++;
+            temp.delete();
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            sealedPoints -= frames.remove(0).points;
+        }
+        fileBytes -= bytes;
+    }
+
+    private void truncate(long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException e) {
+            writeErrors++;
+        }
+    }
+
+    private static Frame index(byte[] block) {
+        List<TrackCodec.Point> points = new ArrayList<>();
+        try {
+            TrackCodec.decodeBlock(ByteBuffer.wrap(block), points);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (points.isEmpty()) {
+            return null;
+        }
+        return new Frame(block.length, points.size(), points.get(0).timeMs, points.get(points.size() - 1).timeMs);
+    }
+
+    private static int crc(byte[] block) {
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+        return (int) crc.getValue();
+    }
+}
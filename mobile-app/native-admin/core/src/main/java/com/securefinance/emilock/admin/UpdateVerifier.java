@@ -0,0 +1,108 @@
+package com.securefinance.emilock.admin;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * UpdateVerifier - Streaming Check of a Self-Update Package
+ *
+ * Fed the APK bytes in order as they are written to the install session, so
+ * nothing is read twice and no copy is kept:
+ * - SHA-256 must match the release manifest's digest
+ * - With a release key configured, an ECDSA (SHA256withECDSA) signature over
+ *   the same bytes must verify too - a compromised download server can then
+ *   not ship a package, even one the platform's signer check would accept
+ *   (same key, older build)
+ *
+ * verify() is final: call it once, after the last byte. Not thread-safe. Pure Java.
+ */
+public final class UpdateVerifier {
+
+    private final MessageDigest digest;
+    private final String expectedSha256;
+    private final Signature signature; // null without a release key
+    private final byte[] expectedSignature;
+    private long bytes;
+
+    /**
+     * @param expectedSha256 lowercase hex
+     * @param releaseKey     null to skip the signature check
+     * @param signature      signature from the manifest; required with a release key
+     */
+    public UpdateVerifier(String expectedSha256, PublicKey releaseKey, byte[] signature)
+            throws GeneralSecurityException {
+        this.digest = MessageDigest.getInstance("SHA-256");
+        this.expectedSha256 = expectedSha256.toLowerCase(Locale.ROOT);
+        if (releaseKey != null) {
+            if (signature == null) {
+                throw new GeneralSecurityException("Release manifest is not signed");
+            }
+            this.signature = Signature.getInstance("SHA256withECDSA");
+            this.signature.initVerify(releaseKey);
+            this.expectedSignature = signature;
+        } else {
+            this.signature = null;
+            this.expectedSignature = null;
+        }
+    }
+
+    /** X.509 SubjectPublicKeyInfo, base64 - the form `openssl ec -pubout` prints. */
+    public static PublicKey parseKey(String base64) throws GeneralSecurityException {
+        try {
+            byte[] encoded = Base64.getDecoder().decode(base64.replaceAll("\\s", ""));
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed release key", e);
+        }
+    }
+
+    public void update(byte[] buffer, int offset, int length) {
+        digest.update(buffer, offset, length);
+        if (signature != null) {
+            try {
+                signature.update(buffer, offset, length);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e); // Initialized in the constructor
+            }
+        }
+        bytes += length;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** @return null if the package checks out, otherwise why not */
+    public String verify() {
+        String actual = hex(digest.digest());
+        if (!actual.equals(expectedSha256)) {
+            return "SHA-256 mismatch (" + actual + ")";
+        }
+        if (signature != null) {
+            try {
+                if (!signature.verify(expectedSignature)) {
+                    return "Signature mismatch";
+                }
+            } catch (GeneralSecurityException e) {
+                return "Signature unreadable: " + e.getMessage();
+            }
+        }
+        return null;
+    }
+
+    static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] text = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            text[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            text[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(text);
+    }
+}
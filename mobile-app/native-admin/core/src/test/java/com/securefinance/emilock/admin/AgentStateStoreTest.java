@@ -0,0 +1,184 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AgentStateStoreTest - Typed State File and What load() Reports
+ *
+ * - LOADED only for a file that passes its checks; MISSING when there is no
+ *   file; UNREADABLE for any other file, with the state left empty so the
+ *   caller can pick a fail-safe
+ * - A failed load never blocks the next write from producing a good file
+ * - Writes go through a temp file: a stray one from a crash is ignored
+ */
+public class AgentStateStoreTest {
+
+    private static final AgentStateStore.Key<Boolean> LOCKED = AgentStateStore.booleanKey("locked", false);
+    private static final AgentStateStore.Key<Integer> ATTEMPTS = AgentStateStore.intKey("attempts", 0);
+    private static final AgentStateStore.Key<Long> SEEN_AT = AgentStateStore.longKey("seenAt", -1L);
+    private static final AgentStateStore.Key<String> MESSAGE = AgentStateStore.stringKey("message", "none");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Runnable> queued = new ArrayList<>();
+
+    // ==================== Round trip ====================
+
+    @Test
+    public void everyTypeSurvivesAReload() throws IOException {
+        AgentStateStore store = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.MISSING, store.load());
+        store.set(LOCKED, true);
+        store.set(ATTEMPTS, 3);
+        store.set(SEEN_AT, 1700000000000L);
+        store.set(MESSAGE, "Pay ₹4,999 today");
+        store.flush();
+
+        AgentStateStore reloaded = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.LOADED, reloaded.load());
+        Assert.assertTrue(reloaded.getBoolean(LOCKED));
+        Assert.assertEquals(3, reloaded.getInt(ATTEMPTS));
+        Assert.assertEquals(1700000000000L, reloaded.getLong(SEEN_AT));
+        Assert.assertEquals("Pay ₹4,999 today", reloaded.getString(MESSAGE));
+    }
+
+    @Test
+    public void backgroundWriteIsQueuedOnceForManyChanges() throws IOException {
+        AgentStateStore store = newStore();
+        store.load();
+        store.set(ATTEMPTS, 1);
+        store.set(ATTEMPTS, 2);
+        Assert.assertFalse(store.set(ATTEMPTS, 2));
+        Assert.assertEquals(1, queued.size());
+
+        queued.remove(0).run();
+        AgentStateStore reloaded = newStore();
+        reloaded.load();
+        Assert.assertEquals(2, reloaded.getInt(ATTEMPTS));
+    }
+
+    // ==================== Corrupt files ====================
+
+    @Test
+    public void flippedByteIsUnreadable() throws IOException {
+        long length = writeGoodFile();
+        for (long at = 0; at < length; at++) {
+            flipByte(at);
+            AgentStateStore store = newStore();
+            Assert.assertEquals("Flipped at " + at, AgentStateStore.LoadResult.UNREADABLE, store.load());
+            assertEmpty(store);
+            flipByte(at);
+        }
+        Assert.assertEquals(AgentStateStore.LoadResult.LOADED, newStore().load());
+    }
+
+    @Test
+    public void truncatedFileIsUnreadable() throws IOException {
+        long length = writeGoodFile();
+        try (RandomAccessFile raf = new RandomAccessFile(stateFile(), "rw")) {
+            raf.setLength(length - 3);
+        }
+
+        AgentStateStore store = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.UNREADABLE, store.load());
+        assertEmpty(store);
+    }
+
+    @Test
+    public void emptyAndOversizedFilesAreUnreadable() throws IOException {
+        folder.newFile("agent_state.bin");
+        Assert.assertEquals(AgentStateStore.LoadResult.UNREADABLE, newStore().load());
+
+        try (FileOutputStream out = new FileOutputStream(stateFile())) {
+            out.write(new byte[AgentStateStore.MAX_FILE_BYTES + 1]);
+        }
+        Assert.assertEquals(AgentStateStore.LoadResult.UNREADABLE, newStore().load());
+    }
+
+    @Test
+    public void loadReplacesStateEvenWhenUnreadable() throws IOException {
+        writeGoodFile();
+        AgentStateStore store = newStore();
+        store.load();
+        Assert.assertTrue(store.getBoolean(LOCKED));
+
+        flipByte(6);
+        Assert.assertEquals(AgentStateStore.LoadResult.UNREADABLE, store.load());
+        assertEmpty(store); // Nothing left over from the earlier load
+    }
+
+    @Test
+    public void writeAfterAnUnreadableLoadRepairsTheFile() throws IOException {
+        writeGoodFile();
+        flipByte(8);
+        AgentStateStore store = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.UNREADABLE, store.load());
+
+        store.set(LOCKED, true);
+        store.flush();
+
+        AgentStateStore reloaded = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.LOADED, reloaded.load());
+        Assert.assertTrue(reloaded.getBoolean(LOCKED));
+        Assert.assertFalse(reloaded.contains(ATTEMPTS)); // The corrupt file's values are gone for good
+    }
+
+    @Test
+    public void strayTempFileIsIgnored() throws IOException {
+        writeGoodFile();
+        try (FileOutputStream out = new FileOutputStream(stateFile().getPath() + ".tmp")) {
+            out.write(new byte[] { 1, 2, 3 }); // Crash mid-write of the next version
+        }
+
+        AgentStateStore store = newStore();
+        Assert.assertEquals(AgentStateStore.LoadResult.LOADED, store.load());
+        Assert.assertTrue(store.getBoolean(LOCKED));
+    }
+
+    // ==================== Helpers ====================
+
+    private AgentStateStore newStore() {
+        return new AgentStateStore(stateFile(), queued::add);
+    }
+
+    private File stateFile() {
+        return new File(folder.getRoot(), "agent_state.bin");
+    }
+
+    private long writeGoodFile() throws IOException {
+        AgentStateStore store = newStore();
+        store.load();
+        store.set(LOCKED, true);
+        store.set(ATTEMPTS, 2);
+        store.set(MESSAGE, "Pay now");
+        store.flush();
+        queued.clear();
+        return stateFile().length();
+    }
+
+    private void flipByte(long at) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(stateFile(), "rw")) {
+            raf.seek(at);
+            int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0x01);
+        }
+    }
+
+    private static void assertEmpty(AgentStateStore store) {
+        Assert.assertFalse(store.contains(LOCKED));
+        Assert.assertFalse(store.getBoolean(LOCKED));
+        Assert.assertEquals(0, store.getInt(ATTEMPTS));
+        Assert.assertEquals("none", store.getString(MESSAGE));
+    }
+}
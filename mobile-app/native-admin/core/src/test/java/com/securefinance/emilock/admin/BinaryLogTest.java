@@ -0,0 +1,186 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BinaryLogTest - Ring Contents Across Reopens and Corruption
+ *
+ * The ring is a mapped file, as on the device:
+ * - Records survive a reopen, oldest first, and wrap-around evicts the oldest
+ * - A ring from another event table, or with a header or record torn by a
+ *   power cut, is reset on open instead of being rendered as garbage
+ */
+public class BinaryLogTest {
+
+    private static final int RING_BYTES = BinaryLog.HEADER_BYTES + 4096;
+    private static final int OFF_HEAD = 16; // Header layout
+    private static final int OFF_TAIL = 24;
+
+    private static final BinaryLog.Event[] EVENTS = {
+            new BinaryLog.Event(0, BinaryLog.INFO, "Poll", "Next poll {} in {}ms"),
+            new BinaryLog.Event(1, BinaryLog.WARN, "Lock", "Lock failed: {}"),
+            new BinaryLog.Event(2, BinaryLog.DEBUG, "Push", "Connected {}"),
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ==================== Reopen ====================
+
+    @Test
+    public void recordsSurviveAReopen() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[0], "lock", 5_000);
+        log.log(EVENTS[1], "no owner ✗");
+        log.log(EVENTS[2], true);
+
+        Assert.assertEquals(Arrays.asList("Next poll lock in 5000ms", "Lock failed: no owner ✗", "Connected true"),
+                read(open(EVENTS)));
+    }
+
+    @Test
+    public void wrapAroundKeepsTheNewestRecords() throws IOException {
+        BinaryLog log = open(EVENTS);
+        for (int i = 0; i < 1_000; i++) {
+            log.log(EVENTS[0], "n" + i, i);
+        }
+
+        List<String> lines = read(open(EVENTS));
+
+        Assert.assertTrue(lines.size() > 10 && lines.size() < 1_000);
+        Assert.assertEquals("Next poll n999 in 999ms", lines.get(lines.size() - 1));
+        int first = 1_000 - lines.size();
+        for (int i = 0; i < lines.size(); i++) {
+            Assert.assertEquals("Next poll n" + (first + i) + " in " + (first + i) + "ms", lines.get(i));
+        }
+    }
+
+    @Test
+    public void clearedRingStaysClearedAfterAReopen() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[2], false);
+        log.clear();
+        log.log(EVENTS[2], true);
+
+        Assert.assertEquals(Arrays.asList("Connected true"), read(open(EVENTS)));
+    }
+
+    // ==================== Corrupt rings ====================
+
+    @Test
+    public void otherEventTableResetsTheRing() throws IOException {
+        open(EVENTS).log(EVENTS[1], "x");
+        BinaryLog.Event[] changed = EVENTS.clone();
+        changed[1] = new BinaryLog.Event(1, BinaryLog.WARN, "Lock", "Lock refused: {}");
+
+        Assert.assertTrue(read(open(changed)).isEmpty());
+    }
+
+    @Test
+    public void garbageFileStartsEmpty() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "rw")) {
+            byte[] garbage = new byte[RING_BYTES];
+            for (int i = 0; i < garbage.length; i++) {
+                garbage[i] = (byte) (i * 31 + 7);
+            }
+            raf.write(garbage);
+        }
+
+        BinaryLog log = open(EVENTS);
+        Assert.assertTrue(read(log).isEmpty());
+        log.log(EVENTS[2], true);
+        Assert.assertEquals(Arrays.asList("Connected true"), read(open(EVENTS)));
+    }
+
+    @Test
+    public void headPastTheLastRecordResetsTheRing() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[1], "a");
+        log.log(EVENTS[1], "b");
+        long head = readLong(OFF_HEAD);
+
+        writeLong(OFF_HEAD, head + 5); // Head published, record not written
+        Assert.assertTrue(read(open(EVENTS)).isEmpty());
+    }
+
+    @Test
+    public void tailAfterHeadResetsTheRing() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[1], "a");
+
+        writeLong(OFF_TAIL, readLong(OFF_HEAD) + 1);
+        Assert.assertTrue(read(open(EVENTS)).isEmpty());
+    }
+
+    @Test
+    public void tornRecordLengthResetsTheRing() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[1], "a");
+        log.log(EVENTS[1], "b");
+
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "rw")) {
+            raf.seek(BinaryLog.HEADER_BYTES);
+            raf.writeShort(3); // Shorter than any record
+        }
+        Assert.assertTrue(read(open(EVENTS)).isEmpty());
+    }
+
+    @Test
+    public void unknownEventIdResetsTheRing() throws IOException {
+        BinaryLog log = open(EVENTS);
+        log.log(EVENTS[1], "a");
+
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "rw")) {
+            raf.seek(BinaryLog.HEADER_BYTES + 2);
+            raf.writeShort(EVENTS.length);
+        }
+        Assert.assertTrue(read(open(EVENTS)).isEmpty());
+    }
+
+    // ==================== Helpers ====================
+
+    private File ringFile() {
+        return new File(folder.getRoot(), "agent.blog");
+    }
+
+    private BinaryLog open(BinaryLog.Event[] events) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "rw")) {
+            ByteBuffer ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, RING_BYTES);
+            return new BinaryLog(ring, events);
+        }
+    }
+
+    private static List<String> read(BinaryLog log) {
+        final List<String> lines = new ArrayList<>();
+        log.read((event, timeMs, line) -> {
+            String text = line.toString();
+            lines.add(text.substring(text.indexOf(": ") + 2)); // Drop time, priority and tag
+        });
+        return lines;
+    }
+
+    private long readLong(long at) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "r")) {
+            raf.seek(at);
+            return raf.readLong();
+        }
+    }
+
+    private void writeLong(long at, long value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(ringFile(), "rw")) {
+            raf.seek(at);
+            raf.writeLong(value);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+/**
+ * CommandJournalTest - Replay, Torn Tails and Compaction
+ *
+ * - Every transition is on disk once the call returns; a reopen sees it
+ * - A torn or corrupt record and everything after it is cut off on open,
+ *   and the journal keeps appending cleanly after the cut
+ * - Compaction drops old acked entries but still recognises their commands
+ */
+public class CommandJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private CommandJournal journal;
+    private byte[] saved; // Whole file, for restore()
+
+    @After
+    public void tearDown() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    // ==================== Replay ====================
+
+    @Test
+    public void transitionsSurviveAReopen() throws IOException {
+        journal = open();
+        CommandJournal.Entry done = journal.accept(100, "lock", "{\"msg\":\"pay\"}");
+        journal.markStarted(done);
+        journal.markFinished(done, true, "ok");
+        journal.markAcked(Collections.singletonList(done));
+        CommandJournal.Entry failed = journal.accept(200, "wipe", null);
+        journal.markStarted(failed);
+        journal.markFinished(failed, false, "denied");
+        CommandJournal.Entry started = journal.accept(300, "reboot", null);
+        journal.markStarted(started);
+        journal.accept(400, "unlock", null);
+
+        reopen();
+
+        assertEntry(journal.get(100), CommandJournal.State.DONE, "ok", true);
+        Assert.assertEquals("{\"msg\":\"pay\"}", journal.get(100).paramsJson);
+        assertEntry(journal.get(200), CommandJournal.State.FAILED, "denied", false);
+        assertEntry(journal.get(300), CommandJournal.State.STARTED, null, false);
+        assertEntry(journal.get(400), CommandJournal.State.ACCEPTED, null, false);
+        Assert.assertEquals(2, journal.unfinished().size());
+        Assert.assertEquals(200, journal.unacked().get(0).timestamp);
+        Assert.assertTrue(journal.isKnown(400));
+        Assert.assertFalse(journal.isKnown(500));
+        Assert.assertEquals(0, journal.getTruncatedBytes());
+    }
+
+    // ==================== Corrupt files ====================
+
+    @Test
+    public void tornTailIsCutAndEarlierRecordsSurvive() throws IOException {
+        journal = open();
+        journal.accept(100, "lock", null);
+        long intact = file.length();
+        journal.accept(200, "unlock", "{}");
+        long full = file.length();
+
+        for (long cut = full - 1; cut > intact; cut--) {
+            journal.close();
+            copyPrefix(full, cut);
+            journal = open();
+
+            Assert.assertTrue(journal.isKnown(100));
+            Assert.assertFalse("Half a record at " + cut, journal.isKnown(200));
+            Assert.assertEquals(cut - intact, journal.getTruncatedBytes());
+            Assert.assertEquals(intact, file.length());
+            restore(full);
+        }
+    }
+
+    @Test
+    public void corruptRecordDropsItAndEverythingAfterIt() throws IOException {
+        journal = open();
+        journal.accept(100, "lock", null);
+        long secondAt = file.length();
+        journal.accept(200, "unlock", null);
+        journal.accept(300, "lock", null);
+        long length = file.length();
+
+        flipByte(secondAt + 10); // Inside the second record's name
+        reopen();
+
+        Assert.assertTrue(journal.isKnown(100));
+        Assert.assertFalse(journal.isKnown(200));
+        Assert.assertFalse(journal.isKnown(300)); // Intact, but behind the bad record
+        Assert.assertEquals(length - secondAt, journal.getTruncatedBytes());
+    }
+
+    @Test
+    public void appendsAfterACutAreReadBack() throws IOException {
+        journal = open();
+        journal.accept(100, "lock", null);
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[] { 1, 0, 0, 0 }); // A record torn after four bytes
+        }
+
+        journal = open();
+        journal.accept(200, "unlock", null);
+        reopen();
+
+        Assert.assertTrue(journal.isKnown(100));
+        Assert.assertTrue(journal.isKnown(200));
+        Assert.assertEquals(0, journal.getTruncatedBytes());
+    }
+
+    @Test
+    public void garbageFileOpensEmpty() throws IOException {
+        file = folder.newFile("commands.journal");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] garbage = new byte[300];
+            for (int i = 0; i < garbage.length; i++) {
+                garbage[i] = (byte) (i * 37 + 11);
+            }
+            raf.write(garbage);
+        }
+
+        journal = new CommandJournal(file);
+
+        Assert.assertTrue(journal.entries().isEmpty());
+        Assert.assertEquals(300, journal.getTruncatedBytes());
+        Assert.assertEquals(0, file.length());
+    }
+
+    @Test
+    public void implausibleLengthIsTreatedAsATornTail() throws IOException {
+        journal = open();
+        journal.accept(100, "lock", null);
+        long intact = file.length();
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(intact);
+            raf.writeByte(1);
+            raf.writeLong(200);
+            raf.writeInt(Integer.MAX_VALUE); // Name length
+        }
+
+        journal = open();
+
+        Assert.assertTrue(journal.isKnown(100));
+        Assert.assertFalse(journal.isKnown(200));
+        Assert.assertEquals(intact, file.length());
+    }
+
+    // ==================== Compaction ====================
+
+    @Test
+    public void compactedCommandsAreStillKnown() throws IOException {
+        journal = open();
+        String params = "{\"pad\":\"" + new String(new char[200]).replace('\0', 'x') + "\"}";
+        long last = 0;
+        while (journal.entries().size() == last && last < 10_000) { // Until compaction drops some
+            CommandJournal.Entry entry = journal.accept(++last, "lock", params);
+            journal.markStarted(entry);
+            journal.markFinished(entry, true, null);
+            journal.markAcked(Collections.singletonList(entry));
+        }
+        Assert.assertEquals("Never compacted", CommandJournal.KEEP_FINISHED, journal.entries().size());
+
+        reopen();
+
+        Assert.assertEquals(CommandJournal.KEEP_FINISHED, journal.entries().size());
+        Assert.assertNull(journal.get(1));
+        Assert.assertTrue(journal.isKnown(1));
+        Assert.assertTrue(journal.isKnown(last));
+        Assert.assertFalse(journal.isKnown(last + 1));
+    }
+
+    // ==================== Helpers ====================
+
+    private CommandJournal open() throws IOException {
+        if (file == null) {
+            file = new File(folder.getRoot(), "commands.journal");
+        }
+        return new CommandJournal(file);
+    }
+
+    private void reopen() throws IOException {
+        journal.close();
+        journal = open();
+    }
+
+    private static void assertEntry(CommandJournal.Entry entry, CommandJournal.State state, String result,
+                                    boolean acked) {
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(state, entry.state);
+        Assert.assertEquals(result, entry.result);
+        Assert.assertEquals(acked, entry.acked);
+    }
+
+    /** Keep the file's first {@code length} bytes. */
+    private void copyPrefix(long full, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (saved == null) {
+                saved = new byte[(int) full];
+                raf.readFully(saved);
+            }
+            raf.setLength(length);
+        }
+    }
+
+    private void restore(long full) throws IOException {
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(saved, 0, (int) full);
+        }
+        journal = open();
+    }
+
+    private void flipByte(long at) throws IOException {
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(at);
+            int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0x5A);
+        }
+    }
+}
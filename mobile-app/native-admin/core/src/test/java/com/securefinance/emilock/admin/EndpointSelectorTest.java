@@ -0,0 +1,162 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * EndpointSelectorTest - Failover, Stickiness and Hedge Budget
+ *
+ * The rules ServerEndpoints relies on, with time passed in by the test:
+ * - Cooldown doubles per consecutive failure, caps at COOLDOWN_MAX_MS and a
+ *   success clears it
+ * - A healthy primary only gives way to a clearly better endpoint (SWITCH_MARGIN)
+ * - The hedge budget is the primary's p95, clamped to HEDGE_MIN_MS .. HEDGE_MAX_MS
+ */
+public class EndpointSelectorTest {
+
+    private static final String A = "https://a.example";
+    private static final String B = "https://b.example";
+
+    private final EndpointSelector selector = new EndpointSelector(Arrays.asList(A, B));
+
+    // ==================== Cooldown ====================
+
+    @Test
+    public void cooldownDoublesPerFailureUpToTheCap() {
+        Assert.assertEquals(EndpointSelector.COOLDOWN_BASE_MS, EndpointSelector.cooldown(1));
+        Assert.assertEquals(2 * EndpointSelector.COOLDOWN_BASE_MS, EndpointSelector.cooldown(2));
+        Assert.assertEquals(4 * EndpointSelector.COOLDOWN_BASE_MS, EndpointSelector.cooldown(3));
+        Assert.assertEquals(EndpointSelector.COOLDOWN_MAX_MS, EndpointSelector.cooldown(7));
+        Assert.assertEquals(EndpointSelector.COOLDOWN_MAX_MS, EndpointSelector.cooldown(1_000));
+    }
+
+    @Test
+    public void failedEndpointIsSkippedUntilItsCooldownEnds() {
+        long now = 1_000;
+        for (int failure = 1; failure <= 3; failure++) {
+            selector.onFailure(A, now);
+            long cooldown = EndpointSelector.cooldown(failure);
+            Assert.assertEquals(B, selector.alternate(Collections.<String>emptyList(), now + cooldown - 1));
+            Assert.assertEquals(A, selector.alternate(Collections.singletonList(B), now + cooldown));
+            now += cooldown;
+        }
+    }
+
+    @Test
+    public void successClearsTheCooldown() {
+        selector.onFailure(A, 0);
+        selector.onFailure(A, 0);
+        selector.onSuccess(A, 100, 1);
+        Assert.assertEquals(A, selector.alternate(Collections.singletonList(B), 1));
+        selector.onFailure(A, 2);
+        // Back to the first step, not the third
+        Assert.assertNull(selector.alternate(Collections.singletonList(B), 2 + EndpointSelector.COOLDOWN_BASE_MS - 1));
+        Assert.assertEquals(A, selector.alternate(Collections.singletonList(B), 2 + EndpointSelector.COOLDOWN_BASE_MS));
+    }
+
+    @Test
+    public void primaryInCooldownFailsOverAtOnce() {
+        Assert.assertEquals(A, selector.primary(0));
+        selector.onFailure(A, 0);
+        Assert.assertEquals(B, selector.primary(1));
+        Assert.assertEquals(1, selector.getSwitchCount());
+    }
+
+    // ==================== Stickiness ====================
+
+    @Test
+    public void healthyPrimaryKeepsItsPlaceAgainstASlightlyFasterEndpoint() {
+        selector.onSuccess(A, 100, 0);
+        selector.onSuccess(B, 80, 0); // 0.8 of the primary - inside the margin
+        Assert.assertEquals(A, selector.primary(1));
+        Assert.assertEquals(0, selector.getSwitchCount());
+    }
+
+    @Test
+    public void clearlyBetterEndpointTakesOver() {
+        selector.onSuccess(A, 100, 0);
+        selector.onSuccess(B, 60, 0); // 0.6 of the primary - past the margin
+        Assert.assertEquals(B, selector.primary(1));
+        Assert.assertEquals(1, selector.getSwitchCount());
+        // And is just as sticky once it is the primary
+        selector.onSuccess(A, 50, 2);
+        Assert.assertEquals(B, selector.primary(3));
+    }
+
+    @Test
+    public void errorsCountAgainstAFastEndpoint() {
+        selector.onSuccess(A, 100, 0);
+        selector.onSuccess(B, 60, 0);
+        Assert.assertEquals(B, selector.primary(1));
+        // B fails every other call: its score rises past A's even while it is up
+        for (int i = 0; i < 5; i++) {
+            selector.onFailure(B, 2);
+            selector.onSuccess(B, 60, 2);
+        }
+        Assert.assertEquals(A, selector.primary(3));
+    }
+
+    // ==================== Hedge budget ====================
+
+    @Test
+    public void hedgeWaitsTheMaximumUntilThereAreEnoughSamples() {
+        for (int i = 0; i < EndpointSelector.HEDGE_MIN_SAMPLES - 1; i++) {
+            selector.onSuccess(A, 1_000, i);
+        }
+        Assert.assertEquals(EndpointSelector.HEDGE_MAX_MS, selector.hedgeDelayMs(A));
+    }
+
+    @Test
+    public void hedgeBudgetIsTheP95() {
+        // 1..20 ms x 100: nearest-rank p95 of 20 samples is the 19th
+        for (int i = 1; i <= 20; i++) {
+            selector.onSuccess(A, i * 100, i);
+        }
+        Assert.assertEquals(1_900, selector.hedgeDelayMs(A));
+    }
+
+    @Test
+    public void hedgeBudgetIsClampedAtBothEnds() {
+        for (int i = 0; i < EndpointSelector.RTT_WINDOW; i++) {
+            selector.onSuccess(A, 10, i);
+            selector.onSuccess(B, 60_000, i);
+        }
+        Assert.assertEquals(EndpointSelector.HEDGE_MIN_MS, selector.hedgeDelayMs(A));
+        Assert.assertEquals(EndpointSelector.HEDGE_MAX_MS, selector.hedgeDelayMs(B));
+    }
+
+    @Test
+    public void hedgeBudgetFollowsTheRecentWindow() {
+        for (int i = 0; i < EndpointSelector.RTT_WINDOW; i++) {
+            selector.onSuccess(A, 4_000, i);
+        }
+        for (int i = 0; i < EndpointSelector.RTT_WINDOW; i++) {
+            selector.onSuccess(A, 500, i);
+        }
+        Assert.assertEquals(500, selector.hedgeDelayMs(A));
+    }
+
+    @Test
+    public void singleEndpointIsNeverHedgedOrProbed() {
+        EndpointSelector single = new EndpointSelector(Collections.singletonList(A));
+        for (int i = 0; i < EndpointSelector.RTT_WINDOW; i++) {
+            single.onSuccess(A, 100, i);
+        }
+        Assert.assertEquals(-1, single.hedgeDelayMs(A));
+        Assert.assertTrue(single.takeProbesDue(EndpointSelector.PROBE_INTERVAL_MS * 2).isEmpty());
+        single.onFailure(A, 0);
+        Assert.assertEquals(A, single.primary(1));
+    }
+
+    // ==================== Config ====================
+
+    @Test
+    public void parseKeepsOrderAndDropsDuplicatesAndSlashes() {
+        Assert.assertEquals(Arrays.asList(A, B),
+                EndpointSelector.parse(" https://a.example/, https://b.example https://a.example"));
+        Assert.assertTrue(EndpointSelector.parse(null).isEmpty());
+        Assert.assertTrue(EndpointSelector.parse(" , ").isEmpty());
+    }
+}
@@ -0,0 +1,78 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * LockStateMachineTest - Ordered Transitions and Stale Polls
+ *
+ * - Only a change of state is a transition, and each one bumps the version
+ * - A poll answer requested before a push or command moved the state is
+ *   dropped instead of flipping the device back
+ * - Authoritative sources are never stale
+ */
+public class LockStateMachineTest {
+
+    private final LockStateMachine machine = new LockStateMachine(false);
+
+    @Test
+    public void changeIsATransitionAndRepeatIsNot() {
+        LockStateMachine.Transition lock = machine.onObserved(LockStateMachine.Source.POLL, true, 0);
+
+        Assert.assertNotNull(lock);
+        Assert.assertEquals(1, lock.version);
+        Assert.assertTrue(lock.locked);
+        Assert.assertEquals(LockStateMachine.Source.POLL, lock.source);
+        Assert.assertTrue(machine.isLocked());
+
+        Assert.assertNull(machine.onObserved(LockStateMachine.Source.POLL, true, 1));
+        Assert.assertEquals(1, machine.getVersion());
+        Assert.assertSame(lock, machine.getLastTransition());
+    }
+
+    @Test
+    public void pollRequestedBeforeAPushIsDropped() {
+        long sentAt = machine.getVersion();
+        // While the poll is in flight a push locks the device
+        Assert.assertNotNull(machine.onObserved(LockStateMachine.Source.PUSH, true, LockStateMachine.AUTHORITATIVE));
+
+        // The poll left before the lock and still says unlocked
+        Assert.assertNull(machine.onObserved(LockStateMachine.Source.POLL, false, sentAt));
+
+        Assert.assertTrue(machine.isLocked());
+        Assert.assertEquals(1, machine.getStaleDropped());
+    }
+
+    @Test
+    public void pollRequestedAfterTheChangeApplies() {
+        machine.onObserved(LockStateMachine.Source.COMMAND, true, LockStateMachine.AUTHORITATIVE);
+
+        LockStateMachine.Transition unlock =
+                machine.onObserved(LockStateMachine.Source.POLL, false, machine.getVersion());
+
+        Assert.assertNotNull(unlock);
+        Assert.assertFalse(machine.isLocked());
+        Assert.assertEquals(2, unlock.version);
+        Assert.assertEquals(0, machine.getStaleDropped());
+    }
+
+    @Test
+    public void authoritativeSourcesApplyInArrivalOrder() {
+        machine.onObserved(LockStateMachine.Source.PUSH, true, LockStateMachine.AUTHORITATIVE);
+        machine.onObserved(LockStateMachine.Source.COMMAND, false, LockStateMachine.AUTHORITATIVE);
+        machine.onObserved(LockStateMachine.Source.OFFLINE_TOKEN, true, LockStateMachine.AUTHORITATIVE);
+
+        Assert.assertTrue(machine.isLocked());
+        Assert.assertEquals(3, machine.getVersion());
+        Assert.assertEquals(LockStateMachine.Source.OFFLINE_TOKEN, machine.getLastTransition().source);
+    }
+
+    @Test
+    public void bootRestoredStateIsTheStartingPoint() {
+        LockStateMachine restored = new LockStateMachine(true);
+
+        Assert.assertTrue(restored.isLocked());
+        Assert.assertNull(restored.onObserved(LockStateMachine.Source.BOOT, true, LockStateMachine.AUTHORITATIVE));
+        Assert.assertNull(restored.getLastTransition());
+    }
+}
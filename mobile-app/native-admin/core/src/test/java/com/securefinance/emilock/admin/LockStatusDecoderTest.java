@@ -0,0 +1,182 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LockStatusDecoderTest - Full and Compact Lock Views
+ *
+ * - Both views fill the same LockStatus; unknown fields of any shape are skipped
+ * - Strings survive escapes, multi-byte UTF-8 and buffer refills; command
+ *   params come back as their raw JSON text
+ * - A reused decoder and LockStatus carry nothing over from the last document
+ * - Truncated or malformed payloads fail with IOException, never a partial status
+ */
+public class LockStatusDecoderTest {
+
+    private static final String FULL = "{\"_id\":\"65a1\",\"name\":\"Asha\",\"isLocked\":true,"
+            + "\"lockMessage\":\"Pay your EMI\",\"supportPhone\":\"+911234567890\","
+            + "\"emi\":{\"due\":[1,2,{\"x\":null}],\"note\":\"a \\\"quoted\\\" } brace\"},"
+            + "\"command\":{\"command\":\"wipe\",\"timestamp\":\"2023-11-14T22:13:20.000Z\","
+            + "\"params\":{\"reason\":\"fraud\",\"keep\":[1,2]}},\"updatedAt\":null}";
+
+    private static final String COMPACT = "{\"l\":1,\"m\":\"Pay your EMI\",\"p\":\"+911234567890\","
+            + "\"c\":{\"n\":\"wipe\",\"t\":1700000000000,\"a\":{\"reason\":\"fraud\",\"keep\":[1,2]}}}";
+
+    private final LockStatusDecoder decoder = new LockStatusDecoder();
+
+    // ==================== Views ====================
+
+    @Test
+    public void fullViewIsDecoded() throws IOException {
+        LockStatus status = decode(FULL);
+
+        Assert.assertTrue(status.hasLockState);
+        Assert.assertTrue(status.isLocked);
+        Assert.assertEquals("Pay your EMI", status.lockMessage);
+        Assert.assertEquals("+911234567890", status.supportPhone);
+        Assert.assertEquals("wipe", status.command);
+        Assert.assertEquals(1700000000000L, status.commandTimestamp);
+        Assert.assertEquals("{\"reason\":\"fraud\",\"keep\":[1,2]}", status.commandParamsJson);
+    }
+
+    @Test
+    public void compactViewDecodesTheSame() throws IOException {
+        Assert.assertEquals(decode(FULL).toString(), decode(COMPACT).toString());
+        Assert.assertEquals(decode(FULL).commandParamsJson, decode(COMPACT).commandParamsJson);
+    }
+
+    @Test
+    public void unlockedWithoutCommand() throws IOException {
+        LockStatus status = decode("{ \"isLocked\" : false , \"lockMessage\" : null, \"command\": null }");
+
+        Assert.assertTrue(status.hasLockState);
+        Assert.assertFalse(status.isLocked);
+        Assert.assertNull(status.lockMessage);
+        Assert.assertFalse(status.hasCommand());
+    }
+
+    @Test
+    public void missingLockFieldIsReportedAsUnknown() throws IOException {
+        Assert.assertFalse(decode("{\"name\":\"Asha\"}").hasLockState);
+        Assert.assertFalse(decode("{}").hasLockState);
+        Assert.assertFalse(decode("{\"l\":null}").isLocked);
+    }
+
+    @Test
+    public void unparseableTimestampIsZero() throws IOException {
+        LockStatus status = decode("{\"command\":{\"command\":\"lock\",\"timestamp\":\"yesterday\"}}");
+
+        Assert.assertEquals("lock", status.command);
+        Assert.assertEquals(0, status.commandTimestamp);
+        Assert.assertNull(status.commandParamsJson);
+    }
+
+    // ==================== Strings ====================
+
+    @Test
+    public void escapesAndUtf8AreDecoded() throws IOException {
+        String message = "EMI ₹4,999 due \"today\"\n\u0939\u093f\u0928\u094d\u0926\u0940 \uD83D\uDD12";
+        String json = "{\"lockMessage\":\"EMI ₹4,999 due \\\"today\\\"\\n\\u0939\\u093f\u0928\u094d\u0926\u0940 "
+                + "\\ud83d\\udd12\"}";
+
+        Assert.assertEquals(message, decode(json).lockMessage);
+    }
+
+    @Test
+    public void valuesSpanningBufferRefillsSurvive() throws IOException {
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 3000) {
+            message.append("ज्ञ-").append(message.length());
+        }
+        String json = "{\"m\":\"" + message + "\",\"junk\":\"" + message + "\",\"l\":1,"
+                + "\"c\":{\"n\":\"msg\",\"t\":5,\"a\":{\"text\":\"" + message + "\"}}}";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        // One byte per read: every value crosses a refill somewhere
+        LockStatus status = decoder.decode(new TrickleStream(bytes), new LockStatus());
+
+        Assert.assertEquals(message.toString(), status.lockMessage);
+        Assert.assertTrue(status.isLocked);
+        Assert.assertEquals("{\"text\":\"" + message + "\"}", status.commandParamsJson);
+        Assert.assertEquals(status.toString(), decoder.decode(bytes, new LockStatus()).toString());
+    }
+
+    // ==================== Reuse ====================
+
+    @Test
+    public void reusedStatusIsClearedFirst() throws IOException {
+        LockStatus status = new LockStatus();
+        decoder.decode(FULL.getBytes(StandardCharsets.UTF_8), status);
+        decoder.decode("{\"isLocked\":false}".getBytes(StandardCharsets.UTF_8), status);
+
+        Assert.assertFalse(status.isLocked);
+        Assert.assertNull(status.lockMessage);
+        Assert.assertNull(status.command);
+        Assert.assertEquals(0, status.commandTimestamp);
+        Assert.assertNull(status.commandParamsJson);
+    }
+
+    // ==================== Malformed ====================
+
+    @Test
+    public void truncatedPayloadFails() {
+        for (int length = 0; length < FULL.length(); length++) {
+            final String cut = FULL.substring(0, length);
+            Assert.assertThrows("Cut at " + length, IOException.class, () -> decode(cut));
+        }
+    }
+
+    @Test
+    public void malformedPayloadFails() {
+        String[] bad = {
+                "[]",
+                "{\"isLocked\":maybe}",
+                "{\"isLocked\":true \"m\":\"x\"}",
+                "{\"m\":\"bad \\x escape\"}",
+                "{\"m\":\"bad \\u12G4\"}",
+                "{\"c\":{\"n\":\"lock\",\"t\":\"\"",
+        };
+        for (final String json : bad) {
+            Assert.assertThrows(json, IOException.class, () -> decode(json));
+        }
+    }
+
+    @Test
+    public void deeplyNestedJunkIsRefused() {
+        StringBuilder json = new StringBuilder("{\"junk\":");
+        for (int i = 0; i < 100; i++) {
+            json.append('[');
+        }
+        Assert.assertThrows(IOException.class, () -> decode(json.toString()));
+    }
+
+    // ==================== Helpers ====================
+
+    private LockStatus decode(String json) throws IOException {
+        return decoder.decode(json.getBytes(StandardCharsets.UTF_8), new LockStatus());
+    }
+
+    /** Hands out one byte per read, like a slow socket. */
+    private static final class TrickleStream extends InputStream {
+        private final ByteArrayInputStream in;
+
+        TrickleStream(byte[] bytes) {
+            in = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, Math.min(1, len));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.security.GeneralSecurityException;
+
+/**
+ * OfflineCodeVerifierTest - Codes Shared with the Backend, Window and Lockout
+ *
+ * - VECTORS are the codes backend/utils/offlineCode.js generates for SECRET;
+ *   the keypad must accept exactly what the dashboard shows
+ * - One period either side of now is accepted, and a redeemed counter is burnt
+ * - Wrong codes lock the keypad out on the elapsed clock, doubling per failure
+ */
+public class OfflineCodeVerifierTest {
+
+    private static final long PERIOD_SECONDS = 300;
+    private static final int DIGITS = 8;
+    private static final byte[] SECRET = new byte[32];
+
+    static {
+        for (int i = 0; i < SECRET.length; i++) {
+            SECRET[i] = (byte) i; // 000102...1f
+        }
+    }
+
+    // { counter, unlock code, lock code }
+    private static final long[][] VECTORS = {
+            { 0, 12941456, 56259770 },
+            { 1, 16610095, 53534617 },
+            { 5678901, 78384148, 26455867 },
+            { 5678902, 52361657, 90626251 },
+            { 1L << 40, 62839061, 70586848 },
+    };
+
+    private static final long NOW = 1700000000000L; // Counter 5666666
+    private static final long COUNTER = 5666666;
+
+    private final OfflineCodeVerifier verifier = newVerifier();
+
+    // ==================== Cross-implementation ====================
+
+    @Test
+    public void codesMatchTheBackend() {
+        for (long[] vector : VECTORS) {
+            Assert.assertEquals("unlock @" + vector[0],
+                    vector[1], verifier.codeAt(OfflineCodeVerifier.Purpose.UNLOCK, vector[0]));
+            Assert.assertEquals("lock @" + vector[0],
+                    vector[2], verifier.codeAt(OfflineCodeVerifier.Purpose.LOCK, vector[0]));
+        }
+    }
+
+    @Test
+    public void backendCodeIsAcceptedInItsPeriod() {
+        long wallClock = 5678901 * PERIOD_SECONDS * 1000 + 123_456;
+
+        Assert.assertEquals(5678901, verifier.verify(OfflineCodeVerifier.Purpose.UNLOCK, 78384148, wallClock, 0));
+        Assert.assertEquals(5678901, verifier.verify(OfflineCodeVerifier.Purpose.LOCK, 26455867, wallClock, 0));
+    }
+
+    // ==================== Window ====================
+
+    @Test
+    public void neighbouringPeriodsAreAcceptedAndNoFurther() {
+        Assert.assertEquals(-1, verify(codeAt(COUNTER + 2), 0));
+        Assert.assertEquals(-1, verify(codeAt(COUNTER - 2), 0));
+        Assert.assertEquals(COUNTER - 1, verify(codeAt(COUNTER - 1), 0));
+        Assert.assertEquals(COUNTER + 1, verify(codeAt(COUNTER + 1), 0));
+    }
+
+    @Test
+    public void lockCodeDoesNotUnlock() {
+        int lockCode = verifier.codeAt(OfflineCodeVerifier.Purpose.LOCK, COUNTER);
+        Assert.assertNotEquals(codeAt(COUNTER), lockCode);
+        Assert.assertEquals(-1, verify(lockCode, 0));
+    }
+
+    @Test
+    public void digitsOutsideTheSupportedRangeAreRejected() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> new OfflineCodeVerifier(SECRET, PERIOD_SECONDS, 5));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new OfflineCodeVerifier(SECRET, PERIOD_SECONDS, 10));
+        Assert.assertThrows(IllegalArgumentException.class, () -> new OfflineCodeVerifier(SECRET, 0, DIGITS));
+    }
+
+    // ==================== Replay ====================
+
+    @Test
+    public void redeemedCodeCannotBeReplayed() {
+        int code = codeAt(COUNTER);
+        Assert.assertEquals(COUNTER, verify(code, 0));
+        Assert.assertEquals(-1, verify(code, 1));
+        Assert.assertEquals(COUNTER, verifier.getLastUsedCounter(OfflineCodeVerifier.Purpose.UNLOCK));
+    }
+
+    @Test
+    public void olderCodeIsBurntByANewerOne() {
+        Assert.assertEquals(COUNTER + 1, verify(codeAt(COUNTER + 1), 0));
+        // Still inside the window, but older than what was redeemed
+        Assert.assertEquals(-1, verify(codeAt(COUNTER), 1));
+    }
+
+    @Test
+    public void restoredCounterSurvivesARestart() {
+        OfflineCodeVerifier restarted = newVerifier();
+        restarted.setLastUsedCounter(OfflineCodeVerifier.Purpose.UNLOCK, COUNTER);
+        Assert.assertEquals(-1, restarted.verify(OfflineCodeVerifier.Purpose.UNLOCK, codeAt(COUNTER), NOW, 0));
+        // The other purpose has its own counter
+        int lockCode = restarted.codeAt(OfflineCodeVerifier.Purpose.LOCK, COUNTER);
+        Assert.assertEquals(COUNTER, restarted.verify(OfflineCodeVerifier.Purpose.LOCK, lockCode, NOW, 0));
+    }
+
+    // ==================== Lockout ====================
+
+    @Test
+    public void lockoutStartsAfterTheFreeAttemptsAndDoubles() {
+        int wrong = wrongCode();
+        long now = 1_000;
+        for (int i = 0; i < OfflineCodeVerifier.FREE_ATTEMPTS - 1; i++) {
+            verify(wrong, now);
+            Assert.assertEquals(0, verifier.lockoutRemainingMs(now));
+        }
+        verify(wrong, now);
+        Assert.assertEquals(OfflineCodeVerifier.LOCKOUT_BASE_MS, verifier.lockoutRemainingMs(now));
+
+        // Locked out: even the right code is refused, and that is not another failure
+        Assert.assertEquals(-1, verify(codeAt(COUNTER), now + 1));
+        now += OfflineCodeVerifier.LOCKOUT_BASE_MS;
+        Assert.assertEquals(0, verifier.lockoutRemainingMs(now));
+
+        verify(wrong, now);
+        Assert.assertEquals(2 * OfflineCodeVerifier.LOCKOUT_BASE_MS, verifier.lockoutRemainingMs(now));
+    }
+
+    @Test
+    public void lockoutIsCapped() {
+        int wrong = wrongCode();
+        long now = 0;
+        for (int i = 0; i < 40; i++) {
+            verify(wrong, now);
+            now += verifier.lockoutRemainingMs(now);
+        }
+        Assert.assertEquals(0, verifier.lockoutRemainingMs(now));
+        verify(wrong, now);
+        Assert.assertEquals(OfflineCodeVerifier.LOCKOUT_MAX_MS, verifier.lockoutRemainingMs(now));
+    }
+
+    @Test
+    public void rightCodeClearsTheFailures() {
+        int wrong = wrongCode();
+        for (int i = 0; i < OfflineCodeVerifier.FREE_ATTEMPTS - 1; i++) {
+            verify(wrong, 0);
+        }
+        Assert.assertEquals(COUNTER, verify(codeAt(COUNTER), 0));
+        verify(wrong, 0);
+        Assert.assertEquals(0, verifier.lockoutRemainingMs(0));
+    }
+
+    @Test
+    public void restoredLockoutSurvivesARestart() {
+        int wrong = wrongCode();
+        for (int i = 0; i < OfflineCodeVerifier.FREE_ATTEMPTS; i++) {
+            verify(wrong, 1_000);
+        }
+
+        OfflineCodeVerifier restarted = newVerifier();
+        restarted.restoreLockout(verifier.getFailures(), verifier.getLockedOutUntil(), 2_000);
+
+        Assert.assertEquals(OfflineCodeVerifier.LOCKOUT_BASE_MS - 1_000, restarted.lockoutRemainingMs(2_000));
+        // The count carries on: the next wrong code doubles the lockout instead of starting over
+        long later = 1_000 + OfflineCodeVerifier.LOCKOUT_BASE_MS;
+        restarted.verify(OfflineCodeVerifier.Purpose.UNLOCK, wrong, NOW, later);
+        Assert.assertEquals(2 * OfflineCodeVerifier.LOCKOUT_BASE_MS, restarted.lockoutRemainingMs(later));
+    }
+
+    @Test
+    public void restoredDeadlineIsCapped() {
+        // A deadline saved on another clock (e.g. before a reboot) is far in the future
+        verifier.restoreLockout(OfflineCodeVerifier.FREE_ATTEMPTS, Long.MAX_VALUE, 0);
+        Assert.assertEquals(OfflineCodeVerifier.LOCKOUT_MAX_MS, verifier.lockoutRemainingMs(0));
+    }
+
+    @Test
+    public void lockoutForMatchesVerify() {
+        int wrong = wrongCode();
+        long now = 0;
+        for (int failures = 1; failures <= 20; failures++) {
+            verify(wrong, now);
+            Assert.assertEquals(failures, verifier.getFailures());
+            Assert.assertEquals(OfflineCodeVerifier.lockoutFor(failures), verifier.lockoutRemainingMs(now));
+            now += verifier.lockoutRemainingMs(now);
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    private static OfflineCodeVerifier newVerifier() {
+        try {
+            return new OfflineCodeVerifier(SECRET, PERIOD_SECONDS, DIGITS);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private int codeAt(long counter) {
+        return verifier.codeAt(OfflineCodeVerifier.Purpose.UNLOCK, counter);
+    }
+
+    private long verify(int code, long elapsedNow) {
+        return verifier.verify(OfflineCodeVerifier.Purpose.UNLOCK, code, NOW, elapsedNow);
+    }
+
+    /** A code no counter in the window produces. */
+    private int wrongCode() {
+        int code = 0;
+        while (code == codeAt(COUNTER - 1) || code == codeAt(COUNTER) || code == codeAt(COUNTER + 1)) {
+            code++;
+        }
+        return code;
+    }
+}
@@ -0,0 +1,88 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * PolicyDiffTest - Only the Operations Needed to Converge
+ *
+ * - A converged device gets no operations (and so no binder calls)
+ * - Unknown applied state (after a restart) applies everything desired
+ * - Fields left null in the desired state are not managed
+ * - User restrictions are additive: extra applied ones are never cleared
+ */
+public class PolicyDiffTest {
+
+    private static final String[] KIOSK = { "com.securefinance.emilock.admin", "com.android.dialer" };
+
+    private static final PolicyState LOCKED = new PolicyState(KIOSK, true, true,
+            new HashSet<>(Arrays.asList("no_factory_reset", "no_debugging_features")), true);
+
+    @Test
+    public void convergedStateNeedsNothing() {
+        Assert.assertTrue(PolicyDiff.compute(LOCKED, LOCKED).isEmpty());
+    }
+
+    @Test
+    public void unknownAppliedStateAppliesEverything() {
+        List<PolicyDiff.Op> ops = PolicyDiff.compute(LOCKED, PolicyState.unknown());
+
+        Assert.assertEquals(Arrays.asList(
+                "SET_LOCK_TASK_PACKAGES[com.android.dialer, com.securefinance.emilock.admin]",
+                "SET_STATUS_BAR_DISABLED(true)",
+                "SET_KEYGUARD_DISABLED(true)",
+                "ADD_USER_RESTRICTION(no_debugging_features)",
+                "ADD_USER_RESTRICTION(no_factory_reset)",
+                "SET_UNINSTALL_BLOCKED(true)"), strings(ops));
+    }
+
+    @Test
+    public void onlyTheChangedFieldIsApplied() {
+        PolicyState applied = LOCKED.withStatusBarDisabled(false);
+
+        List<PolicyDiff.Op> ops = PolicyDiff.compute(LOCKED, applied);
+
+        Assert.assertEquals(1, ops.size());
+        Assert.assertEquals(PolicyDiff.Action.SET_STATUS_BAR_DISABLED, ops.get(0).action);
+        Assert.assertTrue(ops.get(0).enabled);
+    }
+
+    @Test
+    public void packageOrderDoesNotMatter() {
+        PolicyState applied = LOCKED.withLockTaskPackages(new String[] { KIOSK[1], KIOSK[0] });
+        Assert.assertTrue(PolicyDiff.compute(LOCKED, applied).isEmpty());
+    }
+
+    @Test
+    public void unmanagedFieldsAreLeftAlone() {
+        PolicyState desired = new PolicyState(null, null, false, null, null);
+        PolicyState applied = LOCKED.withKeyguardDisabled(true);
+
+        List<PolicyDiff.Op> ops = PolicyDiff.compute(desired, applied);
+
+        Assert.assertEquals(Collections.singletonList("SET_KEYGUARD_DISABLED(false)"), strings(ops));
+    }
+
+    @Test
+    public void userRestrictionsAreOnlyAdded() {
+        PolicyState applied = LOCKED.withUserRestrictions(
+                new HashSet<>(Arrays.asList("no_factory_reset", "no_usb_file_transfer")));
+
+        List<PolicyDiff.Op> ops = PolicyDiff.compute(LOCKED, applied);
+
+        // no_usb_file_transfer is not ours to clear
+        Assert.assertEquals(Collections.singletonList("ADD_USER_RESTRICTION(no_debugging_features)"), strings(ops));
+    }
+
+    private static List<String> strings(List<PolicyDiff.Op> ops) {
+        String[] out = new String[ops.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = ops.get(i).toString();
+        }
+        return Arrays.asList(out);
+    }
+}
@@ -0,0 +1,156 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * PollSchedulerTest - Mode Precedence and Cadence
+ *
+ * - Offline pauses, Doze aligns to slots, failures back off, push only
+ *   keeps a safety poll; otherwise a burst after a trigger, then steady
+ * - Backoff is "equal jitter": between half and all of the doubled ceiling
+ * - Battery saver stretches every mode but a burst
+ */
+public class PollSchedulerTest {
+
+    private final PollScheduler scheduler = new PollScheduler(new Random(42));
+
+    // ==================== Steady and burst ====================
+
+    @Test
+    public void steadyIntervalDependsOnLockState() {
+        Assert.assertEquals(PollScheduler.UNLOCKED_INTERVAL_MS, scheduler.nextDelay(0));
+        Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, scheduler.getCurrentMode());
+
+        scheduler.setLocked(true);
+        Assert.assertEquals(PollScheduler.LOCKED_INTERVAL_MS, scheduler.nextDelay(1));
+        Assert.assertEquals(PollScheduler.Mode.STEADY_LOCKED, scheduler.getCurrentMode());
+    }
+
+    @Test
+    public void triggerBurstsForItsWindow() {
+        scheduler.onTrigger(PollScheduler.Trigger.PAYMENT, 1_000);
+
+        Assert.assertEquals(PollScheduler.BURST_INTERVAL_MS, scheduler.nextDelay(1_000));
+        Assert.assertEquals(PollScheduler.Mode.BURST,
+                modeAt(1_000 + PollScheduler.BURST_WINDOW_MS - 1));
+        Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, modeAt(1_000 + PollScheduler.BURST_WINDOW_MS));
+    }
+
+    @Test
+    public void observedStateChangeStartsABurst() {
+        scheduler.onPollSuccess(false, 0);
+        Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, modeAt(0));
+
+        scheduler.onPollSuccess(true, 10);
+        Assert.assertEquals(PollScheduler.Mode.BURST, modeAt(10));
+    }
+
+    // ==================== Precedence ====================
+
+    @Test
+    public void offlinePausesPolling() {
+        scheduler.onPollFailure();
+        scheduler.setDeviceIdle(true);
+        scheduler.setNetworkAvailable(false);
+
+        Assert.assertEquals(-1, scheduler.nextDelay(0));
+        Assert.assertEquals(PollScheduler.Mode.OFFLINE, scheduler.getCurrentMode());
+    }
+
+    @Test
+    public void networkRestoredClearsTheBackoff() {
+        scheduler.onPollFailure();
+        scheduler.onPollFailure();
+        scheduler.setNetworkAvailable(false);
+        scheduler.setNetworkAvailable(true);
+
+        Assert.assertEquals(0, scheduler.getConsecutiveFailures());
+        Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, modeAt(0));
+    }
+
+    @Test
+    public void dozeWinsOverBackoffAndPush() {
+        scheduler.onPollFailure();
+        scheduler.setPushConnected(true);
+        scheduler.setDeviceIdle(true);
+
+        long now = 12_345;
+        long delay = scheduler.nextDelay(now);
+
+        Assert.assertEquals(PollScheduler.Mode.IDLE, scheduler.getCurrentMode());
+        Assert.assertTrue(delay >= PollScheduler.IDLE_INTERVAL_MS);
+        Assert.assertTrue(delay < PollScheduler.IDLE_INTERVAL_MS + PollScheduler.IDLE_ALIGN_MS);
+        Assert.assertEquals(0, (now + delay) % PollScheduler.IDLE_ALIGN_MS);
+    }
+
+    @Test
+    public void pushConnectedKeepsOnlyASafetyPoll() {
+        scheduler.setPushConnected(true);
+        scheduler.onTrigger(PollScheduler.Trigger.COMMAND, 0);
+
+        Assert.assertEquals(PollScheduler.PUSH_SAFETY_INTERVAL_MS, scheduler.nextDelay(0));
+        Assert.assertEquals(PollScheduler.Mode.PUSH_BACKED, scheduler.getCurrentMode());
+    }
+
+    // ==================== Backoff ====================
+
+    @Test
+    public void backoffStaysInsideTheJitteredCeiling() {
+        for (int failures = 1; failures <= 20; failures++) {
+            long ceiling = Math.min(PollScheduler.BACKOFF_MAX_MS,
+                    PollScheduler.BACKOFF_BASE_MS << Math.min(failures - 1, 16));
+            for (int i = 0; i < 50; i++) {
+                long delay = scheduler.backoffDelay(failures);
+                Assert.assertTrue("failures=" + failures + " delay=" + delay,
+                        delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void failureBacksOffUntilAPollSucceeds() {
+        scheduler.onPollFailure();
+        Assert.assertEquals(PollScheduler.Mode.BACKOFF, modeAt(0));
+
+        scheduler.onPollSuccess(false, 1);
+        Assert.assertEquals(PollScheduler.Mode.STEADY_UNLOCKED, modeAt(1));
+    }
+
+    // ==================== Power save ====================
+
+    @Test
+    public void powerSaveStretchesEverythingButABurst() {
+        scheduler.setPowerSave(true);
+        Assert.assertEquals(PollScheduler.UNLOCKED_INTERVAL_MS * PollScheduler.POWER_SAVE_MULTIPLIER,
+                scheduler.nextDelay(0));
+
+        scheduler.onTrigger(PollScheduler.Trigger.USER_PRESENT, 1);
+        Assert.assertEquals(PollScheduler.BURST_INTERVAL_MS, scheduler.nextDelay(1));
+    }
+
+    // ==================== Introspection ====================
+
+    @Test
+    public void decisionHistoryKeepsTheNewest() {
+        for (int i = 0; i < 40; i++) {
+            scheduler.nextDelay(i);
+        }
+
+        List<PollScheduler.Decision> decisions = scheduler.getRecentDecisions();
+
+        Assert.assertEquals(40, scheduler.getDecisionCount());
+        Assert.assertEquals(32, decisions.size());
+        Assert.assertEquals(8, decisions.get(0).atElapsed);
+        Assert.assertEquals(39, decisions.get(decisions.size() - 1).atElapsed);
+    }
+
+    // ==================== Helpers ====================
+
+    private PollScheduler.Mode modeAt(long now) {
+        scheduler.nextDelay(now);
+        return scheduler.getCurrentMode();
+    }
+}
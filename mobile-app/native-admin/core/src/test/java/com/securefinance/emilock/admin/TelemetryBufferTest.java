@@ -0,0 +1,136 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * TelemetryBufferTest - Coalescing, Eviction and Two-Phase Uploads
+ *
+ * - Unchanged state extends the newest sample instead of adding one
+ * - A full ring overwrites the oldest and counts the drop
+ * - Samples recorded while a batch is in flight are neither coalesced into
+ *   the batch nor lost when it commits; an aborted batch is kept for retry
+ */
+public class TelemetryBufferTest {
+
+    private final TelemetryBuffer buffer = new TelemetryBuffer(4);
+
+    // ==================== Coalescing ====================
+
+    @Test
+    public void unchangedStateCoalesces() {
+        Assert.assertTrue(buffer.record(sample(80, false), 1_000));
+        Assert.assertFalse(buffer.record(sample(79, false), 2_000));
+        Assert.assertFalse(buffer.record(sample(80 - TelemetryBuffer.BATTERY_COALESCE_PCT, false), 3_000));
+
+        Assert.assertEquals(1, buffer.size());
+        TelemetryBuffer.Sample only = buffer.get(0);
+        Assert.assertEquals(3, only.count);
+        Assert.assertEquals(1_000, only.firstAt);
+        Assert.assertEquals(3_000, only.lastAt);
+        Assert.assertEquals(78, only.batteryLevel); // Newest value
+    }
+
+    @Test
+    public void changedStateAddsASample() {
+        buffer.record(sample(80, false), 1_000);
+
+        Assert.assertTrue(buffer.record(sample(80, true), 2_000));
+        Assert.assertTrue(buffer.record(sample(80 - TelemetryBuffer.BATTERY_COALESCE_PCT - 1, true), 3_000));
+        TelemetryBuffer.Sample wifi = sample(77, true);
+        wifi.network = "wifi";
+        Assert.assertTrue(buffer.record(wifi, 4_000));
+
+        Assert.assertEquals(4, buffer.size());
+        Assert.assertEquals(1_000, buffer.oldestAt());
+    }
+
+    // ==================== Eviction ====================
+
+    @Test
+    public void fullRingDropsTheOldest() {
+        for (int i = 0; i < 6; i++) {
+            buffer.record(sample(50, i % 2 == 0), i * 1_000L);
+        }
+
+        Assert.assertEquals(4, buffer.size());
+        Assert.assertEquals(2, buffer.getDropped());
+        Assert.assertEquals(2_000, buffer.oldestAt());
+    }
+
+    // ==================== Batches ====================
+
+    @Test
+    public void batchIsNotCoalescedIntoWhileInFlight() {
+        buffer.record(sample(80, false), 1_000);
+        Assert.assertEquals(1, buffer.beginBatch(10));
+        Assert.assertTrue(buffer.isBatchInFlight());
+
+        // Same state, but the pinned sample is being uploaded as it is
+        Assert.assertTrue(buffer.record(sample(80, false), 2_000));
+        Assert.assertEquals(1, buffer.get(0).count);
+
+        buffer.commitBatch();
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertEquals(2_000, buffer.oldestAt());
+        Assert.assertFalse(buffer.isBatchInFlight());
+    }
+
+    @Test
+    public void abortedBatchIsKeptForRetry() {
+        buffer.record(sample(80, false), 1_000);
+        buffer.record(sample(80, true), 2_000);
+        Assert.assertEquals(2, buffer.beginBatch(10));
+        Assert.assertEquals(0, buffer.beginBatch(10)); // One batch at a time
+
+        buffer.abortBatch();
+
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertEquals(2, buffer.beginBatch(10));
+    }
+
+    @Test
+    public void batchTakesAtMostMaxOldestFirst() {
+        for (int i = 0; i < 3; i++) {
+            buffer.record(sample(50, i % 2 == 0), i * 1_000L);
+        }
+
+        Assert.assertEquals(2, buffer.beginBatch(2));
+        buffer.commitBatch();
+
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertEquals(2_000, buffer.oldestAt());
+    }
+
+    @Test
+    public void evictedPinnedSamplesAreNotCommittedTwice() {
+        for (int i = 0; i < 4; i++) {
+            buffer.record(sample(50, i % 2 == 0), i * 1_000L);
+        }
+        buffer.beginBatch(4);
+        // The ring fills up while the upload is out: pinned samples are evicted
+        buffer.record(sample(10, false), 4_000);
+        buffer.record(sample(10, true), 5_000);
+
+        buffer.commitBatch();
+
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertEquals(4_000, buffer.oldestAt());
+    }
+
+    @Test
+    public void emptyBufferHasNoBatch() {
+        Assert.assertEquals(0, buffer.beginBatch(10));
+        Assert.assertEquals(-1, buffer.oldestAt());
+    }
+
+    private static TelemetryBuffer.Sample sample(int battery, boolean charging) {
+        TelemetryBuffer.Sample sample = new TelemetryBuffer.Sample();
+        sample.batteryLevel = battery;
+        sample.charging = charging;
+        sample.network = "cellular";
+        sample.storageFreeMb = 4_000;
+        sample.locked = true;
+        return sample;
+    }
+}
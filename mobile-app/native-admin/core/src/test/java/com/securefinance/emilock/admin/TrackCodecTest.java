@@ -0,0 +1,156 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TrackCodecTest - Block Format Shared with the Backend
+ *
+ * - VECTOR is what backend/utils/trackCodec.js decodes to the points below;
+ *   a change on either side that breaks it breaks uploads
+ * - Times are stored in whole seconds, coordinates at 1e-5 degrees
+ * - Truncated blocks and unknown formats are rejected, not half-read
+ */
+public class TrackCodecTest {
+
+    // Four points: a small move, a jump across the globe, a step back in time and the origin
+    private static final String VECTOR = "010480c49fd50cd4ac9e019298b3070f78708701080a85e4bb04"
+            + "aece8207b00900c2b69d03b9e5b50e00";
+
+    private static byte[] vectorBlock() {
+        TrackCodec.BlockWriter writer = new TrackCodec.BlockWriter();
+        writer.add(1700000000000L, 12.97194, 77.59369, 15);
+        writer.add(1700000060000L, 12.97250, 77.59301, 8);
+        writer.add(1700000065999L, -33.86785, 151.20732, 1200);
+        writer.add(1700000065000L, 0.0, -0.00001, 0);
+        return writer.toByteArray();
+    }
+
+    // ==================== Cross-implementation ====================
+
+    @Test
+    public void encodesTheBackendVector() {
+        Assert.assertEquals(VECTOR, hex(vectorBlock()));
+    }
+
+    @Test
+    public void decodesTheBackendVector() {
+        List<TrackCodec.Point> points = TrackCodec.decode(unhex(VECTOR));
+
+        Assert.assertEquals(4, points.size());
+        assertPoint(points.get(0), 1700000000000L, 12.97194, 77.59369, 15);
+        assertPoint(points.get(1), 1700000060000L, 12.97250, 77.59301, 8);
+        assertPoint(points.get(2), 1700000065000L, -33.86785, 151.20732, 1200); // Floored to the second
+        assertPoint(points.get(3), 1700000065000L, 0.0, -0.00001, 0);
+    }
+
+    // ==================== Round trip ====================
+
+    @Test
+    public void concatenatedBlocksDecodeInOrder() {
+        TrackCodec.BlockWriter writer = new TrackCodec.BlockWriter();
+        byte[] first = vectorBlock();
+        writer.add(1700000120000L, 51.50073, -0.12463, 30);
+        writer.add(1700000180000L, 51.50101, -0.12390, 25);
+        byte[] second = writer.toByteArray();
+
+        List<TrackCodec.Point> points = TrackCodec.decode(concat(first, second));
+
+        Assert.assertEquals(6, points.size());
+        assertPoint(points.get(4), 1700000120000L, 51.50073, -0.12463, 30);
+        assertPoint(points.get(5), 1700000180000L, 51.50101, -0.12390, 25);
+    }
+
+    @Test
+    public void writerIsReusableAfterReset() {
+        TrackCodec.BlockWriter writer = new TrackCodec.BlockWriter();
+        writer.add(1_000, 10.0, 20.0, 5);
+        writer.reset();
+        writer.add(1700000000000L, 12.97194, 77.59369, 15);
+        writer.add(1700000060000L, 12.97250, 77.59301, 8);
+        writer.add(1700000065999L, -33.86785, 151.20732, 1200);
+        writer.add(1700000065000L, 0.0, -0.00001, 0);
+
+        Assert.assertEquals(VECTOR, hex(writer.toByteArray()));
+        Assert.assertEquals(writer.size(), writer.toByteArray().length);
+        Assert.assertEquals(1700000000000L, writer.firstAt());
+        Assert.assertEquals(1700000065000L, writer.lastAt());
+    }
+
+    @Test
+    public void accuracyIsClampedToTheFieldRange() {
+        TrackCodec.BlockWriter writer = new TrackCodec.BlockWriter();
+        writer.add(0, 0, 0, -5);
+        writer.add(1_000, 0, 0, 1_000_000);
+
+        List<TrackCodec.Point> points = TrackCodec.decode(writer.toByteArray());
+
+        Assert.assertEquals(0, points.get(0).accuracyM);
+        Assert.assertEquals(TrackCodec.MAX_ACCURACY_M, points.get(1).accuracyM);
+    }
+
+    @Test
+    public void decodeBlockStopsAtTheBlockEnd() {
+        byte[] block = vectorBlock();
+        ByteBuffer in = ByteBuffer.wrap(concat(block, new byte[] { 42 }));
+        List<TrackCodec.Point> points = new ArrayList<>();
+
+        TrackCodec.decodeBlock(in, points);
+
+        Assert.assertEquals(4, points.size());
+        Assert.assertEquals(block.length, in.position());
+    }
+
+    // ==================== Malformed input ====================
+
+    @Test
+    public void truncatedBlockIsRejected() {
+        byte[] block = vectorBlock();
+        for (int length = 1; length < block.length; length++) {
+            final byte[] cut = Arrays.copyOf(block, length);
+            Assert.assertThrows("Cut at " + length, IllegalArgumentException.class, () -> TrackCodec.decode(cut));
+        }
+    }
+
+    @Test
+    public void unknownFormatIsRejected() {
+        byte[] block = vectorBlock();
+        block[0] = (byte) (TrackCodec.FORMAT + 1);
+        Assert.assertThrows(IllegalArgumentException.class, () -> TrackCodec.decode(block));
+    }
+
+    // ==================== Helpers ====================
+
+    private static void assertPoint(TrackCodec.Point point, long timeMs, double lat, double lng, int accuracyM) {
+        Assert.assertEquals(timeMs, point.timeMs);
+        Assert.assertEquals(lat, point.lat, 1e-9);
+        Assert.assertEquals(lng, point.lng, 1e-9);
+        Assert.assertEquals(accuracyM, point.accuracyM);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return out.toString();
+    }
+
+    static byte[] unhex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,174 @@
+package com.securefinance.emilock.admin;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * TrackStoreTest - Framed Blocks on Disk
+ *
+ * - A torn or corrupt frame at the tail is cut off on open; earlier blocks survive
+ * - A batch removes only its own blocks, even if the front changed under it
+ * - Blocks seal on size or age, and the file stays under its cap
+ */
+public class TrackStoreTest {
+
+    private static final int MAX_BYTES = 16 * 1024;
+    private static final long T0 = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] saved; // Whole file, for restore()
+
+    // ==================== Corrupt files ====================
+
+    @Test
+    public void tornTailIsCutOnOpen() throws IOException {
+        TrackStore store = open();
+        addPoints(store, 0, 3);
+        store.seal();
+        long intact = store.getFileBytes();
+        addPoints(store, 3, 3);
+        store.seal();
+        long full = store.getFileBytes();
+
+        for (long cut = full - 1; cut > intact; cut--) {
+            cutTo(cut);
+            TrackStore reopened = open();
+
+            Assert.assertEquals("Cut at " + cut, 3, reopened.pendingPoints());
+            Assert.assertEquals(intact, reopened.getFileBytes());
+            Assert.assertEquals(intact, file().length());
+            restore();
+        }
+    }
+
+    @Test
+    public void corruptFrameIsCutWithEverythingAfterIt() throws IOException {
+        TrackStore store = open();
+        addPoints(store, 0, 2);
+        store.seal();
+        long secondAt = store.getFileBytes();
+        addPoints(store, 2, 2);
+        store.seal();
+        addPoints(store, 4, 2);
+        store.seal();
+
+        flipByte(secondAt + TrackStore.FRAME_OVERHEAD); // Inside the second block
+        TrackStore reopened = open();
+
+        Assert.assertEquals(2, reopened.pendingPoints());
+        Assert.assertEquals(secondAt, file().length());
+        List<TrackCodec.Point> points = TrackCodec.decode(reopened.takeBatch(MAX_BYTES).data);
+        Assert.assertEquals(T0, points.get(0).timeMs);
+    }
+
+    @Test
+    public void blocksSurviveAReopen() throws IOException {
+        TrackStore store = open();
+        addPoints(store, 0, 5);
+        store.seal();
+
+        TrackStore.Batch batch = open().takeBatch(MAX_BYTES);
+
+        Assert.assertEquals(5, batch.points);
+        Assert.assertEquals(T0, batch.from);
+        Assert.assertEquals(T0 + 4 * 60_000, batch.to);
+    }
+
+    // ==================== Upload ====================
+
+    @Test
+    public void removeDropsOnlyTheBatchBlocks() throws IOException {
+        TrackStore store = open();
+        addPoints(store, 0, 2);
+        TrackStore.Batch batch = store.takeBatch(MAX_BYTES);
+        addPoints(store, 2, 3); // Arrive while the batch is in flight
+        store.seal();
+
+        store.remove(batch);
+
+        Assert.assertEquals(3, store.pendingPoints());
+        Assert.assertEquals(T0 + 2 * 60_000, open().oldestAt());
+        store.remove(batch); // Acknowledged twice: nothing else goes
+        Assert.assertEquals(3, store.pendingPoints());
+    }
+
+    @Test
+    public void blockSealsAfterAnHour() throws IOException {
+        TrackStore store = open();
+        store.add(T0, 1, 1, 5);
+        store.add(T0 + TrackStore.SEAL_AFTER_MS - 1_000, 1, 1, 5);
+        Assert.assertEquals(0, store.getFileBytes());
+
+        store.add(T0 + TrackStore.SEAL_AFTER_MS, 1, 1, 5);
+        Assert.assertEquals(3, open().pendingPoints());
+    }
+
+    @Test
+    public void fileStaysUnderItsCap() throws IOException {
+        TrackStore store = open();
+        for (int i = 0; i < 10_000; i++) {
+            store.add(T0 + i * 1_000L, 12 + i * 0.001, 77 - i * 0.001, i % 50);
+            Assert.assertTrue(store.getFileBytes() <= MAX_BYTES);
+        }
+        store.seal();
+
+        Assert.assertTrue(store.getDroppedPoints() > 0);
+        Assert.assertEquals(store.getFileBytes(), file().length());
+        TrackStore reopened = open();
+        Assert.assertEquals(store.pendingPoints(), reopened.pendingPoints());
+    }
+
+    // ==================== Helpers ====================
+
+    private File file() {
+        return new File(folder.getRoot(), "track.bin");
+    }
+
+    private TrackStore open() {
+        TrackStore store = new TrackStore(file(), MAX_BYTES);
+        store.open();
+        return store;
+    }
+
+    /** {@code count} points a minute apart, starting at minute {@code from}. */
+    private static void addPoints(TrackStore store, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            store.add(T0 + i * 60_000L, 12.97 + i * 0.0001, 77.59 - i * 0.0001, 10 + i);
+        }
+    }
+
+    /** Keep the file's first {@code length} bytes; restore() puts the rest back. */
+    private void cutTo(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            if (saved == null) {
+                saved = new byte[(int) raf.length()];
+                raf.readFully(saved);
+            }
+            raf.setLength(length);
+        }
+    }
+
+    private void restore() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.setLength(0);
+            raf.write(saved);
+        }
+    }
+
+    private void flipByte(long at) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.seek(at);
+            int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0x40);
+        }
+    }
+}
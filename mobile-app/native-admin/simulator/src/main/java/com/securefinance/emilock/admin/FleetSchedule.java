@@ -0,0 +1,161 @@
+package com.securefinance.emilock.admin;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * FleetSchedule - Dealer Actions Replayed Against the Stand-In
+ *
+ * A reproducible (seeded) timeline of what dealers and the EMI scheduler do
+ * to the fleet during the run:
+ * - Initial state: a share of devices is already locked (overdue accounts)
+ * - Overdue locks: Poisson arrivals, bunched at the top of the hour like the
+ *   EMI scheduler's cron run
+ * - Payments: most locked customers pay; the unlock follows after a
+ *   log-normal delay (median 30 min, long tail)
+ * - Commands: occasional remote commands (sync, location) per device-hour
+ *
+ * Events are packed into parallel arrays sorted by time - a 500k-device
+ * hour is a few hundred thousand events, not objects.
+ */
+final class FleetSchedule {
+
+    static final int LOCK = 0;
+    static final int UNLOCK = 1;
+    static final int COMMAND = 2;
+
+    static final double INITIALLY_LOCKED = 0.05;
+    static final double PAYMENT_PROBABILITY = 0.7;
+    static final long PAYMENT_MEDIAN_MS = 30 * 60_000;
+    static final double PAYMENT_SIGMA = 1.0;
+    static final double CRON_SHARE = 0.6; // Share of locks issued in the scheduler's hourly run
+    static final long CRON_SPREAD_MS = 2 * 60_000; // How long one cron run takes to work through the fleet
+
+    final boolean[] initiallyLocked;
+    private long[] times;
+    private int[] devices;
+    private byte[] types;
+    private int size;
+
+    /**
+     * @param locksPerThousandHour overdue locks per 1000 devices per simulated hour
+     * @param commandsPerThousandHour remote commands per 1000 devices per simulated hour
+     */
+    FleetSchedule(int deviceCount, long durationMs, double locksPerThousandHour,
+                  double commandsPerThousandHour, long seed) {
+        Random random = new Random(seed);
+        double hours = durationMs / 3_600_000.0;
+        int expected = (int) ((locksPerThousandHour * 2 + commandsPerThousandHour) * deviceCount / 1000 * hours) + 16;
+        times = new long[expected];
+        devices = new int[expected];
+        types = new byte[expected];
+
+        initiallyLocked = new boolean[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            initiallyLocked[i] = random.nextDouble() < INITIALLY_LOCKED;
+            if (initiallyLocked[i] && random.nextDouble() < PAYMENT_PROBABILITY) {
+                long unlockAt = paymentDelay(random);
+                if (unlockAt < durationMs) {
+                    add(unlockAt, i, UNLOCK);
+                }
+            }
+        }
+
+        long locks = poisson(random, locksPerThousandHour * deviceCount / 1000 * hours);
+        for (long n = 0; n < locks; n++) {
+            int device = random.nextInt(deviceCount);
+            long at;
+            if (random.nextDouble() < CRON_SHARE) {
+                long hour = (long) (random.nextDouble() * Math.ceil(hours)) * 3_600_000L;
+                at = hour + (long) (random.nextDouble() * CRON_SPREAD_MS);
+            } else {
+                at = (long) (random.nextDouble() * durationMs);
+            }
+            if (at >= durationMs) {
+                continue;
+            }
+            add(at, device, LOCK);
+            if (random.nextDouble() < PAYMENT_PROBABILITY) {
+                long unlockAt = at + paymentDelay(random);
+                if (unlockAt < durationMs) {
+                    add(unlockAt, device, UNLOCK);
+                }
+            }
+        }
+
+        long commands = poisson(random, commandsPerThousandHour * deviceCount / 1000 * hours);
+        for (long n = 0; n < commands; n++) {
+            add((long) (random.nextDouble() * durationMs), random.nextInt(deviceCount), COMMAND);
+        }
+        sort();
+    }
+
+    int size() {
+        return size;
+    }
+
+    long timeAt(int i) {
+        return times[i];
+    }
+
+    int deviceAt(int i) {
+        return devices[i];
+    }
+
+    int typeAt(int i) {
+        return types[i];
+    }
+
+    private void add(long at, int device, int type) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            devices = Arrays.copyOf(devices, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        times[size] = at;
+        devices[size] = device;
+        types[size] = (byte) type;
+        size++;
+    }
+
+    private void sort() {
+        // Sort an index by time, then permute the parallel arrays
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final long[] t = times;
+        Arrays.sort(order, (a, b) -> Long.compare(t[a], t[b]));
+        long[] sortedTimes = new long[size];
+        int[] sortedDevices = new int[size];
+        byte[] sortedTypes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedDevices[i] = devices[order[i]];
+            sortedTypes[i] = types[order[i]];
+        }
+        times = sortedTimes;
+        devices = sortedDevices;
+        types = sortedTypes;
+    }
+
+    private static long paymentDelay(Random random) {
+        return Math.round(PAYMENT_MEDIAN_MS * Math.exp(PAYMENT_SIGMA * random.nextGaussian()));
+    }
+
+    /** Poisson sample; normal approximation for the large means a big fleet produces. */
+    private static long poisson(Random random, double mean) {
+        if (mean > 64) {
+            return Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        long n = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,265 @@
+package com.securefinance.emilock.admin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FleetSimulator - What the Fleet Does to the Backend
+ *
+ * Runs N virtual devices (one virtual thread each) against StandInBackend
+ * for each polling strategy, replaying the same FleetSchedule and network
+ * mix, and reports per strategy:
+ * - Server: request rate (average, p99 and peak per second), bytes in/out,
+ *   requests per endpoint, 304 share - and the rate projected to 50k/500k devices
+ * - Agent: poll round trip, failed polls, command issue-to-ack latency
+ * - Lock propagation: dealer lock/unlock -> device state machine transition
+ *
+ * Strategies:
+ * - LEGACY: fixed 5 s poll of the full status, no conditional requests
+ * - ADAPTIVE: PollScheduler cadence, compact lock view with ETag / 304
+ * - PUSH: SSE push stream, PollScheduler safety poll
+ *
+ * Usage: FleetSimulator [--devices N] [--minutes M] [--speedup X]
+ *        [--strategies legacy,adaptive,push] [--network mixed|wifi|flaky]
+ *        [--locks-per-1k-hour R] [--commands-per-1k-hour R] [--seed S]
+ */
+public final class FleetSimulator {
+
+    enum Strategy { LEGACY, ADAPTIVE, PUSH }
+
+    private static final int[] PROJECTED_FLEETS = { 50_000, 500_000 };
+    private static final long MAX_ACCEPTABLE_LAG_MS = 1_000;
+
+    /** Agent-side measurements of one run, shared by all of its devices. */
+    static final class RunMetrics {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MetricsRegistry.Histogram pollRtt = registry.histogram("poll.rtt_ms");
+        final MetricsRegistry.Histogram propagation = registry.histogram("lock.propagation_ms");
+        final MetricsRegistry.Histogram commandLatency = registry.histogram("command.latency_ms");
+        final MetricsRegistry.Histogram lag = registry.histogram("sim.lag_ms");
+        final MetricsRegistry.Counter pollOk = registry.counter("poll.ok");
+        final MetricsRegistry.Counter pollNotModified = registry.counter("poll.not_modified");
+        final MetricsRegistry.Counter pollFailures = registry.counter("poll.failures");
+        final MetricsRegistry.Counter transitions = registry.counter("lock.transitions");
+        final MetricsRegistry.Counter pushEvents = registry.counter("push.events");
+        final MetricsRegistry.Counter outages = registry.counter("network.outages");
+    }
+
+    private static final class Options {
+        int devices = 10_000;
+        long minutes = 60;
+        double speedup = 30;
+        List<Strategy> strategies = Arrays.asList(Strategy.values());
+        String network = "mixed";
+        double locksPerThousandHour = 4;
+        double commandsPerThousandHour = 10;
+        long seed = 42;
+    }
+
+    private static final class Result {
+        final Strategy strategy;
+        final double requestsPerSecond;
+        final long p99RequestsPerSecond;
+        final double bytesPerDeviceHour;
+        final long propagationP50;
+        final long propagationP99;
+
+        Result(Strategy strategy, double requestsPerSecond, long p99RequestsPerSecond,
+               double bytesPerDeviceHour, long propagationP50, long propagationP99) {
+            this.strategy = strategy;
+            this.requestsPerSecond = requestsPerSecond;
+            this.p99RequestsPerSecond = p99RequestsPerSecond;
+            this.bytesPerDeviceHour = bytesPerDeviceHour;
+            this.propagationP50 = propagationP50;
+            this.propagationP99 = propagationP99;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = parse(args);
+        long durationMs = options.minutes * 60_000;
+        FleetSchedule schedule = new FleetSchedule(options.devices, durationMs,
+                options.locksPerThousandHour, options.commandsPerThousandHour, options.seed);
+        System.out.printf(Locale.US, "Fleet: %d devices, %d min simulated at %.0fx, network %s, %d dealer events%n",
+                options.devices, options.minutes, options.speedup, options.network, schedule.size());
+
+        List<Result> results = new ArrayList<>();
+        for (Strategy strategy : options.strategies) {
+            results.add(run(strategy, options, schedule, durationMs));
+        }
+
+        System.out.println();
+        System.out.println("strategy   req/s   p99 req/s  bytes/device-h  propagation p50/p99 ms");
+        for (Result result : results) {
+            System.out.printf(Locale.US, "%-9s %7.1f %10d %14.0f  %8d / %d%n", result.strategy,
+                    result.requestsPerSecond, result.p99RequestsPerSecond, result.bytesPerDeviceHour,
+                    result.propagationP50, result.propagationP99);
+        }
+    }
+
+    private static Result run(Strategy strategy, Options options, FleetSchedule schedule, long durationMs)
+            throws InterruptedException {
+        SimClock clock = new SimClock(options.speedup, durationMs);
+        StandInBackend backend = new StandInBackend(options.devices, durationMs);
+        RunMetrics metrics = new RunMetrics();
+        Random random = new Random(options.seed);
+
+        List<VirtualDevice> devices = new ArrayList<>(options.devices);
+        for (int i = 0; i < options.devices; i++) {
+            boolean locked = schedule.initiallyLocked[i];
+            backend.preset(i, locked);
+            // Same seed per device index across strategies: identical networks and outages
+            devices.add(new VirtualDevice(i, strategy, NetworkProfile.pick(options.network, random), locked,
+                    backend, clock, metrics, options.seed * 31 + i));
+        }
+
+        System.out.printf(Locale.US, "%n=== %s ===%n", strategy);
+        long realStart = System.nanoTime();
+        clock.start();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (VirtualDevice device : devices) {
+            executor.execute(device);
+        }
+
+        // Dealer side on this (platform) thread
+        for (int e = 0; e < schedule.size(); e++) {
+            clock.sleepUntil(schedule.timeAt(e));
+            if (!clock.isRunning()) {
+                break;
+            }
+            int device = schedule.deviceAt(e);
+            switch (schedule.typeAt(e)) {
+                case FleetSchedule.LOCK:
+                    backend.setLocked(device, true, clock.now());
+                    break;
+                case FleetSchedule.UNLOCK:
+                    backend.setLocked(device, false, clock.now());
+                    break;
+                default:
+                    backend.issueCommand(device, "sync_policy", clock.now());
+                    break;
+            }
+        }
+        clock.sleepUntil(durationMs);
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.out.println("WARNING: devices still running after the deadline");
+            executor.shutdownNow();
+        }
+        backend.finish(durationMs);
+
+        Result result = report(strategy, options, backend, metrics, durationMs);
+        System.out.printf(Locale.US, "(%.1f s wall time)%n", (System.nanoTime() - realStart) / 1e9);
+        return result;
+    }
+
+    private static Result report(Strategy strategy, Options options, StandInBackend backend,
+                                 RunMetrics metrics, long durationMs) {
+        double seconds = durationMs / 1000.0;
+        double deviceHours = options.devices * durationMs / 3_600_000.0;
+        long total = backend.getTotalRequests();
+        double average = total / seconds;
+        long[] perSecond = backend.getRequestsPerSecond();
+        // Skip the boot minute: devices start staggered across it
+        long[] steady = Arrays.copyOfRange(perSecond, Math.min(60, perSecond.length - 1), perSecond.length - 1);
+        Arrays.sort(steady);
+        long p99 = steady.length > 0 ? steady[(int) Math.min(steady.length - 1, Math.ceil(steady.length * 0.99) - 1)] : 0;
+        long peak = steady.length > 0 ? steady[steady.length - 1] : 0;
+
+        System.out.printf(Locale.US, "server   %d requests, %.1f req/s avg, %d p99, %d peak (per simulated second)%n",
+                total, average, p99, peak);
+        for (int fleet : PROJECTED_FLEETS) {
+            System.out.printf(Locale.US, "         projected at %,d devices: %.0f req/s avg, %.0f p99%n",
+                    fleet, average * fleet / options.devices, (double) p99 * fleet / options.devices);
+        }
+        System.out.printf(Locale.US, "         in %s, out %s, %.0f bytes/device-hour%n",
+                megabytes(backend.getBytesIn()), megabytes(backend.getBytesOut()),
+                (backend.getBytesIn() + backend.getBytesOut()) / deviceHours);
+        for (StandInBackend.Endpoint endpoint : StandInBackend.Endpoint.values()) {
+            long count = backend.getRequests(endpoint);
+            if (count > 0) {
+                System.out.printf(Locale.US, "         %-22s %10d%s%n", endpoint.label, count,
+                        endpoint == StandInBackend.Endpoint.LOCK_VIEW
+                                ? String.format(Locale.US, "  (%.1f%% 304)", 100.0 * backend.getNotModified() / count)
+                                : "");
+            }
+        }
+        if (backend.getPushEvents() > 0) {
+            System.out.printf(Locale.US, "         push events %d%n", backend.getPushEvents());
+        }
+
+        System.out.printf(Locale.US, "agent    polls ok=%d not-modified=%d failed=%d, outages=%d%n",
+                metrics.pollOk.get(), metrics.pollNotModified.get(), metrics.pollFailures.get(), metrics.outages.get());
+        printHistogram("poll rtt", metrics.pollRtt);
+        printHistogram("command latency", metrics.commandLatency);
+        printHistogram("lock propagation", metrics.propagation);
+
+        long lagP99 = metrics.lag.percentile(99);
+        if (lagP99 > MAX_ACCEPTABLE_LAG_MS) {
+            System.out.printf(Locale.US, "WARNING: host lagged %d ms (p99 simulated) behind the schedule - "
+                    + "lower --speedup or --devices; latencies above are inflated%n", lagP99);
+        }
+        return new Result(strategy, average, p99,
+                (backend.getBytesIn() + backend.getBytesOut()) / deviceHours,
+                metrics.propagation.percentile(50), metrics.propagation.percentile(99));
+    }
+
+    private static void printHistogram(String label, MetricsRegistry.Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        System.out.printf(Locale.US, "         %-17s n=%d p50=%d p90=%d p99=%d max=%d ms%n", label,
+                histogram.getCount(), histogram.percentile(50), histogram.percentile(90),
+                histogram.percentile(99), histogram.percentile(100));
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(Locale.US, "%.1f MB", bytes / 1e6);
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--devices":
+                    options.devices = Integer.parseInt(value);
+                    break;
+                case "--minutes":
+                    options.minutes = Long.parseLong(value);
+                    break;
+                case "--speedup":
+                    options.speedup = Double.parseDouble(value);
+                    break;
+                case "--strategies":
+                    List<Strategy> strategies = new ArrayList<>();
+                    for (String name : value.split(",")) {
+                        strategies.add(Strategy.valueOf(name.trim().toUpperCase(Locale.US)));
+                    }
+                    options.strategies = strategies;
+                    break;
+                case "--network":
+                    options.network = value;
+                    break;
+                case "--locks-per-1k-hour":
+                    options.locksPerThousandHour = Double.parseDouble(value);
+                    break;
+                case "--commands-per-1k-hour":
+                    options.commandsPerThousandHour = Double.parseDouble(value);
+                    break;
+                case "--seed":
+                    options.seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,74 @@
+package com.securefinance.emilock.admin;
+
+import java.util.Random;
+
+/**
+ * NetworkProfile - Per-Device Link Model
+ *
+ * What a virtual device's requests experience on the way to the backend:
+ * - Round trip: log-normal around a median (long tail, like real radios)
+ * - Request failures: independent per request (timeouts, resets, 5xx)
+ * - Outages: exponentially spaced periods with no connectivity at all
+ *   (tunnels, dead zones, phone off) - polling pauses and the push stream drops
+ *
+ * A fleet is a mix; the named mixes spread devices over these profiles.
+ */
+enum NetworkProfile {
+
+    //        median RTT, sigma, failure rate, mean time between outages, mean outage
+    WIFI(60, 0.4, 0.002, 12 * 3_600_000L, 2 * 60_000L),
+    LTE(120, 0.6, 0.01, 4 * 3_600_000L, 5 * 60_000L),
+    EDGE(600, 0.8, 0.05, 3_600_000L, 10 * 60_000L);
+
+    /** A failed request costs this long before the agent gives up (OkHttp call timeout scale). */
+    static final long FAILURE_TIMEOUT_MS = 10_000;
+
+    final long medianRttMs;
+    final double sigma;
+    final double failureRate;
+    final long meanUpMs;
+    final long meanOutageMs;
+
+    NetworkProfile(long medianRttMs, double sigma, double failureRate, long meanUpMs, long meanOutageMs) {
+        this.medianRttMs = medianRttMs;
+        this.sigma = sigma;
+        this.failureRate = failureRate;
+        this.meanUpMs = meanUpMs;
+        this.meanOutageMs = meanOutageMs;
+    }
+
+    long sampleRttMs(Random random) {
+        return Math.max(1, Math.round(medianRttMs * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    boolean sampleFailure(Random random) {
+        return random.nextDouble() < failureRate;
+    }
+
+    long sampleUptimeMs(Random random) {
+        return exponential(random, meanUpMs);
+    }
+
+    long sampleOutageMs(Random random) {
+        return exponential(random, meanOutageMs);
+    }
+
+    private static long exponential(Random random, long mean) {
+        return Math.max(1, Math.round(-mean * Math.log(1 - random.nextDouble())));
+    }
+
+    /** Fleet mixes selectable with --network. */
+    static NetworkProfile pick(String mix, Random random) {
+        double r = random.nextDouble();
+        switch (mix) {
+            case "wifi":
+                return WIFI;
+            case "flaky":
+                return r < 0.2 ? LTE : EDGE;
+            case "mixed":
+            default:
+                // Rough split for budget Android devices in tier 2/3 cities
+                return r < 0.3 ? WIFI : r < 0.85 ? LTE : EDGE;
+        }
+    }
+}
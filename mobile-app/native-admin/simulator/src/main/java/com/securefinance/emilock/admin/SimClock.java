@@ -0,0 +1,62 @@
+package com.securefinance.emilock.admin;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimClock - Compressed Simulation Time
+ *
+ * Simulated milliseconds run `speedup` times faster than wall time, so an
+ * hour of fleet behaviour plays out in a few minutes:
+ * - now() is the simulated equivalent of elapsedRealtime() (0 at start)
+ * - sleepUntil() parks the calling virtual thread for the scaled real time
+ * - Lateness (a thread waking after its target) is the host falling behind;
+ *   it is reported so an overloaded run is never mistaken for a slow backend
+ */
+final class SimClock {
+
+    private final double speedup;
+    private final long durationMs;
+    private long startNanos;
+
+    SimClock(double speedup, long durationMs) {
+        this.speedup = speedup;
+        this.durationMs = durationMs;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    long now() {
+        return (long) ((System.nanoTime() - startNanos) / 1_000_000.0 * speedup);
+    }
+
+    long getDurationMs() {
+        return durationMs;
+    }
+
+    boolean isRunning() {
+        return now() < durationMs;
+    }
+
+    /** Sleeps until the simulated time; returns how late (simulated ms) the thread woke up. */
+    long sleepUntil(long simMs) throws InterruptedException {
+        long target = Math.min(simMs, durationMs);
+        long remaining = target - now();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(toRealNanos(remaining));
+        }
+        return Math.max(0, now() - target);
+    }
+
+    /** Waits for a queued item until the simulated deadline (null on timeout). */
+    <T> T pollUntil(BlockingQueue<T> queue, long simMs) throws InterruptedException {
+        long remaining = Math.min(simMs, durationMs) - now();
+        return remaining > 0 ? queue.poll(toRealNanos(remaining), TimeUnit.NANOSECONDS) : queue.poll();
+    }
+
+    private long toRealNanos(long simMs) {
+        return (long) (simMs * 1_000_000.0 / speedup);
+    }
+}
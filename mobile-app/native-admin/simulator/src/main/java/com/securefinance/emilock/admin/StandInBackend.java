@@ -0,0 +1,339 @@
+package com.securefinance.emilock.admin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StandInBackend - In-Process Stand-In for the Device Endpoints
+ *
+ * Answers what backend/routes/customerRoutes.js answers for the Admin DPC,
+ * with the same payload shapes so byte counts are realistic, and counts
+ * every request:
+ * - GET /api/customers/:id?view=lock - compact view, strong ETag, bodiless 304
+ * - GET /api/customers/:id - legacy full-status poll (no conditional requests)
+ * - GET /:id/command and POST /:id/command-ack - the command journal round trip
+ * - POST /:id/telemetry - batched heartbeat replacement
+ * - GET /:id/stream - SSE push (pushHub): state events plus ": ping" heartbeats
+ *
+ * The dealer side (lock, unlock, command) is driven by FleetSchedule. No
+ * server CPU cost is modelled: request rate and bytes are the outputs.
+ */
+final class StandInBackend {
+
+    enum Endpoint {
+        LOCK_VIEW("GET  /:id?view=lock"),
+        LEGACY_STATUS("GET  /:id (legacy)"),
+        COMMAND("GET  /:id/command"),
+        COMMAND_ACK("POST /:id/command-ack"),
+        TELEMETRY("POST /:id/telemetry"),
+        STREAM("GET  /:id/stream");
+
+        final String label;
+
+        Endpoint(String label) {
+            this.label = label;
+        }
+    }
+
+    /** Push stream of one device; the subscriber adds its own link latency to sentAt. */
+    interface PushSubscriber {
+        void deliver(long sentAt, String frame);
+    }
+
+    static final class Response {
+        static final Response NOT_MODIFIED = new Response(304, null, null);
+
+        final int status;
+        final byte[] body;
+        final String etag;
+
+        Response(int status, byte[] body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    // Approximate HTTP/1.1 header sizes on a kept-alive connection (TLS framing not included)
+    static final int REQUEST_HEADER_BYTES = 220;
+    static final int RESPONSE_HEADER_BYTES = 180;
+    static final String PING_FRAME = ": ping\n\n";
+    static final long STREAM_HEARTBEAT_MS = 25_000; // pushHub HEARTBEAT_INTERVAL_MS
+
+    private static final String LOCK_MESSAGE = "This device has been locked due to payment overdue.";
+    private static final String SUPPORT_PHONE = "8876655444";
+
+    private static final class CustomerState {
+        boolean locked;
+        long version; // Bumped on every change: ETag and SSE event id
+        long changedAt = -1; // Simulated ms of the last dealer lock/unlock
+        String command;
+        long commandTimestamp; // Wall-clock issue time, as stored by the backend
+        long commandIssuedAt; // Simulated ms
+        PushSubscriber subscriber;
+        long streamSince;
+    }
+
+    private final CustomerState[] customers;
+    private final long wallClockBase = System.currentTimeMillis();
+
+    private final LongAdder[] requests = new LongAdder[Endpoint.values().length];
+    private final LongAdder[] bytesIn = new LongAdder[Endpoint.values().length];
+    private final LongAdder[] bytesOut = new LongAdder[Endpoint.values().length];
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder pushEvents = new LongAdder();
+    private final LongAdder pushBytes = new LongAdder();
+    private final LongAdder streamMs = new LongAdder();
+    private final AtomicLongArray requestsPerSecond;
+
+    StandInBackend(int devices, long durationMs) {
+        customers = new CustomerState[devices];
+        for (int i = 0; i < devices; i++) {
+            customers[i] = new CustomerState();
+        }
+        for (int e = 0; e < requests.length; e++) {
+            requests[e] = new LongAdder();
+            bytesIn[e] = new LongAdder();
+            bytesOut[e] = new LongAdder();
+        }
+        requestsPerSecond = new AtomicLongArray((int) (durationMs / 1000) + 1);
+    }
+
+    // ==================== Dealer side ====================
+
+    /** Initial state before the run starts - not counted as a propagation. */
+    void preset(int device, boolean locked) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            state.locked = locked;
+        }
+    }
+
+    void setLocked(int device, boolean locked, long now) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            if (state.locked == locked) {
+                return;
+            }
+            state.locked = locked;
+            state.changedAt = now;
+            state.version++;
+            publish(device, state, now);
+        }
+    }
+
+    void issueCommand(int device, String command, long now) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            state.command = command;
+            state.commandTimestamp = wallClockBase + now;
+            state.commandIssuedAt = now;
+            state.version++;
+            publish(device, state, now);
+        }
+    }
+
+    /** When the pending lock change was made (simulated ms), or -1. */
+    long changedAt(int device) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            return state.changedAt;
+        }
+    }
+
+    boolean isLocked(int device) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            return state.locked;
+        }
+    }
+
+    // ==================== Device endpoints ====================
+
+    Response getLockView(int device, String ifNoneMatch, long now) {
+        CustomerState state = customers[device];
+        String etag;
+        String body;
+        synchronized (state) {
+            etag = "\"v" + state.version + "\"";
+            body = ifNoneMatch != null && ifNoneMatch.equals(etag) ? null : compactView(state);
+        }
+        if (body == null) {
+            notModified.increment();
+            count(Endpoint.LOCK_VIEW, now, 0, 0);
+            return Response.NOT_MODIFIED;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        count(Endpoint.LOCK_VIEW, now, 0, bytes.length);
+        return new Response(200, bytes, etag);
+    }
+
+    Response getLegacyStatus(int device, long now) {
+        CustomerState state = customers[device];
+        String body;
+        synchronized (state) {
+            body = fullView(device, state);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        count(Endpoint.LEGACY_STATUS, now, 0, bytes.length);
+        return new Response(200, bytes, null);
+    }
+
+    /** GET /:id/command - returns the pending command's issue time (simulated ms), or -1. */
+    long fetchCommand(int device, long now) {
+        CustomerState state = customers[device];
+        String body;
+        long issuedAt;
+        synchronized (state) {
+            issuedAt = state.command != null ? state.commandIssuedAt : -1;
+            body = state.command != null
+                    ? "{\"command\":{\"command\":\"" + state.command + "\",\"params\":{},\"timestamp\":"
+                    + state.commandTimestamp + "}}"
+                    : "{\"command\":null}";
+        }
+        count(Endpoint.COMMAND, now, 0, body.length());
+        return issuedAt;
+    }
+
+    void ackCommand(int device, long issuedAt, boolean success, long now) {
+        CustomerState state = customers[device];
+        String ack = "{\"acks\":[{\"command\":\"sync\",\"timestamp\":" + (wallClockBase + issuedAt)
+                + ",\"status\":\"" + (success ? "done" : "failed") + "\",\"result\":\"ok\",\"finishedAt\":"
+                + (wallClockBase + now) + "}]}";
+        synchronized (state) {
+            // Like findOneAndUpdate on a matching timestamp: a newer command stays pending
+            if (state.command != null && state.commandIssuedAt == issuedAt) {
+                state.command = null;
+                state.version++;
+            }
+        }
+        count(Endpoint.COMMAND_ACK, now, ack.length(), 12);
+    }
+
+    void postTelemetry(int device, int gzippedBytes, long now) {
+        count(Endpoint.TELEMETRY, now, gzippedBytes, 29);
+    }
+
+    // ==================== Push ====================
+
+    void subscribe(int device, long lastEventVersion, PushSubscriber subscriber, long now) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            state.subscriber = subscriber;
+            state.streamSince = now;
+            count(Endpoint.STREAM, now, 0, 0);
+            // Resume: anything newer than the last seen event arrives as a snapshot
+            if (state.version != lastEventVersion) {
+                sendState(device, state, now);
+            }
+        }
+    }
+
+    void unsubscribe(int device, long now) {
+        CustomerState state = customers[device];
+        synchronized (state) {
+            if (state.subscriber != null) {
+                streamMs.add(now - state.streamSince);
+                state.subscriber = null;
+            }
+        }
+    }
+
+    private void publish(int device, CustomerState state, long now) {
+        if (state.subscriber != null) {
+            sendState(device, state, now);
+        }
+    }
+
+    private void sendState(int device, CustomerState state, long at) {
+        String frame = "id: " + state.version + "\nevent: state\ndata: " + fullView(device, state) + "\n\n";
+        pushEvents.increment();
+        pushBytes.add(frame.length());
+        state.subscriber.deliver(at, frame);
+    }
+
+    // ==================== Payloads ====================
+
+    private static String compactView(CustomerState state) {
+        StringBuilder out = new StringBuilder(128);
+        out.append("{\"l\":").append(state.locked ? 1 : 0)
+                .append(",\"m\":\"").append(LOCK_MESSAGE).append("\",\"p\":\"").append(SUPPORT_PHONE).append('"');
+        if (state.command != null) {
+            out.append(",\"c\":{\"n\":\"").append(state.command).append("\",\"t\":")
+                    .append(state.commandTimestamp).append('}');
+        }
+        return out.append('}').toString();
+    }
+
+    private static String fullView(int device, CustomerState state) {
+        return "{\"id\":\"CUST" + device + "\",\"isLocked\":" + state.locked
+                + ",\"lockMessage\":\"" + LOCK_MESSAGE + "\",\"supportPhone\":\"" + SUPPORT_PHONE + "\""
+                + ",\"command\":" + (state.command != null
+                ? "{\"command\":\"" + state.command + "\",\"timestamp\":" + state.commandTimestamp + "}"
+                : "null") + "}";
+    }
+
+    // ==================== Accounting ====================
+
+    private void count(Endpoint endpoint, long now, int requestBody, int responseBody) {
+        requests[endpoint.ordinal()].increment();
+        bytesIn[endpoint.ordinal()].add(REQUEST_HEADER_BYTES + requestBody);
+        bytesOut[endpoint.ordinal()].add(RESPONSE_HEADER_BYTES + responseBody);
+        int second = (int) Math.min(now / 1000, requestsPerSecond.length() - 1);
+        requestsPerSecond.incrementAndGet(Math.max(0, second));
+    }
+
+    /** Closes open streams so their heartbeat bytes are accounted. */
+    void finish(long now) {
+        for (int i = 0; i < customers.length; i++) {
+            unsubscribe(i, now);
+        }
+    }
+
+    long getRequests(Endpoint endpoint) {
+        return requests[endpoint.ordinal()].sum();
+    }
+
+    long getTotalRequests() {
+        long total = 0;
+        for (LongAdder adder : requests) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    long getBytesIn() {
+        long total = 0;
+        for (LongAdder adder : bytesIn) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /** Response bytes plus push events and stream heartbeats. */
+    long getBytesOut() {
+        long total = pushBytes.sum() + streamMs.sum() / STREAM_HEARTBEAT_MS * PING_FRAME.length();
+        for (LongAdder adder : bytesOut) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    long getNotModified() {
+        return notModified.sum();
+    }
+
+    long getPushEvents() {
+        return pushEvents.sum();
+    }
+
+    /** Per-second request counts over the simulated run. */
+    long[] getRequestsPerSecond() {
+        long[] copy = new long[requestsPerSecond.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = requestsPerSecond.get(i);
+        }
+        return copy;
+    }
+}
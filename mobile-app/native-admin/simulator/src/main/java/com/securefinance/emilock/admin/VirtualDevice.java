@@ -0,0 +1,341 @@
+package com.securefinance.emilock.admin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * VirtualDevice - One Simulated Admin DPC
+ *
+ * Runs on its own virtual thread and follows LockEnforcementService's loop
+ * with the same :core classes the app ships:
+ * - PollScheduler picks the next poll (or a fixed 5 s for the legacy strategy)
+ * - LockStatusDecoder parses the lock view and push events
+ * - LockStateMachine decides transitions (stale polls are dropped)
+ * - SseParser frames the push stream
+ * Each request pays a NetworkProfile round trip; outages take the network
+ * away, drop the push stream and pause polling until it returns.
+ */
+final class VirtualDevice implements Runnable, StandInBackend.PushSubscriber {
+
+    static final long LEGACY_INTERVAL_MS = 5_000;
+    static final long TELEMETRY_INTERVAL_MS = 60 * 60_000; // TelemetryUploader BATCH_SIZE x 5 min
+    static final int TELEMETRY_BATCH_BYTES = 480; // 12 gzipped samples, measured on a device
+    static final long COMMAND_EXECUTION_MS = 50;
+    static final long PUSH_RETRY_MS = 5_000; // pushHub RETRY_HINT_MS
+
+    private static final class PushFrame {
+        final long deliverAt;
+        final String text;
+
+        PushFrame(long deliverAt, String text) {
+            this.deliverAt = deliverAt;
+            this.text = text;
+        }
+    }
+
+    private final int index;
+    private final FleetSimulator.Strategy strategy;
+    private final NetworkProfile profile;
+    private final StandInBackend backend;
+    private final SimClock clock;
+    private final FleetSimulator.RunMetrics metrics;
+    private final Random random;
+
+    private final PollScheduler scheduler;
+    private final LockStateMachine stateMachine;
+    private final LockStatusDecoder decoder = new LockStatusDecoder();
+    private final LockStatus status = new LockStatus();
+    private final LinkedBlockingQueue<PushFrame> inbox;
+    private final SseParser sseParser;
+
+    private String etag;
+    private long lastCommandTimestamp;
+    private boolean networkUp = true;
+    private long nextNetworkChange;
+    private boolean pushConnected;
+    private long pushRetryAt;
+    private long lastEventVersion = -1;
+    private long nextTelemetryAt;
+    private long pendingCommand; // Command seen in the push frame being parsed
+
+    VirtualDevice(int index, FleetSimulator.Strategy strategy, NetworkProfile profile, boolean initiallyLocked,
+                  StandInBackend backend, SimClock clock, FleetSimulator.RunMetrics metrics, long seed) {
+        this.index = index;
+        this.strategy = strategy;
+        this.profile = profile;
+        this.backend = backend;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.random = new Random(seed);
+        this.scheduler = new PollScheduler(random);
+        this.stateMachine = new LockStateMachine(initiallyLocked);
+        scheduler.setLocked(initiallyLocked);
+        if (strategy == FleetSimulator.Strategy.PUSH) {
+            inbox = new LinkedBlockingQueue<>();
+            sseParser = new SseParser(new SseParser.Listener() {
+                @Override
+                public void onEvent(String id, String type, String data) {
+                    onPushEvent(id, type, data);
+                }
+
+                @Override
+                public void onComment(String comment) {
+                }
+
+                @Override
+                public void onRetry(long retryMs) {
+                }
+            });
+        } else {
+            inbox = null;
+            sseParser = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Devices boot spread over the first steady interval, not in one thundering herd
+            long bootAt = (long) (random.nextDouble() * PollScheduler.UNLOCKED_INTERVAL_MS);
+            nextNetworkChange = bootAt + profile.sampleUptimeMs(random);
+            nextTelemetryAt = bootAt + (long) (random.nextDouble() * TELEMETRY_INTERVAL_MS);
+            clock.sleepUntil(bootAt);
+            poll();
+
+            while (clock.isRunning()) {
+                long now = clock.now();
+                if (strategy == FleetSimulator.Strategy.PUSH && networkUp && !pushConnected && now >= pushRetryAt) {
+                    connectPush();
+                    continue;
+                }
+
+                long delay = strategy == FleetSimulator.Strategy.LEGACY ? LEGACY_INTERVAL_MS : scheduler.nextDelay(now);
+                long wakeAt = delay < 0 ? nextNetworkChange : now + delay;
+                wakeAt = Math.min(wakeAt, Math.min(nextNetworkChange, nextTelemetryAt));
+                if (pushConnected) {
+                    PushFrame frame = clock.pollUntil(inbox, wakeAt);
+                    if (frame != null) {
+                        clock.sleepUntil(frame.deliverAt);
+                        feedFrame(frame.text);
+                        continue;
+                    }
+                } else {
+                    metrics.lag.record(clock.sleepUntil(wakeAt));
+                }
+
+                now = clock.now();
+                if (!clock.isRunning()) {
+                    break;
+                }
+                if (now >= nextNetworkChange) {
+                    toggleNetwork(now);
+                } else if (now >= nextTelemetryAt) {
+                    sendTelemetry(now);
+                } else if (now >= wakeAt) {
+                    poll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== Polling ====================
+
+    private void poll() throws InterruptedException {
+        long sentAt = clock.now();
+        long requestVersion = stateMachine.getVersion();
+        if (!request(sentAt)) {
+            metrics.pollFailures.inc();
+            scheduler.onPollFailure();
+            return;
+        }
+        long rtt = profile.sampleRttMs(random);
+        clock.sleepUntil(sentAt + rtt / 2);
+        StandInBackend.Response response = strategy == FleetSimulator.Strategy.LEGACY
+                ? backend.getLegacyStatus(index, clock.now())
+                : backend.getLockView(index, etag, clock.now());
+        clock.sleepUntil(sentAt + rtt);
+        long now = clock.now();
+        metrics.pollRtt.record(now - sentAt);
+
+        if (response.status == 304) {
+            metrics.pollNotModified.inc();
+            scheduler.onPollSuccess(stateMachine.isLocked(), now);
+            return;
+        }
+        metrics.pollOk.inc();
+        try {
+            decoder.decode(response.body, status);
+        } catch (IOException e) {
+            metrics.pollFailures.inc();
+            scheduler.onPollFailure();
+            return;
+        }
+        etag = response.etag;
+        onLockState(LockStateMachine.Source.POLL, requestVersion, now);
+        scheduler.onPollSuccess(status.isLocked, now);
+        if (status.hasCommand()) {
+            runCommand(status.commandTimestamp);
+        }
+    }
+
+    /** False when the request never gets an answer (offline or a failed call); waits out the timeout. */
+    private boolean request(long sentAt) throws InterruptedException {
+        if (!networkUp) {
+            return false; // Fails fast: no route
+        }
+        if (profile.sampleFailure(random)) {
+            clock.sleepUntil(sentAt + NetworkProfile.FAILURE_TIMEOUT_MS);
+            return false;
+        }
+        return true;
+    }
+
+    private void onLockState(LockStateMachine.Source source, long observedAtVersion, long now) {
+        if (!status.hasLockState) {
+            return;
+        }
+        LockStateMachine.Transition transition = stateMachine.onObserved(source, status.isLocked, observedAtVersion);
+        if (transition == null) {
+            return;
+        }
+        scheduler.setLocked(transition.locked);
+        metrics.transitions.inc();
+        long changedAt = backend.changedAt(index);
+        if (changedAt >= 0) {
+            metrics.propagation.record(now - changedAt);
+        }
+    }
+
+    // ==================== Commands ====================
+
+    private void runCommand(long commandTimestamp) throws InterruptedException {
+        if (commandTimestamp == lastCommandTimestamp) {
+            return; // Already journaled
+        }
+        lastCommandTimestamp = commandTimestamp;
+        scheduler.onTrigger(PollScheduler.Trigger.COMMAND, clock.now());
+
+        long sentAt = clock.now();
+        if (!request(sentAt)) {
+            lastCommandTimestamp = 0; // Picked up again by the next poll
+            return;
+        }
+        long rtt = profile.sampleRttMs(random);
+        clock.sleepUntil(sentAt + rtt / 2);
+        long issuedAt = backend.fetchCommand(index, clock.now());
+        clock.sleepUntil(sentAt + rtt + COMMAND_EXECUTION_MS);
+        if (issuedAt < 0) {
+            return;
+        }
+
+        // Acks are retried by the journal until they land
+        while (clock.isRunning()) {
+            long ackAt = clock.now();
+            if (request(ackAt)) {
+                long ackRtt = profile.sampleRttMs(random);
+                clock.sleepUntil(ackAt + ackRtt / 2);
+                backend.ackCommand(index, issuedAt, true, clock.now());
+                metrics.commandLatency.record(clock.now() - issuedAt);
+                return;
+            }
+            clock.sleepUntil(clock.now() + PollScheduler.BACKOFF_BASE_MS);
+        }
+    }
+
+    // ==================== Telemetry ====================
+
+    private void sendTelemetry(long now) throws InterruptedException {
+        nextTelemetryAt = now + TELEMETRY_INTERVAL_MS;
+        if (request(now)) {
+            clock.sleepUntil(now + profile.sampleRttMs(random) / 2);
+            backend.postTelemetry(index, TELEMETRY_BATCH_BYTES, clock.now());
+        }
+    }
+
+    // ==================== Network ====================
+
+    private void toggleNetwork(long now) throws InterruptedException {
+        networkUp = !networkUp;
+        scheduler.setNetworkAvailable(networkUp);
+        if (networkUp) {
+            nextNetworkChange = now + profile.sampleUptimeMs(random);
+            pushRetryAt = now;
+            poll(); // Connectivity callback polls immediately
+        } else {
+            metrics.outages.inc();
+            nextNetworkChange = now + profile.sampleOutageMs(random);
+            if (pushConnected) {
+                dropPush(now);
+            }
+        }
+    }
+
+    // ==================== Push ====================
+
+    private void connectPush() throws InterruptedException {
+        long sentAt = clock.now();
+        if (!request(sentAt)) {
+            pushRetryAt = clock.now() + PUSH_RETRY_MS;
+            return;
+        }
+        clock.sleepUntil(sentAt + profile.sampleRttMs(random) / 2);
+        pushConnected = true;
+        scheduler.setPushConnected(true);
+        backend.subscribe(index, lastEventVersion, this, clock.now());
+    }
+
+    private void dropPush(long now) {
+        backend.unsubscribe(index, now);
+        inbox.clear(); // In flight on a dead connection
+        pushConnected = false;
+        scheduler.setPushConnected(false);
+        pushRetryAt = now + PUSH_RETRY_MS;
+    }
+
+    /** Called by the backend on the dealer's thread: queue with this device's downlink latency. */
+    @Override
+    public void deliver(long sentAt, String frame) {
+        inbox.add(new PushFrame(sentAt + profile.sampleRttMs(random) / 2, frame));
+    }
+
+    private void feedFrame(String frame) throws InterruptedException {
+        pendingCommand = 0;
+        int start = 0;
+        int newline;
+        while ((newline = frame.indexOf('\n', start)) >= 0) {
+            sseParser.feedLine(frame.substring(start, newline));
+            start = newline + 1;
+        }
+        if (pendingCommand != 0) {
+            runCommand(pendingCommand);
+        }
+    }
+
+    private void onPushEvent(String id, String type, String data) {
+        if (id != null) {
+            lastEventVersion = Long.parseLong(id);
+        }
+        if (!"state".equals(type)) {
+            return;
+        }
+        metrics.pushEvents.inc();
+        try {
+            decoder.decode(data.getBytes(StandardCharsets.UTF_8), status);
+        } catch (IOException e) {
+            return;
+        }
+        long now = clock.now();
+        long version = stateMachine.getVersion();
+        onLockState(LockStateMachine.Source.PUSH, LockStateMachine.AUTHORITATIVE, now);
+        if (stateMachine.getVersion() != version) {
+            scheduler.onTrigger(PollScheduler.Trigger.COMMAND, now); // Confirming burst, as the service does
+        }
+        if (status.hasCommand()) {
+            pendingCommand = status.commandTimestamp;
+        }
+    }
+}
@@ -1,7 +1,8 @@
-import React, { createContext, useContext, useState, useEffect } from 'react';
+import React, { createContext, useContext, useState, useEffect, useRef } from 'react';
 import { Customer } from '../types/customer';
 import { toast } from 'sonner';
-import { getApiUrl, apiFetch } from '../config/api';
+import { getApiUrl, apiFetch, API_BASE_URL, logout } from '../config/api';
+import { FleetData, isFleetDataAvailable, isUnauthorized } from '../lib/fleetData';
 
 interface DeviceContextType {
     customers: Customer[];
@@ -37,12 +38,62 @@ export const DeviceProvider: React.FC<{ children: React.ReactNode }> = ({ childr
         };
     };
 
-    // Save customers to localStorage whenever they change
+    // Native app: version of the FleetData customer list this state reflects,
+    // and the token the plugin was configured with
+    const fleetVersion = useRef(0);
+    const fleetToken = useRef<string | null>(null);
+
+    // Save customers to localStorage whenever they change (the native app has its own cache)
     useEffect(() => {
+        if (isFleetDataAvailable()) return;
         localStorage.setItem('customers', JSON.stringify(customers));
     }, [customers]);
 
+    // Native app: sync in the plugin, then take only the diff across the bridge
+    const refreshCustomersNative = async () => {
+        const token = localStorage.getItem('adminToken') || '';
+        if (fleetToken.current !== token) {
+            const admin = JSON.parse(localStorage.getItem('adminUser') || 'null');
+            await FleetData.configure({
+                baseUrl: API_BASE_URL || window.location.origin,
+                token,
+                owner: admin?._id || ''
+            });
+            fleetToken.current = token;
+        }
+        await FleetData.sync({ collection: 'customers' });
+        const diff = await FleetData.changes<Customer>({
+            collection: 'customers',
+            sinceVersion: fleetVersion.current
+        });
+        fleetVersion.current = diff.version;
+        if (!diff.reset && diff.changed.length === 0 && diff.removed.length === 0) return;
+
+        const newestFirst = (a: Customer, b: Customer) =>
+            String(b.createdAt || '').localeCompare(String(a.createdAt || ''));
+        if (diff.reset) {
+            setCustomers([...diff.changed].sort(newestFirst));
+            return;
+        }
+        setCustomers(prev => {
+            const byId = new Map(prev.map(c => [c.id, c]));
+            diff.removed.forEach(id => byId.delete(id));
+            diff.changed.forEach(c => byId.set(c.id, c));
+            return Array.from(byId.values()).sort(newestFirst);
+        });
+    };
+
     const refreshCustomers = async () => {
+        if (isFleetDataAvailable()) {
+            try {
+                await refreshCustomersNative();
+            } catch (error) {
+                // Same as apiFetch on a 401: clear the session and go to login
+                if (isUnauthorized(error)) logout();
+                else console.error('Failed to sync customers:', error);
+            }
+            return;
+        }
         try {
             // Add timestamp to prevent caching
             const response = await apiFetch(getApiUrl(`/api/customers?_t=${Date.now()}`), {
@@ -0,0 +1,64 @@
+import { Capacitor, registerPlugin, type PluginListenerHandle } from '@capacitor/core';
+
+// Native fleet lists for the Android admin app (android/.../FleetDataPlugin.java).
+// The plugin keeps customers and devices in an indexed local cache, syncs only what
+// changed (backend utils/syncPage.js) and answers with pages or diffs, so large fleets
+// are never downloaded or parsed in the WebView. Not available on the web build.
+
+export type FleetCollection = 'customers' | 'devices';
+
+export interface FleetQuery {
+  collection: FleetCollection;
+  search?: string;
+  /** Equality filters on indexed fields (customers: isLocked, isEnrolled, dealerId, brand;
+   *  devices: state, platform, assignedCustomerId, dealerId, isConnected) */
+  filters?: Record<string, string | number | boolean | null>;
+  /** customers: createdAt, updatedAt, name, emiDate, paidEmis, totalAmount;
+   *  devices: updatedAt, createdAt, lastSeenAt, state, brand, batteryLevel */
+  sort?: string;
+  descending?: boolean;
+  offset?: number;
+  /** At most 200 */
+  limit?: number;
+}
+
+export interface FleetSyncResult {
+  changed: number;
+  removed: number;
+  total: number;
+  version: number;
+}
+
+export interface FleetPage<T> {
+  items: T[];
+  total: number;
+  version: number;
+}
+
+export interface FleetChanges<T> {
+  changed: T[];
+  removed: string[];
+  /** true: changed is the whole list - replace, don't merge */
+  reset: boolean;
+  version: number;
+}
+
+export interface FleetDataPlugin {
+  configure(options: { baseUrl: string; token?: string; owner?: string }): Promise<void>;
+  sync(options: { collection: FleetCollection }): Promise<FleetSyncResult>;
+  query<T = unknown>(options: FleetQuery): Promise<FleetPage<T>>;
+  changes<T = unknown>(options: { collection: FleetCollection; sinceVersion: number }): Promise<FleetChanges<T>>;
+  stats(): Promise<{ stats: Record<string, number> | null; notModified: boolean }>;
+  addListener(
+    eventName: 'fleetChanged',
+    listener: (event: { collection: FleetCollection; version: number }) => void
+  ): Promise<PluginListenerHandle>;
+}
+
+export const FleetData = registerPlugin<FleetDataPlugin>('FleetData');
+
+export const isFleetDataAvailable = () => Capacitor.isPluginAvailable('FleetData');
+
+/** Rejections carry the plugin's code: UNAUTHORIZED, HTTP, SYNC_FAILED, BAD_QUERY */
+export const isUnauthorized = (error: unknown) =>
+  typeof error === 'object' && error !== null && (error as { code?: string }).code === 'UNAUTHORIZED';
@@ -107,7 +107,10 @@ export default function AddCustomer() {
             const wifiParams = formData.wifiSsid
                 ? `?wifiSsid=${encodeURIComponent(formData.wifiSsid)}&wifiPassword=${encodeURIComponent(formData.wifiPassword)}`
                 : '';
-            const qrResponse = await fetch(getApiUrl(`/api/provisioning/payload/${customerId}${wifiParams}`));
+            const token = localStorage.getItem('adminToken');
+            const qrResponse = await fetch(getApiUrl(`/api/provisioning/payload/${customerId}${wifiParams}`), {
+                headers: { ...(token && { 'Authorization': `Bearer ${token}` }) }
+            });
             if (qrResponse.ok) {
                 const data = await qrResponse.json();
                 setQrData(JSON.stringify(data));
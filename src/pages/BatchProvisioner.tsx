@@ -40,6 +40,53 @@ export default function BatchProvisioner() {
 
     const [showSettings, setShowSettings] = useState(false);
 
+    // Device-side setup progress (ProvisioningPipeline reports), polled while any device is still setting up
+    const [progress, setProgress] = useState<Record<string, { stage: string | null; status: string | null }>>({});
+    const pendingIds = batchHistory
+        .filter(item => item.status === 'success' && item.customerId)
+        .filter(item => {
+            const p = progress[item.customerId];
+            return !p || !(p.stage === 'PROVISIONING_COMPLETE' || p.status === 'failed');
+        })
+        .map(item => item.customerId)
+        .slice(0, 100)
+        .join(',');
+
+    useEffect(() => {
+        if (!pendingIds) return;
+        let cancelled = false;
+        const refresh = async () => {
+            try {
+                const response = await fetch(getApiUrl(`/api/provisioning/status?ids=${encodeURIComponent(pendingIds)}`));
+                if (!response.ok) return;
+                const data = await response.json();
+                if (cancelled) return;
+                setProgress(prev => {
+                    const next = { ...prev };
+                    for (const device of data.devices || []) {
+                        next[device.id] = { stage: device.stage, status: device.status };
+                    }
+                    return next;
+                });
+            } catch {
+                // Next tick retries
+            }
+        };
+        refresh();
+        const timer = setInterval(refresh, 5000);
+        return () => {
+            cancelled = true;
+            clearInterval(timer);
+        };
+    }, [pendingIds]);
+
+    const progressLabel = (customerId?: string) => {
+        const p = customerId ? progress[customerId] : undefined;
+        if (!p || !p.stage) return 'Waiting for device';
+        if (p.status === 'failed') return `Failed: ${p.stage.replace(/_/g, ' ')}`;
+        return p.stage === 'PROVISIONING_COMPLETE' ? 'Provisioned' : p.stage.replace(/_/g, ' ');
+    };
+
     // Keep focus on input for scanner
     useEffect(() => {
         if (!showQR && !showSettings) {
@@ -91,11 +138,14 @@ export default function BatchProvisioner() {
             await addCustomer(payload);
 
             // Get QR Data
-            const qrResponse = await fetch(getApiUrl(`/api/provisioning/payload/${customerId}`));
+            const token = localStorage.getItem('adminToken');
+            const qrResponse = await fetch(getApiUrl(`/api/provisioning/payload/${customerId}`), {
+                headers: { ...(token && { 'Authorization': `Bearer ${token}` }) }
+            });
             const qrData = await qrResponse.json();
 
             playSuccess();
-            setBatchHistory([{ imei, status: 'success', time: new Date() }, ...batchHistory]);
+            setBatchHistory([{ imei, customerId, status: 'success', time: new Date() }, ...batchHistory]);
             setShowQR(JSON.stringify(qrData));
             toast.success(`Success: ${imei}`);
             setImei('');
@@ -277,7 +327,7 @@ export default function BatchProvisioner() {
                                         <div>
                                             <p className="text-xs font-black text-slate-800 tracking-tight font-mono">{item.imei.slice(-8)}</p>
                                             <p className="text-[8px] text-slate-400 font-bold uppercase">
-                                                {item.status === 'success' ? 'Provisioned' : 'Failed'}
+                                                {item.status === 'success' ? progressLabel(item.customerId) : 'Failed'}
                                             </p>
                                         </div>
                                     </div>
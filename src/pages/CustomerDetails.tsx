@@ -175,7 +175,10 @@ export default function CustomerDetails() {
     const fetchQRData = async () => {
         if (!customer?.id) return;
         try {
-            const response = await fetch(getApiUrl(`/api/provisioning/payload/${customer.id}`));
+            const token = localStorage.getItem('adminToken');
+            const response = await fetch(getApiUrl(`/api/provisioning/payload/${customer.id}`), {
+                headers: { ...(token && { 'Authorization': `Bearer ${token}` }) }
+            });
             if (response.ok) {
                 const payload = await response.json();
                 setQrData(JSON.stringify(payload));
@@ -39,7 +39,10 @@ export const getDeviceOwnerProvisioningQR = async (
     // CRITICAL: Fetch the provisioning payload from the backend
     // This ensures the checksum is always calculated from the actual APK file on the server
     try {
-        const response = await fetch(`${API_BASE_URL}/api/provisioning/payload/${customer.id}`);
+        const token = localStorage.getItem('adminToken');
+        const response = await fetch(`${API_BASE_URL}/api/provisioning/payload/${customer.id}`, {
+            headers: { ...(token && { 'Authorization': `Bearer ${token}` }) }
+        });
         if (!response.ok) {
             throw new Error('Failed to fetch provisioning payload');
         }